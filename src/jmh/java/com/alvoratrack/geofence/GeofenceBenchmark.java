@@ -0,0 +1,141 @@
+package com.alvoratrack.geofence;
+
+import com.alvoratrack.client.AlvoraCoreClient;
+import com.alvoratrack.geo.Polygon;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.websocket.ConnectionManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Positions per second {@link GeofenceEngine#evaluate} sustains with 1k-10k
+ * fences, half polygons and half circles of 50 m to 1.5 km, spread over a
+ * 35 x 35 km city. {@value #VEHICLES} vehicles drive random walks through
+ * it, so vehicles keep entering, dwelling in and leaving fences; events go
+ * to a {@link Blackhole}. Each operation builds the position it evaluates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeofenceBenchmark {
+
+    private static final int VEHICLES = 10_000;
+    private static final int STEPS = 256;
+
+    @Param({"1000", "10000"})
+    int fences;
+
+    private GeofenceEngine engine;
+    private String[] vehicleIds;
+    // Per vehicle, STEPS positions of a closed walk
+    private double[] latitudes;
+    private double[] longitudes;
+    private int vehicle;
+    private int step;
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setup(Blackhole blackhole) {
+        engine = new GeofenceEngine();
+        engine.registry = new SimpleMeterRegistry();
+        engine.alvoraCoreClient = new AlvoraCoreClient() {
+            @Override
+            public boolean forwardEvent(VehiclePosition position, String event, String geofenceId) {
+                blackhole.consume(event);
+                return true;
+            }
+        };
+        engine.connections = new ConnectionManager() {
+            @Override
+            public void broadcastToAdminFleet(String message) {
+                blackhole.consume(message);
+            }
+        };
+        // Evaluation is measured, not the Redis round trip behind each event
+        engine.claims = new GeofenceClaims() {
+            @Override
+            public Uni<Boolean> enter(String vehicleId, String fenceId, long timestamp) {
+                return Uni.createFrom().item(true);
+            }
+
+            @Override
+            public Uni<Boolean> dwell(String vehicleId, String fenceId) {
+                return Uni.createFrom().item(true);
+            }
+
+            @Override
+            public Uni<Boolean> exit(String vehicleId, String fenceId) {
+                return Uni.createFrom().item(true);
+            }
+        };
+        engine.cellDegrees = 0.01;
+        engine.maxCellsPerFence = 4096;
+        engine.maxFences = 100_000;
+        engine.dwellAfter = Duration.ofMinutes(5);
+        engine.init();
+
+        Random random = new Random(42);
+        List<Geofence> loaded = new ArrayList<>(fences);
+        for (int i = 0; i < fences; i++) {
+            double lat = 29.9 + random.nextDouble() * 0.32;
+            double lon = 31.1 + random.nextDouble() * 0.36;
+            if (i % 2 == 0) {
+                loaded.add(Geofence.circle("c-" + i, null, lat, lon, 50 + random.nextDouble() * 1_450, 0));
+            } else {
+                double size = 0.001 + random.nextDouble() * 0.012;
+                loaded.add(Geofence.polygon("p-" + i, null, new Polygon(
+                        new double[]{lat, lat + size * 0.3, lat + size, lat + size * 0.8, lat + size * 0.2},
+                        new double[]{lon, lon - size * 0.4, lon + size * 0.1, lon + size, lon + size * 0.9}), 0));
+            }
+        }
+        engine.putAll(loaded);
+
+        vehicleIds = new String[VEHICLES];
+        latitudes = new double[VEHICLES * STEPS];
+        longitudes = new double[VEHICLES * STEPS];
+        for (int v = 0; v < VEHICLES; v++) {
+            vehicleIds[v] = "bench-" + v;
+            double lat = 29.9 + random.nextDouble() * 0.32;
+            double lon = 31.1 + random.nextDouble() * 0.36;
+            // Out for half the walk and back along the same path, about 15 m per step
+            for (int s = 0; s < STEPS / 2; s++) {
+                lat += (random.nextDouble() - 0.5) * 0.0003;
+                lon += (random.nextDouble() - 0.5) * 0.0003;
+                latitudes[v * STEPS + s] = lat;
+                longitudes[v * STEPS + s] = lon;
+                latitudes[v * STEPS + STEPS - 1 - s] = lat;
+                longitudes[v * STEPS + STEPS - 1 - s] = lon;
+            }
+        }
+        timestamp = 1_760_000_000L;
+    }
+
+    @Benchmark
+    public void evaluate() {
+        int at = vehicle * STEPS + step;
+        engine.evaluate(VehiclePosition.newBuilder()
+                .setVehicleId(vehicleIds[vehicle])
+                .setLatitude(latitudes[at])
+                .setLongitude(longitudes[at])
+                .setSpeedKph(40)
+                .setTimestamp(timestamp)
+                .build());
+        if (++vehicle == VEHICLES) {
+            vehicle = 0;
+            step = (step + 1) % STEPS;
+            // Every vehicle reports once per simulated second
+            timestamp++;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.alvoratrack.grpc;
+
+import com.alvoratrack.ingest.IngestPipeline;
+import com.alvoratrack.ingest.StubbedPipeline;
+import com.alvoratrack.session.SessionRegistry;
+import com.alvoratrack.util.HotPathLog;
+import com.alvoratrack.util.IngestFilter;
+import com.alvoratrack.util.PositionValidator;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jboss.logging.Logger;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Cost of one unary {@code ReportPosition} up to the hand-off to the ingest
+ * pipeline, for a valid and an invalid position. {@code legacy} replays the
+ * previous path: String validation that logs every failure at ERROR, a
+ * per-position INFO line with {@code %f} formatting and a freshly built
+ * ack. {@code current} calls the service itself. The filter and the
+ * session registry are stubbed identically for both; with
+ * {@code ingest=direct} the pipeline is a no-op, with {@code ingest=pipeline}
+ * positions go through the real stage queues to stubbed downstreams, and
+ * each call first waits for the pipeline to be under its high watermark, as
+ * a flow-controlled stream would. Submits a full stage still rejected are
+ * reported as the {@code dropped} secondary metric, next to the positions
+ * the downstreams {@code delivered}.
+ * <p>
+ * Logging runs at INFO into a handler that drops records, so only the
+ * cost of building and formatting them is measured. The service's hot-path
+ * log has no warning budget here, as for a device past the per-second cap.
+ * Run with {@code -prof gc} for bytes/op.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.jboss.logging.provider=jdk")
+public class ReportPositionBenchmark {
+
+    private static final Logger LEGACY_LOG = Logger.getLogger("com.alvoratrack.legacy");
+
+    @Param({"valid", "invalid"})
+    String input;
+
+    @Param({"direct", "pipeline"})
+    String ingest;
+
+    private VehiclePosition position;
+    private VehicleTrackingGrpcService service;
+    private StreamObserver<PositionAck> responses;
+    private StubbedPipeline pipeline;
+    // Written by whichever thread logs; keeps the records from being optimised away
+    private volatile LogRecord lastRecord;
+
+    /**
+     * Pipeline outcomes per iteration, for {@code ingest=pipeline}.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+
+        public long delivered;
+        public long dropped;
+
+        private long deliveredBefore;
+        private long droppedBefore;
+
+        @Setup(Level.Iteration)
+        public void start(ReportPositionBenchmark benchmark) {
+            delivered = 0;
+            dropped = 0;
+            if (benchmark.pipeline != null) {
+                deliveredBefore = benchmark.pipeline.delivered();
+                droppedBefore = benchmark.pipeline.dropped();
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void finish(ReportPositionBenchmark benchmark) {
+            if (benchmark.pipeline != null) {
+                delivered = benchmark.pipeline.delivered() - deliveredBefore;
+                dropped = benchmark.pipeline.dropped() - droppedBefore;
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup(Blackhole blackhole) {
+        java.util.logging.Logger root = java.util.logging.Logger.getLogger("");
+        root.setLevel(java.util.logging.Level.INFO);
+        for (Handler handler : root.getHandlers()) {
+            root.removeHandler(handler);
+        }
+        root.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                lastRecord = record;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        position = VehiclePosition.newBuilder()
+                .setVehicleId("bench-42")
+                .setLatitude("valid".equals(input) ? 30.0444 : 95.0)
+                .setLongitude(31.2357)
+                .setSpeedKph(48.5)
+                .setBearing(90)
+                .setTimestamp(System.currentTimeMillis() / 1000)
+                .build();
+
+        service = new VehicleTrackingGrpcService();
+        service.validator = new PositionValidator();
+        service.hotPathLog = new HotPathLog();
+        service.metrics = new IngestMetrics(new SimpleMeterRegistry());
+        service.sessions = new SessionRegistry();
+        service.filter = new IngestFilter() {
+            @Override
+            public Verdict check(VehiclePosition position) {
+                return Verdict.ACCEPT;
+            }
+        };
+        if ("pipeline".equals(ingest)) {
+            pipeline = new StubbedPipeline();
+            service.ingest = pipeline.pipeline();
+        } else {
+            service.ingest = new IngestPipeline() {
+                @Override
+                public boolean submit(VehiclePosition position) {
+                    blackhole.consume(position);
+                    return true;
+                }
+            };
+        }
+
+        responses = new StreamObserver<>() {
+            @Override
+            public void onNext(PositionAck ack) {
+                blackhole.consume(ack);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    @Benchmark
+    public void current(Outcomes outcomes) {
+        awaitCapacity();
+        service.reportPosition(position, responses);
+    }
+
+    @Benchmark
+    public void legacy(Outcomes outcomes) {
+        awaitCapacity();
+        String validation = legacyValidate(position);
+        if (validation != null) {
+            responses.onNext(PositionAck.newBuilder()
+                    .setReceived(false)
+                    .setVehicleId(position.getVehicleId())
+                    .setStatus("invalid")
+                    .setMessage(validation)
+                    .build());
+            responses.onCompleted();
+            return;
+        }
+
+        LEGACY_LOG.infof("Position received - Vehicle: %s, Lat: %f, Lon: %f, Speed: %f km/h",
+                position.getVehicleId(),
+                position.getLatitude(),
+                position.getLongitude(),
+                position.getSpeedKph());
+
+        responses.onNext(PositionAck.newBuilder()
+                .setReceived(true)
+                .setVehicleId(position.getVehicleId())
+                .setStatus("ok")
+                .setMessage("Position received successfully")
+                .build());
+        responses.onCompleted();
+
+        service.sessions.observe(position);
+        service.ingest.submit(position);
+    }
+
+    private void awaitCapacity() {
+        if (pipeline != null) {
+            pipeline.awaitCapacity();
+        }
+    }
+
+    private static String legacyValidate(VehiclePosition position) {
+        if (position.getVehicleId().isBlank()) {
+            LEGACY_LOG.errorf("Invalid Vehicle ID: %s", position.getVehicleId());
+            return "Invalid Vehicle ID";
+        }
+        if (position.getLatitude() > 90 || position.getLatitude() < -90) {
+            LEGACY_LOG.errorf("Invalid Latitude: %f", position.getLatitude());
+            return "Invalid Latitude";
+        }
+        if (position.getLongitude() > 180 || position.getLongitude() < -180) {
+            LEGACY_LOG.errorf("Invalid Longitude: %f", position.getLatitude());
+            return "Invalid Longitude";
+        }
+        if (position.getSpeedKph() > 300) {
+            LEGACY_LOG.errorf("Invalid Speed (very big): %f", position.getSpeedKph());
+            return "Invalid Speed";
+        }
+        if (position.getTimestamp() > System.currentTimeMillis() / 1000 + 60) {
+            LEGACY_LOG.errorf("Invalid Timestamp (future): %d", position.getTimestamp());
+            return "Invalid Timestamp";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,164 @@
+package com.alvoratrack.ingest;
+
+import com.alvoratrack.client.AlvoraCoreClient;
+import com.alvoratrack.client.TraccarClient;
+import com.alvoratrack.cluster.ClusterFanout;
+import com.alvoratrack.geo.SpatialIndex;
+import com.alvoratrack.geofence.GeofenceEngine;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.history.TrailStore;
+import com.alvoratrack.motion.MotionTracker;
+import com.alvoratrack.service.PositionCache;
+import com.alvoratrack.thinning.DownstreamThinning;
+import com.alvoratrack.thinning.PositionThinner;
+import com.alvoratrack.websocket.AdminFleetBroadcaster;
+import com.alvoratrack.websocket.ConnectionManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A real {@link IngestPipeline}, with its default stage layout, whose cache,
+ * WebSocket, history, geofence, motion and forwarding downstreams only count
+ * the positions they get. The downstreams run on the stage workers, so they
+ * count into a {@link LongAdder} rather than a JMH {@code Blackhole}, which
+ * belongs to the benchmark thread. Producers should call
+ * {@link #awaitCapacity()} before submitting, as streaming ingest stops
+ * requesting at the high watermark, so that stage queues do not overflow.
+ */
+public final class StubbedPipeline implements AutoCloseable {
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final IngestPipeline pipeline = new IngestPipeline() {
+        @Override
+        public boolean submit(VehiclePosition position) {
+            boolean accepted = super.submit(position);
+            if (!accepted) {
+                dropped.increment();
+            }
+            return accepted;
+        }
+    };
+
+    public StubbedPipeline() {
+        Consumer<VehiclePosition> sink = position -> delivered.increment();
+        pipeline.registry = new SimpleMeterRegistry();
+        pipeline.positionCache = new PositionCache() {
+            @Override
+            public void update(VehiclePosition position) {
+                sink.accept(position);
+            }
+        };
+        pipeline.connections = new ConnectionManager() {
+            @Override
+            public void sendPosition(VehiclePosition position) {
+                sink.accept(position);
+            }
+        };
+        pipeline.adminFleetBroadcaster = new AdminFleetBroadcaster() {
+            @Override
+            public void submit(VehiclePosition position, VehiclePosition previous) {
+                sink.accept(position);
+            }
+        };
+        pipeline.spatialIndex = new SpatialIndex() {
+            @Override
+            public Update update(VehiclePosition position) {
+                return new Update(null, true);
+            }
+        };
+        // Disabled, as in a single-node deployment
+        pipeline.clusterFanout = new ClusterFanout();
+        pipeline.trailStore = new TrailStore() {
+            @Override
+            public void record(VehiclePosition position) {
+                sink.accept(position);
+            }
+        };
+        pipeline.geofenceEngine = new GeofenceEngine() {
+            @Override
+            public void evaluate(VehiclePosition position) {
+                sink.accept(position);
+            }
+        };
+        pipeline.motionTracker = new MotionTracker() {
+            @Override
+            public void evaluate(VehiclePosition position) {
+                sink.accept(position);
+            }
+        };
+        pipeline.traccarClient = new TraccarClient() {
+            @Override
+            public void forward(VehiclePosition position) {
+                sink.accept(position);
+            }
+        };
+        pipeline.alvoraCoreClient = new AlvoraCoreClient() {
+            @Override
+            public boolean forward(VehiclePosition position) {
+                sink.accept(position);
+                return true;
+            }
+        };
+        // Pass-through, so every downstream still sees every position
+        pipeline.thinning = new DownstreamThinning() {
+            @Override
+            public PositionThinner create(Destination destination, PositionThinner.Sink sink) {
+                return new PositionThinner(destination.label(), PositionThinner.Settings.disabled(),
+                        pipeline.registry, sink);
+            }
+        };
+        pipeline.cacheWorkers = 2;
+        pipeline.cacheQueueCapacity = 10000;
+        pipeline.websocketWorkers = 2;
+        pipeline.websocketQueueCapacity = 10000;
+        pipeline.historyWorkers = 1;
+        pipeline.historyQueueCapacity = 10000;
+        pipeline.geofenceWorkers = 2;
+        pipeline.geofenceQueueCapacity = 10000;
+        pipeline.motionWorkers = 1;
+        pipeline.motionQueueCapacity = 10000;
+        pipeline.traccarWorkers = 1;
+        pipeline.traccarQueueCapacity = 10000;
+        pipeline.alvoraCoreWorkers = 1;
+        pipeline.alvoraCoreQueueCapacity = 10000;
+        pipeline.highWatermark = 0.8;
+        pipeline.shutdownTimeout = Duration.ofSeconds(5);
+        pipeline.init();
+    }
+
+    public IngestPipeline pipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Spins until every stage is back under the high watermark.
+     */
+    public void awaitCapacity() {
+        while (!pipeline.hasCapacity()) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Positions the downstreams have handled so far, counting each downstream.
+     */
+    public long delivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * Submits that at least one stage rejected because its queue was full.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void close() {
+        pipeline.shutdown();
+    }
+}
@@ -0,0 +1,136 @@
+package com.alvoratrack.service;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.support.RedisStandIn;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.redis.datasource.keys.ReactiveKeyCommands;
+import io.quarkus.redis.datasource.value.ReactiveValueCommands;
+import io.quarkus.redis.runtime.datasource.ReactiveRedisDataSourceImpl;
+import io.smallrye.mutiny.Multi;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.RedisConnection;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the legacy {@code KEYS} + per-key {@code GET} fleet read with the
+ * indexed, batched {@code MGET} snapshot of {@link PositionCache#getAllPositions()}.
+ * <p>
+ * Runs against the in-process {@link RedisStandIn} unless {@code -Dbench.redis.uri}
+ * points at a real instance. The legacy variant skips decoding, so the
+ * comparison is conservative.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FleetSnapshotBenchmark {
+
+    private static final int POPULATE_CHUNK = 500;
+
+    @Param({"1000", "10000", "100000"})
+    int vehicles;
+
+    private RedisStandIn standIn;
+    private Vertx vertx;
+    private RedisConnection connection;
+    private PositionCache cache;
+    private ReactiveKeyCommands<String> keys;
+    private ReactiveValueCommands<String, byte[]> values;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String uri = System.getProperty("bench.redis.uri");
+        if (uri == null) {
+            standIn = new RedisStandIn();
+            uri = standIn.uri();
+        }
+
+        vertx = Vertx.vertx();
+        Redis redis = Redis.createClient(vertx, uri);
+        connection = redis.connect().await().atMost(Duration.ofSeconds(5));
+        ReactiveRedisDataSourceImpl dataSource = new ReactiveRedisDataSourceImpl(vertx, redis, connection);
+        dataSource.execute("FLUSHDB").onFailure().recoverWithNull().await().indefinitely();
+        if (standIn != null) {
+            standIn.flushAll();
+        }
+
+        LatestPositionStore store = new LatestPositionStore();
+        store.registry = new SimpleMeterRegistry();
+        store.maxEntries = vehicles;
+        store.stripeCount = 64;
+        store.ttlSeconds = 300;
+        store.init();
+
+        cache = new PositionCache();
+        cache.redisDS = dataSource;
+        cache.localStore = store;
+        cache.registry = new SimpleMeterRegistry();
+        cache.ttlSeconds = 300;
+        cache.codecName = "protobuf";
+        cache.snapshotBatchSize = 500;
+        cache.snapshotConcurrency = 4;
+        cache.init();
+
+        keys = dataSource.key(String.class);
+        values = dataSource.value(String.class, byte[].class);
+
+        populate(dataSource);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.close().await().indefinitely();
+        vertx.closeAndAwait();
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Benchmark
+    public List<byte[]> keysScan() {
+        return keys.keys("vehicle:position:*")
+                .onItem().transformToMulti(found -> Multi.createFrom().iterable(found))
+                .onItem().transformToUniAndMerge(values::get)
+                .filter(Objects::nonNull)
+                .collect().asList()
+                .await().indefinitely();
+    }
+
+    @Benchmark
+    public List<VehiclePosition> indexedSnapshot() {
+        return cache.getAllPositions().await().indefinitely();
+    }
+
+    private void populate(ReactiveRedisDataSourceImpl dataSource) throws InterruptedException {
+        var index = dataSource.sortedSet(String.class, String.class);
+        for (int from = 0; from < vehicles; from += POPULATE_CHUNK) {
+            int to = Math.min(from + POPULATE_CHUNK, vehicles);
+            for (int i = from; i < to; i++) {
+                cache.update(position(i));
+            }
+            while (index.zcard("vehicle:positions:live").await().indefinitely() < to) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static VehiclePosition position(int i) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId("bench-" + i)
+                .setLatitude(30.0 + (i % 1000) * 0.001)
+                .setLongitude(31.0 + (i / 1000) * 0.001)
+                .setSpeedKph(i % 120)
+                .setBearing(i % 360)
+                .setTimestamp(System.currentTimeMillis() / 1000)
+                .setSatellites(9)
+                .build();
+    }
+}
@@ -0,0 +1,139 @@
+package com.alvoratrack.service.codec;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode cost of the cached position formats. {@code legacy*} is the
+ * original {@code String.format}/{@code indexOf} implementation of
+ * PositionCache, kept here as the baseline. Run with {@code -prof gc} to
+ * compare allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionCodecBenchmark {
+
+    private VehiclePosition position;
+    private String legacyValue;
+    private byte[] jsonValue;
+    private byte[] protobufValue;
+
+    @Setup
+    public void setup() {
+        position = VehiclePosition.newBuilder()
+                .setVehicleId("truck-00042")
+                .setLatitude(30.044420)
+                .setLongitude(31.235712)
+                .setSpeedKph(63.5)
+                .setBearing(271)
+                .setTimestamp(1_760_000_000L)
+                .setAltitude(74.2)
+                .setAccuracy(4.8)
+                .setIgnition(true)
+                .setMotion(true)
+                .setSatellites(11)
+                .build();
+        legacyValue = legacyEncode(position);
+        jsonValue = PositionCodec.JSON.encode(position);
+        protobufValue = PositionCodec.PROTOBUF.encode(position);
+    }
+
+    @Benchmark
+    public byte[] legacyEncode() {
+        return legacyEncode(position).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public VehiclePosition legacyDecode() {
+        return legacyDecode(legacyValue);
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() {
+        return PositionCodec.JSON.encode(position);
+    }
+
+    @Benchmark
+    public VehiclePosition jsonDecode() {
+        return PositionCodec.JSON.decode(jsonValue);
+    }
+
+    @Benchmark
+    public byte[] protobufEncode() {
+        return PositionCodec.PROTOBUF.encode(position);
+    }
+
+    @Benchmark
+    public VehiclePosition protobufDecode() {
+        return PositionCodec.decodeAny(protobufValue);
+    }
+
+    private static String legacyEncode(VehiclePosition position) {
+        return String.format(
+                "{\"vehicleId\":\"%s\",\"latitude\":%f,\"longitude\":%f,\"speedKph\":%f,\"bearing\":%d,\"timestamp\":%d,\"altitude\":%f,\"accuracy\":%f,\"ignition\":%b,\"motion\":%b,\"satellites\":%d}",
+                position.getVehicleId(),
+                position.getLatitude(),
+                position.getLongitude(),
+                position.getSpeedKph(),
+                position.getBearing(),
+                position.getTimestamp(),
+                position.getAltitude(),
+                position.getAccuracy(),
+                position.getIgnition(),
+                position.getMotion(),
+                position.getSatellites()
+        );
+    }
+
+    private static VehiclePosition legacyDecode(String json) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(extractString(json, "vehicleId"))
+                .setLatitude(extractDouble(json, "latitude"))
+                .setLongitude(extractDouble(json, "longitude"))
+                .setSpeedKph(extractDouble(json, "speedKph"))
+                .setBearing((int) extractLong(json, "bearing"))
+                .setTimestamp(extractLong(json, "timestamp"))
+                .setAltitude(extractDouble(json, "altitude"))
+                .setAccuracy(extractDouble(json, "accuracy"))
+                .setIgnition(extractBoolean(json, "ignition"))
+                .setMotion(extractBoolean(json, "motion"))
+                .setSatellites((int) extractLong(json, "satellites"))
+                .build();
+    }
+
+    private static String extractString(String json, String key) {
+        int start = json.indexOf("\"" + key + "\":\"") + key.length() + 4;
+        int end = json.indexOf("\"", start);
+        return json.substring(start, end);
+    }
+
+    private static double extractDouble(String json, String key) {
+        int start = json.indexOf("\"" + key + "\":") + key.length() + 3;
+        return Double.parseDouble(json.substring(start, findNumberEnd(json, start)));
+    }
+
+    private static long extractLong(String json, String key) {
+        int start = json.indexOf("\"" + key + "\":") + key.length() + 3;
+        return Long.parseLong(json.substring(start, findNumberEnd(json, start)));
+    }
+
+    private static boolean extractBoolean(String json, String key) {
+        int start = json.indexOf("\"" + key + "\":") + key.length() + 3;
+        return json.substring(start).startsWith("true");
+    }
+
+    private static int findNumberEnd(String json, int start) {
+        int i = start;
+        while (i < json.length() && (Character.isDigit(json.charAt(i)) || json.charAt(i) == '.' || json.charAt(i) == '-')) {
+            i++;
+        }
+        return i;
+    }
+}
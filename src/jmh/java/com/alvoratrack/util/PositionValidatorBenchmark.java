@@ -0,0 +1,56 @@
+package com.alvoratrack.util;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link PositionValidator#validate} for a valid position and for
+ * each reject code; the timestamp check runs last, so {@code VALID} and
+ * {@code INVALID_TIMESTAMP} walk every check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionValidatorBenchmark {
+
+    @Param({"VALID", "INVALID_VEHICLE_ID", "INVALID_LATITUDE", "INVALID_LONGITUDE", "INVALID_SPEED",
+            "INVALID_TIMESTAMP"})
+    ValidationResult expected;
+
+    private PositionValidator validator;
+    private VehiclePosition position;
+
+    @Setup
+    public void setup() {
+        validator = new PositionValidator();
+        VehiclePosition.Builder builder = VehiclePosition.newBuilder()
+                .setVehicleId("truck-00042")
+                .setLatitude(30.044420)
+                .setLongitude(31.235712)
+                .setSpeedKph(63.5)
+                .setTimestamp(System.currentTimeMillis() / 1000);
+        switch (expected) {
+            case INVALID_VEHICLE_ID -> builder.setVehicleId(" ");
+            case INVALID_LATITUDE -> builder.setLatitude(95);
+            case INVALID_LONGITUDE -> builder.setLongitude(190);
+            case INVALID_SPEED -> builder.setSpeedKph(400);
+            case INVALID_TIMESTAMP -> builder.setTimestamp(System.currentTimeMillis() / 1000 + 3600);
+            default -> {
+            }
+        }
+        position = builder.build();
+        if (validator.validate(position) != expected) {
+            throw new IllegalStateException("Fixture does not produce " + expected);
+        }
+    }
+
+    @Benchmark
+    public ValidationResult validate() {
+        return validator.validate(position);
+    }
+}
@@ -0,0 +1,79 @@
+package com.alvoratrack.websocket;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing cost of {@link ConnectionManager#sendPosition} with 1k-100k
+ * registered vehicle connections, {@value #SUBSCRIBERS_PER_VEHICLE} per
+ * vehicle. {@code subscribed} cycles through the vehicles, so lookups miss
+ * the CPU caches the way a busy fleet does; {@code unsubscribed} is the
+ * common case of a vehicle nobody is watching. Connections are
+ * {@link FakeConnections} whose writes complete immediately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionRoutingBenchmark {
+
+    private static final int SUBSCRIBERS_PER_VEHICLE = 4;
+
+    @Param({"1000", "10000", "100000"})
+    int connections;
+
+    private ConnectionManager manager;
+    private VehiclePosition[] positions;
+    private VehiclePosition unwatched;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        manager = new ConnectionManager();
+        manager.registry = new SimpleMeterRegistry();
+        manager.vehicleQueueCapacity = 64;
+        manager.vehicleOverflowPolicy = "conflate";
+        manager.adminQueueCapacity = 16;
+        manager.adminOverflowPolicy = "drop-oldest";
+        manager.init();
+
+        int vehicles = connections / SUBSCRIBERS_PER_VEHICLE;
+        positions = new VehiclePosition[vehicles];
+        for (int i = 0; i < vehicles; i++) {
+            String vehicleId = "bench-" + i;
+            for (int s = 0; s < SUBSCRIBERS_PER_VEHICLE; s++) {
+                manager.registerVehicle(vehicleId, FakeConnections.create(vehicleId + "-" + s));
+            }
+            positions[i] = position(vehicleId);
+        }
+        unwatched = position("unwatched");
+    }
+
+    @Benchmark
+    public void subscribed() {
+        manager.sendPosition(positions[next]);
+        if (++next == positions.length) {
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    public void unsubscribed() {
+        manager.sendPosition(unwatched);
+    }
+
+    private static VehiclePosition position(String vehicleId) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(30.0444)
+                .setLongitude(31.2357)
+                .setSpeedKph(48.5)
+                .setTimestamp(1_760_000_000L)
+                .build();
+    }
+}
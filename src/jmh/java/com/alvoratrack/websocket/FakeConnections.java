@@ -0,0 +1,33 @@
+package com.alvoratrack.websocket;
+
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.smallrye.mutiny.Uni;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * {@link WebSocketConnection}s that complete every send and close
+ * immediately. Built as dynamic proxies, so each call also pays for a small
+ * argument array.
+ */
+final class FakeConnections {
+
+    private static final Uni<Void> DONE = Uni.createFrom().voidItem();
+
+    private FakeConnections() {
+    }
+
+    static WebSocketConnection create(String id) {
+        return (WebSocketConnection) Proxy.newProxyInstance(FakeConnections.class.getClassLoader(),
+                new Class<?>[]{WebSocketConnection.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "id" -> id;
+                    case "sendText", "close" -> DONE;
+                    case "isOpen" -> true;
+                    case "isClosed" -> false;
+                    case "hashCode" -> id.hashCode();
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "fake-connection-" + id;
+                    default -> null;
+                });
+    }
+}
@@ -0,0 +1,56 @@
+package com.alvoratrack.websocket;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of the WebSocket position message. {@code legacy} is the
+ * original {@code String.format} text block, kept here as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionMessageBenchmark {
+
+    private VehiclePosition position;
+
+    @Setup
+    public void setup() {
+        position = VehiclePosition.newBuilder()
+                .setVehicleId("truck-00042")
+                .setLatitude(30.044420)
+                .setLongitude(31.235712)
+                .setSpeedKph(63.5)
+                .setTimestamp(1_760_000_000L)
+                .build();
+    }
+
+    @Benchmark
+    public String legacy() {
+        return String.format("""
+                {
+                    "type": "position",
+                    "vehicleId": "%s",
+                    "latitude": %f,
+                    "longitude": %f,
+                    "speedKph": %f,
+                    "timestamp": %d
+                }
+                """,
+                position.getVehicleId(),
+                position.getLatitude(),
+                position.getLongitude(),
+                position.getSpeedKph(),
+                position.getTimestamp());
+    }
+
+    @Benchmark
+    public String current() {
+        return ConnectionManager.positionMessage(position);
+    }
+}
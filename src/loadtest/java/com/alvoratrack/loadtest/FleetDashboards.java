@@ -0,0 +1,111 @@
+package com.alvoratrack.loadtest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.http.WebSocketClientOptions;
+import io.vertx.core.http.WebSocketConnectOptions;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admin fleet dashboards connected to {@code /ws/admin/fleet}. For every
+ * position in a received frame whose fix is still the vehicle's latest,
+ * records the delivery lag from the moment the simulator sent it.
+ */
+final class FleetDashboards implements AutoCloseable {
+
+    private static final int MAX_MESSAGE_BYTES = 64 * 1024 * 1024;
+
+    private final Vertx vertx = Vertx.vertx();
+    private final JsonFactory json = new JsonFactory();
+    private final VehicleFleet fleet;
+    private final LatencyMetric deliveryLag;
+    private final List<WebSocket> sockets = new CopyOnWriteArrayList<>();
+
+    final LongAdder frames = new LongAdder();
+    final LongAdder positions = new LongAdder();
+    final LongAdder superseded = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+
+    FleetDashboards(VehicleFleet fleet, LatencyMetric deliveryLag) {
+        this.fleet = fleet;
+        this.deliveryLag = deliveryLag;
+    }
+
+    void connect(URI http, int count) {
+        WebSocketClient client = vertx.createWebSocketClient(new WebSocketClientOptions()
+                .setMaxFrameSize(MAX_MESSAGE_BYTES)
+                .setMaxMessageSize(MAX_MESSAGE_BYTES));
+        WebSocketConnectOptions options = new WebSocketConnectOptions()
+                .setHost(http.getHost())
+                .setPort(http.getPort())
+                .setURI("/ws/admin/fleet");
+        for (int i = 0; i < count; i++) {
+            client.connect(options)
+                    .onSuccess(socket -> {
+                        sockets.add(socket);
+                        socket.textMessageHandler(this::onFrame);
+                        socket.closeHandler(v -> disconnects.increment());
+                    })
+                    .onFailure(failure -> {
+                        System.err.println("Dashboard connection failed: " + failure.getMessage());
+                        disconnects.increment();
+                    });
+        }
+    }
+
+    int connected() {
+        return sockets.size();
+    }
+
+    private void onFrame(String frame) {
+        long now = System.nanoTime();
+        frames.increment();
+        try (JsonParser parser = json.createParser(frame)) {
+            String vehicleId = null;
+            long timestamp = -1;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    if ("vehicleId".equals(field)) {
+                        vehicleId = parser.getText();
+                    } else if ("timestamp".equals(field)) {
+                        timestamp = parser.getLongValue();
+                    }
+                } else if (token == JsonToken.END_OBJECT && vehicleId != null) {
+                    record(vehicleId, timestamp, now);
+                    vehicleId = null;
+                    timestamp = -1;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unreadable fleet frame: " + e.getMessage());
+        }
+    }
+
+    private void record(String vehicleId, long timestamp, long receivedAt) {
+        positions.increment();
+        long sentAt = fleet.sentAt(VehicleFleet.indexOf(vehicleId), timestamp);
+        if (sentAt < 0) {
+            superseded.increment();
+        } else {
+            deliveryLag.recordNanos(receivedAt - sentAt);
+        }
+    }
+
+    @Override
+    public void close() {
+        sockets.forEach(WebSocket::close);
+        vertx.close();
+    }
+}
@@ -0,0 +1,75 @@
+package com.alvoratrack.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A latency distribution recorded in microseconds, readable per report
+ * interval and over the whole run.
+ */
+final class LatencyMetric {
+
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final String name;
+    private final Recorder recorder = new Recorder(MAX_MICROS, 3);
+    private final Histogram total = new Histogram(MAX_MICROS, 3);
+    private Histogram interval;
+
+    LatencyMetric(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    void recordNanos(long nanos) {
+        recorder.recordValue(Math.min(MAX_MICROS, Math.max(0, nanos / 1000)));
+    }
+
+    /**
+     * Closes the current interval and folds it into the run total.
+     */
+    synchronized Histogram nextInterval() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        return interval;
+    }
+
+    synchronized Histogram total() {
+        return total;
+    }
+
+    static String summary(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "n=0";
+        }
+        return String.format("n=%d p50=%s p99=%s p99.9=%s max=%s", histogram.getTotalCount(),
+                millis(histogram.getValueAtPercentile(50)),
+                millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()));
+    }
+
+    static String millis(long micros) {
+        return String.format("%.1fms", micros / 1000.0);
+    }
+
+    /**
+     * Writes the run total as an HdrHistogram percentile distribution, in
+     * milliseconds, to {@code <directory>/<name>.hgrm}.
+     */
+    synchronized void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(name + ".hgrm")))) {
+            total.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+}
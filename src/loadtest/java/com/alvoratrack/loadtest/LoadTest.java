@@ -0,0 +1,272 @@
+package com.alvoratrack.loadtest;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a running tracker-service with simulated vehicles on
+ * {@code StreamPositions}, admin fleet WebSocket dashboards and REST
+ * pollers, and reports throughput, ack latency, REST latency and WebSocket
+ * delivery lag per interval and for the whole run.
+ * <p>
+ * With {@code --step N} vehicles are added N at a time while the interval
+ * p99 ack latency stays within {@code --slo-p99}; the last step that met it
+ * is reported as the node's capacity. With {@code --stubs} the Redis,
+ * Traccar and AlvoraCore stand-ins are started first and the environment
+ * to start the service with is printed. Run via the {@code loadtest} Maven
+ * profile, see the README.
+ */
+public final class LoadTest {
+
+    private static final String USAGE = """
+            Options (defaults in brackets):
+              --grpc HOST:PORT          gRPC endpoint [localhost:9000]
+              --http URL                HTTP endpoint [http://localhost:8083]
+              --vehicles N              vehicles reporting at 1 Hz, or the ramp ceiling with --step [1000]
+              --step N                  add N vehicles per interval until --slo-p99 is missed [0 = off]
+              --slo-p99 DURATION        p99 ack latency target for --step [PT0.25S]
+              --dashboards M            admin fleet WebSocket viewers [1]
+              --pollers K               REST pollers [10]
+              --poll-rate R             requests per second per poller [5]
+              --channels C              gRPC connections shared by the vehicles [4]
+              --duration DURATION       run length; use hours for a soak test [PT5M]
+              --ramp-up DURATION        spread of the initial vehicle starts [PT30S]
+              --report-interval DURATION [PT10S]
+              --output DIR              histogram and summary output [target/loadtest]
+              --stubs                   start embedded Redis, Traccar and AlvoraCore stand-ins
+              --redis-port, --traccar-port, --alvoracore-port  stub ports [16379, 15055, 19001]
+            """;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) {
+        try {
+            run(parse(args));
+            System.exit(0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            // The stubs and clients run non-daemon threads
+            System.exit(1);
+        }
+    }
+
+    private static void run(Map<String, String> options) throws Exception {
+        if (options.containsKey("help")) {
+            System.out.print(USAGE);
+            return;
+        }
+        String grpc = options.getOrDefault("grpc", "localhost:9000");
+        URI http = URI.create(options.getOrDefault("http", "http://localhost:8083"));
+        int vehicles = Integer.parseInt(options.getOrDefault("vehicles", "1000"));
+        int step = Integer.parseInt(options.getOrDefault("step", "0"));
+        Duration slo = Duration.parse(options.getOrDefault("slo-p99", "PT0.25S"));
+        int dashboards = Integer.parseInt(options.getOrDefault("dashboards", "1"));
+        int pollers = Integer.parseInt(options.getOrDefault("pollers", "10"));
+        double pollRate = Double.parseDouble(options.getOrDefault("poll-rate", "5"));
+        int channelCount = Integer.parseInt(options.getOrDefault("channels", "4"));
+        Duration duration = Duration.parse(options.getOrDefault("duration", "PT5M"));
+        Duration rampUp = Duration.parse(options.getOrDefault("ramp-up", "PT30S"));
+        Duration reportInterval = Duration.parse(options.getOrDefault("report-interval", "PT10S"));
+        Path output = Path.of(options.getOrDefault("output", "target/loadtest"));
+
+        StubDownstreams stubs = null;
+        if (options.containsKey("stubs")) {
+            stubs = new StubDownstreams(
+                    Integer.parseInt(options.getOrDefault("redis-port", "16379")),
+                    Integer.parseInt(options.getOrDefault("traccar-port", "15055")),
+                    Integer.parseInt(options.getOrDefault("alvoracore-port", "19001")));
+            System.out.println("Stub downstreams running. Start the service with:");
+            System.out.println("  " + stubs.env() + " java -jar target/quarkus-app/quarkus-run.jar");
+        }
+        awaitReady(http);
+
+        List<ManagedChannel> channels = new ArrayList<>();
+        for (int i = 0; i < channelCount; i++) {
+            channels.add(ManagedChannelBuilder.forTarget(grpc).usePlaintext().build());
+        }
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+        LatencyMetric ackLatency = new LatencyMetric("ack-latency");
+        LatencyMetric restLatency = new LatencyMetric("rest-latency");
+        LatencyMetric deliveryLag = new LatencyMetric("websocket-delivery-lag");
+        VehicleFleet fleet = new VehicleFleet(channels, scheduler, ackLatency, vehicles);
+        FleetDashboards viewers = new FleetDashboards(fleet, deliveryLag);
+        RestPollers readers = new RestPollers(fleet, restLatency);
+
+        viewers.connect(http, dashboards);
+        fleet.add(step > 0 ? step : vehicles, rampUp);
+        readers.start(http, pollers, pollRate);
+
+        Counters counters = new Counters(fleet, viewers, readers);
+        long started = System.nanoTime();
+        long deadline = started + duration.toNanos();
+        int capacity = 0;
+        String verdict = null;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(Math.min(reportInterval.toMillis(),
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            Histogram ack = ackLatency.nextInterval();
+            Histogram rest = restLatency.nextInterval();
+            Histogram lag = deliveryLag.nextInterval();
+            System.out.println(counters.report(System.nanoTime() - started, ack, rest, lag));
+
+            if (step > 0 && ack.getTotalCount() > 0) {
+                if (ack.getValueAtPercentile(99) > slo.toNanos() / 1000) {
+                    verdict = String.format("p99 ack latency %s over the %s target at %d vehicles; capacity %d vehicles",
+                            LatencyMetric.millis(ack.getValueAtPercentile(99)),
+                            LatencyMetric.millis(slo.toNanos() / 1000), fleet.size(), capacity);
+                    break;
+                }
+                capacity = fleet.size();
+                if (fleet.size() < vehicles) {
+                    fleet.add(step, reportInterval.dividedBy(2));
+                }
+            }
+        }
+        if (step > 0 && verdict == null) {
+            verdict = String.format("p99 ack latency within %s up to %d vehicles",
+                    LatencyMetric.millis(slo.toNanos() / 1000), capacity);
+        }
+
+        readers.close();
+        viewers.close();
+        fleet.close();
+        scheduler.shutdownNow();
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow();
+        }
+
+        String summary = counters.summary(System.nanoTime() - started, ackLatency, restLatency, deliveryLag, verdict);
+        System.out.println();
+        System.out.println(summary);
+        Files.createDirectories(output);
+        Files.writeString(output.resolve("summary.txt"), summary);
+        for (LatencyMetric metric : List.of(ackLatency, restLatency, deliveryLag)) {
+            metric.write(output);
+        }
+        System.out.println("Histograms written to " + output.toAbsolutePath());
+        if (stubs != null) {
+            System.out.printf("Stub downstreams received %d Traccar requests, %d AlvoraCore updates%n",
+                    stubs.traccarRequests.sum(), stubs.alvoraCoreUpdates.sum());
+            stubs.close();
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i] + "\n" + USAGE);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    private static void awaitReady(URI http) throws InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(http.resolve("/q/health/ready"))
+                .timeout(Duration.ofSeconds(2))
+                .build();
+        long lastNotice = 0;
+        while (true) {
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not up yet
+            }
+            if (System.nanoTime() - lastNotice > TimeUnit.SECONDS.toNanos(10)) {
+                System.out.println("Waiting for " + http + " to report ready...");
+                lastNotice = System.nanoTime();
+            }
+            Thread.sleep(1000);
+        }
+    }
+
+    /**
+     * Turns the cumulative counters into per-interval rates.
+     */
+    private static final class Counters {
+
+        private final VehicleFleet fleet;
+        private final FleetDashboards viewers;
+        private final RestPollers readers;
+        private final Map<LongAdder, Long> previous = new HashMap<>();
+        private long previousNanos;
+
+        Counters(VehicleFleet fleet, FleetDashboards viewers, RestPollers readers) {
+            this.fleet = fleet;
+            this.viewers = viewers;
+            this.readers = readers;
+        }
+
+        String report(long elapsedNanos, Histogram ack, Histogram rest, Histogram lag) {
+            double seconds = (elapsedNanos - previousNanos) / 1e9;
+            previousNanos = elapsedNanos;
+            return String.format("[%5ds] vehicles=%d sent=%.0f/s acked=%.0f/s rejected=%d deferred=%d errors=%d"
+                            + " | ack %s | rest %.0f/s %s | ws %d viewers %.1f frames/s lag %s",
+                    TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), fleet.size(),
+                    delta(fleet.sent) / seconds, delta(fleet.acked) / seconds,
+                    delta(fleet.rejected), delta(fleet.deferred), delta(fleet.streamErrors),
+                    LatencyMetric.summary(ack),
+                    (delta(readers.ok) + delta(readers.notFound) + delta(readers.failed)) / seconds,
+                    LatencyMetric.summary(rest),
+                    viewers.connected(), delta(viewers.frames) / seconds, LatencyMetric.summary(lag));
+        }
+
+        String summary(long elapsedNanos, LatencyMetric ack, LatencyMetric rest, LatencyMetric lag, String verdict) {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("Run: %.0fs, %d vehicles, %d dashboards%n", seconds, fleet.size(),
+                    viewers.connected()));
+            out.append(String.format("Positions: sent %d (%.0f/s), acked %d, rejected %d, deferred %d, stream errors %d%n",
+                    fleet.sent.sum(), fleet.sent.sum() / seconds, fleet.acked.sum(), fleet.rejected.sum(),
+                    fleet.deferred.sum(), fleet.streamErrors.sum()));
+            out.append(String.format("REST: ok %d, not found %d, failed %d%n",
+                    readers.ok.sum(), readers.notFound.sum(), readers.failed.sum()));
+            out.append(String.format("WebSocket: %d frames, %d positions, %d superseded, %d disconnects%n",
+                    viewers.frames.sum(), viewers.positions.sum(), viewers.superseded.sum(),
+                    viewers.disconnects.sum()));
+            for (LatencyMetric metric : List.of(ack, rest, lag)) {
+                out.append(String.format("%-24s %s%n", metric.name(), LatencyMetric.summary(metric.total())));
+            }
+            if (verdict != null) {
+                out.append("Capacity: ").append(verdict).append(System.lineSeparator());
+            }
+            return out.toString();
+        }
+
+        private long delta(LongAdder counter) {
+            long current = counter.sum();
+            Long before = previous.put(counter, current);
+            return current - (before == null ? 0 : before);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.alvoratrack.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pollers reading {@code /api/vehicle/{id}/position} for random simulated
+ * vehicles at a fixed rate each. Latency is measured from when a request
+ * was due rather than when it was sent, so a slow server cannot hide its
+ * queueing behind the pollers' own backlog.
+ */
+final class RestPollers implements AutoCloseable {
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final VehicleFleet fleet;
+    private final LatencyMetric latency;
+    private volatile boolean running = true;
+
+    final LongAdder ok = new LongAdder();
+    final LongAdder notFound = new LongAdder();
+    final LongAdder failed = new LongAdder();
+
+    RestPollers(VehicleFleet fleet, LatencyMetric latency) {
+        this.fleet = fleet;
+        this.latency = latency;
+    }
+
+    void start(URI http, int count, double perSecond) {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        for (int i = 0; i < count; i++) {
+            long offset = intervalNanos * i / Math.max(1, count);
+            threads.submit(() -> poll(http, intervalNanos, offset));
+        }
+    }
+
+    private void poll(URI http, long intervalNanos, long offset) {
+        long due = System.nanoTime() + offset;
+        while (running) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            int vehicles = fleet.size();
+            if (vehicles > 0) {
+                String vehicleId = VehicleFleet.vehicleId(ThreadLocalRandom.current().nextInt(vehicles));
+                HttpRequest request = HttpRequest.newBuilder(http.resolve("/api/vehicle/" + vehicleId + "/position"))
+                        .timeout(Duration.ofSeconds(10))
+                        .GET()
+                        .build();
+                try {
+                    int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                    latency.recordNanos(System.nanoTime() - due);
+                    if (status == 200) {
+                        ok.increment();
+                    } else if (status == 404) {
+                        notFound.increment();
+                    } else {
+                        failed.increment();
+                    }
+                } catch (Exception e) {
+                    failed.increment();
+                }
+            }
+            due += intervalNanos;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        threads.shutdownNow();
+    }
+}
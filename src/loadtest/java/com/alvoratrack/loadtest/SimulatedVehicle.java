@@ -0,0 +1,90 @@
+package com.alvoratrack.loadtest;
+
+import com.alvoratrack.grpc.VehiclePosition;
+
+import java.util.Random;
+
+/**
+ * Moves like a city vehicle: drifting heading, speed changes, occasional
+ * stops, bouncing off the edges of the simulated area. Reports one fix per
+ * second with strictly increasing timestamps.
+ */
+final class SimulatedVehicle {
+
+    // Greater Cairo
+    static final double MIN_LAT = 29.90;
+    static final double MAX_LAT = 30.20;
+    static final double MIN_LON = 31.10;
+    static final double MAX_LON = 31.50;
+
+    private static final double METERS_PER_DEGREE = 111_320;
+    private static final double MAX_SPEED_KPH = 120;
+
+    private final String id;
+    private final Random random;
+    private double latitude;
+    private double longitude;
+    private double heading;
+    private double speedKph;
+    private int stoppedFor;
+    private long timestamp;
+
+    SimulatedVehicle(String id, long seed, long startTimestamp) {
+        this.id = id;
+        this.random = new Random(seed);
+        this.latitude = MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT);
+        this.longitude = MIN_LON + random.nextDouble() * (MAX_LON - MIN_LON);
+        this.heading = random.nextDouble() * 360;
+        this.speedKph = 20 + random.nextDouble() * 40;
+        this.timestamp = startTimestamp;
+    }
+
+    String id() {
+        return id;
+    }
+
+    /**
+     * Advances the vehicle by one second and returns its new fix.
+     */
+    VehiclePosition next() {
+        if (stoppedFor > 0) {
+            stoppedFor--;
+            speedKph = 0;
+        } else if (random.nextInt(200) == 0) {
+            // Traffic light or a drop-off
+            stoppedFor = 10 + random.nextInt(50);
+            speedKph = 0;
+        } else {
+            heading = (heading + random.nextGaussian() * 8 + 360) % 360;
+            double target = speedKph == 0 ? 25 : speedKph + random.nextGaussian() * 4;
+            speedKph = Math.max(5, Math.min(MAX_SPEED_KPH, target));
+        }
+
+        double meters = speedKph / 3.6;
+        double radians = Math.toRadians(heading);
+        latitude += meters * Math.cos(radians) / METERS_PER_DEGREE;
+        longitude += meters * Math.sin(radians) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        if (latitude < MIN_LAT || latitude > MAX_LAT) {
+            latitude = Math.max(MIN_LAT, Math.min(MAX_LAT, latitude));
+            heading = (540 - heading) % 360;
+        }
+        if (longitude < MIN_LON || longitude > MAX_LON) {
+            longitude = Math.max(MIN_LON, Math.min(MAX_LON, longitude));
+            heading = (360 - heading) % 360;
+        }
+        timestamp++;
+
+        return VehiclePosition.newBuilder()
+                .setVehicleId(id)
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .setSpeedKph(speedKph)
+                .setBearing((int) heading)
+                .setTimestamp(timestamp)
+                .setAccuracy(3 + random.nextDouble() * 7)
+                .setSatellites(6 + random.nextInt(8))
+                .setIgnition(true)
+                .setMotion(speedKph > 0)
+                .build();
+    }
+}
@@ -0,0 +1,108 @@
+package com.alvoratrack.loadtest;
+
+import com.alvoratrack.grpc.fleet.FleetPositionAck;
+import com.alvoratrack.grpc.fleet.FleetPositionUpdate;
+import com.alvoratrack.grpc.fleet.FleetTrackingServiceGrpc;
+import com.alvoratrack.support.RedisStandIn;
+import com.sun.net.httpserver.HttpServer;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded stand-ins for the service's dependencies: the in-process Redis,
+ * a Traccar OsmAnd endpoint that accepts everything, and an AlvoraCore gRPC
+ * server that acks every update. Start the tracker with {@link #env()} to
+ * point it at them.
+ */
+final class StubDownstreams implements AutoCloseable {
+
+    private final RedisStandIn redis;
+    private final HttpServer traccar;
+    private final Server alvoraCore;
+    private final int redisPort;
+    private final int alvoraCorePort;
+
+    final LongAdder traccarRequests = new LongAdder();
+    final LongAdder alvoraCoreUpdates = new LongAdder();
+
+    StubDownstreams(int redisPort, int traccarPort, int alvoraCorePort) throws IOException {
+        this.redisPort = redisPort;
+        this.alvoraCorePort = alvoraCorePort;
+        redis = new RedisStandIn(redisPort);
+
+        traccar = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), traccarPort), 1024);
+        traccar.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        traccar.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            traccarRequests.increment();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        traccar.start();
+
+        alvoraCore = ServerBuilder.forPort(alvoraCorePort)
+                .addService(new AckingAlvoraCore())
+                .build()
+                .start();
+    }
+
+    String env() {
+        return String.join(" ",
+                "QUARKUS_REDIS_HOSTS=redis://127.0.0.1:" + redisPort,
+                "TRACCAR_URL=http://127.0.0.1:" + traccar.getAddress().getPort(),
+                "ALVORACORE_GRPC_HOST=127.0.0.1",
+                "ALVORACORE_GRPC_PORT=" + alvoraCorePort);
+    }
+
+    @Override
+    public void close() throws Exception {
+        alvoraCore.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        traccar.stop(0);
+        redis.close();
+    }
+
+    private final class AckingAlvoraCore extends FleetTrackingServiceGrpc.FleetTrackingServiceImplBase {
+
+        @Override
+        public void updatePosition(FleetPositionUpdate request, StreamObserver<FleetPositionAck> responseObserver) {
+            alvoraCoreUpdates.increment();
+            responseObserver.onNext(ack(request));
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public StreamObserver<FleetPositionUpdate> streamPositions(StreamObserver<FleetPositionAck> responseObserver) {
+            return new StreamObserver<>() {
+                @Override
+                public void onNext(FleetPositionUpdate update) {
+                    alvoraCoreUpdates.increment();
+                    responseObserver.onNext(ack(update));
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+
+        private static FleetPositionAck ack(FleetPositionUpdate update) {
+            return FleetPositionAck.newBuilder()
+                    .setReceived(true)
+                    .setVehicleId(update.getVehicleId())
+                    .build();
+        }
+    }
+}
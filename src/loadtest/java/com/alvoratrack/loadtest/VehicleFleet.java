@@ -0,0 +1,201 @@
+package com.alvoratrack.loadtest;
+
+import com.alvoratrack.grpc.PositionAck;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.grpc.VehicleTrackingServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulated vehicles, each reporting at 1 Hz over its own
+ * {@code StreamPositions} call. Ack latency is the time from handing a
+ * position to the stream until the cumulative ack covering it arrives. A
+ * vehicle whose stream is not ready (the server stopped requesting) skips
+ * the tick and counts it as deferred, like a device buffering offline.
+ */
+final class VehicleFleet implements AutoCloseable {
+
+    static final String ID_PREFIX = "load-";
+
+    private static final int IN_FLIGHT = 256;
+
+    private final List<ManagedChannel> channels;
+    private final ScheduledExecutorService scheduler;
+    private final LatencyMetric ackLatency;
+    private final int capacity;
+    private final long startTimestamp = System.currentTimeMillis() / 1000;
+    private final List<Reporter> vehicles = new CopyOnWriteArrayList<>();
+
+    // Last fix handed to each vehicle's stream, for the WebSocket delivery lag
+    private final AtomicLongArray sentTimestamps;
+    private final AtomicLongArray sentNanos;
+
+    final LongAdder sent = new LongAdder();
+    final LongAdder acked = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder deferred = new LongAdder();
+    final LongAdder streamErrors = new LongAdder();
+
+    VehicleFleet(List<ManagedChannel> channels, ScheduledExecutorService scheduler, LatencyMetric ackLatency,
+                 int capacity) {
+        this.channels = channels;
+        this.scheduler = scheduler;
+        this.ackLatency = ackLatency;
+        this.capacity = capacity;
+        this.sentTimestamps = new AtomicLongArray(capacity);
+        this.sentNanos = new AtomicLongArray(capacity);
+    }
+
+    int size() {
+        return vehicles.size();
+    }
+
+    /**
+     * Starts {@code count} more vehicles, spreading their first reports
+     * evenly over {@code rampUp}.
+     */
+    void add(int count, Duration rampUp) {
+        int from = vehicles.size();
+        int to = Math.min(capacity, from + count);
+        long spreadNanos = Math.max(1, rampUp.toNanos() / Math.max(1, to - from));
+        for (int i = from; i < to; i++) {
+            Reporter vehicle = new Reporter(i);
+            vehicles.add(vehicle);
+            long delay = (i - from) * spreadNanos;
+            vehicle.task = scheduler.scheduleAtFixedRate(vehicle::tick, delay, TimeUnit.SECONDS.toNanos(1),
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    static String vehicleId(int index) {
+        return ID_PREFIX + index;
+    }
+
+    /**
+     * Index of a simulated vehicle ID, or -1 for a foreign one.
+     */
+    static int indexOf(String vehicleId) {
+        if (!vehicleId.startsWith(ID_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(vehicleId, ID_PREFIX.length(), vehicleId.length(), 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Nanotime at which the fix with this timestamp was sent, or -1 if the
+     * vehicle has sent a different fix since.
+     */
+    long sentAt(int index, long timestamp) {
+        if (index < 0 || index >= capacity) {
+            return -1;
+        }
+        long nanos = sentNanos.get(index);
+        return sentTimestamps.get(index) == timestamp ? nanos : -1;
+    }
+
+    @Override
+    public void close() {
+        for (Reporter vehicle : vehicles) {
+            vehicle.close();
+        }
+    }
+
+    private final class Reporter implements ClientResponseObserver<VehiclePosition, PositionAck> {
+
+        private final int index;
+        private final SimulatedVehicle vehicle;
+        private final long[] sentAt = new long[IN_FLIGHT];
+        private ClientCallStreamObserver<VehiclePosition> stream;
+        private ScheduledFuture<?> task;
+        private long sequence;
+        private long ackedSequence;
+        private boolean closed;
+
+        Reporter(int index) {
+            this.index = index;
+            this.vehicle = new SimulatedVehicle(vehicleId(index), index, startTimestamp);
+        }
+
+        void tick() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (stream == null) {
+                    ManagedChannel channel = channels.get(index % channels.size());
+                    VehicleTrackingServiceGrpc.newStub(channel).streamPositions(this);
+                }
+                VehiclePosition position = vehicle.next();
+                if (stream == null || !stream.isReady() || sequence - ackedSequence >= IN_FLIGHT) {
+                    deferred.increment();
+                    return;
+                }
+                long now = System.nanoTime();
+                sequence++;
+                sentAt[(int) (sequence % IN_FLIGHT)] = now;
+                sentTimestamps.set(index, position.getTimestamp());
+                sentNanos.set(index, now);
+                stream.onNext(position);
+            }
+            sent.increment();
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<VehiclePosition> requestStream) {
+            stream = requestStream;
+        }
+
+        @Override
+        public void onNext(PositionAck ack) {
+            long now = System.nanoTime();
+            synchronized (this) {
+                long upTo = Math.min(ack.getSequence(), sequence);
+                for (long s = ackedSequence + 1; s <= upTo; s++) {
+                    ackLatency.recordNanos(now - sentAt[(int) (s % IN_FLIGHT)]);
+                }
+                acked.add(Math.max(0, upTo - ackedSequence));
+                ackedSequence = Math.max(ackedSequence, upTo);
+            }
+            if (!ack.getReceived()) {
+                rejected.increment();
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            streamErrors.increment();
+            // Reconnect on the next tick with a fresh sequence; whatever was in flight is lost
+            stream = null;
+            sequence = 0;
+            ackedSequence = 0;
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (task != null) {
+                task.cancel(false);
+            }
+            if (stream != null) {
+                stream.onCompleted();
+            }
+        }
+    }
+}
@@ -4,15 +4,25 @@ import com.alvoratrack.grpc.VehiclePosition;
 import com.alvoratrack.grpc.fleet.FleetPositionAck;
 import com.alvoratrack.grpc.fleet.FleetPositionUpdate;
 import com.alvoratrack.grpc.fleet.FleetTrackingServiceGrpc;
+import com.alvoratrack.spool.DeliveryResult;
+import com.alvoratrack.spool.SpoolFactory;
+import com.alvoratrack.spool.SpoolReplayer;
+import com.google.protobuf.InvalidProtocolBufferException;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -26,23 +36,79 @@ public class AlvoraCoreClient {
     @ConfigProperty(name = "quarkus.grpc.clients.alvoracore.port", defaultValue = "9001")
     int port;
 
+    @ConfigProperty(name = "alvoracore.stream.enabled", defaultValue = "true")
+    boolean streamEnabled;
+
+    @ConfigProperty(name = "alvoracore.stream.streams", defaultValue = "2")
+    int streams;
+
+    @ConfigProperty(name = "alvoracore.stream.queue-capacity", defaultValue = "10000")
+    int queueCapacity;
+
+    @ConfigProperty(name = "alvoracore.stream.max-unary-in-flight", defaultValue = "32")
+    int maxUnaryInFlight;
+
+    @ConfigProperty(name = "alvoracore.stream.initial-backoff", defaultValue = "PT0.2S")
+    Duration initialBackoff;
+
+    @ConfigProperty(name = "alvoracore.stream.max-backoff", defaultValue = "PT30S")
+    Duration maxBackoff;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    SpoolFactory spoolFactory;
+
     private ManagedChannel channel;
+    private volatile AlvoraCoreStreamForwarder forwarder;
+    private SpoolReplayer spool;
     private FleetTrackingServiceGrpc.FleetTrackingServiceStub asyncStub;
     private FleetTrackingServiceGrpc.FleetTrackingServiceBlockingStub blockingStub;
 
+    // Shared with the stream forwarder's meters of the same name
+    private Counter sent;
+    private Counter rejected;
+    private Counter failed;
+    private Timer requestLatency;
+
     @PostConstruct
     void init() {
+        Tags tags = Tags.of("downstream", "alvoracore");
+        sent = Counter.builder("tracker.forward.sent").tags(tags).register(registry);
+        rejected = Counter.builder("tracker.forward.rejected").tags(tags).register(registry);
+        failed = Counter.builder("tracker.forward.failed").tags(tags).register(registry);
+        requestLatency = Timer.builder("tracker.forward.request.latency").tags(tags)
+                .publishPercentileHistogram().register(registry);
         LOG.infof("Initializing AlvoraCore gRPC client - connecting to %s:%d", host, port);
         channel = ManagedChannelBuilder.forAddress(host, port)
                 .usePlaintext()
                 .build();
         asyncStub = FleetTrackingServiceGrpc.newStub(channel);
         blockingStub = FleetTrackingServiceGrpc.newBlockingStub(channel);
+        spool = spoolFactory.open("alvoracore",
+                // Unary calls carry one update each
+                payloads -> deliver(parse(payloads.get(0))),
+                1,
+                bytes -> parse(bytes).getVehicleId(),
+                vehicleId -> forwarder == null || forwarder.isIdle(vehicleId));
+        if (streamEnabled) {
+            forwarder = new AlvoraCoreStreamForwarder(channel, new AlvoraCoreStreamForwarder.Settings(
+                    streams, queueCapacity, maxUnaryInFlight, initialBackoff, maxBackoff), registry, this::spool);
+            forwarder.start();
+        }
         LOG.info("AlvoraCore gRPC client initialized");
     }
 
     @PreDestroy
     void shutdown() {
+        if (forwarder != null) {
+            // Spools whatever is still queued or unacked, so close it first
+            forwarder.close();
+        }
+        if (spool != null) {
+            spool.close();
+        }
         if (channel != null) {
             try {
                 channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
@@ -54,35 +120,97 @@ public class AlvoraCoreClient {
         }
     }
 
+    /**
+     * Hands the position to the streaming forwarder. Positions that cannot be
+     * queued, or whose vehicle still has updates spooled, go to the spool.
+     * Returns false only if the position could be neither queued nor spooled.
+     */
+    public boolean forward(VehiclePosition position) {
+        return forward(toUpdate(position));
+    }
+
+    /**
+     * Forwards {@code event} (such as {@code trip_start}) at
+     * {@code position}, the same way as a position.
+     */
+    public boolean forwardEvent(VehiclePosition position, String event) {
+        return forward(toUpdate(position).toBuilder()
+                .setEvent(event)
+                .build());
+    }
+
+    /**
+     * Forwards {@code event} (such as {@code geofence_enter}) for the fence
+     * {@code geofenceId} at {@code position}, the same way as a position.
+     */
+    public boolean forwardEvent(VehiclePosition position, String event, String geofenceId) {
+        return forward(toUpdate(position).toBuilder()
+                .setEvent(event)
+                .setGeofenceId(geofenceId)
+                .build());
+    }
+
+    private boolean forward(FleetPositionUpdate update) {
+        if (spool != null && spool.holds(update.getVehicleId())) {
+            spool(update);
+            return true;
+        }
+        if (forwarder == null) {
+            deliver(update).thenAccept(result -> {
+                if (result == DeliveryResult.FAILED) {
+                    LOG.warnf("Failed to notify AlvoraCore: %s", update.getVehicleId());
+                    spool(update);
+                }
+            });
+            return true;
+        }
+        if (forwarder.offer(update)) {
+            return true;
+        }
+        spool(update);
+        return spool != null;
+    }
+
+    /**
+     * Writes the position to the spool without trying AlvoraCore first, for
+     * positions the ingest pipeline had no room to queue. Returns false if
+     * spooling is disabled.
+     */
+    public boolean spool(VehiclePosition position) {
+        spool(toUpdate(position));
+        return spool != null;
+    }
+
     public CompletableFuture<Boolean> sendPosition(VehiclePosition position) {
-        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        return deliver(toUpdate(position)).thenApply(result -> result == DeliveryResult.DELIVERED);
+    }
 
-        FleetPositionUpdate update = FleetPositionUpdate.newBuilder()
-                .setVehicleId(position.getVehicleId())
-                .setLatitude(position.getLatitude())
-                .setLongitude(position.getLongitude())
-                .setSpeedKph(position.getSpeedKph())
-                .setTimestamp(position.getTimestamp())
-                .setEvent(position.getSpeedKph() > 5 ? "moving" : "stopped")
-                .build();
+    CompletableFuture<DeliveryResult> deliver(FleetPositionUpdate update) {
+        CompletableFuture<DeliveryResult> future = new CompletableFuture<>();
+        long start = System.nanoTime();
 
         asyncStub.updatePosition(update, new StreamObserver<>() {
             @Override
             public void onNext(FleetPositionAck ack) {
+                requestLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
                 if (ack.getReceived()) {
-                    LOG.debugf("AlvoraCore accepted position for vehicle: %s", position.getVehicleId());
-                    future.complete(true);
+                    sent.increment();
+                    LOG.debugf("AlvoraCore accepted position for vehicle: %s", update.getVehicleId());
+                    future.complete(DeliveryResult.DELIVERED);
                 } else {
                     LOG.warnf("AlvoraCore rejected position for vehicle %s: %s",
-                            position.getVehicleId(), ack.getMessage());
-                    future.complete(false);
+                            update.getVehicleId(), ack.getMessage());
+                    rejected.increment();
+                    future.complete(DeliveryResult.REJECTED);
                 }
             }
 
             @Override
             public void onError(Throwable t) {
+                requestLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                failed.increment();
                 LOG.errorf("Failed to send position to AlvoraCore: %s", t.getMessage());
-                future.complete(false);
+                future.complete(DeliveryResult.FAILED);
             }
 
             @Override
@@ -96,20 +224,35 @@ public class AlvoraCoreClient {
 
     public boolean sendPositionSync(VehiclePosition position) {
         try {
-            FleetPositionUpdate update = FleetPositionUpdate.newBuilder()
-                    .setVehicleId(position.getVehicleId())
-                    .setLatitude(position.getLatitude())
-                    .setLongitude(position.getLongitude())
-                    .setSpeedKph(position.getSpeedKph())
-                    .setTimestamp(position.getTimestamp())
-                    .setEvent(position.getSpeedKph() > 5 ? "moving" : "stopped")
-                    .build();
-
-            FleetPositionAck ack = blockingStub.updatePosition(update);
+            FleetPositionAck ack = blockingStub.updatePosition(toUpdate(position));
             return ack.getReceived();
         } catch (Exception e) {
             LOG.errorf("Sync send to AlvoraCore failed: %s", e.getMessage());
             return false;
         }
     }
+
+    static FleetPositionUpdate toUpdate(VehiclePosition position) {
+        return FleetPositionUpdate.newBuilder()
+                .setVehicleId(position.getVehicleId())
+                .setLatitude(position.getLatitude())
+                .setLongitude(position.getLongitude())
+                .setSpeedKph(position.getSpeedKph())
+                .setTimestamp(position.getTimestamp())
+                .build();
+    }
+
+    private void spool(FleetPositionUpdate update) {
+        if (spool != null) {
+            spool.append(update.toByteArray());
+        }
+    }
+
+    private static FleetPositionUpdate parse(byte[] bytes) {
+        try {
+            return FleetPositionUpdate.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Corrupt spooled update", e);
+        }
+    }
 }
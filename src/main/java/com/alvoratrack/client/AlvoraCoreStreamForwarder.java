@@ -0,0 +1,453 @@
+package com.alvoratrack.client;
+
+import com.alvoratrack.grpc.fleet.FleetPositionAck;
+import com.alvoratrack.grpc.fleet.FleetPositionUpdate;
+import com.alvoratrack.grpc.fleet.FleetTrackingServiceGrpc;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Forwards position updates to AlvoraCore over a small pool of long-lived
+ * {@code StreamPositions} client streams. Each vehicle is pinned to one lane
+ * so its updates stay ordered; every lane has a bounded queue drained only
+ * while the stream is ready. AlvoraCore acks streamed updates one by one in
+ * order, so each lane keeps what it has written but not yet seen acked.
+ * Broken streams reconnect with exponential backoff, and a lane falls back
+ * to unary {@code UpdatePosition} calls when the server does not implement
+ * streaming. Unary calls run concurrently across vehicles but one at a time
+ * per vehicle, since separate calls may complete in any order; the lane
+ * waits while the update at its head belongs to a vehicle with a call in
+ * flight.
+ * <p>
+ * Nothing accepted by {@link #offer} is dropped silently: updates whose unary
+ * call fails, updates left unacked when a stream breaks (followed by the rest
+ * of that lane's queue, to keep each vehicle's order) and, on
+ * {@link #close}, everything still queued or unacked are handed to the
+ * failure callback.
+ */
+public class AlvoraCoreStreamForwarder implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(AlvoraCoreStreamForwarder.class);
+    private static final Tags TAGS = Tags.of("downstream", "alvoracore");
+    private static final long CLOSE_GRACE_MILLIS = 2000;
+
+    public record Settings(int streams, int queueCapacity, int maxUnaryInFlight,
+                           Duration initialBackoff, Duration maxBackoff) {
+    }
+
+    private final FleetTrackingServiceGrpc.FleetTrackingServiceStub stub;
+    private final Settings settings;
+    private final Lane[] lanes;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<FleetPositionUpdate> onFailure;
+
+    private final Counter sent;
+    private final Counter rejected;
+    private final Counter failed;
+    private final Counter overflow;
+    private final Counter reconnects;
+    private final Timer queueLag;
+    private final Timer requestLatency;
+
+    private volatile boolean closed;
+
+    public AlvoraCoreStreamForwarder(Channel channel, Settings settings, MeterRegistry registry,
+                                     Consumer<FleetPositionUpdate> onFailure) {
+        this.stub = FleetTrackingServiceGrpc.newStub(channel);
+        this.settings = settings;
+        this.onFailure = onFailure;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "alvoracore-stream-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.sent = Counter.builder("tracker.forward.sent").tags(TAGS).register(registry);
+        this.rejected = Counter.builder("tracker.forward.rejected").tags(TAGS).register(registry);
+        this.failed = Counter.builder("tracker.forward.failed").tags(TAGS).register(registry);
+        this.overflow = Counter.builder("tracker.forward.overflow").tags(TAGS).register(registry);
+        this.reconnects = Counter.builder("tracker.forward.reconnects").tags(TAGS).register(registry);
+        this.queueLag = Timer.builder("tracker.forward.queue.lag").tags(TAGS)
+                .publishPercentileHistogram().register(registry);
+        // Streamed updates are acked without a sequence, so only unary calls are timed
+        this.requestLatency = Timer.builder("tracker.forward.request.latency").tags(TAGS)
+                .publishPercentileHistogram().register(registry);
+
+        this.lanes = new Lane[settings.streams()];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i);
+        }
+        registry.gauge("tracker.forward.queue.depth", TAGS, this, AlvoraCoreStreamForwarder::queueDepth);
+    }
+
+    public void start() {
+        for (Lane lane : lanes) {
+            lane.connect();
+        }
+    }
+
+    /**
+     * Queues an update for its vehicle's lane. Returns false when the lane's
+     * queue is full and the update was not accepted.
+     */
+    public boolean offer(FleetPositionUpdate update) {
+        Lane lane = lane(update.getVehicleId());
+        if (!lane.queue.offer(new Pending(update, System.nanoTime()))) {
+            overflow.increment();
+            return false;
+        }
+        lane.drain();
+        return true;
+    }
+
+    private Lane lane(String vehicleId) {
+        int h = vehicleId.hashCode();
+        return lanes[Math.floorMod(h ^ (h >>> 16), lanes.length)];
+    }
+
+    public int queueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * True when nothing is queued, waiting for an ack or in a unary call.
+     */
+    public boolean isIdle() {
+        for (Lane lane : lanes) {
+            if (!lane.queue.isEmpty() || lane.unackedCount() > 0
+                    || lane.unaryPermits.availablePermits() < settings.maxUnaryInFlight()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True when none of the vehicle's updates is queued, waiting for an ack
+     * or in a unary call, so its spooled ones can be replayed without
+     * overtaking them.
+     */
+    public boolean isIdle(String vehicleId) {
+        Lane lane = lane(vehicleId);
+        // Updates leave the queue only once they are unacked or in a unary call, so look there second
+        for (Pending pending : lane.queue) {
+            if (pending.update().getVehicleId().equals(vehicleId)) {
+                return false;
+            }
+        }
+        if (lane.unaryVehicles.contains(vehicleId)) {
+            return false;
+        }
+        synchronized (lane.unacked) {
+            for (FleetPositionUpdate update : lane.unacked) {
+                if (update.getVehicleId().equals(vehicleId)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean isStreaming() {
+        for (Lane lane : lanes) {
+            if (lane.stream == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops writing, gives AlvoraCore up to {@value #CLOSE_GRACE_MILLIS} ms
+     * to ack what is in flight and finish unary calls, then hands everything unacked or still
+     * queued to the failure callback.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        scheduler.shutdownNow();
+        for (Lane lane : lanes) {
+            lane.takeOver();
+            ClientCallStreamObserver<FleetPositionUpdate> stream = lane.stream;
+            if (stream != null) {
+                stream.onCompleted();
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_GRACE_MILLIS);
+        for (Lane lane : lanes) {
+            while ((lane.unackedCount() > 0 || lane.unaryPermits.availablePermits() < settings.maxUnaryInFlight())
+                    && System.nanoTime() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            lane.stream = null;
+            lane.spill();
+        }
+    }
+
+    private record Pending(FleetPositionUpdate update, long enqueuedAt) {
+    }
+
+    private final class Lane implements ClientResponseObserver<FleetPositionUpdate, FleetPositionAck> {
+
+        private final int id;
+        private final ArrayBlockingQueue<Pending> queue = new ArrayBlockingQueue<>(settings.queueCapacity());
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Semaphore unaryPermits = new Semaphore(settings.maxUnaryInFlight());
+        // Vehicles with a unary call in flight
+        private final Set<String> unaryVehicles = ConcurrentHashMap.newKeySet();
+        // Written to the current stream and not acked yet, oldest first
+        private final ArrayDeque<FleetPositionUpdate> unacked = new ArrayDeque<>();
+
+        private volatile ClientCallStreamObserver<FleetPositionUpdate> stream;
+        private volatile boolean unaryMode;
+        private volatile long backoffMillis = settings.initialBackoff().toMillis();
+        private volatile boolean broken;
+
+        Lane(int id) {
+            this.id = id;
+        }
+
+        void connect() {
+            if (closed) {
+                return;
+            }
+            stub.streamPositions(this);
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<FleetPositionUpdate> requestStream) {
+            requestStream.setOnReadyHandler(() -> {
+                if (stream != requestStream) {
+                    stream = requestStream;
+                    backoffMillis = settings.initialBackoff().toMillis();
+                    LOG.infof("AlvoraCore stream %d ready", id);
+                }
+                drain();
+            });
+        }
+
+        @Override
+        public void onNext(FleetPositionAck ack) {
+            synchronized (unacked) {
+                unacked.pollFirst();
+            }
+            if (ack.getReceived()) {
+                sent.increment();
+            } else {
+                rejected.increment();
+                LOG.debugf("AlvoraCore rejected position for vehicle %s: %s", ack.getVehicleId(), ack.getMessage());
+            }
+            if (!queue.isEmpty()) {
+                // Writing may have paused at the unacked limit
+                drain();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            stream = null;
+            broken = true;
+            drain();
+            if (closed) {
+                return;
+            }
+            Status status = Status.fromThrowable(t);
+            if (status.getCode() == Status.Code.UNIMPLEMENTED) {
+                if (!unaryMode) {
+                    LOG.warnf("AlvoraCore does not implement StreamPositions - stream %d falling back to unary calls", id);
+                }
+                unaryMode = true;
+                drain();
+                // Probe for streaming support again later
+                scheduler.schedule(this::connect, settings.maxBackoff().toMillis(), TimeUnit.MILLISECONDS);
+                return;
+            }
+            LOG.warnf("AlvoraCore stream %d failed (%s), reconnecting in %d ms", id, status.getCode(), backoffMillis);
+            scheduleReconnect();
+        }
+
+        @Override
+        public void onCompleted() {
+            stream = null;
+            broken = true;
+            drain();
+            if (!closed) {
+                LOG.infof("AlvoraCore closed stream %d, reconnecting", id);
+                scheduleReconnect();
+            }
+        }
+
+        private void scheduleReconnect() {
+            reconnects.increment();
+            long delay = backoffMillis;
+            backoffMillis = Math.min(backoffMillis * 2, settings.maxBackoff().toMillis());
+            scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        }
+
+        int unackedCount() {
+            synchronized (unacked) {
+                return unacked.size();
+            }
+        }
+
+        /**
+         * Single-drainer loop: whichever thread wins {@code wip} writes while
+         * the transport is ready, others just mark that more work arrived.
+         * Only the drainer adds to {@code unacked}, so a broken stream is
+         * spilled here too and nothing written to it can slip past.
+         */
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (broken) {
+                    broken = false;
+                    if (unackedCount() > 0) {
+                        spill();
+                    }
+                }
+                ClientCallStreamObserver<FleetPositionUpdate> current = stream;
+                if (closed) {
+                    // close() takes the lane over once this loop lets go
+                } else if (current != null) {
+                    unaryMode = false;
+                    while (current.isReady() && unackedCount() < settings.queueCapacity()) {
+                        Pending pending = queue.peek();
+                        // A unary call left from before the stream came back must land first
+                        if (pending == null || unaryInFlight(pending.update())) {
+                            break;
+                        }
+                        // Unacked before it leaves the queue, so isIdle never misses it
+                        synchronized (unacked) {
+                            unacked.addLast(pending.update());
+                        }
+                        queue.poll();
+                        queueLag.record(System.nanoTime() - pending.enqueuedAt(), TimeUnit.NANOSECONDS);
+                        current.onNext(pending.update());
+                    }
+                } else if (unaryMode) {
+                    while (unaryPermits.tryAcquire()) {
+                        Pending pending = queue.peek();
+                        if (pending == null || !unaryVehicles.add(pending.update().getVehicleId())) {
+                            // Drained again when the vehicle's call completes
+                            unaryPermits.release();
+                            break;
+                        }
+                        queue.poll();
+                        queueLag.record(System.nanoTime() - pending.enqueuedAt(), TimeUnit.NANOSECONDS);
+                        sendUnary(pending.update());
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        private boolean unaryInFlight(FleetPositionUpdate update) {
+            return !unaryVehicles.isEmpty() && unaryVehicles.contains(update.getVehicleId());
+        }
+
+        /**
+         * Makes the calling thread this lane's drainer for good, so nothing
+         * else writes to it or takes from its queue.
+         */
+        void takeOver() {
+            while (!wip.compareAndSet(0, 1)) {
+                Thread.onSpinWait();
+            }
+        }
+
+        /**
+         * Hands the unacked updates, then the queued ones behind them, to the
+         * failure callback. Called by the lane's drainer.
+         */
+        void spill() {
+            List<FleetPositionUpdate> lost;
+            synchronized (unacked) {
+                lost = new ArrayList<>(unacked);
+            }
+            failed.increment(lost.size());
+            // Each update is spooled before the lane lets go of it, so isIdle never misses one
+            lost.forEach(onFailure);
+            synchronized (unacked) {
+                unacked.clear();
+            }
+            Pending pending;
+            while ((pending = queue.peek()) != null) {
+                onFailure.accept(pending.update());
+                queue.poll();
+            }
+            if (!lost.isEmpty()) {
+                LOG.warnf("AlvoraCore stream %d lost %d unacked updates, spooled them", id, lost.size());
+            }
+        }
+
+        private void sendUnary(FleetPositionUpdate update) {
+            long start = System.nanoTime();
+            stub.updatePosition(update, new StreamObserver<>() {
+                @Override
+                public void onNext(FleetPositionAck ack) {
+                    requestLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    if (ack.getReceived()) {
+                        sent.increment();
+                    } else {
+                        rejected.increment();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    requestLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    failed.increment();
+                    LOG.debugf("Unary send to AlvoraCore failed: %s", t.getMessage());
+                    onFailure.accept(update);
+                    finished();
+                }
+
+                @Override
+                public void onCompleted() {
+                    finished();
+                }
+
+                private void finished() {
+                    unaryVehicles.remove(update.getVehicleId());
+                    unaryPermits.release();
+                    drain();
+                }
+            });
+        }
+    }
+}
@@ -1,19 +1,23 @@
 package com.alvoratrack.client;
 
 import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.spool.DeliveryResult;
+import com.alvoratrack.spool.SpoolFactory;
+import com.alvoratrack.spool.SpoolReplayer;
+import com.alvoratrack.util.HotPathLog;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
-import org.eclipse.microprofile.config.inject.ConfigProperties;
+import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
-import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @ApplicationScoped
 public class TraccarClient {
@@ -26,45 +30,97 @@ public class TraccarClient {
     @ConfigProperty(name = "traccar.timeout", defaultValue = "5")
     int timeout;
 
-    private HttpClient client;
+    @ConfigProperty(name = "traccar.forward.max-in-flight", defaultValue = "64")
+    int maxInFlight;
+
+    @ConfigProperty(name = "traccar.forward.queue-capacity", defaultValue = "20000")
+    int queueCapacity;
+
+    @ConfigProperty(name = "traccar.forward.batch.enabled", defaultValue = "false")
+    boolean batchEnabled;
+
+    @ConfigProperty(name = "traccar.forward.batch.size", defaultValue = "50")
+    int batchSize;
+
+    @ConfigProperty(name = "traccar.forward.batch.path", defaultValue = "/")
+    String batchPath;
+
+    @Inject
+    SpoolFactory spoolFactory;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    HotPathLog hotPathLog;
+
+    private ExecutorService executor;
+    private TraccarForwarder forwarder;
+    private SpoolReplayer spool;
 
     @PostConstruct
     private void init() {
-        client = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(timeout))
-                .build();
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        forwarder = new TraccarForwarder(new TraccarForwarder.Settings(url, maxInFlight, queueCapacity,
+                Duration.ofSeconds(timeout), batchEnabled, batchSize, batchPath), executor, registry, hotPathLog,
+                this::failed);
+        spool = spoolFactory.open("traccar",
+                payloads -> forwarder.send(payloads.stream().map(TraccarClient::parse).toList()),
+                batchEnabled ? batchSize : 1,
+                bytes -> parse(bytes).getVehicleId(),
+                vehicleId -> forwarder.isIdle(vehicleId));
     }
 
+    @PreDestroy
+    void shutdown() {
+        // Queued positions would be lost with the process; spool them first
+        forwarder.drainTo(this::failed);
+        if (spool != null) {
+            spool.close();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues the position for Traccar. Positions that cannot be queued or
+     * delivered, or whose vehicle still has positions spooled, go to the
+     * spool so each vehicle's positions stay in order.
+     */
+    public void forward(VehiclePosition position) {
+        if (spool != null && spool.holds(position.getVehicleId())) {
+            spool.append(position.toByteArray());
+            return;
+        }
+        if (!forwarder.offer(position)) {
+            failed(position);
+        }
+    }
+
+    /**
+     * Writes the position to the spool without trying Traccar first, for
+     * positions the ingest pipeline had no room to queue.
+     */
+    public void spool(VehiclePosition position) {
+        failed(position);
+    }
 
     public CompletableFuture<Boolean> sendPosition(VehiclePosition position) {
-        double knots = position.getSpeedKph() * KPH_TO_KNOTS;
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(
-                        url + "/?id=" + position.getVehicleId()
-                                + "&lat=" + position.getLatitude()
-                                + "&lon=" + position.getLongitude()
-                                + "&timestamp=" + position.getTimestamp()
-                                + "&speed=" + knots
-                                + "&bearing=" + position.getBearing()
-                ))
-                .timeout(Duration.ofSeconds(timeout))
-                .GET()
-                .build();
-        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                .thenApply(response -> {
-                    if (response.statusCode() == 200) {
-                        LOG.debugf("Traccar accepted position for vehicle: %s", position.getVehicleId());
-                        return true;
-                    } else {
-                        LOG.warnf("Traccar rejected position. Status: %d, Body: %s",
-                                response.statusCode(), response.body());
-                        return false;
-                    }
-                })
-                .exceptionally(throwable -> {
-                    LOG.errorf("Failed to send to Traccar: %s", throwable.getMessage());
-                    return false;
-                });
+        return forwarder.send(position).thenApply(result -> result == DeliveryResult.DELIVERED);
+    }
+
+    private void failed(VehiclePosition position) {
+        if (spool != null) {
+            spool.append(position.toByteArray());
+        } else {
+            LOG.warnf("Failed to forward to Traccar: %s", position.getVehicleId());
+        }
+    }
+
+    private static VehiclePosition parse(byte[] bytes) {
+        try {
+            return VehiclePosition.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Corrupt spooled position", e);
+        }
     }
 }
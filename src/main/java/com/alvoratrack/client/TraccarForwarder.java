@@ -0,0 +1,369 @@
+package com.alvoratrack.client;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.spool.DeliveryResult;
+import com.alvoratrack.util.HotPathLog;
+import com.alvoratrack.util.Json;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.jboss.logging.Logger;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Forwards positions to Traccar's OsmAnd endpoint over a shared HTTP/1.1
+ * client. Vehicles are hashed onto a fixed number of lanes; each lane has a
+ * bounded queue and at most one request in flight, so a vehicle's positions
+ * arrive in order while the lane count caps concurrent requests (and with it
+ * the number of pooled keep-alive connections). With batching enabled a lane
+ * posts everything it has queued, up to the batch size, as one JSON array.
+ * Positions whose request fails are handed to the failure callback.
+ */
+public class TraccarForwarder {
+
+    private static final Logger LOG = Logger.getLogger(TraccarForwarder.class);
+    private static final Tags TAGS = Tags.of("downstream", "traccar");
+
+    public record Settings(String url, int maxInFlight, int queueCapacity, Duration requestTimeout,
+                           boolean batchEnabled, int batchSize, String batchPath) {
+    }
+
+    private final Settings settings;
+    private final HttpClient client;
+    private final URI batchUri;
+    private final Lane[] lanes;
+    private final Consumer<VehiclePosition> onFailure;
+    private final HotPathLog hotPathLog;
+
+    private final Counter sent;
+    private final Counter rejected;
+    private final Counter failed;
+    private final Counter overflow;
+    private final Counter clientErrors;
+    private final Counter serverErrors;
+    private final Timer queueLag;
+    private final Timer requestLatency;
+
+    public TraccarForwarder(Settings settings, Executor executor, MeterRegistry registry, HotPathLog hotPathLog,
+                            Consumer<VehiclePosition> onFailure) {
+        this.settings = settings;
+        this.onFailure = onFailure;
+        this.hotPathLog = hotPathLog;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(settings.requestTimeout())
+                .executor(executor)
+                .build();
+        this.batchUri = URI.create(settings.url() + settings.batchPath());
+
+        this.sent = Counter.builder("tracker.forward.sent").tags(TAGS).register(registry);
+        this.rejected = Counter.builder("tracker.forward.rejected").tags(TAGS).register(registry);
+        this.failed = Counter.builder("tracker.forward.failed").tags(TAGS).register(registry);
+        this.overflow = Counter.builder("tracker.forward.overflow").tags(TAGS).register(registry);
+        this.clientErrors = Counter.builder("tracker.forward.error.responses").tags(TAGS).tag("status", "4xx")
+                .register(registry);
+        this.serverErrors = Counter.builder("tracker.forward.error.responses").tags(TAGS).tag("status", "5xx")
+                .register(registry);
+        this.queueLag = Timer.builder("tracker.forward.queue.lag").tags(TAGS)
+                .publishPercentileHistogram().register(registry);
+        this.requestLatency = Timer.builder("tracker.forward.request.latency").tags(TAGS)
+                .publishPercentileHistogram().register(registry);
+
+        int perLane = Math.max(1, settings.queueCapacity() / settings.maxInFlight());
+        this.lanes = new Lane[settings.maxInFlight()];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(perLane);
+        }
+        registry.gauge("tracker.forward.queue.depth", TAGS, this, TraccarForwarder::queueDepth);
+    }
+
+    /**
+     * Queues a position on its vehicle's lane. Returns false when the lane is
+     * full and the position was not accepted.
+     */
+    public boolean offer(VehiclePosition position) {
+        Lane lane = lane(position.getVehicleId());
+        if (!lane.queue.offer(new Pending(position, System.nanoTime()))) {
+            overflow.increment();
+            return false;
+        }
+        lane.drain();
+        return true;
+    }
+
+    private Lane lane(String vehicleId) {
+        int h = vehicleId.hashCode();
+        return lanes[Math.floorMod(h ^ (h >>> 16), lanes.length)];
+    }
+
+    public int queueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * True when no lane has positions queued or a request in flight.
+     */
+    public boolean isIdle() {
+        for (Lane lane : lanes) {
+            if (lane.busy || !lane.queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True when none of the vehicle's positions is queued or in flight, so
+     * its spooled ones can be replayed without overtaking them.
+     */
+    public boolean isIdle(String vehicleId) {
+        Lane lane = lane(vehicleId);
+        // A position leaving the queue is covered by taking until it is in flight, so look there second
+        for (Pending pending : lane.queue) {
+            if (pending.position().getVehicleId().equals(vehicleId)) {
+                return false;
+            }
+        }
+        if (lane.taking) {
+            return false;
+        }
+        for (Pending pending : lane.inFlight) {
+            if (pending.position().getVehicleId().equals(vehicleId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes every queued position off the lanes and hands it to
+     * {@code consumer}, in each lane's order; used at shutdown.
+     */
+    public void drainTo(Consumer<VehiclePosition> consumer) {
+        for (Lane lane : lanes) {
+            Pending pending;
+            while ((pending = lane.queue.poll()) != null) {
+                consumer.accept(pending.position());
+            }
+        }
+    }
+
+    /**
+     * Sends a single position outside the lanes.
+     */
+    public CompletableFuture<DeliveryResult> send(VehiclePosition position) {
+        return execute(single(position), position.getVehicleId(), 1);
+    }
+
+    /**
+     * Sends one vehicle's positions outside the lanes, as one batch request
+     * when there are several; used for spool replay.
+     */
+    public CompletableFuture<DeliveryResult> send(List<VehiclePosition> positions) {
+        if (positions.size() == 1) {
+            return send(positions.get(0));
+        }
+        List<Pending> batch = new ArrayList<>(positions.size());
+        for (VehiclePosition position : positions) {
+            batch.add(new Pending(position, 0));
+        }
+        return execute(batch(batch), positions.get(0).getVehicleId(), batch.size());
+    }
+
+    private HttpRequest single(VehiclePosition position) {
+        return HttpRequest.newBuilder(URI.create(query(settings.url(), position)))
+                .timeout(settings.requestTimeout())
+                .GET()
+                .build();
+    }
+
+    private HttpRequest batch(List<Pending> batch) {
+        StringBuilder json = new StringBuilder(batch.size() * 192);
+        json.append('[');
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendLocation(json, batch.get(i).position());
+        }
+        json.append(']');
+        return HttpRequest.newBuilder(batchUri)
+                .timeout(settings.requestTimeout())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json.toString()))
+                .build();
+    }
+
+    /**
+     * Sends a request carrying {@code count} positions and counts its outcome,
+     * so lane and spool replay traffic land in the same meters.
+     */
+    private CompletableFuture<DeliveryResult> execute(HttpRequest request, String vehicleId, int count) {
+        long start = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(response -> {
+                    int status = response.statusCode();
+                    if (status == 200) {
+                        return DeliveryResult.DELIVERED;
+                    }
+                    boolean clientError = status >= 400 && status < 500;
+                    if (clientError) {
+                        clientErrors.increment();
+                    } else if (status >= 500) {
+                        serverErrors.increment();
+                    }
+                    // Traccar may refuse every request at full ingest rate; keep the log within budget
+                    if (hotPathLog.traced(vehicleId) || hotPathLog.allowWarning()) {
+                        LOG.warnf("Traccar rejected position for vehicle %s. Status: %d", vehicleId, status);
+                    }
+                    // 4xx will not succeed on retry, anything else might
+                    return clientError ? DeliveryResult.REJECTED : DeliveryResult.FAILED;
+                })
+                .exceptionally(t -> {
+                    LOG.debugf("Failed to send to Traccar: %s", t.getMessage());
+                    return DeliveryResult.FAILED;
+                })
+                .thenApply(result -> {
+                    requestLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    switch (result) {
+                        case DELIVERED -> sent.increment(count);
+                        case REJECTED -> rejected.increment(count);
+                        case FAILED -> failed.increment(count);
+                    }
+                    return result;
+                });
+    }
+
+    static String query(String url, VehiclePosition position) {
+        StringBuilder query = new StringBuilder(url.length() + 160);
+        query.append(url).append("/?id=");
+        appendEncoded(query, position.getVehicleId());
+        query.append("&lat=").append(position.getLatitude())
+                .append("&lon=").append(position.getLongitude())
+                .append("&timestamp=").append(position.getTimestamp())
+                .append("&speed=").append(position.getSpeedKph() * TraccarClient.KPH_TO_KNOTS)
+                .append("&bearing=").append(position.getBearing());
+        if (position.getAltitude() != 0) {
+            query.append("&altitude=").append(position.getAltitude());
+        }
+        if (position.getAccuracy() != 0) {
+            query.append("&accuracy=").append(position.getAccuracy());
+        }
+        return query.toString();
+    }
+
+    static void appendLocation(StringBuilder json, VehiclePosition position) {
+        json.append("{\"device_id\":");
+        Json.appendString(json, position.getVehicleId());
+        json.append(",\"location\":{\"timestamp\":").append(position.getTimestamp())
+                .append(",\"coords\":{\"latitude\":").append(position.getLatitude())
+                .append(",\"longitude\":").append(position.getLongitude())
+                .append(",\"speed\":").append(position.getSpeedKph() * TraccarClient.KPH_TO_KNOTS)
+                .append(",\"heading\":").append(position.getBearing())
+                .append(",\"altitude\":").append(position.getAltitude())
+                .append(",\"accuracy\":").append(position.getAccuracy())
+                .append("}}}");
+    }
+
+    private static void appendEncoded(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~') {
+                continue;
+            }
+            out.append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+            return;
+        }
+        out.append(value);
+    }
+
+    private record Pending(VehiclePosition position, long enqueuedAt) {
+    }
+
+    private final class Lane {
+
+        private final ArrayBlockingQueue<Pending> queue;
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean busy;
+        private volatile boolean taking;
+        private volatile List<Pending> inFlight = List.of();
+
+        Lane(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * Single-drainer loop: starts the next request only when the lane has
+         * nothing in flight, so queued positions keep their order.
+         */
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (!busy && !queue.isEmpty()) {
+                    List<Pending> batch = take();
+                    if (!batch.isEmpty()) {
+                        busy = true;
+                        send(batch);
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        private List<Pending> take() {
+            int max = settings.batchEnabled() ? settings.batchSize() : 1;
+            List<Pending> batch = new ArrayList<>(Math.min(max, queue.size()));
+            taking = true;
+            queue.drainTo(batch, max);
+            inFlight = batch;
+            taking = false;
+            long now = System.nanoTime();
+            for (Pending pending : batch) {
+                queueLag.record(now - pending.enqueuedAt(), TimeUnit.NANOSECONDS);
+            }
+            return batch;
+        }
+
+        private void send(List<Pending> batch) {
+            HttpRequest request = batch.size() == 1
+                    ? single(batch.get(0).position()) : batch(batch);
+            execute(request, batch.get(0).position().getVehicleId(), batch.size()).whenComplete((result, t) -> {
+                if (result == null || result == DeliveryResult.FAILED) {
+                    // Queued positions follow the failed ones so the vehicle's order holds
+                    batch.forEach(pending -> onFailure.accept(pending.position()));
+                    Pending pending;
+                    while ((pending = queue.peek()) != null) {
+                        // Spooled before it leaves the queue, so isIdle never misses it
+                        onFailure.accept(pending.position());
+                        queue.poll();
+                    }
+                }
+                inFlight = List.of();
+                busy = false;
+                drain();
+            });
+        }
+    }
+}
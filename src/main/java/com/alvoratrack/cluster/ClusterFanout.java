@@ -0,0 +1,294 @@
+package com.alvoratrack.cluster;
+
+import com.alvoratrack.geo.SpatialIndex;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.service.LatestPositionStore;
+import com.alvoratrack.thinning.DownstreamThinning;
+import com.alvoratrack.thinning.PositionThinner;
+import com.alvoratrack.util.ConcurrentMaps;
+import com.alvoratrack.websocket.AdminFleetBroadcaster;
+import com.alvoratrack.websocket.ConnectionManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.pubsub.ReactivePubSubCommands;
+import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Vertx;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries WebSocket position updates between replicas over Redis pub/sub,
+ * so a client sees a vehicle whichever node ingested it. Each node
+ * coalesces its updates per vehicle (last write wins) and publishes them as
+ * one {@link FanoutBatch} per tick; every node subscribes to the channel,
+ * ignores its own batches, and records every other update in its own
+ * {@link SpatialIndex}, so area and nearest queries see the whole fleet.
+ * Updates the index applied also refresh this node's
+ * {@link LatestPositionStore}, so it does not keep serving a position another
+ * node has since replaced. They are then sent to local subscribers of the
+ * vehicle and, through this node's own admin {@link PositionThinner} as
+ * local ones are in the ingest pipeline, to admin viewports the vehicle is
+ * in or just left. A failed subscribe is retried with exponential backoff.
+ * Pub/sub is fire-and-forget: a node that is disconnected misses updates
+ * until the vehicle reports again.
+ */
+@ApplicationScoped
+public class ClusterFanout {
+
+    private static final Logger LOG = Logger.getLogger(ClusterFanout.class);
+
+    @Inject
+    ReactiveRedisDataSource redisDS;
+
+    @Inject
+    ConnectionManager connections;
+
+    @Inject
+    AdminFleetBroadcaster adminFleetBroadcaster;
+
+    @Inject
+    DownstreamThinning thinning;
+
+    @Inject
+    SpatialIndex spatialIndex;
+
+    @Inject
+    LatestPositionStore localStore;
+
+    @Inject
+    Vertx vertx;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "cluster.fanout.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "cluster.fanout.channel", defaultValue = "tracker:fanout")
+    String channel;
+
+    @ConfigProperty(name = "cluster.fanout.tick-ms", defaultValue = "100")
+    long tickMillis;
+
+    @ConfigProperty(name = "cluster.fanout.initial-backoff", defaultValue = "PT1S")
+    Duration initialBackoff;
+
+    @ConfigProperty(name = "cluster.fanout.max-backoff", defaultValue = "PT30S")
+    Duration maxBackoff;
+
+    @ConfigProperty(name = "cluster.node-id")
+    Optional<String> configuredNodeId;
+
+    private final ConcurrentMap<String, Update> pending = new ConcurrentHashMap<>();
+
+    private String nodeId;
+    private PositionThinner adminThinner;
+    private ReactivePubSubCommands<byte[]> pubsub;
+    private volatile ReactivePubSubCommands.ReactiveRedisSubscriber subscriber;
+    private long timerId = -1;
+    private long retryTimerId = -1;
+    private volatile boolean stopped;
+    private Counter published;
+    private Counter publishFailed;
+    private Counter delivered;
+    private Counter filtered;
+    private Counter invalid;
+    private Counter bytesOut;
+    private Counter bytesIn;
+    private Timer publishLag;
+    private Timer consumeLag;
+
+    void onStart(@Observes StartupEvent event) {
+        if (enabled) {
+            start();
+        }
+    }
+
+    void start() {
+        nodeId = configuredNodeId.filter(id -> !id.isBlank()).orElseGet(() -> UUID.randomUUID().toString());
+        published = updates("published");
+        publishFailed = updates("publish_failed");
+        delivered = updates("delivered");
+        filtered = updates("filtered");
+        invalid = updates("invalid");
+        bytesOut = Counter.builder("tracker.cluster.fanout.bytes").tag("direction", "out").register(registry);
+        bytesIn = Counter.builder("tracker.cluster.fanout.bytes").tag("direction", "in").register(registry);
+        publishLag = lag("publish");
+        consumeLag = lag("consume");
+        registry.gauge("tracker.cluster.fanout.pending", pending, Map::size);
+        adminThinner = thinning.create(DownstreamThinning.Destination.ADMIN, adminFleetBroadcaster::submit);
+
+        pubsub = redisDS.pubsub(byte[].class);
+        subscribe(initialBackoff.toMillis());
+        timerId = vertx.setPeriodic(tickMillis, id -> flush());
+        LOG.infof("Cluster fan-out started on %s as node %s - tick %d ms", channel, nodeId, tickMillis);
+    }
+
+    private void subscribe(long backoffMillis) {
+        pubsub.subscribe(channel, this::receive)
+                .subscribe().with(
+                        s -> {
+                            subscriber = s;
+                            if (stopped) {
+                                s.unsubscribe().subscribe().with(ignored -> { }, failure -> { });
+                            }
+                        },
+                        failure -> {
+                            if (stopped) {
+                                return;
+                            }
+                            LOG.errorf("Cluster fan-out could not subscribe to %s, retrying in %d ms: %s", channel,
+                                    backoffMillis, failure.getMessage());
+                            retryTimerId = vertx.setTimer(backoffMillis,
+                                    id -> subscribe(Math.min(backoffMillis * 2, maxBackoff.toMillis())));
+                        });
+    }
+
+    @PreDestroy
+    void stop() {
+        stopped = true;
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+        }
+        if (retryTimerId >= 0) {
+            vertx.cancelTimer(retryTimerId);
+        }
+        if (subscriber != null) {
+            subscriber.unsubscribe().subscribe().with(ignored -> { }, failure -> { });
+        }
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    boolean subscribed() {
+        return subscriber != null;
+    }
+
+    /**
+     * Queues a locally ingested position for the next tick. {@code previous}
+     * is the position it replaced, so other nodes' viewports can tell the
+     * vehicle left them.
+     */
+    public void publish(VehiclePosition position, VehiclePosition previous) {
+        if (!enabled) {
+            return;
+        }
+        Update update = new Update(position, previous, System.nanoTime());
+        pending.merge(position.getVehicleId(), update,
+                (queued, next) -> new Update(next.latest(), queued.previous(), queued.queuedAt()));
+    }
+
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Update> updates = ConcurrentMaps.drain(pending);
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        FanoutBatch.Writer batch = new FanoutBatch.Writer(nodeId, System.currentTimeMillis(), updates.size());
+        long oldest = Long.MAX_VALUE;
+        for (Update update : updates) {
+            batch.add(update.latest(), update.previous());
+            oldest = Math.min(oldest, update.queuedAt());
+        }
+        byte[] message = batch.toByteArray();
+        long queuedAt = oldest;
+        int count = updates.size();
+        pubsub.publish(channel, message)
+                .subscribe().with(
+                        ignored -> {
+                            published.increment(count);
+                            bytesOut.increment(message.length);
+                            publishLag.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                        },
+                        failure -> {
+                            publishFailed.increment(count);
+                            LOG.warnf("Cluster fan-out publish of %d updates failed: %s", count,
+                                    failure.getMessage());
+                        });
+    }
+
+    void receive(byte[] message) {
+        FanoutBatch.Reader batch;
+        try {
+            batch = new FanoutBatch.Reader(message);
+        } catch (RuntimeException e) {
+            invalid.increment();
+            LOG.warnf("Ignoring unreadable cluster fan-out message: %s", e.getMessage());
+            return;
+        }
+        if (batch.nodeId().equals(nodeId)) {
+            return;
+        }
+        bytesIn.increment(message.length);
+        consumeLag.record(Math.max(0, System.currentTimeMillis() - batch.publishedAt()), TimeUnit.MILLISECONDS);
+
+        try {
+            while (batch.next()) {
+                String vehicleId = batch.vehicleId();
+                VehiclePosition position = batch.position();
+                if (!spatialIndex.update(position).applied()) {
+                    filtered.increment();
+                    continue;
+                }
+                localStore.refresh(position);
+                boolean vehicleInterest = connections.hasVehicleSubscribers(vehicleId);
+                boolean adminInterest = connections.hasAdminInterest(vehicleId, batch.latitude(), batch.longitude())
+                        || batch.hasPrevious() && connections.hasAdminInterest(vehicleId,
+                        batch.previousLatitude(), batch.previousLongitude());
+                if (!vehicleInterest && !adminInterest) {
+                    filtered.increment();
+                    continue;
+                }
+                if (vehicleInterest) {
+                    connections.sendPosition(position);
+                }
+                if (adminInterest) {
+                    VehiclePosition previous = batch.hasPrevious()
+                            ? VehiclePosition.newBuilder()
+                            .setVehicleId(vehicleId)
+                            .setLatitude(batch.previousLatitude())
+                            .setLongitude(batch.previousLongitude())
+                            .build()
+                            : null;
+                    adminThinner.offer(position, previous);
+                }
+                delivered.increment();
+            }
+        } catch (RuntimeException e) {
+            invalid.increment();
+            LOG.warnf("Stopped reading cluster fan-out message from %s: %s", batch.nodeId(), e.getMessage());
+        }
+    }
+
+    private Counter updates(String outcome) {
+        return Counter.builder("tracker.cluster.fanout.updates").tag("outcome", outcome).register(registry);
+    }
+
+    private Timer lag(String stage) {
+        return Timer.builder("tracker.cluster.fanout.lag").tag("stage", stage)
+                .publishPercentileHistogram().register(registry);
+    }
+
+    private record Update(VehiclePosition latest, VehiclePosition previous, long queuedAt) {
+    }
+}
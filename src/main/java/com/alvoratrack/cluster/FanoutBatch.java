@@ -0,0 +1,173 @@
+package com.alvoratrack.cluster;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary message carrying one node's position updates for one tick:
+ * {@code [byte version][short nodeIdLength][nodeId][long publishedAtMillis]
+ * [int count]} followed by {@code count} entries of
+ * {@code [short vehicleIdLength][vehicleId][double latitude][double longitude]
+ * [byte hasPrevious][double previousLatitude][double previousLongitude]?
+ * [int length][VehiclePosition protobuf]}. The plain fields ahead of the
+ * protobuf let a receiver decide whether anyone on its node wants an update
+ * before decoding it, and skip it otherwise.
+ */
+final class FanoutBatch {
+
+    static final byte VERSION = 1;
+
+    private FanoutBatch() {
+    }
+
+    static final class Writer {
+        private ByteBuffer buffer;
+        private final int countAt;
+        private int count;
+
+        Writer(String nodeId, long publishedAt, int expectedEntries) {
+            byte[] node = nodeId.getBytes(StandardCharsets.UTF_8);
+            buffer = ByteBuffer.allocate(32 + node.length + expectedEntries * 96);
+            buffer.put(VERSION).putShort((short) node.length).put(node).putLong(publishedAt);
+            countAt = buffer.position();
+            buffer.putInt(0);
+        }
+
+        void add(VehiclePosition latest, VehiclePosition previous) {
+            byte[] id = latest.getVehicleIdBytes().toByteArray();
+            byte[] position = latest.toByteArray();
+            ensure(2 + id.length + 16 + 1 + 16 + 4 + position.length);
+            buffer.putShort((short) id.length).put(id)
+                    .putDouble(latest.getLatitude()).putDouble(latest.getLongitude());
+            if (previous != null) {
+                buffer.put((byte) 1).putDouble(previous.getLatitude()).putDouble(previous.getLongitude());
+            } else {
+                buffer.put((byte) 0);
+            }
+            buffer.putInt(position.length).put(position);
+            count++;
+        }
+
+        byte[] toByteArray() {
+            buffer.putInt(countAt, count);
+            byte[] bytes = new byte[buffer.position()];
+            buffer.get(0, bytes);
+            return bytes;
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                buffer = grown.put(buffer);
+            }
+        }
+    }
+
+    /**
+     * Walks the entries of a message. After {@link #next()} the entry's
+     * plain fields are available; {@link #position()} decodes its protobuf,
+     * and an entry that is not decoded is skipped.
+     */
+    static final class Reader {
+        private final ByteBuffer buffer;
+        private final String nodeId;
+        private final long publishedAt;
+        private final int count;
+
+        private int read;
+        private String vehicleId;
+        private double latitude;
+        private double longitude;
+        private boolean hasPrevious;
+        private double previousLatitude;
+        private double previousLongitude;
+        private int payloadAt;
+        private int payloadLength;
+
+        Reader(byte[] message) {
+            buffer = ByteBuffer.wrap(message);
+            if (buffer.get() != VERSION) {
+                throw new IllegalArgumentException("Unsupported fan-out message version " + message[0]);
+            }
+            nodeId = string(buffer);
+            publishedAt = buffer.getLong();
+            count = buffer.getInt();
+        }
+
+        String nodeId() {
+            return nodeId;
+        }
+
+        long publishedAt() {
+            return publishedAt;
+        }
+
+        int count() {
+            return count;
+        }
+
+        boolean next() {
+            if (read == count) {
+                return false;
+            }
+            if (read > 0) {
+                buffer.position(payloadAt + payloadLength);
+            }
+            read++;
+            vehicleId = string(buffer);
+            latitude = buffer.getDouble();
+            longitude = buffer.getDouble();
+            hasPrevious = buffer.get() != 0;
+            if (hasPrevious) {
+                previousLatitude = buffer.getDouble();
+                previousLongitude = buffer.getDouble();
+            }
+            payloadLength = buffer.getInt();
+            payloadAt = buffer.position();
+            return true;
+        }
+
+        String vehicleId() {
+            return vehicleId;
+        }
+
+        double latitude() {
+            return latitude;
+        }
+
+        double longitude() {
+            return longitude;
+        }
+
+        boolean hasPrevious() {
+            return hasPrevious;
+        }
+
+        double previousLatitude() {
+            return previousLatitude;
+        }
+
+        double previousLongitude() {
+            return previousLongitude;
+        }
+
+        VehiclePosition position() {
+            try {
+                return VehiclePosition.parseFrom(buffer.slice(payloadAt, payloadLength));
+            } catch (InvalidProtocolBufferException e) {
+                throw new IllegalArgumentException("Corrupt position for " + vehicleId, e);
+            }
+        }
+
+        private static String string(ByteBuffer buffer) {
+            int length = buffer.getShort() & 0xffff;
+            String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.alvoratrack.geo;
+
+/**
+ * Latitude/longitude rectangle in degrees. A box whose {@code west} edge is
+ * greater than its {@code east} edge crosses the antimeridian.
+ */
+public record BoundingBox(double south, double west, double north, double east) {
+
+    public BoundingBox {
+        if (!(south >= -90 && south <= north && north <= 90)) {
+            throw new IllegalArgumentException("Latitudes must satisfy -90 <= south <= north <= 90");
+        }
+        if (!(west >= -180 && west <= 180 && east >= -180 && east <= 180)) {
+            throw new IllegalArgumentException("Longitudes must be between -180 and 180");
+        }
+    }
+
+    /**
+     * The area a map viewport of {@code width} x {@code height} pixels shows
+     * around a centre at a Web Mercator zoom level (256 px tiles).
+     */
+    public static BoundingBox viewport(double latitude, double longitude, double zoom, int width, int height) {
+        double lonPerPixel = 360.0 / (256 * Math.pow(2, zoom));
+        double latPerPixel = lonPerPixel * Math.cos(Math.toRadians(latitude));
+        return around(latitude, longitude, latPerPixel * height / 2, lonPerPixel * width / 2);
+    }
+
+    /**
+     * The box extending {@code halfLatitude} and {@code halfLongitude}
+     * degrees from a centre, clamped at the poles and wrapped at the
+     * antimeridian.
+     */
+    public static BoundingBox around(double latitude, double longitude, double halfLatitude, double halfLongitude) {
+        double south = Math.max(-90, latitude - halfLatitude);
+        double north = Math.min(90, latitude + halfLatitude);
+        if (halfLongitude >= 180) {
+            return new BoundingBox(south, -180, north, 180);
+        }
+        return new BoundingBox(south, wrap(longitude - halfLongitude), north, wrap(longitude + halfLongitude));
+    }
+
+    public boolean crossesAntimeridian() {
+        return west > east;
+    }
+
+    public boolean contains(double latitude, double longitude) {
+        if (latitude < south || latitude > north) {
+            return false;
+        }
+        return crossesAntimeridian()
+                ? longitude >= west || longitude <= east
+                : longitude >= west && longitude <= east;
+    }
+
+    private static double wrap(double longitude) {
+        if (longitude > 180) {
+            return longitude - 360;
+        }
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        return longitude;
+    }
+}
@@ -0,0 +1,52 @@
+package com.alvoratrack.geo;
+
+/**
+ * Great-circle distances on a spherical Earth, accurate to about 0.5%,
+ * which is plenty for vehicle proximity.
+ */
+public final class GeoMath {
+
+    public static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    private GeoMath() {
+    }
+
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double a = haversine(lat1, lon1, lat2, lon2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * The haversine of the central angle between two points, which grows
+     * with distance; compare it with {@link #haversineOf} to test a
+     * distance without the inverse sine.
+     */
+    public static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        return Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+    }
+
+    /**
+     * The {@link #haversine} of two points {@code meters} apart.
+     */
+    public static double haversineOf(double meters) {
+        double half = Math.sin(Math.min(Math.PI, meters / EARTH_RADIUS_METERS) / 2);
+        return half * half;
+    }
+
+    /**
+     * The smallest box containing every point within {@code radiusMeters} of
+     * a centre.
+     */
+    public static BoundingBox boxAround(double latitude, double longitude, double radiusMeters) {
+        double halfLatitude = Math.toDegrees(radiusMeters / EARTH_RADIUS_METERS);
+        // Widest at the edge of the circle closest to a pole
+        double edge = Math.min(90, Math.abs(latitude) + halfLatitude);
+        double cos = Math.cos(Math.toRadians(edge));
+        double halfLongitude = cos < 1e-9 ? 180 : Math.min(180, halfLatitude / cos);
+        return BoundingBox.around(latitude, longitude, halfLatitude, halfLongitude);
+    }
+}
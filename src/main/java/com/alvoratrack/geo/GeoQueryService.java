@@ -0,0 +1,263 @@
+package com.alvoratrack.geo;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.service.PositionCache;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.redis.datasource.geo.GeoSearchArgs;
+import io.quarkus.redis.datasource.geo.GeoUnit;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Radius, box, polygon and k-nearest vehicle queries. {@link Source#LOCAL}
+ * answers from this node's {@link SpatialIndex}; {@link Source#REDIS} runs a
+ * GEOSEARCH over the geo set every node writes to (when
+ * {@code geo.redis.enabled}) and re-checks each cached position exactly.
+ * Distance results come back nearest first, area results by vehicle ID.
+ */
+@ApplicationScoped
+public class GeoQueryService {
+
+    public enum Query {
+        RADIUS,
+        BOX,
+        POLYGON,
+        NEAREST
+    }
+
+    public enum Source {
+        LOCAL,
+        REDIS;
+
+        public static Source parse(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * A matching position, with its distance from the query point for
+     * radius and nearest queries ({@code NaN} otherwise).
+     */
+    public record Hit(VehiclePosition position, double distanceMeters) {
+    }
+
+    private static final Comparator<Hit> BY_DISTANCE = Comparator.comparingDouble(Hit::distanceMeters)
+            .thenComparing(hit -> hit.position().getVehicleId());
+    private static final Comparator<Hit> BY_VEHICLE = Comparator.comparing(hit -> hit.position().getVehicleId());
+
+    @Inject
+    SpatialIndex index;
+
+    @Inject
+    PositionCache positionCache;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "geo.query.max-radius-meters", defaultValue = "100000")
+    double maxRadiusMeters;
+
+    @ConfigProperty(name = "geo.query.nearest.initial-radius-meters", defaultValue = "500")
+    double initialRadiusMeters;
+
+    private Timer[][] latency;
+    private DistributionSummary[] results;
+
+    @PostConstruct
+    void init() {
+        Query[] queries = Query.values();
+        Source[] sources = Source.values();
+        latency = new Timer[queries.length][sources.length];
+        results = new DistributionSummary[queries.length];
+        for (Query query : queries) {
+            String tag = query.name().toLowerCase();
+            for (Source source : sources) {
+                latency[query.ordinal()][source.ordinal()] = Timer.builder("tracker.geo.query.latency")
+                        .tag("query", tag)
+                        .tag("source", source.name().toLowerCase())
+                        .publishPercentileHistogram()
+                        .register(registry);
+            }
+            results[query.ordinal()] = DistributionSummary.builder("tracker.geo.query.results")
+                    .tag("query", tag)
+                    .register(registry);
+        }
+    }
+
+    public Uni<List<Hit>> nearby(double latitude, double longitude, double radiusMeters, Source source) {
+        if (!(radiusMeters > 0 && radiusMeters <= maxRadiusMeters)) {
+            return Uni.createFrom().failure(new IllegalArgumentException(
+                    "radius must be between 0 and " + (long) maxRadiusMeters + " meters"));
+        }
+        return timed(Query.RADIUS, source, () -> {
+            if (source == Source.REDIS) {
+                return positionCache.geoSearch(new GeoSearchArgs<String>()
+                                .fromCoordinate(longitude, latitude)
+                                .byRadius(radiusMeters, GeoUnit.M))
+                        .map(positions -> withinRadius(positions, latitude, longitude, radiusMeters));
+            }
+            return Uni.createFrom().item(() -> localRadius(latitude, longitude, radiusMeters));
+        });
+    }
+
+    public Uni<List<Hit>> within(BoundingBox box, Source source) {
+        return timed(Query.BOX, source, () -> {
+            if (source == Source.REDIS) {
+                return positionCache.geoSearch(searchBox(box))
+                        .map(positions -> filter(positions, p -> box.contains(p.getLatitude(), p.getLongitude())));
+            }
+            return Uni.createFrom().item(() -> {
+                List<Hit> hits = new ArrayList<>();
+                index.forEachWithin(box, position -> hits.add(new Hit(position, Double.NaN)));
+                hits.sort(BY_VEHICLE);
+                return hits;
+            });
+        });
+    }
+
+    public Uni<List<Hit>> within(Polygon polygon, Source source) {
+        return timed(Query.POLYGON, source, () -> {
+            if (source == Source.REDIS) {
+                return positionCache.geoSearch(searchBox(polygon.bounds()))
+                        .map(positions -> filter(positions, p -> polygon.contains(p.getLatitude(), p.getLongitude())));
+            }
+            return Uni.createFrom().item(() -> {
+                List<Hit> hits = new ArrayList<>();
+                index.forEachWithin(polygon.bounds(), position -> {
+                    if (polygon.contains(position.getLatitude(), position.getLongitude())) {
+                        hits.add(new Hit(position, Double.NaN));
+                    }
+                });
+                hits.sort(BY_VEHICLE);
+                return hits;
+            });
+        });
+    }
+
+    /**
+     * The {@code k} vehicles nearest to a point, no further than the maximum
+     * radius. Locally the search radius doubles until {@code k} vehicles are
+     * found; since every vehicle inside the radius is seen, the nearest
+     * {@code k} of them are the nearest overall. Redis returns the nearest
+     * members of the geo set, some of which may have expired, so the count
+     * asked for doubles until {@code k} are live or the set runs out.
+     */
+    public Uni<List<Hit>> nearest(double latitude, double longitude, int k, Source source) {
+        if (k <= 0) {
+            return Uni.createFrom().failure(new IllegalArgumentException("k must be positive"));
+        }
+        return timed(Query.NEAREST, source, () -> {
+            if (source == Source.REDIS) {
+                return redisNearest(latitude, longitude, k, k + 16L);
+            }
+            return Uni.createFrom().item(() -> {
+                double radius = Math.min(initialRadiusMeters, maxRadiusMeters);
+                while (true) {
+                    List<Hit> hits = localRadius(latitude, longitude, radius);
+                    if (hits.size() >= k || radius >= maxRadiusMeters || hits.size() == index.size()) {
+                        return hits.size() > k ? new ArrayList<>(hits.subList(0, k)) : hits;
+                    }
+                    radius = Math.min(radius * 2, maxRadiusMeters);
+                }
+            });
+        });
+    }
+
+    private Uni<List<Hit>> redisNearest(double latitude, double longitude, int k, long count) {
+        return positionCache.geoSearchCounted(new GeoSearchArgs<String>()
+                        .fromCoordinate(longitude, latitude)
+                        .byRadius(maxRadiusMeters, GeoUnit.M)
+                        .ascending()
+                        .count(count))
+                .chain(matches -> {
+                    List<Hit> hits = withinRadius(matches.positions(), latitude, longitude, maxRadiusMeters);
+                    if (hits.size() < k && matches.members() >= count) {
+                        return redisNearest(latitude, longitude, k, count * 2);
+                    }
+                    return Uni.createFrom().item(hits.size() > k ? new ArrayList<>(hits.subList(0, k)) : hits);
+                });
+    }
+
+    private List<Hit> localRadius(double latitude, double longitude, double radiusMeters) {
+        List<Hit> hits = new ArrayList<>();
+        index.forEachWithin(GeoMath.boxAround(latitude, longitude, radiusMeters), position -> {
+            double distance = GeoMath.distanceMeters(latitude, longitude,
+                    position.getLatitude(), position.getLongitude());
+            if (distance <= radiusMeters) {
+                hits.add(new Hit(position, distance));
+            }
+        });
+        hits.sort(BY_DISTANCE);
+        return hits;
+    }
+
+    private static List<Hit> withinRadius(List<VehiclePosition> positions, double latitude, double longitude,
+                                          double radiusMeters) {
+        List<Hit> hits = new ArrayList<>(positions.size());
+        for (VehiclePosition position : positions) {
+            double distance = GeoMath.distanceMeters(latitude, longitude,
+                    position.getLatitude(), position.getLongitude());
+            if (distance <= radiusMeters) {
+                hits.add(new Hit(position, distance));
+            }
+        }
+        hits.sort(BY_DISTANCE);
+        return hits;
+    }
+
+    private static List<Hit> filter(List<VehiclePosition> positions, Predicate<VehiclePosition> inside) {
+        List<Hit> hits = new ArrayList<>(positions.size());
+        for (VehiclePosition position : positions) {
+            if (inside.test(position)) {
+                hits.add(new Hit(position, Double.NaN));
+            }
+        }
+        hits.sort(BY_VEHICLE);
+        return hits;
+    }
+
+    /**
+     * A GEOSEARCH box around {@code box}'s centre, sized at its widest
+     * latitude so it covers the whole box; results are re-checked exactly.
+     */
+    private static GeoSearchArgs<String> searchBox(BoundingBox box) {
+        double lonSpan = box.crossesAntimeridian() ? box.east() - box.west() + 360 : box.east() - box.west();
+        double centerLat = (box.south() + box.north()) / 2;
+        double centerLon = box.west() + lonSpan / 2;
+        if (centerLon > 180) {
+            centerLon -= 360;
+        }
+        double widestLat = box.south() <= 0 && box.north() >= 0
+                ? 0 : Math.min(Math.abs(box.south()), Math.abs(box.north()));
+        double metersPerDegree = Math.toRadians(1) * GeoMath.EARTH_RADIUS_METERS;
+        double width = lonSpan * metersPerDegree * Math.cos(Math.toRadians(widestLat));
+        double height = (box.north() - box.south()) * metersPerDegree;
+        return new GeoSearchArgs<String>()
+                .fromCoordinate(centerLon, centerLat)
+                .byBox(Math.max(1, width * 1.01), Math.max(1, height * 1.01), GeoUnit.M);
+    }
+
+    private Uni<List<Hit>> timed(Query query, Source source, Supplier<Uni<List<Hit>>> run) {
+        Timer timer = latency[query.ordinal()][source.ordinal()];
+        DistributionSummary size = results[query.ordinal()];
+        return Uni.createFrom().deferred(() -> {
+            long start = System.nanoTime();
+            return run.get().invoke(hits -> {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                size.record(hits.size());
+            });
+        });
+    }
+}
@@ -0,0 +1,88 @@
+package com.alvoratrack.geo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Simple polygon of latitude/longitude vertices, treated as planar, which
+ * holds for city-sized zones. The ring closes implicitly and must not cross
+ * the antimeridian.
+ */
+public final class Polygon {
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final BoundingBox bounds;
+
+    public Polygon(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length || latitudes.length < 3) {
+            throw new IllegalArgumentException("A polygon needs at least 3 points");
+        }
+        this.latitudes = latitudes.clone();
+        this.longitudes = longitudes.clone();
+        double south = 90;
+        double north = -90;
+        double west = 180;
+        double east = -180;
+        for (int i = 0; i < latitudes.length; i++) {
+            south = Math.min(south, latitudes[i]);
+            north = Math.max(north, latitudes[i]);
+            west = Math.min(west, longitudes[i]);
+            east = Math.max(east, longitudes[i]);
+        }
+        this.bounds = new BoundingBox(south, west, north, east);
+    }
+
+    /**
+     * Reads {@code [[latitude, longitude], ...]}.
+     */
+    public static Polygon parse(JsonNode points) {
+        if (points == null || !points.isArray()) {
+            throw new IllegalArgumentException("points must be an array of [latitude, longitude] pairs");
+        }
+        double[] latitudes = new double[points.size()];
+        double[] longitudes = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            JsonNode point = points.get(i);
+            if (!point.isArray() || point.size() != 2 || !point.get(0).isNumber() || !point.get(1).isNumber()) {
+                throw new IllegalArgumentException("points must be an array of [latitude, longitude] pairs");
+            }
+            latitudes[i] = point.get(0).asDouble();
+            longitudes[i] = point.get(1).asDouble();
+        }
+        return new Polygon(latitudes, longitudes);
+    }
+
+    public BoundingBox bounds() {
+        return bounds;
+    }
+
+    public int size() {
+        return latitudes.length;
+    }
+
+    public double latitude(int index) {
+        return latitudes[index];
+    }
+
+    public double longitude(int index) {
+        return longitudes[index];
+    }
+
+    /**
+     * Even-odd ray casting; points on an edge may fall either way.
+     */
+    public boolean contains(double latitude, double longitude) {
+        if (!bounds.contains(latitude, longitude)) {
+            return false;
+        }
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude)
+                    && longitude < (longitudes[j] - longitudes[i]) * (latitude - latitudes[i])
+                    / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,210 @@
+package com.alvoratrack.geo;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.CoarseClock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * In-memory index of the latest position of every live vehicle, bucketed
+ * into a fixed grid of {@code cell-degrees} square cells. Updates move a
+ * vehicle between cells under its own entry's lock; queries visit only the
+ * cells a box overlaps, or every occupied cell when that is fewer, and check
+ * each position against the box exactly. Vehicles not updated within the
+ * position TTL are swept out.
+ */
+@ApplicationScoped
+public class SpatialIndex {
+
+    private static final Logger LOG = Logger.getLogger(SpatialIndex.class);
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "geo.index.cell-degrees", defaultValue = "0.01")
+    double cellDegrees;
+
+    @ConfigProperty(name = "position.cache.ttl", defaultValue = "300")
+    int ttlSeconds;
+
+    /**
+     * The outcome of {@link #update}: the position replaced, or
+     * {@code null} for a vehicle not in the index, and whether the update
+     * was applied at all.
+     */
+    public record Update(VehiclePosition previous, boolean applied) {
+    }
+
+    private final Map<String, Entry> vehicles = new ConcurrentHashMap<>();
+    private final Map<Long, Map<String, VehiclePosition>> cells = new ConcurrentHashMap<>();
+
+    private int rows;
+    private int columns;
+    private long ttlMillis;
+
+    @PostConstruct
+    void init() {
+        rows = (int) Math.ceil(180 / cellDegrees);
+        columns = (int) Math.ceil(360 / cellDegrees);
+        ttlMillis = ttlSeconds * 1000L;
+        registry.gauge("tracker.geo.index.vehicles", Tags.empty(), vehicles, Map::size);
+        registry.gauge("tracker.geo.index.cells", Tags.empty(), cells, Map::size);
+        LOG.infof("SpatialIndex initialized - %.4f degree cells", cellDegrees);
+    }
+
+    /**
+     * Records a vehicle's position. A position older than the indexed one is
+     * ignored, and reported as not applied with the indexed one as
+     * {@code previous}.
+     */
+    public Update update(VehiclePosition position) {
+        String vehicleId = position.getVehicleId();
+        long cell = cellOf(position.getLatitude(), position.getLongitude());
+        Update[] update = new Update[1];
+        vehicles.compute(vehicleId, (id, entry) -> {
+            if (entry != null) {
+                boolean stale = position.getTimestamp() < entry.position().getTimestamp();
+                update[0] = new Update(entry.position(), !stale);
+                if (stale) {
+                    return entry;
+                }
+                if (entry.cell() != cell) {
+                    removeFromCell(entry.cell(), id);
+                }
+            }
+            cells.compute(cell, (key, members) -> {
+                if (members == null) {
+                    members = new ConcurrentHashMap<>();
+                }
+                members.put(id, position);
+                return members;
+            });
+            return new Entry(position, cell, CoarseClock.currentTimeMillis());
+        });
+        return update[0] != null ? update[0] : new Update(null, true);
+    }
+
+    public VehiclePosition get(String vehicleId) {
+        Entry entry = vehicles.get(vehicleId);
+        return entry == null ? null : entry.position();
+    }
+
+    public void remove(String vehicleId) {
+        vehicles.computeIfPresent(vehicleId, (id, entry) -> {
+            removeFromCell(entry.cell(), id);
+            return null;
+        });
+    }
+
+    public int size() {
+        return vehicles.size();
+    }
+
+    /**
+     * Calls {@code action} for every indexed position inside {@code box}.
+     */
+    public void forEachWithin(BoundingBox box, Consumer<VehiclePosition> action) {
+        int firstRow = row(box.south());
+        int lastRow = row(box.north());
+        int firstColumn = column(box.west());
+        int lastColumn = column(box.east());
+        int spanColumns = box.crossesAntimeridian()
+                ? columns - firstColumn + lastColumn + 1
+                : lastColumn - firstColumn + 1;
+
+        if ((long) (lastRow - firstRow + 1) * spanColumns > cells.size()) {
+            for (Map<String, VehiclePosition> members : cells.values()) {
+                visit(members, box, action);
+            }
+            return;
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int i = 0; i < spanColumns; i++) {
+                Map<String, VehiclePosition> members = cells.get((long) row * columns + (firstColumn + i) % columns);
+                if (members != null) {
+                    visit(members, box, action);
+                }
+            }
+        }
+    }
+
+    /**
+     * Up to {@code limit} positions inside {@code box}.
+     */
+    public List<VehiclePosition> within(BoundingBox box, int limit) {
+        List<VehiclePosition> result = new ArrayList<>();
+        forEachWithin(box, position -> {
+            if (result.size() < limit) {
+                result.add(position);
+            }
+        });
+        return result;
+    }
+
+    @Scheduled(every = "${position.local.sweep-interval:30s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void evictExpired() {
+        long cutoff = CoarseClock.currentTimeMillis() - ttlMillis;
+        int evicted = 0;
+        for (Map.Entry<String, Entry> candidate : vehicles.entrySet()) {
+            if (candidate.getValue().storedAt() < cutoff) {
+                Entry expired = candidate.getValue();
+                // Only drop the entry if no update replaced it since it was read
+                if (vehicles.computeIfPresent(candidate.getKey(), (id, entry) -> {
+                    if (entry != expired) {
+                        return entry;
+                    }
+                    removeFromCell(entry.cell(), id);
+                    return null;
+                }) == null) {
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            LOG.debugf("Evicted %d expired vehicles from the spatial index", evicted);
+        }
+    }
+
+    private static void visit(Map<String, VehiclePosition> members, BoundingBox box,
+                              Consumer<VehiclePosition> action) {
+        for (VehiclePosition position : members.values()) {
+            if (box.contains(position.getLatitude(), position.getLongitude())) {
+                action.accept(position);
+            }
+        }
+    }
+
+    private void removeFromCell(long cell, String vehicleId) {
+        cells.computeIfPresent(cell, (key, members) -> {
+            members.remove(vehicleId);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    private long cellOf(double latitude, double longitude) {
+        return (long) row(latitude) * columns + column(longitude);
+    }
+
+    private int row(double latitude) {
+        return Math.min(rows - 1, Math.max(0, (int) ((latitude + 90) / cellDegrees)));
+    }
+
+    private int column(double longitude) {
+        return Math.min(columns - 1, Math.max(0, (int) ((longitude + 180) / cellDegrees)));
+    }
+
+    private record Entry(VehiclePosition position, long cell, long storedAt) {
+    }
+}
@@ -0,0 +1,168 @@
+package com.alvoratrack.geofence;
+
+import com.alvoratrack.geo.BoundingBox;
+import com.alvoratrack.geo.GeoMath;
+import com.alvoratrack.geo.Polygon;
+import com.alvoratrack.util.Json;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A named zone, either a {@link Polygon} or a circle. {@code dwellSeconds}
+ * is how long a vehicle must stay inside before a dwell event; 0 uses the
+ * engine default.
+ */
+public final class Geofence {
+
+    public static final double MAX_RADIUS_METERS = 1_000_000;
+
+    // Up to this radius a circle is mostly decided on a flat approximation
+    private static final double PLANAR_RADIUS_METERS = 50_000;
+    // Squared distances within 1% of the radius fall back to the exact test
+    private static final double INNER = 0.99 * 0.99;
+    private static final double OUTER = 1.01 * 1.01;
+
+    private final String id;
+    private final String name;
+    private final Polygon polygon;
+    private final double latitude;
+    private final double longitude;
+    private final double radiusMeters;
+    private final double maxHaversine;
+    private final double radiusDegreesSquared;
+    // Longitude scale at the circle's latitudes closest to and furthest from the equator
+    private final double cosNear;
+    private final double cosFar;
+    private final long dwellSeconds;
+    private final BoundingBox bounds;
+
+    private Geofence(String id, String name, Polygon polygon, double latitude, double longitude,
+                     double radiusMeters, long dwellSeconds) {
+        if (id == null || id.isBlank()) {
+            throw new IllegalArgumentException("A geofence needs an id");
+        }
+        if (dwellSeconds < 0) {
+            throw new IllegalArgumentException("dwellSeconds must not be negative");
+        }
+        this.id = id;
+        this.name = name;
+        this.polygon = polygon;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radiusMeters = radiusMeters;
+        this.maxHaversine = GeoMath.haversineOf(radiusMeters);
+        double radiusDegrees = Math.toDegrees(radiusMeters / GeoMath.EARTH_RADIUS_METERS);
+        this.radiusDegreesSquared = radiusMeters <= PLANAR_RADIUS_METERS ? radiusDegrees * radiusDegrees : 0;
+        double south = Math.abs(latitude - radiusDegrees);
+        double north = Math.abs(latitude + radiusDegrees);
+        this.cosNear = Math.abs(latitude) <= radiusDegrees ? 1 : Math.cos(Math.toRadians(Math.min(south, north)));
+        this.cosFar = Math.cos(Math.toRadians(Math.min(90, Math.max(south, north))));
+        this.dwellSeconds = dwellSeconds;
+        this.bounds = polygon != null ? polygon.bounds() : GeoMath.boxAround(latitude, longitude, radiusMeters);
+    }
+
+    public static Geofence polygon(String id, String name, Polygon polygon, long dwellSeconds) {
+        return new Geofence(id, name, polygon, Double.NaN, Double.NaN, Double.NaN, dwellSeconds);
+    }
+
+    public static Geofence circle(String id, String name, double latitude, double longitude, double radiusMeters,
+                                  long dwellSeconds) {
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("circle centre must be a valid coordinate");
+        }
+        if (!(radiusMeters > 0 && radiusMeters <= MAX_RADIUS_METERS)) {
+            throw new IllegalArgumentException("radiusMeters must be between 0 and " + (long) MAX_RADIUS_METERS);
+        }
+        return new Geofence(id, name, null, latitude, longitude, radiusMeters, dwellSeconds);
+    }
+
+    /**
+     * Reads {@code {"name": ..., "polygon": [[lat, lon], ...]}} or
+     * {@code {"name": ..., "circle": {"latitude": ..., "longitude": ...,
+     * "radiusMeters": ...}}}, each with an optional {@code dwellSeconds}.
+     */
+    public static Geofence parse(String id, JsonNode node) {
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("A geofence must be a JSON object");
+        }
+        String name = node.path("name").asText(id);
+        long dwell = node.path("dwellSeconds").asLong(0);
+        JsonNode polygon = node.get("polygon");
+        JsonNode circle = node.get("circle");
+        if (polygon != null && circle == null) {
+            return new Geofence(id, name, Polygon.parse(polygon), Double.NaN, Double.NaN, Double.NaN, dwell);
+        }
+        if (circle != null && polygon == null) {
+            if (!circle.path("latitude").isNumber() || !circle.path("longitude").isNumber()
+                    || !circle.path("radiusMeters").isNumber()) {
+                throw new IllegalArgumentException("circle needs numeric latitude, longitude and radiusMeters");
+            }
+            return circle(id, name, circle.get("latitude").asDouble(), circle.get("longitude").asDouble(),
+                    circle.get("radiusMeters").asDouble(), dwell);
+        }
+        throw new IllegalArgumentException("A geofence needs exactly one of polygon or circle");
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long dwellSeconds() {
+        return dwellSeconds;
+    }
+
+    public BoundingBox bounds() {
+        return bounds;
+    }
+
+    public boolean contains(double lat, double lon) {
+        if (polygon != null) {
+            return polygon.contains(lat, lon);
+        }
+        if (!bounds.contains(lat, lon)) {
+            return false;
+        }
+        if (radiusDegreesSquared > 0) {
+            double dLat = lat - latitude;
+            double dLon = Math.abs(lon - longitude);
+            if (dLon > 180) {
+                dLon = 360 - dLon;
+            }
+            double near = dLat * dLat + dLon * cosNear * dLon * cosNear;
+            double far = dLat * dLat + dLon * cosFar * dLon * cosFar;
+            if (near <= radiusDegreesSquared * INNER) {
+                return true;
+            }
+            if (far >= radiusDegreesSquared * OUTER) {
+                return false;
+            }
+        }
+        return GeoMath.haversine(latitude, longitude, lat, lon) <= maxHaversine;
+    }
+
+    public void appendJson(StringBuilder json) {
+        json.append("{\"id\":");
+        Json.appendString(json, id);
+        json.append(",\"name\":");
+        Json.appendString(json, name);
+        if (polygon != null) {
+            json.append(",\"polygon\":[");
+            for (int i = 0; i < polygon.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append('[').append(polygon.latitude(i)).append(',').append(polygon.longitude(i)).append(']');
+            }
+            json.append(']');
+        } else {
+            json.append(",\"circle\":{\"latitude\":").append(latitude)
+                    .append(",\"longitude\":").append(longitude)
+                    .append(",\"radiusMeters\":").append(radiusMeters)
+                    .append('}');
+        }
+        json.append(",\"dwellSeconds\":").append(dwellSeconds).append('}');
+    }
+}
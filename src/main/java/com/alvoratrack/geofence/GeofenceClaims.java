@@ -0,0 +1,96 @@
+package com.alvoratrack.geofence;
+
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.quarkus.redis.datasource.keys.ReactiveKeyCommands;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+
+/**
+ * Makes each geofence transition reach AlvoraCore once, whichever replica
+ * evaluates the vehicle. The fences a vehicle is inside are kept in the
+ * Redis hash {@code vehicle:geofences:{vehicleId}}: a replica only reports
+ * an enter if {@code HSETNX} added the fence, a dwell if it added the
+ * fence's dwell mark, and an exit if {@code HDEL} removed the fence. A
+ * vehicle that moves to another replica while inside a fence is therefore
+ * not entered twice, and the replica it left cannot exit it again.
+ * <p>
+ * The hash expires {@code geofence.forget-after} after the last claim or
+ * {@link #touch}, when the replicas forget the vehicle too. If Redis cannot
+ * be reached the transition is reported anyway: a duplicate event is
+ * better than a lost one.
+ */
+@ApplicationScoped
+public class GeofenceClaims {
+
+    private static final Logger LOG = Logger.getLogger(GeofenceClaims.class);
+    private static final String KEY_PREFIX = "vehicle:geofences:";
+    private static final String DWELL_SUFFIX = "#dwell";
+
+    @Inject
+    ReactiveRedisDataSource redisDS;
+
+    @ConfigProperty(name = "geofence.forget-after", defaultValue = "PT15M")
+    Duration ttl;
+
+    private ReactiveHashCommands<String, String, String> hashes;
+    private ReactiveKeyCommands<String> keys;
+
+    @PostConstruct
+    void init() {
+        hashes = redisDS.hash(String.class, String.class, String.class);
+        keys = redisDS.key(String.class);
+    }
+
+    /**
+     * True if no replica has reported the vehicle inside the fence yet.
+     */
+    public Uni<Boolean> enter(String vehicleId, String fenceId, long timestamp) {
+        String key = KEY_PREFIX + vehicleId;
+        return claimed(vehicleId, hashes.hsetnx(key, fenceId, Long.toString(timestamp))
+                .call(() -> keys.expire(key, ttl)));
+    }
+
+    /**
+     * True if no replica has reported the vehicle's dwell in the fence yet.
+     */
+    public Uni<Boolean> dwell(String vehicleId, String fenceId) {
+        String key = KEY_PREFIX + vehicleId;
+        return claimed(vehicleId, hashes.hsetnx(key, fenceId + DWELL_SUFFIX, "1")
+                .call(() -> keys.expire(key, ttl)));
+    }
+
+    /**
+     * True if the vehicle was still recorded inside the fence.
+     */
+    public Uni<Boolean> exit(String vehicleId, String fenceId) {
+        return claimed(vehicleId, hashes.hdel(KEY_PREFIX + vehicleId, fenceId, fenceId + DWELL_SUFFIX)
+                .map(removed -> removed > 0));
+    }
+
+    /**
+     * Keeps the vehicle's fences from expiring while a replica still hears
+     * from it.
+     */
+    public void touch(String vehicleId) {
+        keys.expire(KEY_PREFIX + vehicleId, ttl)
+                .subscribe().with(
+                        ignored -> { },
+                        failure -> LOG.debugf("Failed to refresh geofences of %s: %s", vehicleId,
+                                failure.getMessage()));
+    }
+
+    private static Uni<Boolean> claimed(String vehicleId, Uni<Boolean> claim) {
+        return claim.onFailure().recoverWithItem(failure -> {
+            LOG.warnf("Could not check geofence state of %s, reporting anyway: %s", vehicleId,
+                    failure.getMessage());
+            return true;
+        });
+    }
+}
@@ -0,0 +1,397 @@
+package com.alvoratrack.geofence;
+
+import com.alvoratrack.client.AlvoraCoreClient;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.CoarseClock;
+import com.alvoratrack.util.Json;
+import com.alvoratrack.util.SweptState;
+import com.alvoratrack.websocket.ConnectionManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Evaluates every ingested position against the loaded geofences and
+ * reports transitions. Each position is only tested against the fences of
+ * its {@link GeofenceIndex} cell (plus the few oversized ones) and the
+ * fences its vehicle was already inside, so the cost does not grow with the
+ * number of fences. Per vehicle it remembers which fences it is inside and
+ * since when, and emits {@code enter} and {@code exit} when that changes
+ * and one {@code dwell} per stay once the vehicle has been inside for the
+ * fence's dwell time. Events go to AlvoraCore and to every admin fleet
+ * WebSocket client.
+ * <p>
+ * Fences live in memory on each node, kept in line with the other nodes by
+ * the {@link GeofenceStore}, and the index is replaced as a whole on every
+ * change; positions older than the last one evaluated for a vehicle are
+ * ignored. A vehicle is only remembered while it is inside some fence, and
+ * forgotten by a sweep once this node has not heard from it for
+ * {@code forget-after}, as when it moved to another node. Transitions are
+ * checked against {@link GeofenceClaims} before they are sent, so a vehicle
+ * changing nodes is neither entered twice nor exited by both.
+ */
+@ApplicationScoped
+public class GeofenceEngine {
+
+    private static final Logger LOG = Logger.getLogger(GeofenceEngine.class);
+
+    public enum Transition {
+        ENTER("enter"),
+        EXIT("exit"),
+        DWELL("dwell");
+
+        private final String label;
+
+        Transition(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        /**
+         * The {@code event} sent to AlvoraCore.
+         */
+        public String event() {
+            return "geofence_" + label;
+        }
+    }
+
+    @Inject
+    AlvoraCoreClient alvoraCoreClient;
+
+    @Inject
+    ConnectionManager connections;
+
+    @Inject
+    GeofenceClaims claims;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "geofence.index.cell-degrees", defaultValue = "0.01")
+    double cellDegrees;
+
+    @ConfigProperty(name = "geofence.index.max-cells-per-fence", defaultValue = "4096")
+    int maxCellsPerFence;
+
+    @ConfigProperty(name = "geofence.max-fences", defaultValue = "100000")
+    int maxFences;
+
+    @ConfigProperty(name = "geofence.dwell-after", defaultValue = "PT5M")
+    Duration dwellAfter;
+
+    @ConfigProperty(name = "geofence.forget-after", defaultValue = "PT15M")
+    Duration forgetAfter;
+
+    private final ConcurrentMap<String, VehicleState> vehicles = new ConcurrentHashMap<>();
+    private final Map<Transition, Counter> events = new HashMap<>();
+    private final Map<Transition, Counter> skipped = new HashMap<>();
+
+    private volatile GeofenceIndex index;
+
+    @PostConstruct
+    void init() {
+        index = GeofenceIndex.empty(cellDegrees);
+        for (Transition transition : Transition.values()) {
+            events.put(transition, Counter.builder("tracker.geofence.events")
+                    .tag("type", transition.label()).register(registry));
+            skipped.put(transition, Counter.builder("tracker.geofence.events.skipped")
+                    .tag("type", transition.label()).register(registry));
+        }
+        registry.gauge("tracker.geofence.fences", Tags.empty(), this, engine -> engine.index.size());
+        registry.gauge("tracker.geofence.vehicles", Tags.empty(), vehicles, Map::size);
+        LOG.infof("GeofenceEngine initialized - %.4f degree cells, dwell after %s", cellDegrees, dwellAfter);
+    }
+
+    /**
+     * Adds or replaces a fence. Vehicles inside a replaced fence are
+     * re-evaluated against the new shape on their next position.
+     */
+    public synchronized void put(Geofence fence) {
+        putAll(List.of(fence));
+    }
+
+    /**
+     * Adds or replaces several fences with a single index rebuild.
+     */
+    public synchronized void putAll(Collection<Geofence> fences) {
+        Map<String, Geofence> next = new HashMap<>();
+        for (Geofence fence : index.fences()) {
+            next.put(fence.id(), fence);
+        }
+        for (Geofence fence : fences) {
+            next.put(fence.id(), fence);
+        }
+        if (next.size() > maxFences) {
+            throw new IllegalArgumentException("At most " + maxFences + " geofences can be loaded");
+        }
+        rebuild(next.values());
+    }
+
+    /**
+     * Replaces every fence, as when loading them from the
+     * {@link GeofenceStore}. Stays in fences that are kept carry over.
+     */
+    public synchronized void replaceAll(Collection<Geofence> fences) {
+        rebuild(fences);
+    }
+
+    /**
+     * Removes a fence; vehicles inside it forget it without an exit event.
+     */
+    public synchronized boolean remove(String id) {
+        if (index.get(id) == null) {
+            return false;
+        }
+        List<Geofence> next = new ArrayList<>(index.fences());
+        next.removeIf(fence -> fence.id().equals(id));
+        rebuild(next);
+        return true;
+    }
+
+    public Geofence get(String id) {
+        return index.get(id);
+    }
+
+    public List<Geofence> list() {
+        List<Geofence> fences = new ArrayList<>(index.fences());
+        fences.sort(Comparator.comparing(Geofence::id));
+        return fences;
+    }
+
+    /**
+     * The ids of the fences a vehicle is currently inside.
+     */
+    public List<String> fencesOf(String vehicleId) {
+        VehicleState state = vehicles.get(vehicleId);
+        if (state == null) {
+            return List.of();
+        }
+        synchronized (state) {
+            List<String> ids = new ArrayList<>(state.size);
+            for (int i = 0; i < state.size; i++) {
+                ids.add(state.inside[i].id());
+            }
+            return ids;
+        }
+    }
+
+    public void evaluate(VehiclePosition position) {
+        GeofenceIndex current = index;
+        double latitude = position.getLatitude();
+        double longitude = position.getLongitude();
+        GeofenceIndex.Cell candidates = current.candidates(latitude, longitude);
+        GeofenceIndex.Cell large = current.large();
+        String vehicleId = position.getVehicleId();
+        // Most positions are outside every fence: nothing to remember
+        if (!vehicles.containsKey(vehicleId) && !containedByAny(candidates, latitude, longitude)
+                && !containedByAny(large, latitude, longitude)) {
+            return;
+        }
+        SweptState.update(vehicles, vehicleId, id -> new VehicleState(), state -> {
+            state.seenAt = CoarseClock.currentTimeMillis();
+            evaluate(state, current, candidates, large, position);
+            if (state.size == 0) {
+                // Outside every fence again
+                state.evict(vehicles, vehicleId);
+            }
+        });
+    }
+
+    /**
+     * Forgets vehicles this node has not heard from for {@code forget-after}
+     * without an exit, which is up to the node that hears from them next,
+     * and keeps the shared state of the others alive.
+     */
+    @Scheduled(every = "${geofence.sweep-interval:60s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void sweep() {
+        sweep(CoarseClock.currentTimeMillis());
+    }
+
+    void sweep(long now) {
+        long forgetBefore = now - forgetAfter.toMillis();
+        for (Map.Entry<String, VehicleState> entry : vehicles.entrySet()) {
+            VehicleState state = entry.getValue();
+            synchronized (state) {
+                if (state.seenAt < forgetBefore) {
+                    state.evict(vehicles, entry.getKey());
+                } else {
+                    claims.touch(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private void evaluate(VehicleState state, GeofenceIndex current, GeofenceIndex.Cell candidates,
+                          GeofenceIndex.Cell large, VehiclePosition position) {
+        long timestamp = position.getTimestamp();
+        if (timestamp < state.lastTimestamp) {
+            return;
+        }
+        state.lastTimestamp = timestamp;
+        for (int i = state.size - 1; i >= 0; i--) {
+            Geofence fence = current.get(state.inside[i].id());
+            if (fence == null) {
+                state.removeAt(i);
+                continue;
+            }
+            // A replaced fence keeps the stay, judged against its new shape
+            state.inside[i] = fence;
+            if (!fence.contains(position.getLatitude(), position.getLongitude())) {
+                state.removeAt(i);
+                emit(Transition.EXIT, fence, position);
+            }
+        }
+        visit(state, candidates, position);
+        visit(state, large, position);
+    }
+
+    private void visit(VehicleState state, GeofenceIndex.Cell fences, VehiclePosition position) {
+        double latitude = position.getLatitude();
+        double longitude = position.getLongitude();
+        for (int i = 0; i < fences.size(); i++) {
+            if (!fences.covers(i, latitude, longitude)) {
+                continue;
+            }
+            Geofence fence = fences.fence(i);
+            // Fences the vehicle stayed inside were just tested by the exit pass
+            int at = state.indexOf(fence);
+            if (at < 0) {
+                if (fence.contains(latitude, longitude)) {
+                    state.add(fence, position.getTimestamp());
+                    emit(Transition.ENTER, fence, position);
+                }
+            } else if (!state.dwelled[at]
+                    && position.getTimestamp() - state.enteredAt[at] >= dwellSeconds(fence)) {
+                state.dwelled[at] = true;
+                emit(Transition.DWELL, fence, position);
+            }
+        }
+    }
+
+    private long dwellSeconds(Geofence fence) {
+        return fence.dwellSeconds() > 0 ? fence.dwellSeconds() : dwellAfter.toSeconds();
+    }
+
+    private void emit(Transition transition, Geofence fence, VehiclePosition position) {
+        String vehicleId = position.getVehicleId();
+        Uni<Boolean> claim = switch (transition) {
+            case ENTER -> claims.enter(vehicleId, fence.id(), position.getTimestamp());
+            case DWELL -> claims.dwell(vehicleId, fence.id());
+            case EXIT -> claims.exit(vehicleId, fence.id());
+        };
+        claim.subscribe().with(claimed -> {
+            if (claimed) {
+                send(transition, fence, position);
+            } else {
+                // Another node already reported it
+                skipped.get(transition).increment();
+                LOG.debugf("Vehicle %s %s geofence %s already reported", vehicleId, transition.label(), fence.id());
+            }
+        });
+    }
+
+    private void send(Transition transition, Geofence fence, VehiclePosition position) {
+        events.get(transition).increment();
+        LOG.debugf("Vehicle %s %s geofence %s", position.getVehicleId(), transition.label(), fence.id());
+        if (!alvoraCoreClient.forwardEvent(position, transition.event(), fence.id())) {
+            LOG.warnf("Could not forward %s of %s for vehicle %s", transition.event(), fence.id(),
+                    position.getVehicleId());
+        }
+        connections.broadcastToAdminFleet(message(transition, fence, position));
+    }
+
+    static String message(Transition transition, Geofence fence, VehiclePosition position) {
+        StringBuilder json = new StringBuilder(160);
+        json.append("{\"type\":\"geofence\",\"event\":\"").append(transition.label())
+                .append("\",\"geofenceId\":");
+        Json.appendString(json, fence.id());
+        json.append(",\"vehicleId\":");
+        Json.appendString(json, position.getVehicleId());
+        json.append(",\"latitude\":").append(position.getLatitude())
+                .append(",\"longitude\":").append(position.getLongitude())
+                .append(",\"timestamp\":").append(position.getTimestamp())
+                .append('}');
+        return json.toString();
+    }
+
+    private void rebuild(Collection<Geofence> fences) {
+        long start = System.nanoTime();
+        GeofenceIndex next = new GeofenceIndex(fences, cellDegrees, maxCellsPerFence);
+        index = next;
+        LOG.debugf("Geofence index rebuilt - %d fences, %d cells, %d unindexed, %d ms", next.size(),
+                next.cellCount(), next.large().size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static boolean containedByAny(GeofenceIndex.Cell fences, double latitude, double longitude) {
+        for (int i = 0; i < fences.size(); i++) {
+            if (fences.covers(i, latitude, longitude) && fences.fence(i).contains(latitude, longitude)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The fences a vehicle is inside, with when it entered each and whether
+     * its dwell has been reported. Dropped once the vehicle is inside none,
+     * or by the sweep.
+     */
+    private static final class VehicleState extends SweptState {
+        Geofence[] inside = new Geofence[2];
+        long[] enteredAt = new long[2];
+        boolean[] dwelled = new boolean[2];
+        int size;
+        long lastTimestamp = Long.MIN_VALUE;
+        long seenAt;
+
+        int indexOf(Geofence fence) {
+            for (int i = 0; i < size; i++) {
+                if (inside[i] == fence) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void add(Geofence fence, long timestamp) {
+            if (size == inside.length) {
+                inside = Arrays.copyOf(inside, size * 2);
+                enteredAt = Arrays.copyOf(enteredAt, size * 2);
+                dwelled = Arrays.copyOf(dwelled, size * 2);
+            }
+            inside[size] = fence;
+            enteredAt[size] = timestamp;
+            dwelled[size] = false;
+            size++;
+        }
+
+        void removeAt(int i) {
+            size--;
+            inside[i] = inside[size];
+            enteredAt[i] = enteredAt[size];
+            dwelled[i] = dwelled[size];
+            inside[size] = null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.alvoratrack.geofence;
+
+import com.alvoratrack.geo.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable grid over a set of geofences: each fence is listed in every
+ * {@code cellDegrees} cell its bounding box overlaps, so a position only
+ * has to be tested against the fences of its own cell. Fences that would
+ * span more than {@code maxCellsPerFence} cells, or cross the
+ * antimeridian, are kept in a short list checked by bounding box instead.
+ * Each cell keeps its fences' boxes side by side in one array, so ruling
+ * out a candidate touches no fence object. Rebuilt whole on every change;
+ * lookups never lock.
+ */
+final class GeofenceIndex {
+
+    private static final Geofence[] NONE = new Geofence[0];
+    static final Cell EMPTY = new Cell(List.of());
+
+    private final Map<String, Geofence> byId;
+    private final Map<Long, Cell> cells;
+    private final Cell large;
+    private final double cellDegrees;
+    private final int rows;
+    private final int columns;
+
+    GeofenceIndex(Collection<Geofence> fences, double cellDegrees, int maxCellsPerFence) {
+        this.cellDegrees = cellDegrees;
+        this.rows = (int) Math.ceil(180 / cellDegrees);
+        this.columns = (int) Math.ceil(360 / cellDegrees);
+        this.byId = new HashMap<>(fences.size() * 2);
+        Map<Long, List<Geofence>> building = new HashMap<>();
+        List<Geofence> wide = new ArrayList<>();
+        for (Geofence fence : fences) {
+            byId.put(fence.id(), fence);
+            BoundingBox bounds = fence.bounds();
+            int firstRow = row(bounds.south());
+            int lastRow = row(bounds.north());
+            int firstColumn = column(bounds.west());
+            int lastColumn = column(bounds.east());
+            if (bounds.crossesAntimeridian()
+                    || (long) (lastRow - firstRow + 1) * (lastColumn - firstColumn + 1) > maxCellsPerFence) {
+                wide.add(fence);
+                continue;
+            }
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    building.computeIfAbsent((long) row * columns + column, key -> new ArrayList<>(2)).add(fence);
+                }
+            }
+        }
+        this.cells = new HashMap<>(building.size() * 2);
+        building.forEach((cell, members) -> cells.put(cell, new Cell(members)));
+        this.large = wide.isEmpty() ? EMPTY : new Cell(wide);
+    }
+
+    static GeofenceIndex empty(double cellDegrees) {
+        return new GeofenceIndex(List.of(), cellDegrees, 1);
+    }
+
+    Geofence get(String id) {
+        return byId.get(id);
+    }
+
+    Collection<Geofence> fences() {
+        return byId.values();
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    int cellCount() {
+        return cells.size();
+    }
+
+    /**
+     * The gridded fences that may contain the point; the caller checks
+     * {@link #large()} as well.
+     */
+    Cell candidates(double latitude, double longitude) {
+        if (cells.isEmpty()) {
+            return EMPTY;
+        }
+        Cell cell = cells.get((long) row(latitude) * columns + column(longitude));
+        return cell != null ? cell : EMPTY;
+    }
+
+    Cell large() {
+        return large;
+    }
+
+    private int row(double latitude) {
+        return Math.min(rows - 1, Math.max(0, (int) ((latitude + 90) / cellDegrees)));
+    }
+
+    private int column(double longitude) {
+        return Math.min(columns - 1, Math.max(0, (int) ((longitude + 180) / cellDegrees)));
+    }
+
+    /**
+     * Fences with their bounding boxes packed as {@code south, west, north,
+     * east} quadruples.
+     */
+    static final class Cell {
+        private final Geofence[] fences;
+        private final double[] bounds;
+
+        Cell(List<Geofence> members) {
+            fences = members.toArray(NONE);
+            bounds = new double[fences.length * 4];
+            for (int i = 0; i < fences.length; i++) {
+                BoundingBox box = fences[i].bounds();
+                bounds[i * 4] = box.south();
+                bounds[i * 4 + 1] = box.west();
+                bounds[i * 4 + 2] = box.north();
+                bounds[i * 4 + 3] = box.east();
+            }
+        }
+
+        int size() {
+            return fences.length;
+        }
+
+        Geofence fence(int i) {
+            return fences[i];
+        }
+
+        /**
+         * Whether the point is inside fence {@code i}'s bounding box.
+         */
+        boolean covers(int i, double latitude, double longitude) {
+            int at = i * 4;
+            if (latitude < bounds[at] || latitude > bounds[at + 2]) {
+                return false;
+            }
+            double west = bounds[at + 1];
+            double east = bounds[at + 3];
+            return west <= east
+                    ? longitude >= west && longitude <= east
+                    : longitude >= west || longitude <= east;
+        }
+    }
+}
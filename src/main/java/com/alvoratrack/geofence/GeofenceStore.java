@@ -0,0 +1,144 @@
+package com.alvoratrack.geofence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.quarkus.redis.datasource.value.ReactiveValueCommands;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the geofences in Redis, as one hash field of fence JSON per id, so
+ * every replica evaluates the same fences and a restarted node gets them
+ * back. Changes are applied to the local {@link GeofenceEngine} straight
+ * away and bump a version counter; every {@code geofence.sync-interval}
+ * each node compares the counter with the one it last loaded and reloads
+ * the whole set when another node changed it.
+ */
+@ApplicationScoped
+public class GeofenceStore {
+
+    private static final Logger LOG = Logger.getLogger(GeofenceStore.class);
+    private static final String KEY = "geofences";
+    private static final String VERSION_KEY = "geofences:version";
+
+    @Inject
+    ReactiveRedisDataSource redisDS;
+
+    @Inject
+    GeofenceEngine engine;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "geofence.store.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "geofence.store.timeout", defaultValue = "PT5S")
+    Duration timeout;
+
+    private ReactiveHashCommands<String, String, String> fences;
+    private ReactiveValueCommands<String, Long> versions;
+    // The version the engine's fences were loaded at; -1 forces a reload
+    private volatile long loadedVersion = -1;
+
+    @PostConstruct
+    void init() {
+        fences = redisDS.hash(String.class, String.class, String.class);
+        versions = redisDS.value(String.class, Long.class);
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        sync();
+    }
+
+    /**
+     * Adds or replaces fences here and in Redis. Throws
+     * {@link IllegalArgumentException} if the engine refuses them.
+     */
+    public synchronized void putAll(Collection<Geofence> loaded) {
+        engine.putAll(loaded);
+        if (!enabled) {
+            return;
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (Geofence fence : loaded) {
+            StringBuilder json = new StringBuilder(128);
+            fence.appendJson(json);
+            fields.put(fence.id(), json.toString());
+        }
+        write(fences.hset(KEY, fields));
+    }
+
+    /**
+     * Removes a fence here and from Redis; false if this node does not have
+     * it.
+     */
+    public synchronized boolean remove(String id) {
+        if (!engine.remove(id)) {
+            return false;
+        }
+        if (enabled) {
+            write(fences.hdel(KEY, id));
+        }
+        return true;
+    }
+
+    /**
+     * Reloads every fence from Redis if another node changed them since the
+     * last load.
+     */
+    @Scheduled(every = "${geofence.sync-interval:10s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    synchronized void sync() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Long version = versions.get(VERSION_KEY).await().atMost(timeout);
+            long current = version == null ? 0 : version;
+            if (current == loadedVersion) {
+                return;
+            }
+            Map<String, String> stored = fences.hgetall(KEY).await().atMost(timeout);
+            List<Geofence> next = new ArrayList<>(stored.size());
+            for (Map.Entry<String, String> entry : stored.entrySet()) {
+                try {
+                    next.add(Geofence.parse(entry.getKey(), mapper.readTree(entry.getValue())));
+                } catch (Exception e) {
+                    LOG.warnf("Skipping unreadable stored geofence %s: %s", entry.getKey(), e.getMessage());
+                }
+            }
+            engine.replaceAll(next);
+            loadedVersion = current;
+            LOG.infof("Loaded %d geofences at version %d", next.size(), current);
+        } catch (RuntimeException e) {
+            LOG.warnf("Could not load geofences from Redis: %s", e.getMessage());
+        }
+    }
+
+    private void write(Uni<?> change) {
+        try {
+            long version = change.chain(() -> versions.incr(VERSION_KEY)).await().atMost(timeout);
+            // Another node's change in between still needs a reload
+            loadedVersion = version == loadedVersion + 1 ? version : -1;
+        } catch (RuntimeException e) {
+            // Applied here but maybe not in Redis: the next sync puts this node back in line
+            loadedVersion = -1;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.alvoratrack.grpc;
+
+import com.alvoratrack.util.ValidationResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meters for the ingest RPCs, tagged by RPC and reject reason only. Every
+ * meter is registered up front and looked up by ordinal, so recording on the
+ * hot path allocates nothing.
+ */
+final class IngestMetrics {
+
+    enum Rpc {
+        REPORT_POSITION("report_position"),
+        STREAM_POSITIONS("stream_positions"),
+        REPORT_POSITION_BATCH("report_position_batch"),
+        TRACK_VEHICLE("track_vehicle");
+
+        final String tag;
+
+        Rpc(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private static final Rpc[] RPCS = Rpc.values();
+    private static final ValidationResult[] RESULTS = ValidationResult.values();
+
+    private final Counter[] received = new Counter[RPCS.length];
+    private final Counter[][] rejected = new Counter[RPCS.length][RESULTS.length];
+    private final Timer[] ackLatency = new Timer[RPCS.length];
+    private final AtomicInteger[] activeStreams = new AtomicInteger[RPCS.length];
+
+    IngestMetrics(MeterRegistry registry) {
+        for (Rpc rpc : RPCS) {
+            Tags tags = Tags.of("rpc", rpc.tag);
+            received[rpc.ordinal()] = Counter.builder("tracker.ingest.received").tags(tags).register(registry);
+            for (ValidationResult result : RESULTS) {
+                if (!result.isValid()) {
+                    rejected[rpc.ordinal()][result.ordinal()] = Counter.builder("tracker.ingest.rejected")
+                            .tags(tags).tag("reason", result.name().toLowerCase())
+                            .register(registry);
+                }
+            }
+            if (rpc != Rpc.TRACK_VEHICLE) {
+                ackLatency[rpc.ordinal()] = Timer.builder("tracker.ingest.ack.latency").tags(tags)
+                        .publishPercentileHistogram().register(registry);
+            }
+            if (rpc == Rpc.STREAM_POSITIONS || rpc == Rpc.TRACK_VEHICLE) {
+                activeStreams[rpc.ordinal()] = registry.gauge("tracker.grpc.streams.active", tags,
+                        new AtomicInteger());
+            }
+        }
+    }
+
+    /**
+     * Counts a received position and, when it failed validation, its reject
+     * reason. Returns {@code result} so it can wrap a validator call.
+     */
+    ValidationResult validated(Rpc rpc, ValidationResult result) {
+        received[rpc.ordinal()].increment();
+        if (!result.isValid()) {
+            rejected[rpc.ordinal()][result.ordinal()].increment();
+        }
+        return result;
+    }
+
+    /**
+     * Records the time from receiving a message until it was acked.
+     */
+    void acked(Rpc rpc, long receivedAt) {
+        ackLatency[rpc.ordinal()].record(System.nanoTime() - receivedAt, TimeUnit.NANOSECONDS);
+    }
+
+    void streamOpened(Rpc rpc) {
+        activeStreams[rpc.ordinal()].incrementAndGet();
+    }
+
+    void streamClosed(Rpc rpc) {
+        activeStreams[rpc.ordinal()].decrementAndGet();
+    }
+}
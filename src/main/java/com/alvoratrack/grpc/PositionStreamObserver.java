@@ -0,0 +1,190 @@
+package com.alvoratrack.grpc;
+
+import com.alvoratrack.ingest.IngestPipeline;
+import com.alvoratrack.session.SessionRegistry;
+import com.alvoratrack.util.HotPathLog;
+import com.alvoratrack.util.PositionValidator;
+import com.alvoratrack.util.IngestFilter;
+import com.alvoratrack.util.ValidationResult;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Server side of one {@code StreamPositions} call. Accepted positions are
+ * acknowledged cumulatively, every {@code ackEvery} messages or
+ * {@code ackInterval}, with the stream sequence of the last message seen;
+ * invalid and rate-limited messages are acked individually right away.
+ * Inbound flow control keeps at most {@code window} messages requested and
+ * stops requesting while the ingest pipeline is over its high watermark.
+ * Open streams sit in a set the service sweeps every {@code ackInterval},
+ * so idle streams cost no timer of their own.
+ */
+class PositionStreamObserver implements StreamObserver<VehiclePosition> {
+
+    private static final Logger LOG = Logger.getLogger(PositionStreamObserver.class);
+
+    record Settings(int ackEvery, Duration ackInterval, int window) {
+    }
+
+    private final StreamObserver<PositionAck> responses;
+    private final ServerCallStreamObserver<PositionAck> call;
+    private final Settings settings;
+    private final PositionValidator validator;
+    private final IngestFilter filter;
+    private final IngestPipeline ingest;
+    private final SessionRegistry sessions;
+    private final HotPathLog hotPathLog;
+    private final IngestMetrics metrics;
+    private final Set<PositionStreamObserver> open;
+
+    private long sequence;
+    private long ackedSequence;
+    private long oldestUnackedAt;
+    private String lastVehicleId = "";
+    private int deferredRequests;
+    private boolean done;
+
+    PositionStreamObserver(StreamObserver<PositionAck> responses, Settings settings, PositionValidator validator,
+                           IngestFilter filter, IngestPipeline ingest, SessionRegistry sessions,
+                           HotPathLog hotPathLog, IngestMetrics metrics, Set<PositionStreamObserver> open) {
+        this.responses = responses;
+        this.call = responses instanceof ServerCallStreamObserver<PositionAck> c ? c : null;
+        this.settings = settings;
+        this.validator = validator;
+        this.filter = filter;
+        this.ingest = ingest;
+        this.sessions = sessions;
+        this.hotPathLog = hotPathLog;
+        this.metrics = metrics;
+        this.open = open;
+        metrics.streamOpened(IngestMetrics.Rpc.STREAM_POSITIONS);
+        if (call != null) {
+            call.disableAutoRequest();
+            call.request(settings.window());
+        }
+        open.add(this);
+    }
+
+    @Override
+    public void onNext(VehiclePosition position) {
+        long receivedAt = System.nanoTime();
+        ValidationResult validation = metrics.validated(IngestMetrics.Rpc.STREAM_POSITIONS,
+                validator.validate(position));
+        IngestFilter.Verdict verdict = validation.isValid() ? filter.check(position) : null;
+        synchronized (this) {
+            sequence++;
+            if (!validation.isValid()) {
+                reject(position, "invalid", validation.message(), receivedAt);
+            } else if (verdict == IngestFilter.Verdict.RATE_LIMITED) {
+                reject(position, "rate_limited", "Rate limit exceeded", receivedAt);
+            } else {
+                if (sequence - 1 == ackedSequence) {
+                    oldestUnackedAt = receivedAt;
+                }
+                // Duplicates and stale fixes are settled like accepted ones, just not ingested
+                lastVehicleId = position.getVehicleId();
+                if (sequence - ackedSequence >= settings.ackEvery()) {
+                    ack(sequence);
+                }
+            }
+            requestMore();
+        }
+        if (!validation.isValid()) {
+            hotPathLog.rejected(LOG, validation.message(), position);
+        } else if (verdict == IngestFilter.Verdict.ACCEPT) {
+            hotPathLog.accepted(LOG, "Stream position", position);
+            sessions.observe(position);
+            if (!ingest.submit(position)) {
+                hotPathLog.rejected(LOG, "Ingest stage full after ack", position);
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        LOG.errorf("Stream error: %s", t.getMessage());
+        synchronized (this) {
+            done = true;
+        }
+        metrics.streamClosed(IngestMetrics.Rpc.STREAM_POSITIONS);
+        open.remove(this);
+    }
+
+    @Override
+    public void onCompleted() {
+        LOG.info("Stream completed");
+        open.remove(this);
+        synchronized (this) {
+            if (sequence > ackedSequence) {
+                ack(sequence);
+            }
+            done = true;
+            responses.onCompleted();
+        }
+        metrics.streamClosed(IngestMetrics.Rpc.STREAM_POSITIONS);
+    }
+
+    /**
+     * Acks what arrived since the last ack and resumes requesting once the
+     * pipeline has room again; called by the service's sweep.
+     */
+    synchronized void tick() {
+        if (done) {
+            return;
+        }
+        if (sequence > ackedSequence) {
+            ack(sequence);
+        }
+        if (deferredRequests > 0 && ingest.hasCapacity()) {
+            call.request(deferredRequests);
+            deferredRequests = 0;
+        }
+    }
+
+    private void requestMore() {
+        if (call == null) {
+            return;
+        }
+        if (deferredRequests == 0 && ingest.hasCapacity()) {
+            call.request(1);
+        } else {
+            deferredRequests++;
+        }
+    }
+
+    /**
+     * Acks up to {@code upTo}; the latency recorded is that of the oldest
+     * message the ack settles.
+     */
+    private void ack(long upTo) {
+        ackedSequence = upTo;
+        metrics.acked(IngestMetrics.Rpc.STREAM_POSITIONS, oldestUnackedAt);
+        responses.onNext(PositionAck.newBuilder()
+                .setReceived(true)
+                .setVehicleId(lastVehicleId)
+                .setStatus("ok")
+                .setMessage("Position streamed")
+                .setSequence(upTo)
+                .build());
+    }
+
+    private void reject(VehiclePosition position, String status, String message, long receivedAt) {
+        // Settle accepted messages first so the cumulative ack stays meaningful
+        if (sequence - 1 > ackedSequence) {
+            ack(sequence - 1);
+        }
+        ackedSequence = sequence;
+        responses.onNext(PositionAck.newBuilder()
+                .setReceived(false)
+                .setVehicleId(position.getVehicleId())
+                .setStatus(status)
+                .setMessage(message)
+                .setSequence(sequence)
+                .build());
+        metrics.acked(IngestMetrics.Rpc.STREAM_POSITIONS, receivedAt);
+    }
+}
@@ -1,16 +1,30 @@
 package com.alvoratrack.grpc;
 
 
-import com.alvoratrack.client.AlvoraCoreClient;
-import com.alvoratrack.client.TraccarClient;
-import com.alvoratrack.service.PositionCache;
+import com.alvoratrack.ingest.IngestPipeline;
+import com.alvoratrack.session.SessionRegistry;
+import com.alvoratrack.util.HotPathLog;
 import com.alvoratrack.util.PositionValidator;
-import com.alvoratrack.websocket.ConnectionManager;
+import com.alvoratrack.util.IngestFilter;
+import com.alvoratrack.util.ValidationResult;
 import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.grpc.GrpcService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 
 import static com.alvoratrack.grpc.PositionAck.*;
 
@@ -21,75 +35,100 @@ public class VehicleTrackingGrpcService extends com.alvoratrack.grpc.VehicleTrac
     PositionValidator validator;
 
     @Inject
-    TraccarClient traccarClient;
+    IngestPipeline ingest;
+
+    @Inject
+    SessionRegistry sessions;
 
     @Inject
-    AlvoraCoreClient alvoraCoreClient;
+    IngestFilter filter;
 
     @Inject
-    ConnectionManager connections;
+    HotPathLog hotPathLog;
 
     @Inject
-    PositionCache positionCache;
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "tracking.stream.ack-every", defaultValue = "32")
+    int ackEvery;
+
+    @ConfigProperty(name = "tracking.stream.ack-interval", defaultValue = "PT0.5S")
+    Duration ackInterval;
+
+    @ConfigProperty(name = "tracking.stream.window", defaultValue = "64")
+    int window;
+
+    IngestMetrics metrics;
+    private final Set<PositionStreamObserver> streams = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void init() {
+        metrics = new IngestMetrics(registry);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "position-stream-acks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // One sweep for every open stream rather than a timer per stream
+        long interval = ackInterval.toMillis();
+        scheduler.scheduleAtFixedRate(this::tickStreams, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void tickStreams() {
+        for (PositionStreamObserver stream : streams) {
+            try {
+                stream.tick();
+            } catch (RuntimeException e) {
+                // A failure would cancel the sweep for every stream, not just this one
+                LOG.debugf("Failed to tick position stream: %s", e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
 
     @Override
     public void reportPosition(com.alvoratrack.grpc.VehiclePosition request, StreamObserver<com.alvoratrack.grpc.PositionAck> responseObserver) {
 
-        String validation = validator.validatePosition(request);
-        if (validation != null) {
-            com.alvoratrack.grpc.PositionAck ack = com.alvoratrack.grpc.PositionAck.newBuilder()
+        long receivedAt = System.nanoTime();
+        ValidationResult validation = metrics.validated(IngestMetrics.Rpc.REPORT_POSITION, validator.validate(request));
+        if (!validation.isValid()) {
+            hotPathLog.rejected(LOG, validation.message(), request);
+            responseObserver.onNext(validation.ack(request.getVehicleId()));
+            responseObserver.onCompleted();
+            metrics.acked(IngestMetrics.Rpc.REPORT_POSITION, receivedAt);
+            return;
+        }
+
+        IngestFilter.Verdict verdict = filter.check(request);
+        if (verdict == IngestFilter.Verdict.RATE_LIMITED) {
+            responseObserver.onNext(newBuilder()
                     .setReceived(false)
                     .setVehicleId(request.getVehicleId())
-                    .setStatus("invalid")
-                    .setMessage(validation)
-                    .build();
-
-            responseObserver.onNext(ack);
+                    .setStatus("rate_limited")
+                    .setMessage("Rate limit exceeded")
+                    .build());
             responseObserver.onCompleted();
+            metrics.acked(IngestMetrics.Rpc.REPORT_POSITION, receivedAt);
             return;
         }
-
-        LOG.infof("Position received - Vehicle: %s, Lat: %f, Lon: %f, Speed: %f km/h",
-                request.getVehicleId(),
-                request.getLatitude(),
-                request.getLongitude(),
-                request.getSpeedKph());
-
-        traccarClient.sendPosition(request)
-                .thenAccept(success -> {
-                    if (!success) {
-                        LOG.warnf("Failed to forward to Traccar: %s", request.getVehicleId());
-                    }
-                });
-
-        alvoraCoreClient.sendPosition(request)
-                .thenAccept(success -> {
-                    if (!success) {
-                        LOG.warnf("Failed to notify AlvoraCore: %s", request.getVehicleId());
-                    }
-                });
-
-        String wsMessage = String.format("""
-        {
-            "type": "position",
-            "vehicleId": "%s",
-            "latitude": %f,
-            "longitude": %f,
-            "speedKph": %f,
-            "timestamp": %d
+        if (verdict != IngestFilter.Verdict.ACCEPT) {
+            // Already have this fix or a newer one; ack so the device stops resending
+            responseObserver.onNext(newBuilder()
+                    .setReceived(true)
+                    .setVehicleId(request.getVehicleId())
+                    .setStatus(verdict == IngestFilter.Verdict.DUPLICATE ? "duplicate" : "stale")
+                    .build());
+            responseObserver.onCompleted();
+            metrics.acked(IngestMetrics.Rpc.REPORT_POSITION, receivedAt);
+            return;
         }
-        """,
-                request.getVehicleId(),
-                request.getLatitude(),
-                request.getLongitude(),
-                request.getSpeedKph(),
-                request.getTimestamp());
-
-        connections.sendToVehicle(request.getVehicleId(), wsMessage);
-
-        positionCache.update(request);
 
-        connections.broadcastToAdminFleet(wsMessage);
+        hotPathLog.accepted(LOG, "Position received", request);
 
         com.alvoratrack.grpc.PositionAck ack = newBuilder()
                 .setReceived(true)
@@ -101,6 +140,12 @@ public class VehicleTrackingGrpcService extends com.alvoratrack.grpc.VehicleTrac
         responseObserver.onNext(ack);
 
         responseObserver.onCompleted();
+        metrics.acked(IngestMetrics.Rpc.REPORT_POSITION, receivedAt);
+
+        sessions.observe(request);
+        if (!ingest.submit(request)) {
+            hotPathLog.rejected(LOG, "Ingest stage full after ack", request);
+        }
     }
 
     @Override
@@ -110,77 +155,73 @@ public class VehicleTrackingGrpcService extends com.alvoratrack.grpc.VehicleTrac
 
         LOG.info("New streaming connection opened");
 
-        return new StreamObserver<>() {
+        return new PositionStreamObserver(responseObserver,
+                new PositionStreamObserver.Settings(ackEvery, ackInterval, window),
+                validator, filter, ingest, sessions, hotPathLog, metrics, streams);
+    }
+
+    @Override
+    public void reportPositionBatch(com.alvoratrack.grpc.PositionBatch request,
+                                    StreamObserver<com.alvoratrack.grpc.BatchAck> responseObserver) {
+        long receivedAt = System.nanoTime();
+        com.alvoratrack.grpc.BatchAck.Builder ack = com.alvoratrack.grpc.BatchAck.newBuilder();
+        List<com.alvoratrack.grpc.VehiclePosition> valid = new ArrayList<>(request.getPositionsCount());
+        for (int i = 0; i < request.getPositionsCount(); i++) {
+            com.alvoratrack.grpc.VehiclePosition position = request.getPositions(i);
+            if (!metrics.validated(IngestMetrics.Rpc.REPORT_POSITION_BATCH, validator.validate(position)).isValid()) {
+                ack.addRejectedIndices(i);
+            } else {
+                valid.add(position);
+            }
+        }
+
+        LOG.debugf("Position batch received - %d positions, %d rejected",
+                request.getPositionsCount(), ack.getRejectedIndicesCount());
 
+        ack.setAccepted(valid.size())
+                .setStatus(valid.isEmpty() && request.getPositionsCount() > 0 ? "invalid"
+                        : ack.getRejectedIndicesCount() > 0 ? "partial" : "ok");
+        responseObserver.onNext(ack.build());
+        responseObserver.onCompleted();
+        metrics.acked(IngestMetrics.Rpc.REPORT_POSITION_BATCH, receivedAt);
+
+        if (!valid.isEmpty()) {
+            ingest.submitBatch(valid,
+                            position -> filter.checkBatch(position) == IngestFilter.Verdict.ACCEPT,
+                            position -> filter.check(position) == IngestFilter.Verdict.ACCEPT)
+                    .forEach(sessions::observe);
+        }
+    }
+
+    @Override
+    public StreamObserver<com.alvoratrack.grpc.VehiclePosition> trackVehicle(
+            StreamObserver<com.alvoratrack.grpc.TrackingUpdate> responseObserver
+    ) {
+        StreamObserver<com.alvoratrack.grpc.VehiclePosition> session = sessions.track(responseObserver,
+                position -> metrics.validated(IngestMetrics.Rpc.TRACK_VEHICLE, validator.validate(position)),
+                position -> {
+                    if (filter.check(position) == IngestFilter.Verdict.ACCEPT) {
+                        ingest.submit(position);
+                    }
+                });
+        metrics.streamOpened(IngestMetrics.Rpc.TRACK_VEHICLE);
+        return new StreamObserver<>() {
             @Override
             public void onNext(com.alvoratrack.grpc.VehiclePosition position) {
-                // Called for each position received
-
-                // 1. Validate
-                String error = validator.validatePosition(position);
-
-                if (error != null) {
-                    responseObserver.onNext(com.alvoratrack.grpc.PositionAck
-                            .newBuilder()
-                            .setReceived(false)
-                            .setVehicleId(position.getVehicleId())
-                            .setStatus("invalid")
-                            .setMessage(error)
-                            .build());
-                    return;
-                }
-
-                // 2. Log
-                LOG.infof("Stream position - Vehicle: %s, Lat: %f, Lon: %f",
-                        position.getVehicleId(),
-                        position.getLatitude(),
-                        position.getLongitude());
-
-                // 3. Forward to Traccar & AlvoraCore
-                traccarClient.sendPosition(position);
-                alvoraCoreClient.sendPosition(position);
-                positionCache.update(position);
-
-                // 3.5 Broadcast to admin fleet WebSocket
-                String wsMessage = String.format("""
-                {
-                    "type": "position",
-                    "vehicleId": "%s",
-                    "latitude": %f,
-                    "longitude": %f,
-                    "speedKph": %f,
-                    "timestamp": %d
-                }
-                """,
-                        position.getVehicleId(),
-                        position.getLatitude(),
-                        position.getLongitude(),
-                        position.getSpeedKph(),
-                        position.getTimestamp());
-                connections.broadcastToAdminFleet(wsMessage);
-
-                // 4. Acknowledge
-                responseObserver.onNext(com.alvoratrack.grpc.PositionAck
-                        .newBuilder()
-                        .setReceived(true)
-                        .setVehicleId(position.getVehicleId())
-                        .setStatus("ok")
-                        .setMessage("Position streamed")
-                        .build());
+                session.onNext(position);
             }
 
             @Override
             public void onError(Throwable t) {
-                LOG.errorf("Stream error: %s", t.getMessage());
+                metrics.streamClosed(IngestMetrics.Rpc.TRACK_VEHICLE);
+                session.onError(t);
             }
 
             @Override
             public void onCompleted() {
-                LOG.info("Stream completed");
-                responseObserver.onCompleted();
+                metrics.streamClosed(IngestMetrics.Rpc.TRACK_VEHICLE);
+                session.onCompleted();
             }
         };
     }
-
-
 }
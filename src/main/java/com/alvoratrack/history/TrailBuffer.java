@@ -0,0 +1,91 @@
+package com.alvoratrack.history;
+
+/**
+ * Fixed-capacity buffer of a vehicle's most recent points in their stored
+ * fixed-point form, waiting to be compressed into a block.
+ */
+final class TrailBuffer {
+
+    static final double COORDINATE_SCALE = 1e7;
+    static final double SPEED_SCALE = 100;
+
+    final long[] timestamps;
+    final int[] latitudes;
+    final int[] longitudes;
+    final int[] speeds;
+    final int[] bearings;
+    private int size;
+
+    TrailBuffer(int capacity) {
+        timestamps = new long[capacity];
+        latitudes = new int[capacity];
+        longitudes = new int[capacity];
+        speeds = new int[capacity];
+        bearings = new int[capacity];
+    }
+
+    void add(long timestamp, double latitude, double longitude, double speedKph, int bearing) {
+        timestamps[size] = timestamp;
+        latitudes[size] = (int) Math.round(latitude * COORDINATE_SCALE);
+        longitudes[size] = (int) Math.round(longitude * COORDINATE_SCALE);
+        speeds[size] = (int) Math.round(speedKph * SPEED_SCALE);
+        bearings[size] = bearing;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == timestamps.length;
+    }
+
+    long first() {
+        return timestamps[0];
+    }
+
+    long last() {
+        return timestamps[size - 1];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Puts points added out of order back in time order; an insertion sort,
+     * as late points mostly arrive in order among themselves.
+     */
+    void sort() {
+        for (int i = 1; i < size; i++) {
+            long timestamp = timestamps[i];
+            int latitude = latitudes[i];
+            int longitude = longitudes[i];
+            int speed = speeds[i];
+            int bearing = bearings[i];
+            int j = i - 1;
+            for (; j >= 0 && timestamps[j] > timestamp; j--) {
+                timestamps[j + 1] = timestamps[j];
+                latitudes[j + 1] = latitudes[j];
+                longitudes[j + 1] = longitudes[j];
+                speeds[j + 1] = speeds[j];
+                bearings[j + 1] = bearings[j];
+            }
+            timestamps[j + 1] = timestamp;
+            latitudes[j + 1] = latitude;
+            longitudes[j + 1] = longitude;
+            speeds[j + 1] = speed;
+            bearings[j + 1] = bearing;
+        }
+    }
+
+    TrailPoint point(int index) {
+        return point(timestamps[index], latitudes[index], longitudes[index], speeds[index], bearings[index]);
+    }
+
+    static TrailPoint point(long timestamp, int latitude, int longitude, int speed, int bearing) {
+        return new TrailPoint(timestamp, latitude / COORDINATE_SCALE, longitude / COORDINATE_SCALE,
+                speed / SPEED_SCALE, bearing);
+    }
+}
@@ -0,0 +1,245 @@
+package com.alvoratrack.history;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Gorilla-style compression of a block of trail points. Timestamps are
+ * stored as delta-of-deltas, so a steady 1 Hz report costs one bit.
+ * Latitude, longitude, speed and bearing are XORed with the previous value
+ * in their fixed-point form and only the meaningful bits are written,
+ * reusing the previous leading/trailing-zero window when the new bits fit
+ * in it. A parked vehicle costs about five bits per point; a day of 1 Hz
+ * city driving averages around 6 bytes per point.
+ * <p>
+ * The first timestamp is kept in the block header; the first values of the
+ * other channels are written in full.
+ */
+final class TrailCodec {
+
+    @FunctionalInterface
+    interface PointSink {
+        /**
+         * Returns false to stop decoding.
+         */
+        boolean accept(long timestamp, int latitude, int longitude, int speed, int bearing);
+    }
+
+    private TrailCodec() {
+    }
+
+    static byte[] encode(TrailBuffer points) {
+        int count = points.size();
+        BitWriter out = new BitWriter(count * 8 + 16);
+        XorChannel latitude = new XorChannel();
+        XorChannel longitude = new XorChannel();
+        XorChannel speed = new XorChannel();
+        XorChannel bearing = new XorChannel();
+        long previous = points.timestamps[0];
+        long previousDelta = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                long delta = points.timestamps[i] - previous;
+                writeDeltaOfDelta(out, delta - previousDelta);
+                previous = points.timestamps[i];
+                previousDelta = delta;
+            }
+            latitude.write(out, points.latitudes[i], i == 0);
+            longitude.write(out, points.longitudes[i], i == 0);
+            speed.write(out, points.speeds[i], i == 0);
+            bearing.write(out, points.bearings[i], i == 0);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes {@code count} points from {@code payload}, which starts at its
+     * position and runs to its limit.
+     */
+    static void decode(ByteBuffer payload, int count, long firstTimestamp, PointSink sink) {
+        BitReader in = new BitReader(payload);
+        XorChannel latitude = new XorChannel();
+        XorChannel longitude = new XorChannel();
+        XorChannel speed = new XorChannel();
+        XorChannel bearing = new XorChannel();
+        long timestamp = firstTimestamp;
+        long delta = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                delta += readDeltaOfDelta(in);
+                timestamp += delta;
+            }
+            boolean first = i == 0;
+            if (!sink.accept(timestamp, latitude.read(in, first), longitude.read(in, first),
+                    speed.read(in, first), bearing.read(in, first))) {
+                return;
+            }
+        }
+    }
+
+    private static void writeDeltaOfDelta(BitWriter out, long dod) {
+        if (dod == 0) {
+            out.write(0, 1);
+        } else if (dod >= -63 && dod <= 64) {
+            out.write(0b10, 2);
+            out.write(dod + 63, 7);
+        } else if (dod >= -255 && dod <= 256) {
+            out.write(0b110, 3);
+            out.write(dod + 255, 9);
+        } else if (dod >= -2047 && dod <= 2048) {
+            out.write(0b1110, 4);
+            out.write(dod + 2047, 12);
+        } else {
+            out.write(0b1111, 4);
+            out.write(dod, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (in.read(1) == 0) {
+            return 0;
+        }
+        if (in.read(1) == 0) {
+            return in.read(7) - 63;
+        }
+        if (in.read(1) == 0) {
+            return in.read(9) - 255;
+        }
+        if (in.read(1) == 0) {
+            return in.read(12) - 2047;
+        }
+        return in.read(64);
+    }
+
+    /**
+     * XOR state of one 32-bit channel.
+     */
+    private static final class XorChannel {
+        private int previous;
+        private int leading = -1;
+        private int trailing;
+
+        void write(BitWriter out, int value, boolean first) {
+            if (first) {
+                out.write(value, 32);
+                previous = value;
+                return;
+            }
+            int xor = value ^ previous;
+            previous = value;
+            if (xor == 0) {
+                out.write(0, 1);
+                return;
+            }
+            int lead = Integer.numberOfLeadingZeros(xor);
+            int trail = Integer.numberOfTrailingZeros(xor);
+            if (leading >= 0 && lead >= leading && trail >= trailing) {
+                out.write(0b10, 2);
+                out.write(Integer.toUnsignedLong(xor >>> trailing), 32 - leading - trailing);
+            } else {
+                int bits = 32 - lead - trail;
+                out.write(0b11, 2);
+                out.write(lead, 5);
+                out.write(bits - 1, 5);
+                out.write(Integer.toUnsignedLong(xor >>> trail), bits);
+                leading = lead;
+                trailing = trail;
+            }
+        }
+
+        int read(BitReader in, boolean first) {
+            if (first) {
+                previous = (int) in.read(32);
+                return previous;
+            }
+            if (in.read(1) == 0) {
+                return previous;
+            }
+            if (in.read(1) == 1) {
+                leading = (int) in.read(5);
+                trailing = 32 - leading - ((int) in.read(5) + 1);
+            }
+            previous ^= (int) in.read(32 - leading - trailing) << trailing;
+            return previous;
+        }
+    }
+
+    private static final class BitWriter {
+        private byte[] bytes;
+        private int size;
+        private long pending;
+        private int pendingBits;
+
+        BitWriter(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * Writes the low {@code bits} bits of {@code value}, most significant first.
+         */
+        void write(long value, int bits) {
+            if (bits > 56) {
+                write(value >>> 32, bits - 32);
+                write(value, 32);
+                return;
+            }
+            pending = (pending << bits) | (value & ((1L << bits) - 1));
+            pendingBits += bits;
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                put((byte) (pending >>> pendingBits));
+            }
+        }
+
+        byte[] toByteArray() {
+            if (pendingBits > 0) {
+                put((byte) (pending << (8 - pendingBits)));
+                pendingBits = 0;
+            }
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void put(byte b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = b;
+        }
+    }
+
+    /**
+     * Reads bits from a copy of the payload, refilling a 64-bit word a byte
+     * at a time so most reads are a shift and a mask.
+     */
+    private static final class BitReader {
+        private final byte[] bytes;
+        private int position;
+        private long pending;
+        private int pendingBits;
+
+        BitReader(ByteBuffer buffer) {
+            bytes = new byte[buffer.remaining()];
+            buffer.get(buffer.position(), bytes);
+        }
+
+        long read(int bits) {
+            if (bits > 56) {
+                long high = read(bits - 32);
+                return (high << 32) | read(32);
+            }
+            if (pendingBits < bits) {
+                refill();
+            }
+            pendingBits -= bits;
+            return (pending >>> pendingBits) & ((1L << bits) - 1);
+        }
+
+        private void refill() {
+            while (pendingBits <= 56) {
+                pending = (pending << 8) | (position < bytes.length ? bytes[position] & 0xff : 0);
+                position++;
+                pendingBits += 8;
+            }
+        }
+    }
+}
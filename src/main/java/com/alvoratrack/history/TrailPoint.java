@@ -0,0 +1,8 @@
+package com.alvoratrack.history;
+
+/**
+ * One stored point of a vehicle's trail. Coordinates are kept to 1e-7
+ * degrees (about 1 cm) and speed to 0.01 km/h.
+ */
+public record TrailPoint(long timestamp, double latitude, double longitude, double speedKph, int bearing) {
+}
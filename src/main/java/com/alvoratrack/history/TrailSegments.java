@@ -0,0 +1,275 @@
+package com.alvoratrack.history;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Time-partitioned, memory-mapped files of compressed trail blocks. Each
+ * block goes to the partition its first timestamp falls in, one directory
+ * per partition holding fixed-size segment files; retention deletes whole
+ * partitions. A block is addressed by a location packing its segment ID and
+ * offset, and is read straight from the mapping without locking.
+ * <p>
+ * Block layout: {@code [int length][int crc32][long first][long last]
+ * [int count][short idLength][vehicleId][payload]}, where length and the
+ * checksum cover everything after the fixed header; a zero length marks the
+ * end of the written part of a segment.
+ */
+class TrailSegments implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(TrailSegments.class);
+    private static final int HEADER_BYTES = 28;
+    private static final String SUFFIX = ".seg";
+
+    record Block(String vehicleId, long firstTimestamp, long lastTimestamp, int count, long location) {
+    }
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int writePos;
+
+        Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Partition {
+        final long start;
+        final Path directory;
+        final List<Segment> segments = new ArrayList<>();
+
+        Partition(long start, Path directory) {
+            this.start = start;
+            this.directory = directory;
+        }
+
+        Segment tail() {
+            return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long partitionSeconds;
+    private final TreeMap<Long, Partition> partitions = new TreeMap<>();
+    private final Map<Integer, Segment> segmentsById = new ConcurrentHashMap<>();
+
+    private int nextSegmentId;
+    private long bytesWritten;
+
+    TrailSegments(Path directory, int segmentBytes, Duration partition, Consumer<Block> recovered) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.partitionSeconds = partition.toSeconds();
+        try {
+            Files.createDirectories(directory);
+            recover(recovered);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open trail history at " + directory, e);
+        }
+    }
+
+    /**
+     * Appends a block and returns its location, or -1 if it can never fit
+     * in a segment.
+     */
+    synchronized long append(String vehicleId, long first, long last, int count, byte[] payload) {
+        byte[] id = vehicleId.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + id.length + payload.length;
+        int size = HEADER_BYTES + length;
+        if (size + 4 > segmentBytes) {
+            return -1;
+        }
+        long start = Math.floorDiv(first, partitionSeconds) * partitionSeconds;
+        Partition partition = partitions.computeIfAbsent(start,
+                s -> new Partition(s, directory.resolve(Long.toString(s))));
+        Segment tail = partition.tail();
+        if (tail == null || tail.writePos + size + 4 > segmentBytes) {
+            if (tail != null) {
+                tail.buffer.force();
+            }
+            tail = open(partition, nextSegmentId++, true);
+            partition.segments.add(tail);
+            segmentsById.put(tail.id, tail);
+        }
+        ByteBuffer buffer = tail.buffer;
+        int pos = tail.writePos;
+        buffer.putLong(pos + 8, first);
+        buffer.putLong(pos + 16, last);
+        buffer.putInt(pos + 24, count);
+        buffer.putShort(pos + HEADER_BYTES, (short) id.length);
+        buffer.put(pos + HEADER_BYTES + 2, id);
+        buffer.put(pos + HEADER_BYTES + 2 + id.length, payload);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(pos + HEADER_BYTES, length));
+        buffer.putInt(pos + 4, (int) crc.getValue());
+        // Length goes last so a torn write is never read back as a block
+        buffer.putInt(pos, length);
+        tail.writePos = pos + size;
+        bytesWritten += size;
+        return ((long) tail.id << 32) | pos;
+    }
+
+    /**
+     * The compressed payload of the block at {@code location}, or null if
+     * its partition has been deleted.
+     */
+    ByteBuffer payload(long location) {
+        Segment segment = segmentsById.get((int) (location >>> 32));
+        if (segment == null) {
+            return null;
+        }
+        int pos = (int) location;
+        ByteBuffer buffer = segment.buffer;
+        int length = buffer.getInt(pos);
+        int idLength = buffer.getShort(pos + HEADER_BYTES);
+        int offset = pos + HEADER_BYTES + 2 + idLength;
+        return buffer.slice(offset, length - 2 - idLength);
+    }
+
+    /**
+     * Deletes every partition ending at or before {@code cutoff} (epoch
+     * seconds) and returns how many were deleted.
+     */
+    synchronized int dropBefore(long cutoff) {
+        int dropped = 0;
+        while (!partitions.isEmpty() && partitions.firstKey() + partitionSeconds <= cutoff) {
+            Partition partition = partitions.pollFirstEntry().getValue();
+            for (Segment segment : partition.segments) {
+                segmentsById.remove(segment.id);
+                delete(segment.path);
+            }
+            delete(partition.directory);
+            dropped++;
+        }
+        return dropped;
+    }
+
+    synchronized long bytesWritten() {
+        return bytesWritten;
+    }
+
+    synchronized int partitionCount() {
+        return partitions.size();
+    }
+
+    synchronized void sync() {
+        for (Partition partition : partitions.values()) {
+            Segment tail = partition.tail();
+            if (tail != null) {
+                tail.buffer.force();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        sync();
+    }
+
+    private void recover(Consumer<Block> recovered) throws IOException {
+        List<Path> directories;
+        try (Stream<Path> files = Files.list(directory)) {
+            directories = files.filter(Files::isDirectory)
+                    .filter(p -> p.getFileName().toString().matches("-?\\d+"))
+                    .sorted((a, b) -> Long.compare(Long.parseLong(a.getFileName().toString()),
+                            Long.parseLong(b.getFileName().toString())))
+                    .toList();
+        }
+        for (Path dir : directories) {
+            Partition partition = new Partition(Long.parseLong(dir.getFileName().toString()), dir);
+            List<Integer> ids;
+            try (Stream<Path> files = Files.list(dir)) {
+                ids = files.map(p -> p.getFileName().toString())
+                        .filter(name -> name.endsWith(SUFFIX))
+                        .map(name -> Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())))
+                        .sorted()
+                        .toList();
+            }
+            for (int id : ids) {
+                Segment segment = open(partition, id, false);
+                segment.writePos = scan(segment, recovered);
+                partition.segments.add(segment);
+                segmentsById.put(id, segment);
+                nextSegmentId = Math.max(nextSegmentId, id + 1);
+            }
+            partitions.put(partition.start, partition);
+        }
+    }
+
+    /**
+     * Reports every valid block and returns the end of valid data; a bad
+     * checksum truncates the segment there.
+     */
+    private int scan(Segment segment, Consumer<Block> recovered) {
+        ByteBuffer buffer = segment.buffer;
+        int pos = 0;
+        CRC32 crc = new CRC32();
+        while (pos + HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(pos);
+            if (length <= 2 || pos + HEADER_BYTES + length > segmentBytes) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(pos + HEADER_BYTES, length));
+            if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+                LOG.warnf("Trail segment %s corrupt at offset %d, truncating", segment.path, pos);
+                buffer.putInt(pos, 0);
+                break;
+            }
+            byte[] id = new byte[buffer.getShort(pos + HEADER_BYTES)];
+            buffer.get(pos + HEADER_BYTES + 2, id);
+            recovered.accept(new Block(new String(id, StandardCharsets.UTF_8), buffer.getLong(pos + 8),
+                    buffer.getLong(pos + 16), buffer.getInt(pos + 24), ((long) segment.id << 32) | pos));
+            pos += HEADER_BYTES + length;
+        }
+        return pos;
+    }
+
+    private Segment open(Partition partition, int id, boolean create) {
+        Path path = partition.directory.resolve(String.format("%010d%s", id, SUFFIX));
+        try {
+            Files.createDirectories(partition.directory);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+                if (create) {
+                    buffer.putInt(0, 0);
+                }
+                return new Segment(id, path, buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map trail segment " + path, e);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.warnf("Failed to delete %s: %s", path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.alvoratrack.history;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.CoarseClock;
+import com.alvoratrack.util.SweptState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Per-vehicle position history. Each vehicle's newest points are buffered in
+ * memory; once {@code block-points} have accumulated, the buffer has waited
+ * {@code flush-interval}, or the next point falls in another time partition,
+ * they are compressed into one block ({@link TrailCodec}) and appended to the
+ * memory-mapped {@link TrailSegments}. The block index (time range and
+ * location of every block) lives in memory and is rebuilt from the segments
+ * on startup. A point older than the vehicle's newest goes to a separate
+ * late buffer, compressed into blocks of its own and merged with the
+ * in-order blocks at read time; a repeat of the newest timestamp is
+ * dropped.
+ */
+@ApplicationScoped
+public class TrailStore {
+
+    private static final Logger LOG = Logger.getLogger(TrailStore.class);
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "history.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "history.directory", defaultValue = "data/history")
+    String directory;
+
+    @ConfigProperty(name = "history.segment-bytes", defaultValue = "33554432")
+    int segmentBytes;
+
+    @ConfigProperty(name = "history.partition", defaultValue = "PT6H")
+    Duration partition;
+
+    @ConfigProperty(name = "history.retention", defaultValue = "P7D")
+    Duration retention;
+
+    @ConfigProperty(name = "history.block-points", defaultValue = "512")
+    int blockPoints;
+
+    @ConfigProperty(name = "history.flush-interval", defaultValue = "PT1M")
+    Duration flushInterval;
+
+    private final ConcurrentMap<String, VehicleTrail> vehicles = new ConcurrentHashMap<>();
+
+    private TrailSegments segments;
+    private long partitionSeconds;
+    private Counter stored;
+    private Counter late;
+    private Counter duplicate;
+    private Counter bytes;
+    private DistributionSummary bytesPerPoint;
+    private Timer readLatency;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+        partitionSeconds = partition.toSeconds();
+        stored = Counter.builder("tracker.history.points").tag("outcome", "stored").register(registry);
+        late = Counter.builder("tracker.history.points").tag("outcome", "late").register(registry);
+        duplicate = Counter.builder("tracker.history.points").tag("outcome", "duplicate").register(registry);
+        bytes = Counter.builder("tracker.history.bytes").register(registry);
+        bytesPerPoint = DistributionSummary.builder("tracker.history.bytes.per.point").register(registry);
+        readLatency = Timer.builder("tracker.history.read.latency").publishPercentileHistogram().register(registry);
+        registry.gauge("tracker.history.vehicles", Tags.empty(), vehicles, Map::size);
+
+        Path path = Path.of(directory);
+        long[] blocks = new long[1];
+        segments = new TrailSegments(path, segmentBytes, partition, block -> {
+            vehicles.computeIfAbsent(block.vehicleId(), id -> new VehicleTrail(blockPoints))
+                    .recover(block.location(), block.firstTimestamp(), block.lastTimestamp(), block.count());
+            blocks[0]++;
+        });
+        registry.gauge("tracker.history.partitions", Tags.empty(), segments, TrailSegments::partitionCount);
+        LOG.infof("Trail history opened at %s - %d blocks for %d vehicles", path.toAbsolutePath(), blocks[0],
+                vehicles.size());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (segments == null) {
+            return;
+        }
+        flush(Long.MAX_VALUE);
+        segments.close();
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public void record(VehiclePosition position) {
+        if (!enabled) {
+            return;
+        }
+        SweptState.update(vehicles, position.getVehicleId(), id -> new VehicleTrail(blockPoints),
+                trail -> record(position, trail));
+    }
+
+    private void record(VehiclePosition position, VehicleTrail trail) {
+        long timestamp = position.getTimestamp();
+        if (timestamp == trail.lastTimestamp) {
+            duplicate.increment();
+            return;
+        }
+        if (timestamp < trail.lastTimestamp) {
+            recordLate(position, trail);
+            late.increment();
+            return;
+        }
+        TrailBuffer recent = trail.recent;
+        if (recent.size() > 0 && partitionOf(timestamp) != partitionOf(recent.first())) {
+            flush(position.getVehicleId(), trail);
+        }
+        if (recent.size() == 0) {
+            trail.bufferedSince = CoarseClock.currentTimeMillis();
+        }
+        recent.add(timestamp, position.getLatitude(), position.getLongitude(), position.getSpeedKph(),
+                position.getBearing());
+        trail.lastTimestamp = timestamp;
+        if (recent.isFull()) {
+            flush(position.getVehicleId(), trail);
+        }
+        stored.increment();
+    }
+
+    private void recordLate(VehiclePosition position, VehicleTrail trail) {
+        long timestamp = position.getTimestamp();
+        if (trail.late == null) {
+            trail.late = new TrailBuffer(blockPoints);
+        }
+        if (trail.late.size() > 0 && partitionOf(timestamp) != partitionOf(trail.late.first())) {
+            flushLate(position.getVehicleId(), trail);
+        }
+        if (trail.late.size() == 0) {
+            trail.lateSince = CoarseClock.currentTimeMillis();
+        }
+        trail.late.add(timestamp, position.getLatitude(), position.getLongitude(), position.getSpeedKph(),
+                position.getBearing());
+        if (trail.late.isFull()) {
+            flushLate(position.getVehicleId(), trail);
+        }
+    }
+
+    /**
+     * Streams a vehicle's points with {@code from <= timestamp <= to} (epoch
+     * seconds) to {@code sink} in time order. With {@code intervalSeconds}
+     * above 1, only the first point of each interval counted from
+     * {@code from} is kept. Late points are merged in, and a timestamp
+     * stored more than once is emitted once. Returns the number of points
+     * emitted.
+     */
+    public long read(String vehicleId, long from, long to, long intervalSeconds, Consumer<TrailPoint> sink) {
+        VehicleTrail trail = enabled ? vehicles.get(vehicleId) : null;
+        if (trail == null || from > to) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        long[] locations;
+        long[] firsts;
+        int[] counts;
+        BlockIndex lateBlocks = new BlockIndex();
+        List<TrailPoint> recent = new ArrayList<>();
+        List<TrailPoint> late = new ArrayList<>();
+        synchronized (trail) {
+            BlockIndex blocks = trail.blocks;
+            int first = blocks.firstEndingAtOrAfter(from);
+            int last = first;
+            while (last < blocks.size && blocks.firsts[last] <= to) {
+                last++;
+            }
+            locations = Arrays.copyOfRange(blocks.locations, first, last);
+            firsts = Arrays.copyOfRange(blocks.firsts, first, last);
+            counts = Arrays.copyOfRange(blocks.counts, first, last);
+            copyInRange(trail.recent, from, to, recent);
+            if (trail.lateBlocks != null) {
+                for (int i = 0; i < trail.lateBlocks.size; i++) {
+                    if (trail.lateBlocks.lasts[i] >= from && trail.lateBlocks.firsts[i] <= to) {
+                        lateBlocks.add(trail.lateBlocks.locations[i], trail.lateBlocks.firsts[i],
+                                trail.lateBlocks.lasts[i], trail.lateBlocks.counts[i]);
+                    }
+                }
+            }
+            if (trail.late != null) {
+                copyInRange(trail.late, from, to, late);
+            }
+        }
+
+        for (int i = 0; i < lateBlocks.size; i++) {
+            ByteBuffer payload = segments.payload(lateBlocks.locations[i]);
+            if (payload != null) {
+                TrailCodec.decode(payload, lateBlocks.counts[i], lateBlocks.firsts[i],
+                        (timestamp, latitude, longitude, speed, bearing) -> {
+                            if (timestamp >= from && timestamp <= to) {
+                                late.add(TrailBuffer.point(timestamp, latitude, longitude, speed, bearing));
+                            }
+                            return timestamp <= to;
+                        });
+            }
+        }
+        late.sort(Comparator.comparingLong(TrailPoint::timestamp));
+
+        Downsampler out = new Downsampler(from, to, intervalSeconds, late, sink);
+        for (int i = 0; i < locations.length; i++) {
+            ByteBuffer payload = segments.payload(locations[i]);
+            if (payload != null) {
+                TrailCodec.decode(payload, counts[i], firsts[i], out);
+            }
+        }
+        for (TrailPoint point : recent) {
+            out.emit(point);
+        }
+        out.finish();
+        readLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return out.emitted;
+    }
+
+    private static void copyInRange(TrailBuffer buffer, long from, long to, List<TrailPoint> points) {
+        for (int i = 0; i < buffer.size(); i++) {
+            long timestamp = buffer.timestamps[i];
+            if (timestamp >= from && timestamp <= to) {
+                points.add(buffer.point(i));
+            }
+        }
+    }
+
+    /**
+     * Flushes buffers that have waited longer than the flush interval and
+     * syncs the segments to disk.
+     */
+    @Scheduled(every = "${history.flush-interval:PT1M}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void flushIdle() {
+        if (segments == null) {
+            return;
+        }
+        flush(CoarseClock.currentTimeMillis() - flushInterval.toMillis());
+    }
+
+    /**
+     * Deletes partitions older than the retention period, along with
+     * vehicles that have nothing left.
+     */
+    @Scheduled(every = "${history.retention-sweep-interval:PT10M}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void applyRetention() {
+        if (segments == null) {
+            return;
+        }
+        long cutoff = CoarseClock.currentTimeSeconds() - retention.toSeconds();
+        int dropped = segments.dropBefore(cutoff);
+        long retainedFrom = partitionOf(cutoff);
+        vehicles.entrySet().removeIf(entry -> {
+            VehicleTrail trail = entry.getValue();
+            synchronized (trail) {
+                trail.blocks.dropStartingBefore(retainedFrom);
+                if (trail.lateBlocks != null) {
+                    trail.lateBlocks.dropStartingBefore(retainedFrom);
+                }
+                if (trail.isEmpty() && trail.lastTimestamp < cutoff) {
+                    trail.evict();
+                    return true;
+                }
+                return false;
+            }
+        });
+        if (dropped > 0) {
+            LOG.infof("Trail history dropped %d partitions older than %s", dropped, retention);
+        }
+    }
+
+    /**
+     * Flushes every buffer started at or before {@code bufferedBefore}.
+     */
+    void flush(long bufferedBefore) {
+        vehicles.forEach((vehicleId, trail) -> {
+            synchronized (trail) {
+                if (trail.recent.size() > 0 && trail.bufferedSince <= bufferedBefore) {
+                    flush(vehicleId, trail);
+                }
+                if (trail.late != null && trail.lateSince <= bufferedBefore) {
+                    if (trail.late.size() > 0) {
+                        flushLate(vehicleId, trail);
+                    }
+                    // Few vehicles send late points; free the buffer until the next one
+                    trail.late = null;
+                }
+            }
+        });
+        segments.sync();
+    }
+
+    private void flush(String vehicleId, VehicleTrail trail) {
+        append(vehicleId, trail.recent, trail.blocks);
+    }
+
+    private void flushLate(String vehicleId, VehicleTrail trail) {
+        if (trail.lateBlocks == null) {
+            trail.lateBlocks = new BlockIndex();
+        }
+        trail.late.sort();
+        append(vehicleId, trail.late, trail.lateBlocks);
+    }
+
+    private void append(String vehicleId, TrailBuffer points, BlockIndex index) {
+        byte[] payload = TrailCodec.encode(points);
+        long location = segments.append(vehicleId, points.first(), points.last(), points.size(), payload);
+        if (location < 0) {
+            LOG.warnf("Trail block of %d bytes does not fit a segment, dropped %d points for %s",
+                    payload.length, points.size(), vehicleId);
+        } else {
+            index.add(location, points.first(), points.last(), points.size());
+            bytes.increment(payload.length);
+            bytesPerPoint.record((double) payload.length / points.size());
+        }
+        points.clear();
+    }
+
+    private long partitionOf(long timestamp) {
+        return Math.floorDiv(timestamp, partitionSeconds) * partitionSeconds;
+    }
+
+    /**
+     * A vehicle's buffered points and the index of its flushed blocks, with
+     * late points kept apart so the in-order blocks stay sorted.
+     */
+    private static final class VehicleTrail extends SweptState {
+        final TrailBuffer recent;
+        final BlockIndex blocks = new BlockIndex();
+        TrailBuffer late;
+        BlockIndex lateBlocks;
+        long lastTimestamp = Long.MIN_VALUE;
+        long bufferedSince;
+        long lateSince;
+
+        VehicleTrail(int blockPoints) {
+            recent = new TrailBuffer(blockPoints);
+        }
+
+        /**
+         * Indexes a block found on startup. A block that does not start
+         * after the in-order ones indexed so far holds late points.
+         */
+        void recover(long location, long first, long last, int count) {
+            if (blocks.size > 0 && first <= blocks.lasts[blocks.size - 1]) {
+                if (lateBlocks == null) {
+                    lateBlocks = new BlockIndex();
+                }
+                lateBlocks.add(location, first, last, count);
+            } else {
+                blocks.add(location, first, last, count);
+            }
+            lastTimestamp = Math.max(lastTimestamp, last);
+        }
+
+        boolean isEmpty() {
+            return blocks.size == 0 && recent.size() == 0
+                    && (lateBlocks == null || lateBlocks.size == 0) && (late == null || late.size() == 0);
+        }
+    }
+
+    /**
+     * Location, time range and point count of blocks, in the order they
+     * were written.
+     */
+    private static final class BlockIndex {
+        long[] locations = new long[4];
+        long[] firsts = new long[4];
+        long[] lasts = new long[4];
+        int[] counts = new int[4];
+        int size;
+
+        void add(long location, long first, long last, int count) {
+            if (size == locations.length) {
+                int capacity = size * 2;
+                locations = Arrays.copyOf(locations, capacity);
+                firsts = Arrays.copyOf(firsts, capacity);
+                lasts = Arrays.copyOf(lasts, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            locations[size] = location;
+            firsts[size] = first;
+            lasts[size] = last;
+            counts[size] = count;
+            size++;
+        }
+
+        /**
+         * Binary search, for blocks that are in time order.
+         */
+        int firstEndingAtOrAfter(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lasts[mid] < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        void dropStartingBefore(long timestamp) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (firsts[i] >= timestamp) {
+                    locations[kept] = locations[i];
+                    firsts[kept] = firsts[i];
+                    lasts[kept] = lasts[i];
+                    counts[kept] = counts[i];
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+    }
+
+    /**
+     * Filters decoded points to the requested range, merges in the sorted
+     * late points, and keeps the first point of each interval.
+     */
+    private static final class Downsampler implements TrailCodec.PointSink {
+        private final long from;
+        private final long to;
+        private final long interval;
+        private final List<TrailPoint> late;
+        private final Consumer<TrailPoint> sink;
+        private int nextLate;
+        private long lastTimestamp = Long.MIN_VALUE;
+        private long lastBucket = Long.MIN_VALUE;
+        long emitted;
+
+        Downsampler(long from, long to, long interval, List<TrailPoint> late, Consumer<TrailPoint> sink) {
+            this.from = from;
+            this.to = to;
+            this.interval = Math.max(1, interval);
+            this.late = late;
+            this.sink = sink;
+        }
+
+        @Override
+        public boolean accept(long timestamp, int latitude, int longitude, int speed, int bearing) {
+            if (timestamp > to) {
+                return false;
+            }
+            if (timestamp >= from) {
+                emitLateBefore(timestamp);
+                if (take(timestamp)) {
+                    sink.accept(TrailBuffer.point(timestamp, latitude, longitude, speed, bearing));
+                }
+            }
+            return true;
+        }
+
+        void emit(TrailPoint point) {
+            emitLateBefore(point.timestamp());
+            if (take(point.timestamp())) {
+                sink.accept(point);
+            }
+        }
+
+        void finish() {
+            emitLateBefore(Long.MAX_VALUE);
+        }
+
+        private void emitLateBefore(long timestamp) {
+            while (nextLate < late.size() && late.get(nextLate).timestamp() < timestamp) {
+                TrailPoint point = late.get(nextLate++);
+                if (take(point.timestamp())) {
+                    sink.accept(point);
+                }
+            }
+        }
+
+        private boolean take(long timestamp) {
+            // A late point can repeat one already stored
+            if (timestamp <= lastTimestamp) {
+                return false;
+            }
+            lastTimestamp = timestamp;
+            long bucket = Math.floorDiv(timestamp - from, interval);
+            if (bucket == lastBucket) {
+                return false;
+            }
+            lastBucket = bucket;
+            emitted++;
+            return true;
+        }
+    }
+}
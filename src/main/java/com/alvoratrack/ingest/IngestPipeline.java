@@ -0,0 +1,268 @@
+package com.alvoratrack.ingest;
+
+import com.alvoratrack.client.AlvoraCoreClient;
+import com.alvoratrack.client.TraccarClient;
+import com.alvoratrack.cluster.ClusterFanout;
+import com.alvoratrack.geo.SpatialIndex;
+import com.alvoratrack.geofence.GeofenceEngine;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.history.TrailStore;
+import com.alvoratrack.motion.MotionTracker;
+import com.alvoratrack.service.PositionCache;
+import com.alvoratrack.thinning.DownstreamThinning;
+import com.alvoratrack.thinning.PositionThinner;
+import com.alvoratrack.websocket.AdminFleetBroadcaster;
+import com.alvoratrack.websocket.ConnectionManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Fans accepted positions out to independent stages (cache, WebSocket,
+ * history, geofence, motion, Traccar, AlvoraCore) after the device has
+ * been acked. The WebSocket stage also keeps the {@link SpatialIndex}
+ * current and hands updates to the {@link ClusterFanout} for clients on
+ * other nodes. Each stage has its own workers and bounded queues, so a
+ * slow consumer only backs up itself. Traccar, AlvoraCore and the admin
+ * fleet dashboards only get the positions their {@link DownstreamThinning}
+ * filter keeps.
+ */
+@ApplicationScoped
+public class IngestPipeline {
+
+    private static final Logger LOG = Logger.getLogger(IngestPipeline.class);
+
+    @Inject
+    PositionCache positionCache;
+
+    @Inject
+    ConnectionManager connections;
+
+    @Inject
+    AdminFleetBroadcaster adminFleetBroadcaster;
+
+    @Inject
+    SpatialIndex spatialIndex;
+
+    @Inject
+    ClusterFanout clusterFanout;
+
+    @Inject
+    TrailStore trailStore;
+
+    @Inject
+    GeofenceEngine geofenceEngine;
+
+    @Inject
+    MotionTracker motionTracker;
+
+    @Inject
+    TraccarClient traccarClient;
+
+    @Inject
+    AlvoraCoreClient alvoraCoreClient;
+
+    @Inject
+    DownstreamThinning thinning;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "ingest.cache.workers", defaultValue = "2")
+    int cacheWorkers;
+
+    @ConfigProperty(name = "ingest.cache.queue-capacity", defaultValue = "10000")
+    int cacheQueueCapacity;
+
+    @ConfigProperty(name = "ingest.websocket.workers", defaultValue = "2")
+    int websocketWorkers;
+
+    @ConfigProperty(name = "ingest.websocket.queue-capacity", defaultValue = "10000")
+    int websocketQueueCapacity;
+
+    @ConfigProperty(name = "ingest.history.workers", defaultValue = "1")
+    int historyWorkers;
+
+    @ConfigProperty(name = "ingest.history.queue-capacity", defaultValue = "10000")
+    int historyQueueCapacity;
+
+    @ConfigProperty(name = "ingest.geofence.workers", defaultValue = "2")
+    int geofenceWorkers;
+
+    @ConfigProperty(name = "ingest.geofence.queue-capacity", defaultValue = "10000")
+    int geofenceQueueCapacity;
+
+    @ConfigProperty(name = "ingest.motion.workers", defaultValue = "1")
+    int motionWorkers;
+
+    @ConfigProperty(name = "ingest.motion.queue-capacity", defaultValue = "10000")
+    int motionQueueCapacity;
+
+    @ConfigProperty(name = "ingest.traccar.workers", defaultValue = "1")
+    int traccarWorkers;
+
+    @ConfigProperty(name = "ingest.traccar.queue-capacity", defaultValue = "10000")
+    int traccarQueueCapacity;
+
+    @ConfigProperty(name = "ingest.alvoracore.workers", defaultValue = "1")
+    int alvoraCoreWorkers;
+
+    @ConfigProperty(name = "ingest.alvoracore.queue-capacity", defaultValue = "10000")
+    int alvoraCoreQueueCapacity;
+
+    @ConfigProperty(name = "ingest.high-watermark", defaultValue = "0.8")
+    double highWatermark;
+
+    @ConfigProperty(name = "ingest.shutdown-timeout", defaultValue = "PT5S")
+    Duration shutdownTimeout;
+
+    private List<IngestStage> stages;
+    private IngestStage cacheStage;
+    private IngestStage websocketStage;
+    private List<IngestStage> trackStages;
+
+    @PostConstruct
+    void init() {
+        PositionThinner adminThinner = thinning.create(DownstreamThinning.Destination.ADMIN,
+                adminFleetBroadcaster::submit);
+        PositionThinner traccarThinner = thinning.create(DownstreamThinning.Destination.TRACCAR,
+                (position, previous) -> traccarClient.forward(position));
+        PositionThinner alvoraCoreThinner = thinning.create(DownstreamThinning.Destination.ALVORACORE,
+                (position, previous) -> {
+                    if (!alvoraCoreClient.forward(position)) {
+                        LOG.warnf("AlvoraCore forward queue full, dropped position: %s", position.getVehicleId());
+                    }
+                });
+        cacheStage = new IngestStage("cache", cacheWorkers, cacheQueueCapacity,
+                positionCache::update, registry);
+        websocketStage = new IngestStage("websocket", websocketWorkers, websocketQueueCapacity, position -> {
+            SpatialIndex.Update update = spatialIndex.update(position);
+            if (!update.applied()) {
+                // Clients already have a newer position for this vehicle
+                return;
+            }
+            connections.sendPosition(position);
+            adminThinner.offer(position, update.previous());
+            clusterFanout.publish(position, update.previous());
+        }, registry);
+        trackStages = List.of(
+                new IngestStage("history", historyWorkers, historyQueueCapacity,
+                        trailStore::record, registry),
+                new IngestStage("geofence", geofenceWorkers, geofenceQueueCapacity,
+                        geofenceEngine::evaluate, registry),
+                new IngestStage("motion", motionWorkers, motionQueueCapacity,
+                        motionTracker::evaluate, registry),
+                // Positions the forwarders have no room for are already acked; spool them
+                new IngestStage("traccar", traccarWorkers, traccarQueueCapacity,
+                        traccarThinner::offer, traccarClient::spool, registry),
+                new IngestStage("alvoracore", alvoraCoreWorkers, alvoraCoreQueueCapacity,
+                        alvoraCoreThinner::offer, position -> {
+                            if (!alvoraCoreClient.spool(position)) {
+                                LOG.warnf("AlvoraCore ingest queue full, dropped position: %s",
+                                        position.getVehicleId());
+                            }
+                        }, registry));
+        stages = new ArrayList<>();
+        stages.add(cacheStage);
+        stages.add(websocketStage);
+        stages.addAll(trackStages);
+        stages.forEach(IngestStage::start);
+    }
+
+    // Runs before the clients are destroyed, so what the stages drain can still be forwarded or spooled
+    void onStop(@Observes ShutdownEvent event) {
+        shutdown();
+    }
+
+    /**
+     * Stops taking positions and gives the stages up to
+     * {@code ingest.shutdown-timeout} to work through their queues.
+     */
+    void shutdown() {
+        stages.forEach(IngestStage::stop);
+        long deadline = System.nanoTime() + shutdownTimeout.toNanos();
+        for (IngestStage stage : stages) {
+            stage.awaitDrained(deadline);
+        }
+    }
+
+    /**
+     * False once any stage queue passes the high watermark; streaming
+     * ingest stops requesting more messages until it drains.
+     */
+    public boolean hasCapacity() {
+        for (IngestStage stage : stages) {
+            if (stage.saturated(highWatermark)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands a validated position to every stage. Returns false if any stage
+     * was full and dropped it; the forwarding stages spool instead.
+     */
+    public boolean submit(VehiclePosition position) {
+        long receivedAt = System.nanoTime();
+        boolean accepted = true;
+        for (IngestStage stage : stages) {
+            accepted &= stage.offer(position, receivedAt);
+        }
+        return accepted;
+    }
+
+    /**
+     * Hands a batch of validated positions to the stages. Positions are
+     * grouped per vehicle and ordered by timestamp, and those {@code unseen}
+     * rejects as already delivered are dropped; history, geofences, motion
+     * and the forwarders get the rest as one queue entry per vehicle, while
+     * the cache and WebSocket stages only see each vehicle's newest position,
+     * and only if {@code live} accepts it as newer than what the vehicle last
+     * reported. Returns the positions that were live.
+     */
+    public Collection<VehiclePosition> submitBatch(List<VehiclePosition> positions,
+                                                   Predicate<VehiclePosition> unseen,
+                                                   Predicate<VehiclePosition> live) {
+        long receivedAt = System.nanoTime();
+        Map<String, List<VehiclePosition>> byVehicle = new HashMap<>();
+        for (VehiclePosition position : positions) {
+            byVehicle.computeIfAbsent(position.getVehicleId(), id -> new ArrayList<>()).add(position);
+        }
+        List<VehiclePosition> newest = new ArrayList<>(byVehicle.size());
+        for (Map.Entry<String, List<VehiclePosition>> entry : byVehicle.entrySet()) {
+            List<VehiclePosition> track = entry.getValue();
+            track.sort(Comparator.comparingLong(VehiclePosition::getTimestamp));
+            // A batch resent after a lost ack would otherwise be recorded and forwarded twice
+            track.removeIf(unseen.negate());
+            if (track.isEmpty()) {
+                continue;
+            }
+            VehiclePosition latest = track.get(track.size() - 1);
+            // A backfill from before the vehicle's last report must not move it back on the map
+            if (live.test(latest)) {
+                newest.add(latest);
+                cacheStage.offer(latest, receivedAt);
+                websocketStage.offer(latest, receivedAt);
+            }
+            for (IngestStage stage : trackStages) {
+                stage.offerAll(entry.getKey(), track, receivedAt);
+            }
+        }
+        return newest;
+    }
+}
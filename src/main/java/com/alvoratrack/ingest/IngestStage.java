@@ -0,0 +1,226 @@
+package com.alvoratrack.ingest;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One consumer stage of the ingest pipeline. Each worker thread owns a
+ * bounded queue and vehicles are hashed onto workers, so a vehicle's
+ * positions are handled in order while the stage runs in parallel. A full
+ * queue rejects the position instead of blocking the gRPC thread; stages
+ * with an overflow handler pass rejected positions to it, and only the
+ * others drop them.
+ */
+class IngestStage {
+
+    private static final Logger LOG = Logger.getLogger(IngestStage.class);
+    private static final long POLL_MILLIS = 100;
+
+    private final String name;
+    private final Consumer<VehiclePosition> handler;
+    private final Consumer<VehiclePosition> overflow;
+    private final Worker[] workers;
+    private final Timer latency;
+    private final Counter dropped;
+    private final Counter overflowed;
+
+    private volatile boolean running = true;
+
+    IngestStage(String name, int workerCount, int queueCapacity, Consumer<VehiclePosition> handler,
+                MeterRegistry registry) {
+        this(name, workerCount, queueCapacity, handler, null, registry);
+    }
+
+    /**
+     * {@code overflow} gets the positions the stage cannot queue, and those
+     * still queued when {@link #awaitDrained} gives up.
+     */
+    IngestStage(String name, int workerCount, int queueCapacity, Consumer<VehiclePosition> handler,
+                Consumer<VehiclePosition> overflow, MeterRegistry registry) {
+        this.name = name;
+        this.handler = handler;
+        this.overflow = overflow;
+        Tags tags = Tags.of("stage", name);
+        this.latency = Timer.builder("tracker.ingest.stage.latency").tags(tags)
+                .publishPercentileHistogram().register(registry);
+        this.dropped = Counter.builder("tracker.ingest.stage.dropped").tags(tags).register(registry);
+        this.overflowed = Counter.builder("tracker.ingest.stage.overflowed").tags(tags).register(registry);
+
+        int perWorker = Math.max(1, queueCapacity / workerCount);
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(name + "-" + i, perWorker);
+        }
+        registry.gauge("tracker.ingest.stage.queue.depth", tags, this, IngestStage::depth);
+    }
+
+    void start() {
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Queues the position. Returns false if the stage was full, or stopped,
+     * and dropped it; a position handed to the overflow handler counts as
+     * accepted.
+     */
+    boolean offer(VehiclePosition position, long receivedAt) {
+        if (running && workerFor(position.getVehicleId()).queue.offer(new Entry(position, null, receivedAt))) {
+            return true;
+        }
+        return reject(List.of(position));
+    }
+
+    /**
+     * Queues one vehicle's positions as a single entry, handled in list order.
+     */
+    boolean offerAll(String vehicleId, List<VehiclePosition> positions, long receivedAt) {
+        if (running && workerFor(vehicleId).queue.offer(new Entry(null, positions, receivedAt))) {
+            return true;
+        }
+        return reject(positions);
+    }
+
+    private boolean reject(List<VehiclePosition> positions) {
+        if (overflow == null) {
+            dropped.increment(positions.size());
+            return false;
+        }
+        for (VehiclePosition position : positions) {
+            overflowed.increment();
+            try {
+                overflow.accept(position);
+            } catch (RuntimeException e) {
+                dropped.increment();
+                LOG.errorf("Ingest stage %s overflow failed for vehicle %s: %s",
+                        name, position.getVehicleId(), e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private Worker workerFor(String vehicleId) {
+        int h = vehicleId.hashCode();
+        return workers[Math.floorMod(h ^ (h >>> 16), workers.length)];
+    }
+
+    /**
+     * True when any worker's queue is at least {@code fraction} full.
+     */
+    boolean saturated(double fraction) {
+        for (Worker worker : workers) {
+            int size = worker.queue.size();
+            if (size >= (size + worker.queue.remainingCapacity()) * fraction) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int depth() {
+        int depth = 0;
+        for (Worker worker : workers) {
+            depth += worker.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Stops taking positions; the workers keep going until their queues
+     * are empty.
+     */
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Waits until {@code deadline} ({@link System#nanoTime()}) for the
+     * workers to empty their queues after {@link #stop()}. What is still
+     * queued then goes to the overflow handler, or is dropped.
+     */
+    void awaitDrained(long deadline) {
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int left = 0;
+        for (Worker worker : workers) {
+            List<Entry> entries = new ArrayList<>();
+            worker.queue.drainTo(entries);
+            for (Entry entry : entries) {
+                List<VehiclePosition> positions = entry.batch() == null ? List.of(entry.position()) : entry.batch();
+                left += positions.size();
+                reject(positions);
+            }
+            worker.thread.interrupt();
+        }
+        if (left > 0) {
+            LOG.warnf("Ingest stage %s stopped with %d positions queued, %s", name, left,
+                    overflow == null ? "dropped them" : "handed them to its overflow");
+        }
+    }
+
+    private record Entry(VehiclePosition position, List<VehiclePosition> batch, long receivedAt) {
+    }
+
+    private final class Worker implements Runnable {
+
+        private final ArrayBlockingQueue<Entry> queue;
+        private final Thread thread;
+
+        Worker(String threadName, int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this, "ingest-" + threadName);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Entry entry;
+                try {
+                    // Polling rather than blocking lets the worker see stop() and empty its queue first
+                    entry = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (entry == null) {
+                    if (running) {
+                        continue;
+                    }
+                    return;
+                }
+                if (entry.batch() == null) {
+                    handle(entry.position());
+                } else {
+                    entry.batch().forEach(this::handle);
+                }
+                latency.record(System.nanoTime() - entry.receivedAt(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void handle(VehiclePosition position) {
+            try {
+                handler.accept(position);
+            } catch (RuntimeException e) {
+                LOG.errorf("Ingest stage %s failed for vehicle %s: %s",
+                        name, position.getVehicleId(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.alvoratrack.motion;
+
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.value.ReactiveValueCommands;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Shares each vehicle's motion state through Redis, next to its position,
+ * so replicas that do not ingest the vehicle can report it too. Only
+ * transitions are written, as {@code status since tripStartedAt node}, and a
+ * state expires after {@code motion.evict-after}, like the tracker's own.
+ * The writing node is kept so a tracker can tell a state another node
+ * reported from its own, possibly not yet stored, last one.
+ */
+@ApplicationScoped
+public class MotionStateStore {
+
+    private static final Logger LOG = Logger.getLogger(MotionStateStore.class);
+    private static final String KEY_PREFIX = "vehicle:motion:";
+
+    @Inject
+    ReactiveRedisDataSource redisDS;
+
+    @ConfigProperty(name = "motion.evict-after", defaultValue = "PT24H")
+    Duration ttl;
+
+    @ConfigProperty(name = "cluster.node-id")
+    Optional<String> configuredNodeId;
+
+    private ReactiveValueCommands<String, String> commands;
+    private String nodeId;
+
+    @PostConstruct
+    void init() {
+        commands = redisDS.value(String.class, String.class);
+        nodeId = configuredNodeId.filter(id -> !id.isBlank()).orElseGet(() -> UUID.randomUUID().toString());
+    }
+
+    public void save(String vehicleId, MotionTracker.State state) {
+        String value = state.status().label() + " " + state.since() + " " + state.tripStartedAt() + " " + nodeId;
+        commands.setex(KEY_PREFIX + vehicleId, ttl.toSeconds(), value)
+                .subscribe().with(
+                        ignored -> { },
+                        failure -> LOG.warnf("Failed to store motion state of %s: %s", vehicleId,
+                                failure.getMessage()));
+    }
+
+    /**
+     * The last state stored for the vehicle, or {@code null}.
+     */
+    public Uni<MotionTracker.State> get(String vehicleId) {
+        return commands.get(KEY_PREFIX + vehicleId).map(MotionStateStore::parse);
+    }
+
+    /**
+     * The last state stored for the vehicle if another node stored it, or
+     * {@code null}.
+     */
+    public Uni<MotionTracker.State> fromOtherNode(String vehicleId) {
+        return commands.get(KEY_PREFIX + vehicleId)
+                .map(value -> value == null || value.endsWith(" " + nodeId) ? null : parse(value));
+    }
+
+    private static MotionTracker.State parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        // A fourth field names the node that stored it
+        String[] fields = value.split(" ");
+        try {
+            return new MotionTracker.State(MotionTracker.Status.valueOf(fields[0].toUpperCase()),
+                    Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+        } catch (RuntimeException e) {
+            LOG.warnf("Ignoring unreadable motion state: %s", value);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.alvoratrack.motion;
+
+import com.alvoratrack.client.AlvoraCoreClient;
+import com.alvoratrack.geo.GeoMath;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.service.PositionCache;
+import com.alvoratrack.util.CoarseClock;
+import com.alvoratrack.util.SweptState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-vehicle trip and stop detection. A single report never changes a
+ * vehicle's status on its own: speed has a dead band between
+ * {@code stop-speed-kph} and {@code start-speed-kph}, a trip only starts
+ * once two fixes in a row are {@code start-distance-meters} from the spot
+ * the vehicle stopped at or it has kept moving for {@code start-after}, and
+ * a stop only counts after {@code stop-after} standing still. The device's
+ * {@code motion} and {@code ignition} flags are used once a vehicle has
+ * reported them set at least once, since proto3 cannot tell "false" from
+ * "not sent"; ignition off ends a trip straight away.
+ * <p>
+ * Only transitions are sent to AlvoraCore, as {@code trip_start},
+ * {@code stop}, {@code move}, {@code idle} and {@code trip_end} events. Time
+ * based transitions of vehicles that went quiet are applied by a periodic
+ * sweep, which also ends the trip of a vehicle not heard from for
+ * {@code lost-after}, at its last report. State is held in memory by the
+ * node that ingests the vehicle, and each transition is also written to the
+ * {@link MotionStateStore} for the other replicas.
+ * <p>
+ * A vehicle that reconnects to another replica mid-trip carries on from the
+ * state stored there: a node picks it up when it first sees the vehicle,
+ * and before reporting a transition it checks that no other node has
+ * stored the same or a later one. The node the vehicle left does not end
+ * its trip as lost while the position cache shows it reporting elsewhere;
+ * it just forgets the vehicle.
+ */
+@ApplicationScoped
+public class MotionTracker {
+
+    private static final Logger LOG = Logger.getLogger(MotionTracker.class);
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    public enum Status {
+        /** Not on a trip. */
+        PARKED,
+        /** On a trip and moving. */
+        MOVING,
+        /** On a trip, standing for at least {@code stop-after}. */
+        STOPPED,
+        /** Stopped with the ignition on for at least {@code idle-after}. */
+        IDLE;
+
+        public String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    public enum Transition {
+        TRIP_START("trip_start", Status.MOVING),
+        STOP("stop", Status.STOPPED),
+        MOVE("move", Status.MOVING),
+        IDLE("idle", Status.IDLE),
+        TRIP_END("trip_end", Status.PARKED);
+
+        private final String event;
+        private final Status to;
+
+        Transition(String event, Status to) {
+            this.event = event;
+            this.to = to;
+        }
+
+        /**
+         * The {@code event} sent to AlvoraCore.
+         */
+        public String event() {
+            return event;
+        }
+
+        public Status to() {
+            return to;
+        }
+    }
+
+    /**
+     * A vehicle's current status and since when (device time, epoch
+     * seconds); {@code tripStartedAt} is 0 when parked.
+     */
+    public record State(Status status, long since, long tripStartedAt) {
+    }
+
+    @Inject
+    AlvoraCoreClient alvoraCoreClient;
+
+    @Inject
+    MotionStateStore states;
+
+    @Inject
+    PositionCache positions;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "motion.start-speed-kph", defaultValue = "10")
+    double startSpeedKph;
+
+    @ConfigProperty(name = "motion.stop-speed-kph", defaultValue = "3")
+    double stopSpeedKph;
+
+    @ConfigProperty(name = "motion.start-distance-meters", defaultValue = "100")
+    double startDistanceMeters;
+
+    @ConfigProperty(name = "motion.start-after", defaultValue = "PT20S")
+    Duration startAfter;
+
+    @ConfigProperty(name = "motion.stop-after", defaultValue = "PT1M")
+    Duration stopAfter;
+
+    @ConfigProperty(name = "motion.idle-after", defaultValue = "PT3M")
+    Duration idleAfter;
+
+    @ConfigProperty(name = "motion.trip-end-after", defaultValue = "PT5M")
+    Duration tripEndAfter;
+
+    @ConfigProperty(name = "motion.lost-after", defaultValue = "PT15M")
+    Duration lostAfter;
+
+    @ConfigProperty(name = "motion.evict-after", defaultValue = "PT24H")
+    Duration evictAfter;
+
+    private final ConcurrentMap<String, VehicleMotion> vehicles = new ConcurrentHashMap<>();
+    private final Map<Transition, Counter> transitions = new EnumMap<>(Transition.class);
+    private final Map<Transition, Counter> skipped = new EnumMap<>(Transition.class);
+
+    @PostConstruct
+    void init() {
+        for (Transition transition : Transition.values()) {
+            transitions.put(transition, Counter.builder("tracker.motion.events")
+                    .tag("type", transition.event()).register(registry));
+            skipped.put(transition, Counter.builder("tracker.motion.events.skipped")
+                    .tag("type", transition.event()).register(registry));
+        }
+        registry.gauge("tracker.motion.vehicles", Tags.empty(), vehicles, Map::size);
+        LOG.infof("MotionTracker initialized - start %.1f km/h or %.0f m, stop %.1f km/h for %s, trip end after %s",
+                startSpeedKph, startDistanceMeters, stopSpeedKph, stopAfter, tripEndAfter);
+    }
+
+    /**
+     * The vehicle's status, or {@code null} if this node has not seen it.
+     */
+    public State state(String vehicleId) {
+        VehicleMotion motion = vehicles.get(vehicleId);
+        if (motion == null) {
+            return null;
+        }
+        synchronized (motion) {
+            return new State(motion.status, motion.statusSince, motion.tripStartedAt);
+        }
+    }
+
+    /**
+     * The later of the vehicle's status on this node and the one last
+     * stored by any node; {@code null} if neither knows the vehicle.
+     */
+    public Uni<State> sharedState(String vehicleId) {
+        State local = state(vehicleId);
+        return states.get(vehicleId)
+                .map(stored -> stored == null || local != null && local.since() >= stored.since() ? local : stored)
+                .onFailure().recoverWithItem(local);
+    }
+
+    public void evaluate(VehiclePosition position) {
+        SweptState.update(vehicles, position.getVehicleId(), id -> new VehicleMotion(position), motion -> {
+            if (!motion.loaded) {
+                motion.loaded = true;
+                load(motion);
+            }
+            if (position.getTimestamp() < motion.last.getTimestamp()) {
+                return;
+            }
+            motion.last = position;
+            motion.seenAt = CoarseClock.currentTimeMillis();
+            update(motion, position);
+        });
+    }
+
+    /**
+     * Applies the timers of vehicles that have not reported since, as if
+     * their device clock kept running, ends the trips of vehicles silent
+     * for {@code lost-after} and forgets those silent for
+     * {@code evict-after}.
+     */
+    @Scheduled(every = "${motion.sweep-interval:30s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void sweep() {
+        advance(CoarseClock.currentTimeMillis());
+    }
+
+    void advance(long now) {
+        long evictBefore = now - evictAfter.toMillis();
+        for (VehicleMotion motion : vehicles.values()) {
+            synchronized (motion) {
+                if (motion.seenAt < evictBefore) {
+                    motion.evict(vehicles, motion.last.getVehicleId());
+                    continue;
+                }
+                if (motion.status != Status.PARKED && now - motion.seenAt >= lostAfter.toMillis()) {
+                    if (!motion.checkingLost) {
+                        motion.checkingLost = true;
+                        checkLost(motion, now);
+                    }
+                    continue;
+                }
+                long deviceNow = motion.last.getTimestamp() + Math.max(0, now - motion.seenAt) / 1000;
+                applyTimers(motion, deviceNow, false);
+            }
+        }
+    }
+
+    /**
+     * Picks up the state another node stored for a vehicle this node has
+     * just started hearing from, unless it has moved on since.
+     */
+    private void load(VehicleMotion motion) {
+        String vehicleId = motion.last.getVehicleId();
+        states.fromOtherNode(vehicleId)
+                .onFailure().recoverWithNull()
+                .subscribe().with(shared -> {
+                    if (shared == null || shared.status() == Status.PARKED) {
+                        return;
+                    }
+                    synchronized (motion) {
+                        if (!motion.transitioned) {
+                            adopt(motion, shared);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Ends the trip of a vehicle this node has not heard from for
+     * {@code lost-after}, unless another node has cached a position for it
+     * since, in which case that node is tracking it and this one forgets it.
+     */
+    private void checkLost(VehicleMotion motion, long now) {
+        long seenAt = motion.seenAt;
+        String vehicleId = motion.last.getVehicleId();
+        positions.reportedAt(vehicleId)
+                .onFailure().recoverWithNull()
+                .subscribe().with(reportedAt -> {
+                    synchronized (motion) {
+                        motion.checkingLost = false;
+                        if (motion.seenAt != seenAt || motion.status == Status.PARKED) {
+                            return;
+                        }
+                        if (reportedAt != null && reportedAt > now - lostAfter.toMillis()) {
+                            LOG.debugf("Vehicle %s reports to another node, forgetting it", vehicleId);
+                            motion.evict(vehicles, vehicleId);
+                            return;
+                        }
+                        // Out of coverage or switched off mid-trip; a later report starts afresh
+                        transition(motion, Transition.TRIP_END, motion.last.getTimestamp());
+                        motion.movingSince = NONE;
+                        motion.stillSince = NONE;
+                    }
+                });
+    }
+
+    private void update(VehicleMotion motion, VehiclePosition position) {
+        long timestamp = position.getTimestamp();
+        if (position.getIgnition()) {
+            motion.ignitionSeen = true;
+        }
+        if (position.getMotion()) {
+            motion.motionSeen = true;
+        }
+        motion.ignitionOff = motion.ignitionSeen && !position.getIgnition();
+        boolean flagged = motion.motionSeen && position.getMotion();
+        double speed = position.getSpeedKph();
+        boolean moving = !motion.ignitionOff && (speed >= startSpeedKph || flagged);
+        boolean still = motion.ignitionOff || speed <= stopSpeedKph && !flagged;
+
+        if (moving) {
+            if (motion.movingSince == NONE) {
+                motion.movingSince = timestamp;
+            }
+        } else {
+            motion.movingSince = NONE;
+        }
+        if (still) {
+            if (motion.stillSince == NONE) {
+                motion.stillSince = timestamp;
+            }
+        } else {
+            motion.stillSince = NONE;
+        }
+
+        if (motion.status == Status.MOVING) {
+            if (motion.ignitionOff) {
+                transition(motion, Transition.TRIP_END, timestamp);
+            } else {
+                applyTimers(motion, timestamp, true);
+            }
+            return;
+        }
+
+        // Parked or stopped: has it really left?
+        boolean displaced = !motion.ignitionOff && GeoMath.distanceMeters(motion.anchorLatitude,
+                motion.anchorLongitude, position.getLatitude(), position.getLongitude()) >= startDistanceMeters;
+        // Two displaced fixes in a row, so one bad fix does not start a trip
+        motion.displacedFixes = displaced ? motion.displacedFixes + 1 : 0;
+        boolean started = motion.displacedFixes >= 2
+                || moving && timestamp - motion.movingSince >= startAfter.toSeconds();
+        if (started) {
+            transition(motion, motion.status == Status.PARKED ? Transition.TRIP_START : Transition.MOVE, timestamp);
+        } else if (motion.ignitionOff && motion.status != Status.PARKED) {
+            transition(motion, Transition.TRIP_END, timestamp);
+        } else {
+            applyTimers(motion, timestamp, true);
+        }
+    }
+
+    /**
+     * The transitions that only need time to pass: stopping, idling and
+     * ending a trip.
+     */
+    private void applyTimers(VehicleMotion motion, long now, boolean reported) {
+        if (motion.stillSince == NONE) {
+            return;
+        }
+        long standing = now - motion.stillSince;
+        boolean ignitionOn = motion.ignitionSeen && !motion.ignitionOff;
+        switch (motion.status) {
+            case MOVING -> {
+                if (standing >= stopAfter.toSeconds()) {
+                    transition(motion, Transition.STOP, reported ? now : motion.stillSince + stopAfter.toSeconds());
+                }
+            }
+            case STOPPED -> {
+                if (ignitionOn && standing >= idleAfter.toSeconds()) {
+                    transition(motion, Transition.IDLE, reported ? now : motion.stillSince + idleAfter.toSeconds());
+                } else if (!ignitionOn && standing >= tripEndAfter.toSeconds()) {
+                    transition(motion, Transition.TRIP_END,
+                            reported ? now : motion.stillSince + tripEndAfter.toSeconds());
+                }
+            }
+            default -> {
+                // Parked vehicles wait for movement; idle ones for movement or ignition off
+            }
+        }
+    }
+
+    private void transition(VehicleMotion motion, Transition transition, long at) {
+        Status from = motion.status;
+        motion.status = transition.to();
+        motion.statusSince = at;
+        if (transition == Transition.TRIP_START) {
+            motion.tripStartedAt = at;
+        } else if (transition == Transition.TRIP_END) {
+            motion.tripStartedAt = 0;
+        }
+        if (transition.to() != Status.MOVING && from == Status.MOVING) {
+            // Later movement is measured from where the vehicle came to rest
+            motion.anchorLatitude = motion.last.getLatitude();
+            motion.anchorLongitude = motion.last.getLongitude();
+        }
+        motion.displacedFixes = 0;
+        motion.transitioned = true;
+        State state = new State(motion.status, motion.statusSince, motion.tripStartedAt);
+        VehiclePosition position = motion.last.getTimestamp() == at
+                ? motion.last
+                : motion.last.toBuilder().setTimestamp(at).build();
+
+        // Another node may have reported it already, or a later one
+        states.fromOtherNode(position.getVehicleId())
+                .onFailure().recoverWithNull()
+                .subscribe().with(shared -> {
+                    if (shared != null && (shared.since() > at || shared.status() == transition.to())) {
+                        skipped.get(transition).increment();
+                        LOG.debugf("Vehicle %s %s at %d already reported by another node as %s at %d",
+                                position.getVehicleId(), transition.event(), at, shared.status().label(),
+                                shared.since());
+                        synchronized (motion) {
+                            if (motion.status == state.status() && motion.statusSince == at) {
+                                adopt(motion, shared);
+                            }
+                        }
+                        return;
+                    }
+                    transitions.get(transition).increment();
+                    states.save(position.getVehicleId(), state);
+                    LOG.debugf("Vehicle %s %s -> %s at %d", position.getVehicleId(), from.label(),
+                            transition.to().label(), at);
+                    if (!alvoraCoreClient.forwardEvent(position, transition.event())) {
+                        LOG.warnf("Could not forward %s for vehicle %s", transition.event(), position.getVehicleId());
+                    }
+                });
+    }
+
+    private static void adopt(VehicleMotion motion, State shared) {
+        motion.status = shared.status();
+        motion.statusSince = shared.since();
+        motion.tripStartedAt = shared.tripStartedAt();
+    }
+
+    /**
+     * One vehicle's state machine.
+     */
+    private static final class VehicleMotion extends SweptState {
+        Status status = Status.PARKED;
+        long statusSince;
+        long tripStartedAt;
+        VehiclePosition last;
+        long seenAt;
+        boolean ignitionSeen;
+        boolean motionSeen;
+        boolean ignitionOff;
+        long movingSince = NONE;
+        long stillSince = NONE;
+        double anchorLatitude;
+        double anchorLongitude;
+        int displacedFixes;
+        // Whether the state stored by other nodes has been looked up
+        boolean loaded;
+        boolean transitioned;
+        boolean checkingLost;
+
+        VehicleMotion(VehiclePosition first) {
+            // Unknown history: start parked where first seen, and let the usual rules start a trip
+            last = first;
+            statusSince = first.getTimestamp();
+            anchorLatitude = first.getLatitude();
+            anchorLongitude = first.getLongitude();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.alvoratrack.rest;
+
+import com.alvoratrack.util.HotPathLog;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.jboss.logging.Logger;
+
+import java.util.Set;
+
+/**
+ * Switches per-vehicle hot-path logging on and off at runtime.
+ */
+@Path("/api/debug/vehicles")
+@Produces(MediaType.APPLICATION_JSON)
+public class DebugResource {
+
+    private static final Logger LOG = Logger.getLogger(DebugResource.class);
+
+    @Inject
+    HotPathLog hotPathLog;
+
+    @GET
+    public Set<String> list() {
+        return hotPathLog.debugVehicles();
+    }
+
+    @PUT
+    @Path("/{vehicleId}")
+    public Response enable(@PathParam("vehicleId") String vehicleId) {
+        hotPathLog.enableDebug(vehicleId);
+        LOG.infof("Hot-path debug logging enabled for vehicle: %s", vehicleId);
+        return Response.noContent().build();
+    }
+
+    @DELETE
+    @Path("/{vehicleId}")
+    public Response disable(@PathParam("vehicleId") String vehicleId) {
+        hotPathLog.disableDebug(vehicleId);
+        LOG.infof("Hot-path debug logging disabled for vehicle: %s", vehicleId);
+        return Response.noContent().build();
+    }
+}
@@ -0,0 +1,169 @@
+package com.alvoratrack.rest;
+
+import com.alvoratrack.geofence.Geofence;
+import com.alvoratrack.geofence.GeofenceEngine;
+import com.alvoratrack.geofence.GeofenceStore;
+import com.alvoratrack.util.Json;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the geofences evaluated at ingest. Changes are stored in Redis and
+ * reach the other replicas within {@code geofence.sync-interval}.
+ */
+@Path("/api/geofences")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class GeofenceResource {
+
+    private static final Logger LOG = Logger.getLogger(GeofenceResource.class);
+
+    @Inject
+    GeofenceEngine engine;
+
+    @Inject
+    GeofenceStore store;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @GET
+    public Response listGeofences() {
+        List<Geofence> fences = engine.list();
+        StringBuilder json = new StringBuilder(64 + fences.size() * 128);
+        json.append("{\"count\":").append(fences.size()).append(",\"geofences\":[");
+        for (int i = 0; i < fences.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            fences.get(i).appendJson(json);
+        }
+        return Response.ok(json.append("]}").toString()).build();
+    }
+
+    @GET
+    @Path("/{geofenceId}")
+    public Response getGeofence(@PathParam("geofenceId") String geofenceId) {
+        Geofence fence = engine.get(geofenceId);
+        if (fence == null) {
+            return notFound();
+        }
+        StringBuilder json = new StringBuilder(128);
+        fence.appendJson(json);
+        return Response.ok(json.toString()).build();
+    }
+
+    /**
+     * Adds or replaces one fence: {@code {"name": ..., "polygon":
+     * [[lat, lon], ...]}} or {@code {"name": ..., "circle": {"latitude": ...,
+     * "longitude": ..., "radiusMeters": ...}}}, with optional
+     * {@code dwellSeconds}.
+     */
+    @PUT
+    @Path("/{geofenceId}")
+    public Response putGeofence(@PathParam("geofenceId") String geofenceId, String body) {
+        Geofence fence;
+        try {
+            fence = Geofence.parse(geofenceId, readBody(body));
+            store.putAll(List.of(fence));
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+        LOG.infof("Geofence %s loaded", geofenceId);
+        StringBuilder json = new StringBuilder(128);
+        fence.appendJson(json);
+        return Response.ok(json.toString()).build();
+    }
+
+    /**
+     * Adds or replaces an array of fences, each with an {@code id}, in one
+     * step; nothing is loaded if any of them is invalid.
+     */
+    @POST
+    public Response putGeofences(String body) {
+        List<Geofence> fences = new ArrayList<>();
+        try {
+            JsonNode root = readBody(body);
+            if (!root.isArray()) {
+                throw new IllegalArgumentException("Expected an array of geofences");
+            }
+            for (JsonNode node : root) {
+                String id = node.path("id").asText("");
+                try {
+                    fences.add(Geofence.parse(id, node));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Geofence " + fences.size() + " (" + id + "): "
+                            + e.getMessage());
+                }
+            }
+            store.putAll(fences);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+        LOG.infof("%d geofences loaded", fences.size());
+        return Response.ok("{\"loaded\":" + fences.size() + "}").build();
+    }
+
+    @DELETE
+    @Path("/{geofenceId}")
+    public Response deleteGeofence(@PathParam("geofenceId") String geofenceId) {
+        if (!store.remove(geofenceId)) {
+            return notFound();
+        }
+        LOG.infof("Geofence %s removed", geofenceId);
+        return Response.noContent().build();
+    }
+
+    /**
+     * The fences a vehicle is inside, as of the last position this node
+     * evaluated for it.
+     */
+    @GET
+    @Path("/vehicle/{vehicleId}")
+    public Response getVehicleGeofences(@PathParam("vehicleId") String vehicleId) {
+        StringBuilder json = new StringBuilder("{\"vehicleId\":");
+        Json.appendString(json, vehicleId).append(",\"geofences\":[");
+        List<String> ids = engine.fencesOf(vehicleId);
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            Json.appendString(json, ids.get(i));
+        }
+        return Response.ok(json.append("]}").toString()).build();
+    }
+
+    private JsonNode readBody(String body) {
+        try {
+            JsonNode root = mapper.readTree(body);
+            if (root == null || root.isMissingNode()) {
+                throw new IllegalArgumentException("A JSON body is required");
+            }
+            return root;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid JSON body");
+        }
+    }
+
+    private static Response notFound() {
+        return Response.status(Response.Status.NOT_FOUND)
+                .entity("{\"error\": \"Geofence not found\"}")
+                .build();
+    }
+
+    private static Response badRequest(String message) {
+        StringBuilder json = new StringBuilder("{\"error\": ");
+        Json.appendString(json, String.valueOf(message)).append('}');
+        return Response.status(Response.Status.BAD_REQUEST).entity(json.toString()).build();
+    }
+}
@@ -1,15 +1,39 @@
 package com.alvoratrack.rest;
 
+import com.alvoratrack.geo.BoundingBox;
+import com.alvoratrack.geo.GeoQueryService;
+import com.alvoratrack.geo.Polygon;
+import com.alvoratrack.grpc.RouteAssignment;
 import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.grpc.Waypoint;
+import com.alvoratrack.history.TrailPoint;
+import com.alvoratrack.history.TrailStore;
+import com.alvoratrack.motion.MotionTracker;
 import com.alvoratrack.service.PositionCache;
+import com.alvoratrack.session.SessionRegistry;
+import com.alvoratrack.session.TrackingSession;
+import com.alvoratrack.util.CoarseClock;
+import com.alvoratrack.util.Json;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Path("/api/vehicle")
@@ -22,6 +46,27 @@ public class VehicleResource {
     @Inject
     PositionCache positionCache;
 
+    @Inject
+    SessionRegistry sessions;
+
+    @Inject
+    GeoQueryService geo;
+
+    @Inject
+    TrailStore trails;
+
+    @Inject
+    MotionTracker motion;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @ConfigProperty(name = "geo.query.source", defaultValue = "local")
+    String defaultGeoSource;
+
+    @ConfigProperty(name = "geo.query.max-page-size", defaultValue = "1000")
+    int maxPageSize;
+
     @GET
     @Path("/{vehicleId}/position")
     public Uni<Response> getVehiclePosition(@PathParam("vehicleId") String vehicleId) {
@@ -62,28 +107,105 @@ public class VehicleResource {
         LOG.infof("Getting status for vehicle: %s", vehicleId);
 
         return positionCache.get(vehicleId)
-                .map(position -> {
+                .chain(position -> {
                     if (position == null) {
-                        return Response.status(Response.Status.NOT_FOUND)
+                        return Uni.createFrom().item(Response.status(Response.Status.NOT_FOUND)
                                 .entity("{\"error\": \"Vehicle not found\"}")
-                                .build();
+                                .build());
                     }
+                    return motion.sharedState(vehicleId).map(state -> status(vehicleId, position, state));
+                });
+    }
 
-                    String status = position.getSpeedKph() > 5 ? "moving" : "stopped";
+    private Response status(String vehicleId, VehiclePosition position, MotionTracker.State state) {
+        TrackingSession session = sessions.get(vehicleId);
 
-                    String json = String.format("""
-                            {
-                                "vehicleId": "%s",
-                                "status": "%s",
-                                "speedKph": %f
-                            }
-                            """,
-                            vehicleId,
-                            status,
-                            position.getSpeedKph());
+        String json = String.format("""
+                {
+                    "vehicleId": "%s",
+                    "status": "%s",
+                    "statusSince": %d,
+                    "tripStartedAt": %d,
+                    "speedKph": %f,
+                    "session": "%s"
+                }
+                """,
+                vehicleId,
+                state != null ? state.status().label() : "unknown",
+                state != null ? state.since() : 0,
+                state != null ? state.tripStartedAt() : 0,
+                position.getSpeedKph(),
+                session != null ? session.status() : TrackingSession.OFFLINE);
 
-                    return Response.ok(json).build();
+        return Response.ok(json).build();
+    }
+
+    /**
+     * A vehicle's stored trail between {@code from} and {@code to} (epoch
+     * seconds; the last hour by default), oldest first. {@code interval}
+     * keeps one point per that many seconds and {@code maxPoints} widens the
+     * interval until the range fits.
+     */
+    @GET
+    @Path("/{vehicleId}/trail")
+    public Response getVehicleTrail(@PathParam("vehicleId") String vehicleId,
+                                    @QueryParam("from") Long from, @QueryParam("to") Long to,
+                                    @QueryParam("interval") @DefaultValue("0") long interval,
+                                    @QueryParam("maxPoints") @DefaultValue("0") long maxPoints) {
+        if (!trails.enabled()) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity("{\"error\": \"Trail history is disabled\"}")
+                    .build();
+        }
+        long end = to != null ? to : CoarseClock.currentTimeSeconds();
+        long start = from != null ? from : end - 3600;
+        if (start > end || interval < 0 || maxPoints < 0) {
+            return badRequest("from must not be after to, and interval and maxPoints must not be negative");
+        }
+        long step = maxPoints > 0 ? Math.max(interval, Math.ceilDiv(end - start + 1, maxPoints)) : interval;
+
+        StreamingOutput body = output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 8192);
+            StringBuilder json = new StringBuilder(128);
+            json.append("{\"vehicleId\":");
+            Json.appendString(json, vehicleId);
+            json.append(",\"from\":").append(start)
+                    .append(",\"to\":").append(end)
+                    .append(",\"interval\":").append(Math.max(1, step))
+                    .append(",\"points\":[");
+            writer.append(json);
+            long count;
+            try {
+                count = trails.read(vehicleId, start, end, step, new Consumer<>() {
+                    private boolean first = true;
+
+                    @Override
+                    public void accept(TrailPoint point) {
+                        json.setLength(0);
+                        if (!first) {
+                            json.append(',');
+                        }
+                        first = false;
+                        json.append("{\"timestamp\":").append(point.timestamp())
+                                .append(",\"latitude\":").append(point.latitude())
+                                .append(",\"longitude\":").append(point.longitude())
+                                .append(",\"speedKph\":").append(point.speedKph())
+                                .append(",\"bearing\":").append(point.bearing())
+                                .append('}');
+                        try {
+                            writer.append(json);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
                 });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.append("],\"count\":").append(Long.toString(count)).append('}');
+            writer.flush();
+        };
+        return Response.ok(body).build();
     }
 
     @POST
@@ -101,6 +223,45 @@ public class VehicleResource {
         return Response.ok(json).build();
     }
 
+    @PUT
+    @Path("/{vehicleId}/route")
+    public Response assignRoute(@PathParam("vehicleId") String vehicleId, String body) {
+        RouteAssignment route;
+        try {
+            route = parseRoute(body);
+        } catch (Exception e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("{\"error\": \"Invalid route\"}")
+                    .build();
+        }
+        LOG.infof("Assigning route %s to vehicle: %s", route.getRouteId(), vehicleId);
+        boolean delivered;
+        try {
+            delivered = sessions.assignRoute(vehicleId, route);
+        } catch (IllegalStateException e) {
+            return badRequest(e.getMessage());
+        }
+
+        String json = String.format("""
+                {
+                    "vehicleId": "%s",
+                    "routeId": "%s",
+                    "waypoints": %d,
+                    "delivered": %b
+                }
+                """, vehicleId, route.getRouteId(), route.getWaypointsCount(), delivered);
+
+        return Response.ok(json).build();
+    }
+
+    @DELETE
+    @Path("/{vehicleId}/route")
+    public Response clearRoute(@PathParam("vehicleId") String vehicleId) {
+        LOG.infof("Clearing route for vehicle: %s", vehicleId);
+        sessions.assignRoute(vehicleId, null);
+        return Response.noContent().build();
+    }
+
     @GET
     @Path("/all/positions")
     public Uni<Response> getAllPositions() {
@@ -138,4 +299,164 @@ public class VehicleResource {
                     return Response.ok(json).build();
                 });
     }
-}
\ No newline at end of file
+
+    /**
+     * Vehicles within {@code radius} meters of a point, nearest first.
+     */
+    @GET
+    @Path("/nearby")
+    public Uni<Response> nearby(@QueryParam("lat") Double lat, @QueryParam("lon") Double lon,
+                                @QueryParam("radius") @DefaultValue("2000") double radius,
+                                @QueryParam("source") String source,
+                                @QueryParam("offset") @DefaultValue("0") int offset,
+                                @QueryParam("limit") @DefaultValue("100") int limit) {
+        return geoQuery(offset, limit, () -> {
+            requirePoint(lat, lon);
+            return geo.nearby(lat, lon, radius, geoSource(source));
+        });
+    }
+
+    /**
+     * Vehicles inside a bounding box; {@code west > east} crosses the
+     * antimeridian.
+     */
+    @GET
+    @Path("/within")
+    public Uni<Response> withinBox(@QueryParam("south") Double south, @QueryParam("west") Double west,
+                                   @QueryParam("north") Double north, @QueryParam("east") Double east,
+                                   @QueryParam("source") String source,
+                                   @QueryParam("offset") @DefaultValue("0") int offset,
+                                   @QueryParam("limit") @DefaultValue("100") int limit) {
+        return geoQuery(offset, limit, () -> {
+            if (south == null || west == null || north == null || east == null) {
+                throw new IllegalArgumentException("south, west, north and east are required");
+            }
+            return geo.within(new BoundingBox(south, west, north, east), geoSource(source));
+        });
+    }
+
+    /**
+     * Vehicles inside the polygon {@code {"points": [[lat, lon], ...]}}.
+     */
+    @POST
+    @Path("/within/polygon")
+    public Uni<Response> withinPolygon(String body, @QueryParam("source") String source,
+                                       @QueryParam("offset") @DefaultValue("0") int offset,
+                                       @QueryParam("limit") @DefaultValue("100") int limit) {
+        return geoQuery(offset, limit, () -> {
+            JsonNode root;
+            try {
+                root = mapper.readTree(body);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid JSON body");
+            }
+            return geo.within(Polygon.parse(root == null ? null : root.get("points")), geoSource(source));
+        });
+    }
+
+    /**
+     * The {@code k} vehicles nearest to a point, nearest first.
+     */
+    @GET
+    @Path("/nearest")
+    public Uni<Response> nearest(@QueryParam("lat") Double lat, @QueryParam("lon") Double lon,
+                                 @QueryParam("k") @DefaultValue("10") int k,
+                                 @QueryParam("source") String source) {
+        return geoQuery(0, k, () -> {
+            requirePoint(lat, lon);
+            return geo.nearest(lat, lon, k, geoSource(source));
+        });
+    }
+
+    private Uni<Response> geoQuery(int offset, int limit,
+                                   Supplier<Uni<List<GeoQueryService.Hit>>> query) {
+        if (offset < 0 || limit <= 0 || limit > maxPageSize) {
+            return Uni.createFrom().item(badRequest("offset must be >= 0 and limit between 1 and " + maxPageSize));
+        }
+        return Uni.createFrom().deferred(query::get)
+                .map(hits -> page(hits, offset, limit))
+                .onFailure(e -> e instanceof IllegalArgumentException || e instanceof IllegalStateException)
+                .recoverWithItem(e -> badRequest(e.getMessage()));
+    }
+
+    /**
+     * Streams one page of hits, with {@code nextOffset} while more remain.
+     */
+    private static Response page(List<GeoQueryService.Hit> hits, int offset, int limit) {
+        int from = Math.min(offset, hits.size());
+        int to = Math.min(hits.size(), from + limit);
+        StreamingOutput body = output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 8192);
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"total\":").append(hits.size())
+                    .append(",\"offset\":").append(from)
+                    .append(",\"count\":").append(to - from);
+            if (to < hits.size()) {
+                json.append(",\"nextOffset\":").append(to);
+            }
+            json.append(",\"positions\":[");
+            for (int i = from; i < to; i++) {
+                if (i > from) {
+                    json.append(',');
+                }
+                appendHit(json, hits.get(i));
+                writer.append(json);
+                json.setLength(0);
+            }
+            writer.append(json).append("]}");
+            writer.flush();
+        };
+        return Response.ok(body).build();
+    }
+
+    private static void appendHit(StringBuilder json, GeoQueryService.Hit hit) {
+        VehiclePosition position = hit.position();
+        json.append("{\"vehicleId\":");
+        Json.appendString(json, position.getVehicleId());
+        json.append(",\"latitude\":").append(position.getLatitude())
+                .append(",\"longitude\":").append(position.getLongitude())
+                .append(",\"speedKph\":").append(position.getSpeedKph())
+                .append(",\"bearing\":").append(position.getBearing())
+                .append(",\"timestamp\":").append(position.getTimestamp());
+        if (!Double.isNaN(hit.distanceMeters())) {
+            json.append(",\"distanceMeters\":").append(Math.round(hit.distanceMeters() * 10) / 10.0);
+        }
+        json.append('}');
+    }
+
+    private static void requirePoint(Double lat, Double lon) {
+        if (lat == null || lon == null || lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            throw new IllegalArgumentException("lat and lon are required and must be valid coordinates");
+        }
+    }
+
+    private GeoQueryService.Source geoSource(String source) {
+        return GeoQueryService.Source.parse(source == null ? defaultGeoSource : source);
+    }
+
+    private static Response badRequest(String message) {
+        StringBuilder json = new StringBuilder("{\"error\": ");
+        Json.appendString(json, String.valueOf(message)).append('}');
+        return Response.status(Response.Status.BAD_REQUEST).entity(json.toString()).build();
+    }
+
+    private RouteAssignment parseRoute(String body) throws Exception {
+        JsonNode root = mapper.readTree(body);
+        RouteAssignment.Builder route = RouteAssignment.newBuilder()
+                .setRouteId(root.path("routeId").asText());
+        if (route.getRouteId().isBlank()) {
+            throw new IllegalArgumentException("routeId is required");
+        }
+        int sequence = 0;
+        for (JsonNode node : root.path("waypoints")) {
+            route.addWaypoints(Waypoint.newBuilder()
+                    .setId(node.path("id").asText())
+                    .setLatitude(node.path("latitude").asDouble())
+                    .setLongitude(node.path("longitude").asDouble())
+                    .setAddress(node.path("address").asText())
+                    .setSequence(node.has("sequence") ? node.path("sequence").asInt() : sequence));
+            sequence++;
+        }
+        return route.build();
+    }
+}
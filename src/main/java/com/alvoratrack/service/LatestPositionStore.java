@@ -0,0 +1,192 @@
+package com.alvoratrack.service;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tier-1 in-process store of the latest position per vehicle.
+ * Entries are spread over lock-striped, insertion-ordered maps so that the
+ * eldest entry of every stripe is also the one that expires first. Entries
+ * read back from Redis keep the age Redis gave them, so they may expire
+ * before entries ahead of them; {@link #get} still never serves one past
+ * its TTL, and the sweep reclaims it once the entries ahead have gone.
+ */
+@ApplicationScoped
+public class LatestPositionStore {
+
+    private static final Logger LOG = Logger.getLogger(LatestPositionStore.class);
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "position.local.max-entries", defaultValue = "100000")
+    int maxEntries;
+
+    @ConfigProperty(name = "position.local.stripes", defaultValue = "64")
+    int stripeCount;
+
+    @ConfigProperty(name = "position.cache.ttl", defaultValue = "300")
+    int ttlSeconds;
+
+    private Stripe[] stripes;
+    private int mask;
+    private long ttlMillis;
+
+    private Counter hits;
+    private Counter misses;
+    private Counter ttlEvictions;
+    private Counter sizeEvictions;
+
+    @PostConstruct
+    void init() {
+        int count = Integer.highestOneBit(Math.max(1, (stripeCount - 1) << 1));
+        int perStripe = Math.max(1, maxEntries / count);
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+        mask = count - 1;
+        ttlMillis = ttlSeconds * 1000L;
+
+        hits = Counter.builder("tracker.position.store.requests").tag("result", "hit").register(registry);
+        misses = Counter.builder("tracker.position.store.requests").tag("result", "miss").register(registry);
+        ttlEvictions = Counter.builder("tracker.position.store.evictions").tag("cause", "ttl").register(registry);
+        sizeEvictions = Counter.builder("tracker.position.store.evictions").tag("cause", "size").register(registry);
+        registry.gauge("tracker.position.store.size", this, LatestPositionStore::size);
+
+        LOG.infof("LatestPositionStore initialized - %d stripes, %d entries per stripe", count, perStripe);
+    }
+
+    public void put(VehiclePosition position) {
+        Stripe stripe = stripeFor(position.getVehicleId());
+        Entry entry = new Entry(position, System.currentTimeMillis());
+        synchronized (stripe) {
+            // Re-insert so the stripe stays ordered by store time
+            stripe.remove(position.getVehicleId());
+            stripe.put(position.getVehicleId(), entry);
+        }
+    }
+
+    /**
+     * Stores a position read back from a lower tier unless a fresher one
+     * arrived locally in the meantime. {@code storedAt} is when the lower
+     * tier stored it, so the entry expires when the lower tier's copy does.
+     */
+    public void putIfAbsent(VehiclePosition position, long storedAt) {
+        Entry entry = new Entry(position, Math.min(storedAt, System.currentTimeMillis()));
+        if (isExpired(entry, System.currentTimeMillis())) {
+            return;
+        }
+        Stripe stripe = stripeFor(position.getVehicleId());
+        synchronized (stripe) {
+            stripe.putIfAbsent(position.getVehicleId(), entry);
+        }
+    }
+
+    /**
+     * Replaces a held position with a newer one another node ingested.
+     * Vehicles not held here are left alone, so other nodes' traffic does not
+     * crowd out this node's own; they read through to the lower tier.
+     */
+    public void refresh(VehiclePosition position) {
+        Stripe stripe = stripeFor(position.getVehicleId());
+        synchronized (stripe) {
+            Entry held = stripe.get(position.getVehicleId());
+            if (held == null || held.position().getTimestamp() > position.getTimestamp()) {
+                return;
+            }
+            stripe.remove(position.getVehicleId());
+            stripe.put(position.getVehicleId(), new Entry(position, System.currentTimeMillis()));
+        }
+    }
+
+    public VehiclePosition get(String vehicleId) {
+        Stripe stripe = stripeFor(vehicleId);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.get(vehicleId);
+            if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+                stripe.remove(vehicleId);
+                ttlEvictions.increment();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.position();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    @Scheduled(every = "${position.local.sweep-interval:30s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void evictExpired() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<Entry> it = stripe.values().iterator();
+                while (it.hasNext() && isExpired(it.next(), now)) {
+                    it.remove();
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            ttlEvictions.increment(evicted);
+            LOG.debugf("Evicted %d expired positions", evicted);
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.storedAt() > ttlMillis;
+    }
+
+    private Stripe stripeFor(String vehicleId) {
+        int h = vehicleId.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    private record Entry(VehiclePosition position, long storedAt) {
+    }
+
+    private final class Stripe extends LinkedHashMap<String, Entry> {
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(Math.min(capacity, 1024));
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > capacity) {
+                sizeEvictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
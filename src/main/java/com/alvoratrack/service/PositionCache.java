@@ -1,8 +1,17 @@
 package com.alvoratrack.service;
 
 import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.service.codec.PositionCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.geo.GeoSearchArgs;
+import io.quarkus.redis.datasource.geo.GeoValue;
+import io.quarkus.redis.datasource.geo.ReactiveGeoCommands;
 import io.quarkus.redis.datasource.keys.ReactiveKeyCommands;
+import io.quarkus.redis.datasource.keys.RedisKeyNotFoundException;
+import io.quarkus.redis.datasource.sortedset.ReactiveSortedSetCommands;
+import io.quarkus.redis.datasource.sortedset.ScoreRange;
 import io.quarkus.redis.datasource.value.ReactiveValueCommands;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
@@ -12,36 +21,85 @@ import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 @ApplicationScoped
 public class PositionCache {
 
     private static final Logger LOG = Logger.getLogger(PositionCache.class);
     private static final String KEY_PREFIX = "vehicle:position:";
+    // Live vehicle IDs scored by last update time (epoch millis)
+    private static final String INDEX_KEY = "vehicle:positions:live";
+    // Live vehicle IDs by location, for geo queries spanning every node
+    private static final String GEO_KEY = "vehicle:positions:geo";
 
     @Inject
     ReactiveRedisDataSource redisDS;
 
+    @Inject
+    LatestPositionStore localStore;
+
+    @Inject
+    MeterRegistry registry;
+
     @ConfigProperty(name = "position.cache.ttl", defaultValue = "300")
     int ttlSeconds;
 
-    private ReactiveValueCommands<String, String> commands;
+    @ConfigProperty(name = "position.cache.codec", defaultValue = "protobuf")
+    String codecName;
+
+    @ConfigProperty(name = "position.cache.snapshot.batch-size", defaultValue = "500")
+    int snapshotBatchSize;
+
+    @ConfigProperty(name = "position.cache.snapshot.concurrency", defaultValue = "4")
+    int snapshotConcurrency;
+
+    @ConfigProperty(name = "geo.redis.enabled", defaultValue = "false")
+    boolean geoEnabled;
+
+    private ReactiveValueCommands<String, byte[]> commands;
     private ReactiveKeyCommands<String> keyCommands;
+    private ReactiveSortedSetCommands<String, String> indexCommands;
+    private ReactiveGeoCommands<String, String> geoCommands;
+    private PositionCodec codec;
+    private RedisTimer writeLatency;
+    private RedisTimer readLatency;
+    private RedisTimer snapshotLatency;
+    private RedisTimer geoSearchLatency;
 
     @PostConstruct
     void init() {
-        commands = redisDS.value(String.class, String.class);
+        commands = redisDS.value(String.class, byte[].class);
         keyCommands = redisDS.key(String.class);
-        LOG.info("Redis PositionCache initialized");
+        indexCommands = redisDS.sortedSet(String.class, String.class);
+        geoCommands = redisDS.geo(String.class);
+        codec = PositionCodec.named(codecName);
+        writeLatency = new RedisTimer(registry, "write");
+        readLatency = new RedisTimer(registry, "read");
+        snapshotLatency = new RedisTimer(registry, "snapshot");
+        geoSearchLatency = new RedisTimer(registry, "geo_search");
+        LOG.infof("Redis PositionCache initialized - writing %s values", codec.name());
     }
 
     public void update(VehiclePosition position) {
+        localStore.put(position);
+
+        // Redis is the write-behind tier, used by other nodes and after a local miss
         String key = KEY_PREFIX + position.getVehicleId();
-        String value = toJson(position);
+        byte[] value = codec.encode(position);
 
-        commands.setex(key, ttlSeconds, value)
+        List<Uni<?>> writes = new ArrayList<>(3);
+        writes.add(commands.setex(key, ttlSeconds, value));
+        writes.add(indexCommands.zadd(INDEX_KEY, System.currentTimeMillis(), position.getVehicleId()));
+        if (geoEnabled) {
+            writes.add(geoCommands.geoadd(GEO_KEY, position.getLongitude(), position.getLatitude(),
+                    position.getVehicleId()));
+        }
+        writeLatency.time(Uni.combine().all().unis(writes).discardItems())
                 .subscribe().with(
                         success -> LOG.debugf("Cached position for %s", position.getVehicleId()),
                         failure -> LOG.errorf("Failed to cache position: %s", failure.getMessage())
@@ -49,115 +107,165 @@ public class PositionCache {
     }
 
     public Uni<VehiclePosition> get(String vehicleId) {
+        VehiclePosition local = localStore.get(vehicleId);
+        if (local != null) {
+            return Uni.createFrom().item(local);
+        }
+
         String key = KEY_PREFIX + vehicleId;
 
-        return commands.get(key)
-                .map(json -> {
-                    if (json == null) {
+        // Read the remaining TTL alongside the value so the local copy expires when this one does
+        Uni<Long> remaining = keyCommands.pttl(key)
+                .onFailure(RedisKeyNotFoundException.class).recoverWithItem(-2L);
+        return readLatency.time(Uni.combine().all().unis(commands.get(key), remaining).asTuple())
+                .map(read -> {
+                    if (read.getItem1() == null) {
                         return null;
                     }
-                    return fromJson(json);
+                    VehiclePosition position = decode(read.getItem1());
+                    long remainingMillis = read.getItem2();
+                    if (position != null && remainingMillis != -2) {
+                        long now = System.currentTimeMillis();
+                        long storedAt = remainingMillis < 0 ? now : now - (ttlSeconds * 1000L - remainingMillis);
+                        localStore.putIfAbsent(position, storedAt);
+                    }
+                    return position;
                 });
     }
 
+    /**
+     * When any node last cached a position for the vehicle (epoch millis),
+     * or {@code null} if none has within the TTL.
+     */
+    public Uni<Long> reportedAt(String vehicleId) {
+        return indexCommands.zscore(INDEX_KEY, vehicleId)
+                .map(score -> score != null && score >= System.currentTimeMillis() - ttlSeconds * 1000.0
+                        ? score.longValue() : null);
+    }
+
     public Uni<Boolean> exists(String vehicleId) {
-        String key = KEY_PREFIX + vehicleId;
-        return commands.get(key).map(Objects::nonNull);
+        return get(vehicleId).map(Objects::nonNull);
     }
 
     public Uni<List<VehiclePosition>> getAllPositions() {
-        return keyCommands.keys(KEY_PREFIX + "*")
-                .onItem().transformToMulti(keys -> Multi.createFrom().iterable(keys))
-                .onItem().transformToUniAndMerge(key -> commands.get(key)
-                        .map(json -> json != null ? fromJson(json) : null))
+        double cutoff = System.currentTimeMillis() - ttlSeconds * 1000.0;
+
+        return snapshotLatency.time(indexCommands
+                .zremrangebyscore(INDEX_KEY, new ScoreRange<>(Double.NEGATIVE_INFINITY, true, cutoff, false))
+                .chain(() -> indexCommands.zrangebyscore(INDEX_KEY, new ScoreRange<>(cutoff, true, Double.POSITIVE_INFINITY, true)))
+                .onItem().transformToMulti(ids -> Multi.createFrom().iterable(toKeyBatches(ids)))
+                .onItem().transformToUni(keys -> commands.mget(keys))
+                .merge(snapshotConcurrency)
+                .onItem().transformToIterable(values -> values.values())
+                .filter(Objects::nonNull)
+                .map(this::decode)
                 .filter(Objects::nonNull)
-                .collect().asList();
+                .collect().asList());
     }
 
-    private String toJson(VehiclePosition position) {
-        return String.format(
-                "{\"vehicleId\":\"%s\",\"latitude\":%f,\"longitude\":%f,\"speedKph\":%f,\"bearing\":%d,\"timestamp\":%d,\"altitude\":%f,\"accuracy\":%f,\"ignition\":%b,\"motion\":%b,\"satellites\":%d}",
-                position.getVehicleId(),
-                position.getLatitude(),
-                position.getLongitude(),
-                position.getSpeedKph(),
-                position.getBearing(),
-                position.getTimestamp(),
-                position.getAltitude(),
-                position.getAccuracy(),
-                position.getIgnition(),
-                position.getMotion(),
-                position.getSatellites()
-        );
+    public boolean geoEnabled() {
+        return geoEnabled;
     }
 
-    private VehiclePosition fromJson(String json) {
-        try {
-            String vehicleId = extractString(json, "vehicleId");
-            double latitude = extractDouble(json, "latitude");
-            double longitude = extractDouble(json, "longitude");
-            double speedKph = extractDouble(json, "speedKph");
-            int bearing = extractInt(json, "bearing");
-            long timestamp = extractLong(json);
-            double altitude = extractDouble(json, "altitude");
-            double accuracy = extractDouble(json, "accuracy");
-            boolean ignition = extractBoolean(json, "ignition");
-            boolean motion = extractBoolean(json, "motion");
-            int satellites = extractInt(json, "satellites");
-
-            return VehiclePosition.newBuilder()
-                    .setVehicleId(vehicleId)
-                    .setLatitude(latitude)
-                    .setLongitude(longitude)
-                    .setSpeedKph(speedKph)
-                    .setBearing(bearing)
-                    .setTimestamp(timestamp)
-                    .setAltitude(altitude)
-                    .setAccuracy(accuracy)
-                    .setIgnition(ignition)
-                    .setMotion(motion)
-                    .setSatellites(satellites)
-                    .build();
-        } catch (Exception e) {
-            LOG.errorf("Failed to parse position JSON: %s", e.getMessage());
-            return null;
-        }
+    /**
+     * Runs a GEOSEARCH over every node's vehicles and returns their cached
+     * positions. Vehicles whose position has expired are dropped from the
+     * geo set on the way, since its members cannot expire on their own.
+     */
+    public Uni<List<VehiclePosition>> geoSearch(GeoSearchArgs<String> args) {
+        return geoSearchCounted(args).map(GeoMatches::positions);
     }
 
-    private String extractString(String json, String key) {
-        int start = json.indexOf("\"" + key + "\":\"") + key.length() + 4;
-        int end = json.indexOf("\"", start);
-        return json.substring(start, end);
+    /**
+     * {@link #geoSearch}, also telling how many geo set members matched
+     * before expired ones were dropped, so a search with a {@code COUNT}
+     * can tell whether there may be more.
+     */
+    public Uni<GeoMatches> geoSearchCounted(GeoSearchArgs<String> args) {
+        if (!geoEnabled) {
+            return Uni.createFrom().failure(new IllegalStateException("Redis geo queries are disabled"));
+        }
+        return geoSearchLatency.time(geoCommands.geosearch(GEO_KEY, args))
+                .chain(members -> Multi.createFrom().iterable(
+                                toKeyBatches(members.stream().map(GeoValue::member).toList()))
+                        .onItem().transformToUni(keys -> commands.mget(keys).invoke(this::pruneExpired))
+                        .merge(snapshotConcurrency)
+                        // Mutiny refuses null items, which is what an expired member reads as
+                        .onItem().transformToIterable(values -> values.values().stream()
+                                .filter(Objects::nonNull).toList())
+                        .map(this::decode)
+                        .filter(Objects::nonNull)
+                        .collect().asList()
+                        .map(positions -> new GeoMatches(members.size(), positions)));
     }
 
-    private double extractDouble(String json, String key) {
-        int start = json.indexOf("\"" + key + "\":") + key.length() + 3;
-        int end = findNumberEnd(json, start);
-        return Double.parseDouble(json.substring(start, end));
+    public record GeoMatches(int members, List<VehiclePosition> positions) {
     }
 
-    private int extractInt(String json, String key) {
-        int start = json.indexOf("\"" + key + "\":") + key.length() + 3;
-        int end = findNumberEnd(json, start);
-        return Integer.parseInt(json.substring(start, end));
+    private void pruneExpired(Map<String, byte[]> values) {
+        List<String> expired = new ArrayList<>();
+        values.forEach((key, value) -> {
+            if (value == null) {
+                expired.add(key.substring(KEY_PREFIX.length()));
+            }
+        });
+        if (!expired.isEmpty()) {
+            indexCommands.zrem(GEO_KEY, expired.toArray(String[]::new))
+                    .subscribe().with(removed -> { }, failure ->
+                            LOG.debugf("Failed to prune expired geo members: %s", failure.getMessage()));
+        }
     }
 
-    private long extractLong(String json) {
-        int start = json.indexOf("\"" + "timestamp" + "\":") + "timestamp".length() + 3;
-        int end = findNumberEnd(json, start);
-        return Long.parseLong(json.substring(start, end));
+    private List<String[]> toKeyBatches(List<String> vehicleIds) {
+        List<String[]> batches = new ArrayList<>(vehicleIds.size() / snapshotBatchSize + 1);
+        for (int from = 0; from < vehicleIds.size(); from += snapshotBatchSize) {
+            int to = Math.min(from + snapshotBatchSize, vehicleIds.size());
+            String[] keys = new String[to - from];
+            for (int i = from; i < to; i++) {
+                keys[i - from] = KEY_PREFIX + vehicleIds.get(i);
+            }
+            batches.add(keys);
+        }
+        return batches;
     }
 
-    private boolean extractBoolean(String json, String key) {
-        int start = json.indexOf("\"" + key + "\":") + key.length() + 3;
-        return json.substring(start).startsWith("true");
+    private VehiclePosition decode(byte[] value) {
+        try {
+            return PositionCodec.decodeAny(value);
+        } catch (Exception e) {
+            LOG.errorf("Failed to decode cached position: %s", e.getMessage());
+            return null;
+        }
     }
 
-    private int findNumberEnd(String json, int start) {
-        int i = start;
-        while (i < json.length() && (Character.isDigit(json.charAt(i)) || json.charAt(i) == '.' || json.charAt(i) == '-')) {
-            i++;
+    /**
+     * Latency of one kind of Redis operation, split by outcome and measured
+     * from subscription since the commands are lazy.
+     */
+    private static final class RedisTimer {
+
+        private final Timer success;
+        private final Timer failure;
+
+        RedisTimer(MeterRegistry registry, String op) {
+            this.success = timer(registry, op, "success");
+            this.failure = timer(registry, op, "failure");
+        }
+
+        private static Timer timer(MeterRegistry registry, String op, String outcome) {
+            return Timer.builder("tracker.redis.latency")
+                    .tag("op", op)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        <T> Uni<T> time(Uni<T> operation) {
+            return Uni.createFrom().deferred(() -> {
+                long start = System.nanoTime();
+                return operation.onItemOrFailure().invoke((item, t) ->
+                        (t == null ? success : failure).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+            });
         }
-        return i;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,176 @@
+package com.alvoratrack.service.codec;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.Json;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The original flat JSON layout of cached positions. Kept so that entries
+ * written by older releases can still be read, and as an opt-in format for
+ * tooling that inspects Redis by hand.
+ */
+public class JsonPositionCodec implements PositionCodec {
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public byte[] encode(VehiclePosition position) {
+        StringBuilder json = new StringBuilder(224);
+        json.append("{\"vehicleId\":");
+        Json.appendString(json, position.getVehicleId());
+        json.append(",\"latitude\":").append(position.getLatitude())
+                .append(",\"longitude\":").append(position.getLongitude())
+                .append(",\"speedKph\":").append(position.getSpeedKph())
+                .append(",\"bearing\":").append(position.getBearing())
+                .append(",\"timestamp\":").append(position.getTimestamp())
+                .append(",\"altitude\":").append(position.getAltitude())
+                .append(",\"accuracy\":").append(position.getAccuracy())
+                .append(",\"ignition\":").append(position.getIgnition())
+                .append(",\"motion\":").append(position.getMotion())
+                .append(",\"satellites\":").append(position.getSatellites())
+                .append('}');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public VehiclePosition decode(byte[] bytes) {
+        return new Reader(new String(bytes, StandardCharsets.UTF_8)).readPosition();
+    }
+
+    /**
+     * Reader for flat JSON objects with string, number and boolean members.
+     * Unknown members are skipped.
+     */
+    private static final class Reader {
+
+        private final String json;
+        private int pos;
+
+        Reader(String json) {
+            this.json = json;
+        }
+
+        VehiclePosition readPosition() {
+            VehiclePosition.Builder builder = VehiclePosition.newBuilder();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return builder.build();
+            }
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                switch (key) {
+                    case "vehicleId" -> builder.setVehicleId(readString());
+                    case "latitude" -> builder.setLatitude(Double.parseDouble(readLiteral()));
+                    case "longitude" -> builder.setLongitude(Double.parseDouble(readLiteral()));
+                    case "speedKph" -> builder.setSpeedKph(Double.parseDouble(readLiteral()));
+                    case "bearing" -> builder.setBearing(Integer.parseInt(readLiteral()));
+                    case "timestamp" -> builder.setTimestamp(Long.parseLong(readLiteral()));
+                    case "altitude" -> builder.setAltitude(Double.parseDouble(readLiteral()));
+                    case "accuracy" -> builder.setAccuracy(Double.parseDouble(readLiteral()));
+                    case "ignition" -> builder.setIgnition(Boolean.parseBoolean(readLiteral()));
+                    case "motion" -> builder.setMotion(Boolean.parseBoolean(readLiteral()));
+                    case "satellites" -> builder.setSatellites(Integer.parseInt(readLiteral()));
+                    default -> skipValue();
+                }
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return builder.build();
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder value = null;
+            int start = pos;
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value == null ? json.substring(start, pos - 1) : value.toString();
+                }
+                if (c == '\\') {
+                    if (value == null) {
+                        value = new StringBuilder(json.substring(start, pos - 1));
+                    }
+                    char escaped = next();
+                    switch (escaped) {
+                        case 'n' -> value.append('\n');
+                        case 'r' -> value.append('\r');
+                        case 't' -> value.append('\t');
+                        case 'b' -> value.append('\b');
+                        case 'f' -> value.append('\f');
+                        case 'u' -> {
+                            value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                            pos += 4;
+                        }
+                        default -> value.append(escaped);
+                    }
+                } else if (value != null) {
+                    value.append(c);
+                }
+            }
+        }
+
+        private String readLiteral() {
+            int start = pos;
+            while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("Expected a value");
+            }
+            return json.substring(start, pos);
+        }
+
+        private void skipValue() {
+            if (peek() == '"') {
+                readString();
+            } else {
+                readLiteral();
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+        }
+
+        private char peek() {
+            if (pos >= json.length()) {
+                throw error("Unexpected end of input");
+            }
+            return json.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + pos);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.alvoratrack.service.codec;
+
+import com.alvoratrack.grpc.VehiclePosition;
+
+/**
+ * Serialized form of a {@link VehiclePosition} as stored in Redis.
+ */
+public interface PositionCodec {
+
+    PositionCodec PROTOBUF = new ProtobufPositionCodec();
+    PositionCodec JSON = new JsonPositionCodec();
+
+    String name();
+
+    byte[] encode(VehiclePosition position);
+
+    VehiclePosition decode(byte[] bytes);
+
+    static PositionCodec named(String name) {
+        return switch (name.toLowerCase()) {
+            case "protobuf" -> PROTOBUF;
+            case "json" -> JSON;
+            default -> throw new IllegalArgumentException("Unknown position codec: " + name);
+        };
+    }
+
+    /**
+     * Decodes a value written by any codec. Legacy entries are JSON objects,
+     * which can never start a protobuf {@code VehiclePosition} ('{' would be field 15).
+     */
+    static VehiclePosition decodeAny(byte[] bytes) {
+        if (bytes.length > 0 && bytes[0] == '{') {
+            return JSON.decode(bytes);
+        }
+        return PROTOBUF.decode(bytes);
+    }
+}
@@ -0,0 +1,26 @@
+package com.alvoratrack.service.codec;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+public class ProtobufPositionCodec implements PositionCodec {
+
+    @Override
+    public String name() {
+        return "protobuf";
+    }
+
+    @Override
+    public byte[] encode(VehiclePosition position) {
+        return position.toByteArray();
+    }
+
+    @Override
+    public VehiclePosition decode(byte[] bytes) {
+        try {
+            return VehiclePosition.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Invalid protobuf position", e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.alvoratrack.session;
+
+import com.alvoratrack.grpc.RouteAssignment;
+import com.alvoratrack.grpc.TrackingUpdate;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.CoarseClock;
+import com.alvoratrack.util.ValidationResult;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * In-memory registry of {@code TrackVehicle} sessions, one per vehicle, plus
+ * the routes assigned to vehicles whether or not they are connected. A route
+ * assigned while a vehicle is offline is delivered when its session opens,
+ * unless it expires first; at most {@code tracking.route.max-routes} are held.
+ */
+@ApplicationScoped
+public class SessionRegistry {
+
+    private static final Logger LOG = Logger.getLogger(SessionRegistry.class);
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "tracking.session.idle-after", defaultValue = "PT2M")
+    Duration idleAfter;
+
+    @ConfigProperty(name = "tracking.route.ttl", defaultValue = "PT24H")
+    Duration routeTtl;
+
+    @ConfigProperty(name = "tracking.route.max-routes", defaultValue = "100000")
+    int maxRoutes;
+
+    private final Map<String, TrackingSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, AssignedRoute> routes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        registry.gaugeMapSize("tracker.tracking.sessions", List.of(), sessions);
+        registry.gaugeMapSize("tracker.tracking.routes", List.of(), routes);
+    }
+
+    /**
+     * Returns the observer for a new {@code TrackVehicle} stream. The first
+     * valid position binds the stream to its vehicle; positions for other
+     * vehicles on the same stream are ignored.
+     */
+    public StreamObserver<VehiclePosition> track(
+            StreamObserver<TrackingUpdate> updates,
+            Function<VehiclePosition, ValidationResult> validator,
+            Consumer<VehiclePosition> ingest) {
+        return new StreamObserver<>() {
+
+            private TrackingSession session;
+
+            @Override
+            public void onNext(VehiclePosition position) {
+                ValidationResult validation = validator.apply(position);
+                if (!validation.isValid()) {
+                    LOG.debugf("Ignoring invalid tracked position for %s: %s",
+                            position.getVehicleId(), validation.message());
+                    return;
+                }
+                if (session == null) {
+                    session = open(position, updates);
+                } else if (!session.vehicleId().equals(position.getVehicleId())) {
+                    LOG.debugf("Ignoring position for %s on session of %s",
+                            position.getVehicleId(), session.vehicleId());
+                    return;
+                } else {
+                    session.onPosition(position, CoarseClock.currentTimeMillis());
+                }
+                ingest.accept(position);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                close(session);
+            }
+
+            @Override
+            public void onCompleted() {
+                if (session == null) {
+                    updates.onCompleted();
+                    return;
+                }
+                session.complete();
+                close(session);
+            }
+        };
+    }
+
+    /**
+     * Keeps a connected vehicle's session current when it also reports
+     * through {@code ReportPosition} or {@code StreamPositions}.
+     */
+    public void observe(VehiclePosition position) {
+        TrackingSession session = sessions.get(position.getVehicleId());
+        if (session != null) {
+            session.onPosition(position, CoarseClock.currentTimeMillis());
+        }
+    }
+
+    public TrackingSession get(String vehicleId) {
+        return sessions.get(vehicleId);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public RouteAssignment route(String vehicleId) {
+        AssignedRoute assigned = routes.get(vehicleId);
+        return assigned != null ? assigned.route() : null;
+    }
+
+    /**
+     * Assigns (or with {@code null} clears) a vehicle's route and pushes it to
+     * the vehicle if it is connected. Returns whether the vehicle was sent the
+     * change; if not, it gets the route when its session next opens.
+     *
+     * @throws IllegalStateException if {@code tracking.route.max-routes}
+     *         other vehicles already hold a route
+     */
+    public boolean assignRoute(String vehicleId, RouteAssignment route) {
+        if (route == null) {
+            routes.remove(vehicleId);
+        } else {
+            if (routes.size() >= maxRoutes && !routes.containsKey(vehicleId)) {
+                throw new IllegalStateException("At most " + maxRoutes + " routes can be assigned");
+            }
+            routes.put(vehicleId, new AssignedRoute(route, System.currentTimeMillis()));
+        }
+        TrackingSession session = sessions.get(vehicleId);
+        return session != null && session.assign(route);
+    }
+
+    @Scheduled(every = "${tracking.session.sweep-interval:5s}")
+    void sweep() {
+        long now = System.currentTimeMillis();
+        long idleBefore = now - idleAfter.toMillis();
+        for (TrackingSession session : sessions.values()) {
+            if (session.isClosed()) {
+                sessions.remove(session.vehicleId(), session);
+            } else {
+                session.markIdle(idleBefore);
+            }
+        }
+        long assignedBefore = now - routeTtl.toMillis();
+        routes.values().removeIf(assigned -> assigned.assignedAt() < assignedBefore);
+    }
+
+    private TrackingSession open(VehiclePosition position, StreamObserver<TrackingUpdate> updates) {
+        TrackingSession session = new TrackingSession(position.getVehicleId(), updates);
+        session.start(position, System.currentTimeMillis(), route(position.getVehicleId()));
+        TrackingSession previous = sessions.put(position.getVehicleId(), session);
+        if (previous != null) {
+            LOG.debugf("Replacing tracking session for vehicle %s", position.getVehicleId());
+            previous.complete();
+        }
+        return session;
+    }
+
+    private void close(TrackingSession session) {
+        if (session != null) {
+            session.close();
+            sessions.remove(session.vehicleId(), session);
+        }
+    }
+
+    private record AssignedRoute(RouteAssignment route, long assignedAt) {
+    }
+}
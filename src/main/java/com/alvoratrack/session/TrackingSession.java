@@ -0,0 +1,128 @@
+package com.alvoratrack.session;
+
+import com.alvoratrack.grpc.RouteAssignment;
+import com.alvoratrack.grpc.TrackingUpdate;
+import com.alvoratrack.grpc.VehiclePosition;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * State of one vehicle's open {@code TrackVehicle} stream. Updates are pushed
+ * under the session lock because gRPC observers are not thread-safe and
+ * pushes come from the stream, REST route changes and the idle sweep.
+ */
+public class TrackingSession {
+
+    public static final String TRACKING = "tracking";
+    public static final String IDLE = "idle";
+    public static final String OFFLINE = "offline";
+
+    private final String vehicleId;
+    private final StreamObserver<TrackingUpdate> updates;
+
+    private VehiclePosition lastPosition;
+    private long lastPositionAt;
+    private String status = TRACKING;
+    private RouteAssignment route;
+    private boolean closed;
+
+    TrackingSession(String vehicleId, StreamObserver<TrackingUpdate> updates) {
+        this.vehicleId = vehicleId;
+        this.updates = updates;
+    }
+
+    public String vehicleId() {
+        return vehicleId;
+    }
+
+    public synchronized VehiclePosition lastPosition() {
+        return lastPosition;
+    }
+
+    public synchronized String status() {
+        return status;
+    }
+
+    public synchronized RouteAssignment route() {
+        return route;
+    }
+
+    /**
+     * Records a position; returns true if it moved the session back to tracking.
+     */
+    synchronized boolean onPosition(VehiclePosition position, long now) {
+        lastPosition = position;
+        lastPositionAt = now;
+        if (!TRACKING.equals(status)) {
+            status = TRACKING;
+            push(false);
+            return true;
+        }
+        return false;
+    }
+
+    synchronized boolean markIdle(long idleBefore) {
+        if (TRACKING.equals(status) && lastPositionAt < idleBefore) {
+            status = IDLE;
+            push(false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a route change; returns true if it was pushed to the vehicle.
+     */
+    synchronized boolean assign(RouteAssignment route) {
+        this.route = route;
+        return push(true);
+    }
+
+    synchronized void start(VehiclePosition position, long now, RouteAssignment route) {
+        this.lastPosition = position;
+        this.lastPositionAt = now;
+        this.route = route;
+        push(route != null);
+    }
+
+    synchronized void close() {
+        status = OFFLINE;
+        closed = true;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Ends the stream from the server side, used when a newer session for the
+     * same vehicle replaces this one.
+     */
+    synchronized void complete() {
+        if (!closed) {
+            closed = true;
+            status = OFFLINE;
+            updates.onCompleted();
+        }
+    }
+
+    private boolean push(boolean includeRoute) {
+        if (closed) {
+            return false;
+        }
+        TrackingUpdate.Builder update = TrackingUpdate.newBuilder()
+                .setVehicleId(vehicleId)
+                .setStatus(status);
+        if (includeRoute) {
+            // An empty assignment tells the device its route was cleared
+            update.setRoute(route != null ? route : RouteAssignment.getDefaultInstance());
+        }
+        try {
+            updates.onNext(update.build());
+            return true;
+        } catch (RuntimeException e) {
+            // Stream was cancelled under us; the close callback cleans up
+            closed = true;
+            return false;
+        }
+    }
+}
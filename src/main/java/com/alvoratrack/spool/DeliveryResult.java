@@ -0,0 +1,13 @@
+package com.alvoratrack.spool;
+
+/**
+ * Outcome of forwarding one record to a downstream.
+ */
+public enum DeliveryResult {
+    /** Accepted by the downstream. */
+    DELIVERED,
+    /** Refused by the downstream; retrying would not help. */
+    REJECTED,
+    /** Downstream unreachable or erroring; the record should be retried. */
+    FAILED
+}
@@ -0,0 +1,404 @@
+package com.alvoratrack.spool;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped spool of opaque records split into fixed-size
+ * segment files. A checkpoint file records how far the reader has committed;
+ * on restart segments are rescanned from the checkpoint so queued records
+ * survive the process. Fully consumed segments are deleted, and the oldest
+ * segment is dropped when the spool exceeds its size limit.
+ * <p>
+ * Readers commit by handing back the last record they processed, which
+ * carries its own position, so a segment dropped in between cannot shift
+ * what gets committed.
+ * <p>
+ * Record layout: {@code [int length][long appendedAt][int crc32][payload]};
+ * a zero length marks the end of the written part of a segment.
+ */
+public class Spool implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(Spool.class);
+    private static final int HEADER_BYTES = 16;
+    private static final String SUFFIX = ".seg";
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 200;
+
+    /**
+     * A record read by {@link #peek}; {@code segment} and {@code end} locate
+     * the byte just past it.
+     */
+    public record Record(long appendedAt, byte[] payload, long segment, int end) {
+    }
+
+    private record Cursor(long segment, int offset) {
+    }
+
+    private static final class Segment {
+        final long seq;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int writePos;
+
+        Segment(long seq, Path path, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long maxAgeMillis;
+    private final Path checkpointFile;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private Cursor committed;
+    private long pending;
+    private long dropped;
+    private long lastCheckpointAt;
+    private boolean checkpointDirty;
+
+    public Spool(Path directory, int segmentBytes, long maxBytes, Duration maxAge) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+        this.maxAgeMillis = maxAge.toMillis();
+        this.checkpointFile = directory.resolve("checkpoint");
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open spool at " + directory, e);
+        }
+    }
+
+    /**
+     * Appends a record and returns it, or null if the payload can never fit in
+     * a segment.
+     */
+    public synchronized Record append(byte[] payload) {
+        int size = HEADER_BYTES + payload.length;
+        if (size + 4 > segmentBytes) {
+            return null;
+        }
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writePos + size + 4 > segmentBytes) {
+            tail = roll();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = tail.buffer;
+        int pos = tail.writePos;
+        long appendedAt = System.currentTimeMillis();
+        buffer.putLong(pos + 4, appendedAt);
+        buffer.putInt(pos + 12, (int) crc.getValue());
+        buffer.put(pos + HEADER_BYTES, payload);
+        // Length goes last so a torn write is never read back as a record
+        buffer.putInt(pos, payload.length);
+        tail.writePos = pos + size;
+        pending++;
+        return new Record(appendedAt, payload, tail.seq, tail.writePos);
+    }
+
+    /**
+     * Returns up to {@code max} uncommitted records in append order without
+     * consuming them. Records older than the age limit are dropped on the way.
+     */
+    public synchronized List<Record> peek(int max) {
+        List<Record> records = new ArrayList<>(max);
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        Cursor cursor = committed;
+        while (records.size() < max) {
+            Segment segment = segmentAt(cursor);
+            if (segment == null) {
+                break;
+            }
+            if (cursor.offset() >= segment.writePos) {
+                if (segment == segments.peekLast()) {
+                    break;
+                }
+                cursor = new Cursor(segment.seq + 1, 0);
+                continue;
+            }
+            Record record = readAt(segment, cursor.offset());
+            if (record.appendedAt() < cutoff && records.isEmpty()) {
+                // Expired records at the head are consumed right away
+                commit(new Cursor(segment.seq, record.end()), 1);
+                dropped++;
+                cursor = committed;
+                continue;
+            }
+            records.add(record);
+            cursor = new Cursor(segment.seq, record.end());
+        }
+        return records;
+    }
+
+    /**
+     * Marks everything up to and including {@code last}, a record returned by
+     * {@link #peek}, as consumed. Does nothing if the spool has already moved
+     * past it, for instance because its segment was dropped over the size
+     * limit.
+     */
+    public synchronized void advance(Record last) {
+        Cursor target = new Cursor(last.segment(), last.end());
+        if (target.segment() < committed.segment()
+                || target.segment() == committed.segment() && target.offset() <= committed.offset()) {
+            return;
+        }
+        long count = 0;
+        Cursor cursor = committed;
+        while (cursor.segment() < target.segment()) {
+            Segment segment = segmentAt(cursor);
+            if (segment != null) {
+                count += countRecords(segment, cursor.offset(), segment.writePos);
+            }
+            cursor = new Cursor(cursor.segment() + 1, 0);
+        }
+        Segment segment = segmentAt(target);
+        if (segment != null) {
+            count += countRecords(segment, cursor.offset(), target.offset());
+        }
+        commit(target, count);
+    }
+
+    /**
+     * True once the spool has moved past {@code record}, because it was
+     * consumed or dropped.
+     */
+    public synchronized boolean consumed(Record record) {
+        return record.segment() < committed.segment()
+                || record.segment() == committed.segment() && record.end() <= committed.offset();
+    }
+
+    public synchronized long pending() {
+        return pending;
+    }
+
+    public synchronized long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Age in milliseconds of the oldest uncommitted record, 0 when empty.
+     */
+    public synchronized long oldestAgeMillis() {
+        Cursor cursor = committed;
+        while (true) {
+            Segment segment = segmentAt(cursor);
+            if (segment == null) {
+                return 0;
+            }
+            if (cursor.offset() < segment.writePos) {
+                return Math.max(0, System.currentTimeMillis() - segment.buffer.getLong(cursor.offset() + 4));
+            }
+            if (segment == segments.peekLast()) {
+                return 0;
+            }
+            cursor = new Cursor(segment.seq + 1, 0);
+        }
+    }
+
+    /**
+     * Flushes mapped segments and the checkpoint to disk.
+     */
+    public synchronized void sync() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        if (checkpointDirty) {
+            writeCheckpoint();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        sync();
+        segments.clear();
+    }
+
+    private void commit(Cursor cursor, long count) {
+        committed = cursor;
+        pending = Math.max(0, pending - count);
+        checkpointDirty = true;
+        // Delete segments the reader has moved past
+        while (segments.size() > 1 && segments.peekFirst().seq < cursor.segment()) {
+            delete(segments.pollFirst());
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastCheckpointAt >= CHECKPOINT_INTERVAL_MILLIS) {
+            writeCheckpoint();
+        }
+    }
+
+    private Segment roll() {
+        long seq = segments.isEmpty() ? committed.segment() : segments.peekLast().seq + 1;
+        Segment segment = open(seq, true);
+        segments.addLast(segment);
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.pollFirst();
+            long lost = countRecords(oldest, oldest.seq == committed.segment() ? committed.offset() : 0,
+                    oldest.writePos);
+            dropped += lost;
+            pending -= lost;
+            delete(oldest);
+            committed = new Cursor(segments.peekFirst().seq, 0);
+            checkpointDirty = true;
+            LOG.warnf("Spool %s over size limit, dropped %d records", directory, lost);
+        }
+        return segment;
+    }
+
+    private Segment segmentAt(Cursor cursor) {
+        for (Segment segment : segments) {
+            if (segment.seq == cursor.segment()) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private Record readAt(Segment segment, int offset) {
+        ByteBuffer buffer = segment.buffer;
+        int length = buffer.getInt(offset);
+        long appendedAt = buffer.getLong(offset + 4);
+        byte[] payload = new byte[length];
+        buffer.get(offset + HEADER_BYTES, payload);
+        return new Record(appendedAt, payload, segment.seq, offset + HEADER_BYTES + length);
+    }
+
+    private void recover() throws IOException {
+        Cursor checkpoint = readCheckpoint();
+        List<Long> found = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SUFFIX.length())))
+                    .sorted()
+                    .forEach(found::add);
+        }
+
+        for (long seq : found) {
+            if (seq < checkpoint.segment()) {
+                Files.deleteIfExists(segmentPath(seq));
+                continue;
+            }
+            Segment segment = open(seq, false);
+            segment.writePos = scan(segment);
+            segments.addLast(segment);
+        }
+
+        committed = segments.isEmpty() ? new Cursor(checkpoint.segment(), 0)
+                : segments.peekFirst().seq == checkpoint.segment() ? checkpoint
+                : new Cursor(segments.peekFirst().seq, 0);
+        for (Segment segment : segments) {
+            pending += countRecords(segment, segment.seq == committed.segment() ? committed.offset() : 0,
+                    segment.writePos);
+        }
+        if (pending > 0) {
+            LOG.infof("Spool %s recovered %d pending records", directory, pending);
+        }
+    }
+
+    /**
+     * Finds the end of valid data; a bad checksum truncates the segment there.
+     */
+    private int scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int pos = 0;
+        CRC32 crc = new CRC32();
+        while (pos + HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(pos);
+            if (length <= 0 || pos + HEADER_BYTES + length > segmentBytes) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(pos + HEADER_BYTES, length));
+            if ((int) crc.getValue() != buffer.getInt(pos + 12)) {
+                LOG.warnf("Spool segment %s corrupt at offset %d, truncating", segment.path, pos);
+                buffer.putInt(pos, 0);
+                break;
+            }
+            pos += HEADER_BYTES + length;
+        }
+        return pos;
+    }
+
+    private long countRecords(Segment segment, int from, int to) {
+        long count = 0;
+        int pos = from;
+        while (pos < to) {
+            pos += HEADER_BYTES + segment.buffer.getInt(pos);
+            count++;
+        }
+        return count;
+    }
+
+    private Segment open(long seq, boolean create) {
+        Path path = segmentPath(seq);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            if (create) {
+                buffer.putInt(0, 0);
+            }
+            return new Segment(seq, path, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map spool segment " + path, e);
+        }
+    }
+
+    private void delete(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            LOG.warnf("Failed to delete spool segment %s: %s", segment.path, e.getMessage());
+        }
+    }
+
+    private Path segmentPath(long seq) {
+        return directory.resolve(String.format("%020d%s", seq, SUFFIX));
+    }
+
+    private Cursor readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return new Cursor(0, 0);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpointFile));
+        if (buffer.remaining() < 12) {
+            return new Cursor(0, 0);
+        }
+        return new Cursor(buffer.getLong(), buffer.getInt());
+    }
+
+    private void writeCheckpoint() {
+        ByteBuffer buffer = ByteBuffer.allocate(12).putLong(committed.segment()).putInt(committed.offset());
+        Path tmp = directory.resolve("checkpoint.tmp");
+        try {
+            Files.write(tmp, buffer.array());
+            Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastCheckpointAt = System.currentTimeMillis();
+            checkpointDirty = false;
+        } catch (IOException e) {
+            LOG.warnf("Failed to write spool checkpoint %s: %s", checkpointFile, e.getMessage());
+        }
+    }
+}
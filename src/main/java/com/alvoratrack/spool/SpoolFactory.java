@@ -0,0 +1,67 @@
+package com.alvoratrack.spool;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.function.Function;
+
+@ApplicationScoped
+public class SpoolFactory {
+
+    private static final Logger LOG = Logger.getLogger(SpoolFactory.class);
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "spool.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "spool.directory", defaultValue = "data/spool")
+    String directory;
+
+    @ConfigProperty(name = "spool.segment-bytes", defaultValue = "16777216")
+    int segmentBytes;
+
+    @ConfigProperty(name = "spool.max-bytes", defaultValue = "1073741824")
+    long maxBytes;
+
+    @ConfigProperty(name = "spool.max-age", defaultValue = "PT24H")
+    Duration maxAge;
+
+    @ConfigProperty(name = "spool.replay-concurrency", defaultValue = "16")
+    int replayConcurrency;
+
+    @ConfigProperty(name = "spool.replay-batch", defaultValue = "1024")
+    int replayBatch;
+
+    /**
+     * Opens (or recovers) the spool for a downstream and starts replaying it,
+     * each vehicle once {@code idle} says the live path has nothing older of
+     * it in flight. {@code sender} is handed up to {@code sendBatch} records
+     * of one vehicle at a time. Returns null when spooling is disabled.
+     */
+    public SpoolReplayer open(String downstream,
+                              Function<List<byte[]>, CompletableFuture<DeliveryResult>> sender,
+                              int sendBatch,
+                              Function<byte[], String> orderingKey,
+                              Predicate<String> idle) {
+        if (!enabled) {
+            return null;
+        }
+        Path path = Path.of(directory, downstream);
+        Spool spool = new Spool(path, segmentBytes, maxBytes, maxAge);
+        SpoolReplayer replayer = new SpoolReplayer(downstream, spool, replayConcurrency, replayBatch, sendBatch,
+                sender, orderingKey, idle, registry);
+        replayer.start();
+        LOG.infof("Spool for %s opened at %s - %d records pending", downstream, path.toAbsolutePath(), spool.pending());
+        return replayer;
+    }
+}
@@ -0,0 +1,360 @@
+package com.alvoratrack.spool;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Replays a {@link Spool} to its downstream on a dedicated thread. Each round
+ * takes up to {@code batchSize} records in append order and sends every
+ * vehicle's (ordering key's) records in order, {@code sendBatch} per call and
+ * up to {@code concurrency} vehicles at a time, so a busy vehicle's backlog
+ * drains as fast as the downstream takes it rather than one record per
+ * round. A vehicle whose send fails is not sent further that round; the
+ * spool only advances over the leading run of delivered or rejected records,
+ * and records delivered past it are remembered so the retry does not send
+ * them twice. A failure backs off before the next round.
+ * <p>
+ * A vehicle's records are held back while {@code idle} reports the live path
+ * still has older positions of it queued or in flight, so spooled ones never
+ * overtake them. Conversely, {@link #holds} tells the live path which
+ * vehicles still have records spooled: only their new positions need to
+ * queue behind them, every other vehicle's go straight to the lanes.
+ */
+public class SpoolReplayer implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(SpoolReplayer.class);
+    private static final long IDLE_WAIT_MILLIS = 200;
+    private static final long SYNC_INTERVAL_MILLIS = 1000;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+
+    private final String downstream;
+    private final Spool spool;
+    private final int concurrency;
+    private final int batchSize;
+    private final int sendBatch;
+    private final Function<List<byte[]>, CompletableFuture<DeliveryResult>> sender;
+    private final Function<byte[], String> orderingKey;
+    private final Predicate<String> idle;
+    private final Thread thread;
+
+    // The last record spooled for each vehicle, until the spool moves past it
+    private final ConcurrentMap<String, Spool.Record> held = new ConcurrentHashMap<>();
+    // Positions of records delivered ahead of the committed run; replay thread only
+    private final Set<Long> delivered = new HashSet<>();
+    // Records recovered from disk, whose vehicles are unknown until replayed
+    private volatile long recovered;
+
+    private final Counter appended;
+    private final Counter replayed;
+    private final Counter rejected;
+    private final Counter overflow;
+
+    private volatile boolean running = true;
+
+    public SpoolReplayer(String downstream, Spool spool, int concurrency, int batchSize, int sendBatch,
+                         Function<List<byte[]>, CompletableFuture<DeliveryResult>> sender,
+                         Function<byte[], String> orderingKey,
+                         Predicate<String> idle,
+                         MeterRegistry registry) {
+        this.downstream = downstream;
+        this.spool = spool;
+        this.concurrency = concurrency;
+        this.batchSize = Math.max(concurrency, batchSize);
+        this.sendBatch = Math.max(1, sendBatch);
+        this.sender = sender;
+        this.orderingKey = orderingKey;
+        this.idle = idle;
+        this.recovered = spool.pending();
+
+        Tags tags = Tags.of("downstream", downstream);
+        this.appended = Counter.builder("tracker.spool.appended").tags(tags).register(registry);
+        this.replayed = Counter.builder("tracker.spool.replayed").tags(tags).register(registry);
+        this.rejected = Counter.builder("tracker.spool.rejected").tags(tags).register(registry);
+        this.overflow = Counter.builder("tracker.spool.overflow").tags(tags).register(registry);
+        registry.gauge("tracker.spool.depth", tags, spool, Spool::pending);
+        registry.gauge("tracker.spool.oldest.age.seconds", tags, spool, s -> s.oldestAgeMillis() / 1000.0);
+        registry.gauge("tracker.spool.dropped", tags, spool, Spool::dropped);
+
+        this.thread = new Thread(this::run, "spool-replay-" + downstream);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * True while records of the vehicle {@code key} are spooled and not yet
+     * replayed, so a new position of it has to be spooled behind them. Until
+     * the records recovered at startup are replayed this holds for every
+     * vehicle.
+     */
+    public boolean holds(String key) {
+        if (recovered > 0) {
+            return true;
+        }
+        Spool.Record last = held.get(key);
+        if (last == null) {
+            return false;
+        }
+        if (spool.consumed(last)) {
+            held.remove(key, last);
+            return false;
+        }
+        return true;
+    }
+
+    public void append(byte[] payload) {
+        Spool.Record record = spool.append(payload);
+        if (record == null) {
+            overflow.increment();
+            return;
+        }
+        appended.increment();
+        String key = key(record);
+        if (key != null) {
+            // Concurrent appends for one vehicle may get here out of order; keep the later record
+            held.merge(key, record, (a, b) -> position(a) >= position(b) ? a : b);
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        long lastSync = System.currentTimeMillis();
+        while (running) {
+            try {
+                if (System.currentTimeMillis() - lastSync >= SYNC_INTERVAL_MILLIS) {
+                    spool.sync();
+                    lastSync = System.currentTimeMillis();
+                }
+
+                List<Spool.Record> batch = spool.peek(batchSize);
+                if (batch.isEmpty()) {
+                    recovered = 0;
+                    idle();
+                    continue;
+                }
+
+                Round round = replay(batch);
+                commit(round);
+                if (round.failed.get()) {
+                    LOG.debugf("Replay to %s stalled, %d records pending, retrying in %d ms",
+                            downstream, spool.pending(), backoff);
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                } else {
+                    backoff = MIN_BACKOFF_MILLIS;
+                    if (round.sent.get() == 0) {
+                        // Every vehicle left waits for the live path
+                        idle();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOG.errorf("Spool replay to %s failed: %s", downstream, e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void idle() throws InterruptedException {
+        wait(IDLE_WAIT_MILLIS);
+    }
+
+    /**
+     * One round: the records read, each one's vehicle, which no longer need
+     * sending, how many were sent, and whether any send failed.
+     */
+    private static final class Round {
+        final List<Spool.Record> batch;
+        final String[] keys;
+        // Written by the sending threads, read after they all completed
+        final boolean[] done;
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Round(List<Spool.Record> batch) {
+            this.batch = batch;
+            this.keys = new String[batch.size()];
+            this.done = new boolean[batch.size()];
+        }
+    }
+
+    /**
+     * Sends the batch, each vehicle's records in order and up to
+     * {@code concurrency} vehicles at a time.
+     */
+    private Round replay(List<Spool.Record> batch) throws InterruptedException {
+        Round round = new Round(batch);
+        Map<String, List<Integer>> vehicles = new LinkedHashMap<>();
+        Set<String> waiting = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Spool.Record record = batch.get(i);
+            if (delivered.contains(position(record))) {
+                round.done[i] = true;
+                continue;
+            }
+            String key = key(record);
+            round.keys[i] = key;
+            if (key == null) {
+                // Skip an unreadable record instead of blocking the spool behind it
+                LOG.warnf("Dropping unreadable record from %s spool", downstream);
+                rejected.increment();
+                round.done[i] = true;
+                continue;
+            }
+            List<Integer> records = vehicles.get(key);
+            if (records == null) {
+                if (waiting.contains(key) || !idle.test(key)) {
+                    // Older live positions of the vehicle come first
+                    waiting.add(key);
+                    continue;
+                }
+                records = new ArrayList<>();
+                vehicles.put(key, records);
+            }
+            records.add(i);
+        }
+        if (vehicles.isEmpty()) {
+            return round;
+        }
+
+        Queue<List<Integer>> queue = new ConcurrentLinkedQueue<>(vehicles.values());
+        List<CompletableFuture<Void>> workers = new ArrayList<>(concurrency);
+        for (int i = 0; i < Math.min(concurrency, vehicles.size()); i++) {
+            workers.add(work(round, queue));
+        }
+        try {
+            CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new)).get();
+        } catch (ExecutionException e) {
+            round.failed.set(true);
+        }
+        return round;
+    }
+
+    /**
+     * Takes vehicles off {@code queue} one at a time until it is empty.
+     */
+    private CompletableFuture<Void> work(Round round, Queue<List<Integer>> queue) {
+        List<Integer> records = queue.poll();
+        if (records == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return send(round, records, 0).thenCompose(ignored -> work(round, queue));
+    }
+
+    /**
+     * Sends one vehicle's records from {@code from} on, up to
+     * {@code sendBatch} per call and in order, stopping at the first failure.
+     */
+    private CompletableFuture<Void> send(Round round, List<Integer> records, int from) {
+        if (from == records.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<Integer> chunk = records.subList(from, Math.min(records.size(), from + sendBatch));
+        List<byte[]> payloads = new ArrayList<>(chunk.size());
+        for (int index : chunk) {
+            payloads.add(round.batch.get(index).payload());
+        }
+        round.sent.addAndGet(chunk.size());
+        return sender.apply(payloads)
+                .completeOnTimeout(DeliveryResult.FAILED, SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .exceptionally(t -> DeliveryResult.FAILED)
+                .thenCompose(outcome -> {
+                    switch (outcome) {
+                        case DELIVERED -> replayed.increment(chunk.size());
+                        case REJECTED -> rejected.increment(chunk.size());
+                        case FAILED -> {
+                            round.failed.set(true);
+                            return CompletableFuture.completedFuture(null);
+                        }
+                    }
+                    for (int index : chunk) {
+                        round.done[index] = true;
+                    }
+                    return send(round, records, from + chunk.size());
+                });
+    }
+
+    /**
+     * Advances the spool over the leading run of done records, remembers the
+     * ones done past it, and lets go of vehicles with nothing left spooled.
+     */
+    private void commit(Round round) {
+        List<Spool.Record> batch = round.batch;
+        boolean[] done = round.done;
+        int run = 0;
+        while (run < done.length && done[run]) {
+            run++;
+        }
+        if (run > 0) {
+            Spool.Record last = batch.get(run - 1);
+            spool.advance(last);
+            long committed = position(last);
+            delivered.removeIf(position -> position <= committed);
+            recovered = Math.min(Math.max(0, recovered - run), spool.pending());
+        }
+        for (int i = run; i < done.length; i++) {
+            if (done[i]) {
+                delivered.add(position(batch.get(i)));
+            }
+        }
+        for (String key : new HashSet<>(Arrays.asList(round.keys))) {
+            if (key != null) {
+                held.computeIfPresent(key, (k, last) -> spool.consumed(last) ? null : last);
+            }
+        }
+    }
+
+    private String key(Spool.Record record) {
+        try {
+            return orderingKey.apply(record.payload());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long position(Spool.Record record) {
+        return record.segment() << 32 | record.end();
+    }
+}
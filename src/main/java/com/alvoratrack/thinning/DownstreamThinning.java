@@ -0,0 +1,140 @@
+package com.alvoratrack.thinning;
+
+import com.alvoratrack.util.CoarseClock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Builds the {@link PositionThinner} in front of each downstream from
+ * {@code thinning.<destination>.*}, plus the quality and timing limits they
+ * share, and runs their sweep.
+ */
+@ApplicationScoped
+public class DownstreamThinning {
+
+    private static final Logger LOG = Logger.getLogger(DownstreamThinning.class);
+
+    public enum Destination {
+        TRACCAR,
+        ALVORACORE,
+        ADMIN;
+
+        public String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "thinning.min-interval", defaultValue = "PT0S")
+    Duration minInterval;
+
+    @ConfigProperty(name = "thinning.min-speed-change-kph", defaultValue = "10")
+    double minSpeedChangeKph;
+
+    @ConfigProperty(name = "thinning.max-accuracy-meters", defaultValue = "100")
+    double maxAccuracyMeters;
+
+    @ConfigProperty(name = "thinning.min-satellites", defaultValue = "4")
+    int minSatellites;
+
+    @ConfigProperty(name = "thinning.evict-after", defaultValue = "PT1H")
+    Duration evictAfter;
+
+    @ConfigProperty(name = "thinning.traccar.enabled", defaultValue = "true")
+    boolean traccarEnabled;
+
+    @ConfigProperty(name = "thinning.traccar.min-distance-meters", defaultValue = "5")
+    double traccarMinDistanceMeters;
+
+    @ConfigProperty(name = "thinning.traccar.min-heading-degrees", defaultValue = "15")
+    double traccarMinHeadingDegrees;
+
+    @ConfigProperty(name = "thinning.traccar.tolerance-meters", defaultValue = "10")
+    double traccarToleranceMeters;
+
+    @ConfigProperty(name = "thinning.traccar.max-interval", defaultValue = "PT60S")
+    Duration traccarMaxInterval;
+
+    @ConfigProperty(name = "thinning.alvoracore.enabled", defaultValue = "true")
+    boolean alvoraCoreEnabled;
+
+    @ConfigProperty(name = "thinning.alvoracore.min-distance-meters", defaultValue = "5")
+    double alvoraCoreMinDistanceMeters;
+
+    @ConfigProperty(name = "thinning.alvoracore.min-heading-degrees", defaultValue = "15")
+    double alvoraCoreMinHeadingDegrees;
+
+    @ConfigProperty(name = "thinning.alvoracore.tolerance-meters", defaultValue = "0")
+    double alvoraCoreToleranceMeters;
+
+    @ConfigProperty(name = "thinning.alvoracore.max-interval", defaultValue = "PT30S")
+    Duration alvoraCoreMaxInterval;
+
+    @ConfigProperty(name = "thinning.admin.enabled", defaultValue = "true")
+    boolean adminEnabled;
+
+    @ConfigProperty(name = "thinning.admin.min-distance-meters", defaultValue = "10")
+    double adminMinDistanceMeters;
+
+    @ConfigProperty(name = "thinning.admin.min-heading-degrees", defaultValue = "20")
+    double adminMinHeadingDegrees;
+
+    @ConfigProperty(name = "thinning.admin.tolerance-meters", defaultValue = "0")
+    double adminToleranceMeters;
+
+    @ConfigProperty(name = "thinning.admin.max-interval", defaultValue = "PT30S")
+    Duration adminMaxInterval;
+
+    private final List<PositionThinner> thinners = new CopyOnWriteArrayList<>();
+
+    /**
+     * A thinner for {@code destination} that hands what it keeps to
+     * {@code sink}.
+     */
+    public PositionThinner create(Destination destination, PositionThinner.Sink sink) {
+        PositionThinner.Settings settings = settings(destination);
+        PositionThinner thinner = new PositionThinner(destination.label(), settings, registry, sink);
+        thinners.add(thinner);
+        if (settings.enabled()) {
+            LOG.infof("Thinning positions for %s - %.0f m, %.0f degrees, %.0f m tolerance, heartbeat %s",
+                    destination.label(), settings.minDistanceMeters(), settings.minHeadingDegrees(),
+                    settings.toleranceMeters(), settings.maxInterval());
+        }
+        return thinner;
+    }
+
+    PositionThinner.Settings settings(Destination destination) {
+        return switch (destination) {
+            case TRACCAR -> settings(traccarEnabled, traccarMinDistanceMeters, traccarMinHeadingDegrees,
+                    traccarToleranceMeters, traccarMaxInterval);
+            case ALVORACORE -> settings(alvoraCoreEnabled, alvoraCoreMinDistanceMeters, alvoraCoreMinHeadingDegrees,
+                    alvoraCoreToleranceMeters, alvoraCoreMaxInterval);
+            case ADMIN -> settings(adminEnabled, adminMinDistanceMeters, adminMinHeadingDegrees,
+                    adminToleranceMeters, adminMaxInterval);
+        };
+    }
+
+    private PositionThinner.Settings settings(boolean enabled, double minDistanceMeters, double minHeadingDegrees,
+                                              double toleranceMeters, Duration maxInterval) {
+        return new PositionThinner.Settings(enabled, minDistanceMeters, minHeadingDegrees, minSpeedChangeKph,
+                toleranceMeters, minInterval, maxInterval, maxAccuracyMeters, minSatellites);
+    }
+
+    @Scheduled(every = "${thinning.sweep-interval:10s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void sweep() {
+        long now = CoarseClock.currentTimeMillis();
+        for (PositionThinner thinner : thinners) {
+            thinner.sweep(now, now - evictAfter.toMillis());
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.alvoratrack.thinning;
+
+import com.alvoratrack.geo.GeoMath;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.CoarseClock;
+import com.alvoratrack.util.SweptState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides which of a vehicle's positions one downstream gets. A position is
+ * always forwarded when it is the first for its vehicle, when
+ * {@code maxInterval} has passed since the last one forwarded (a heartbeat,
+ * even if the fix is poor) or when the ignition or motion flag changed. Of
+ * the rest, poor fixes (accuracy worse than {@code maxAccuracyMeters}, or
+ * fewer than {@code minSatellites} satellites where reported) and positions
+ * within {@code minInterval} of the last forward are dropped; a change of
+ * {@code minSpeedChangeKph} or {@code minHeadingDegrees} is forwarded, and
+ * positions within {@code minDistanceMeters} of the last one kept, or
+ * within their own reported accuracy if that is worse, are dropped.
+ * <p>
+ * With {@code toleranceMeters} above zero, what is left goes through a
+ * streaming Douglas-Peucker pass: the newest position is held back while
+ * every position since the last forward lies within the tolerance (or its
+ * own accuracy) of the straight line to it, and goes out as a corner once
+ * the next position would bend that line too far. A straight run thus
+ * reaches the destination as its two ends. Held positions are also flushed
+ * by a heartbeat or significant change, and by the sweep once the vehicle
+ * has been silent for {@code maxInterval}.
+ * <p>
+ * Positions older than the last one kept, such as a store-and-forward batch
+ * a device uploads after regaining coverage, are thinned the same way on a
+ * separate backfill track, so the destination still gets the gap filled in.
+ * A backfill position from before the run being backfilled starts a new
+ * run.
+ */
+public final class PositionThinner {
+
+    // Below this the reported bearing is mostly noise
+    private static final double HEADING_MIN_SPEED_KPH = 5;
+    private static final int MAX_RUN = 64;
+
+    public record Settings(boolean enabled, double minDistanceMeters, double minHeadingDegrees,
+                           double minSpeedChangeKph, double toleranceMeters, Duration minInterval,
+                           Duration maxInterval, double maxAccuracyMeters, int minSatellites) {
+
+        public static Settings disabled() {
+            return new Settings(false, 0, 0, 0, 0, Duration.ZERO, Duration.ZERO, 0, 0);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * {@code previous} is the position forwarded before this one, or
+         * what the caller passed for a vehicle's first position.
+         */
+        void accept(VehiclePosition position, VehiclePosition previous);
+    }
+
+    private final Settings settings;
+    private final Sink sink;
+    private final long minIntervalSeconds;
+    private final long maxIntervalSeconds;
+    private final ConcurrentMap<String, Track> tracks = new ConcurrentHashMap<>();
+    private final Counter received;
+    private final Counter forwarded;
+
+    public PositionThinner(String destination, Settings settings, MeterRegistry registry, Sink sink) {
+        this.settings = settings;
+        this.sink = sink;
+        this.minIntervalSeconds = settings.minInterval().toSeconds();
+        this.maxIntervalSeconds = settings.maxInterval().toSeconds();
+        Tags tags = Tags.of("destination", destination);
+        this.received = Counter.builder("tracker.thinning.received").tags(tags).register(registry);
+        this.forwarded = Counter.builder("tracker.thinning.forwarded").tags(tags).register(registry);
+        registry.gauge("tracker.thinning.reduction.ratio", tags, this, PositionThinner::reductionRatio);
+        registry.gauge("tracker.thinning.vehicles", tags, tracks, Map::size);
+    }
+
+    public void offer(VehiclePosition position) {
+        offer(position, null);
+    }
+
+    /**
+     * Forwards the position, a held one before it, or nothing.
+     * {@code previous} is handed to the sink with a vehicle's first
+     * position, and with every position when thinning is disabled.
+     */
+    public void offer(VehiclePosition position, VehiclePosition previous) {
+        received.increment();
+        if (!settings.enabled()) {
+            emit(position, previous);
+            return;
+        }
+        SweptState.update(tracks, position.getVehicleId(), id -> new Track(), track -> {
+            track.seenAt = CoarseClock.currentTimeMillis();
+            thin(track, position, previous);
+        });
+    }
+
+    /**
+     * The share of offered positions that were not forwarded.
+     */
+    public double reductionRatio() {
+        double offered = received.count();
+        return offered == 0 ? 0 : 1 - forwarded.count() / offered;
+    }
+
+    /**
+     * Forwards positions held back by vehicles, or backfills, silent since
+     * before {@code maxInterval} ago, and forgets vehicles silent since
+     * {@code evictBefore}.
+     */
+    void sweep(long now, long evictBefore) {
+        long flushBefore = now - settings.maxInterval().toMillis();
+        for (Map.Entry<String, Track> entry : tracks.entrySet()) {
+            Track track = entry.getValue();
+            synchronized (track) {
+                if (track.held != null && track.seenAt < flushBefore) {
+                    forward(track, track.held, null);
+                }
+                if (track.backfill != null && track.backfill.seenAt < flushBefore) {
+                    flushBackfill(track);
+                }
+                if (track.seenAt < evictBefore) {
+                    track.evict(tracks, entry.getKey());
+                }
+            }
+        }
+    }
+
+    private void thin(Track track, VehiclePosition position, VehiclePosition previous) {
+        if (track.sent == null) {
+            forward(track, position, previous);
+            return;
+        }
+        long kept = track.kept().getTimestamp();
+        if (position.getTimestamp() > kept) {
+            reduce(track, position);
+        } else if (position.getTimestamp() < kept) {
+            backfill(track, position);
+        }
+        // The same timestamp again is a repeat
+    }
+
+    private void backfill(Track track, VehiclePosition position) {
+        Track backfill = track.backfill;
+        if (backfill != null) {
+            long kept = backfill.kept().getTimestamp();
+            if (position.getTimestamp() == kept) {
+                return;
+            }
+            if (position.getTimestamp() < kept) {
+                flushBackfill(track);
+                backfill = null;
+            }
+        }
+        if (backfill == null) {
+            track.backfill = new Track();
+            forward(track.backfill, position, null);
+        } else {
+            backfill.seenAt = track.seenAt;
+            reduce(backfill, position);
+        }
+    }
+
+    private void flushBackfill(Track track) {
+        Track backfill = track.backfill;
+        if (backfill != null) {
+            if (backfill.held != null) {
+                forward(backfill, backfill.held, null);
+            }
+            track.backfill = null;
+        }
+    }
+
+    /**
+     * Thins a position newer than everything the track has kept.
+     */
+    private void reduce(Track track, VehiclePosition position) {
+        VehiclePosition sent = track.sent;
+        VehiclePosition kept = track.kept();
+        long elapsed = position.getTimestamp() - sent.getTimestamp();
+        if (elapsed >= maxIntervalSeconds || flagsChanged(sent, position)) {
+            settle(track, position);
+            return;
+        }
+        if (poor(position) || elapsed < minIntervalSeconds) {
+            return;
+        }
+        if (turnedOrChangedSpeed(sent, position)) {
+            settle(track, position);
+            return;
+        }
+        double deadband = Math.max(settings.minDistanceMeters(), position.getAccuracy());
+        if (GeoMath.distanceMeters(kept.getLatitude(), kept.getLongitude(),
+                position.getLatitude(), position.getLongitude()) < deadband) {
+            return;
+        }
+        if (settings.toleranceMeters() <= 0) {
+            forward(track, position, null);
+        } else if (track.held == null) {
+            track.held = position;
+        } else if (track.runLength < MAX_RUN && fits(track, position)) {
+            track.append(track.held, tolerance(track.held));
+            track.held = position;
+        } else {
+            // The held position is a corner of the simplified line
+            forward(track, track.held, null);
+            track.held = position;
+        }
+    }
+
+    /**
+     * Forwards the position, preceded by the held one unless the line to
+     * the position still covers it.
+     */
+    private void settle(Track track, VehiclePosition position) {
+        if (track.held != null && !fits(track, position)) {
+            forward(track, track.held, null);
+        }
+        forward(track, position, null);
+    }
+
+    private void forward(Track track, VehiclePosition position, VehiclePosition previous) {
+        VehiclePosition before = track.sent != null ? track.sent : previous;
+        track.sent = position;
+        track.held = null;
+        track.runLength = 0;
+        emit(position, before);
+    }
+
+    private void emit(VehiclePosition position, VehiclePosition previous) {
+        forwarded.increment();
+        sink.accept(position, previous);
+    }
+
+    private boolean poor(VehiclePosition position) {
+        return settings.maxAccuracyMeters() > 0 && position.getAccuracy() > settings.maxAccuracyMeters()
+                || position.getSatellites() > 0 && position.getSatellites() < settings.minSatellites();
+    }
+
+    private static boolean flagsChanged(VehiclePosition sent, VehiclePosition position) {
+        return sent.getIgnition() != position.getIgnition() || sent.getMotion() != position.getMotion();
+    }
+
+    private boolean turnedOrChangedSpeed(VehiclePosition sent, VehiclePosition position) {
+        if (settings.minSpeedChangeKph() > 0
+                && Math.abs(position.getSpeedKph() - sent.getSpeedKph()) >= settings.minSpeedChangeKph()) {
+            return true;
+        }
+        if (settings.minHeadingDegrees() <= 0
+                || sent.getSpeedKph() < HEADING_MIN_SPEED_KPH || position.getSpeedKph() < HEADING_MIN_SPEED_KPH) {
+            return false;
+        }
+        int turn = Math.abs(position.getBearing() - sent.getBearing()) % 360;
+        return Math.min(turn, 360 - turn) >= settings.minHeadingDegrees();
+    }
+
+    private double tolerance(VehiclePosition position) {
+        return Math.max(settings.toleranceMeters(), position.getAccuracy());
+    }
+
+    /**
+     * Whether the held position and the run before it all lie within their
+     * tolerance of the line from the last forwarded position to {@code end}.
+     * Distances are measured on a local flat projection around the start,
+     * which is exact enough over the length of a run.
+     */
+    private boolean fits(Track track, VehiclePosition end) {
+        VehiclePosition start = track.sent;
+        double cos = Math.cos(Math.toRadians(start.getLatitude()));
+        double endX = eastMeters(start, end.getLongitude(), cos);
+        double endY = northMeters(start, end.getLatitude());
+        double[] run = track.run;
+        for (int i = 0; i < track.runLength * 3; i += 3) {
+            if (!near(eastMeters(start, run[i + 1], cos), northMeters(start, run[i]), endX, endY, run[i + 2])) {
+                return false;
+            }
+        }
+        VehiclePosition held = track.held;
+        return held == null || near(eastMeters(start, held.getLongitude(), cos),
+                northMeters(start, held.getLatitude()), endX, endY, tolerance(held));
+    }
+
+    private static boolean near(double x, double y, double endX, double endY, double tolerance) {
+        double lengthSquared = endX * endX + endY * endY;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (x * endX + y * endY) / lengthSquared));
+        double dx = x - t * endX;
+        double dy = y - t * endY;
+        return dx * dx + dy * dy <= tolerance * tolerance;
+    }
+
+    private static double eastMeters(VehiclePosition origin, double longitude, double cos) {
+        double degrees = longitude - origin.getLongitude();
+        if (degrees > 180) {
+            degrees -= 360;
+        } else if (degrees < -180) {
+            degrees += 360;
+        }
+        return Math.toRadians(degrees) * cos * GeoMath.EARTH_RADIUS_METERS;
+    }
+
+    private static double northMeters(VehiclePosition origin, double latitude) {
+        return Math.toRadians(latitude - origin.getLatitude()) * GeoMath.EARTH_RADIUS_METERS;
+    }
+
+    /**
+     * The last position forwarded for a vehicle, the one held back, and
+     * the positions between them as {@code latitude, longitude, tolerance}
+     * triples, plus the track of a backfill in progress.
+     */
+    private static final class Track extends SweptState {
+        VehiclePosition sent;
+        VehiclePosition held;
+        double[] run;
+        int runLength;
+        Track backfill;
+        long seenAt = CoarseClock.currentTimeMillis();
+
+        VehiclePosition kept() {
+            return held != null ? held : sent;
+        }
+
+        void append(VehiclePosition position, double tolerance) {
+            if (run == null) {
+                // Only destinations that simplify ever need it
+                run = new double[MAX_RUN * 3];
+            }
+            int at = runLength * 3;
+            run[at] = position.getLatitude();
+            run[at + 1] = position.getLongitude();
+            run[at + 2] = tolerance;
+            runLength++;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.alvoratrack.util;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.jboss.logging.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall clock refreshed every {@value #TICK_MILLIS} ms, for hot paths that
+ * only need second-level precision. The refreshing thread runs from startup
+ * to shutdown; outside that, and in plain unit tests, reads fall through to
+ * {@link System#currentTimeMillis()}.
+ */
+@ApplicationScoped
+public class CoarseClock {
+
+    private static final Logger LOG = Logger.getLogger(CoarseClock.class);
+
+    static final long TICK_MILLIS = 10;
+
+    // 0 while no ticker is running
+    private static volatile long now;
+
+    Thread ticker;
+
+    void onStart(@Observes StartupEvent event) {
+        start();
+    }
+
+    synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        now = System.currentTimeMillis();
+        ticker = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                now = System.currentTimeMillis();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(TICK_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+        LOG.debugf("Coarse clock started - %d ms tick", TICK_MILLIS);
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        if (ticker == null) {
+            return;
+        }
+        ticker.interrupt();
+        try {
+            ticker.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ticker = null;
+        now = 0;
+    }
+
+    public static long currentTimeMillis() {
+        long millis = now;
+        return millis != 0 ? millis : System.currentTimeMillis();
+    }
+
+    public static long currentTimeSeconds() {
+        return currentTimeMillis() / 1000;
+    }
+}
@@ -0,0 +1,29 @@
+package com.alvoratrack.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+public final class ConcurrentMaps {
+
+    private ConcurrentMaps() {
+    }
+
+    /**
+     * Removes and returns every value in {@code map}. Values are removed key
+     * by key rather than by {@code clear()}, so one put while the drain runs
+     * is either returned or left in the map for the next drain, never lost.
+     */
+    public static <K, V> List<V> drain(ConcurrentMap<K, V> map) {
+        List<V> values = new ArrayList<>(map.size());
+        Iterator<K> it = map.keySet().iterator();
+        while (it.hasNext()) {
+            V value = map.remove(it.next());
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+}
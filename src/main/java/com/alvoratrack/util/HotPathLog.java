@@ -0,0 +1,104 @@
+package com.alvoratrack.util;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gates per-position logging. Vehicles switched into debug are always logged;
+ * everything else is sampled at debug level, and reject warnings are capped
+ * per second so a misbehaving device cannot flood the log.
+ */
+@ApplicationScoped
+public class HotPathLog {
+
+    @ConfigProperty(name = "logging.hot-path.debug-vehicles")
+    Optional<List<String>> initialDebugVehicles;
+
+    @ConfigProperty(name = "logging.hot-path.sample-every", defaultValue = "1000")
+    int sampleEvery;
+
+    @ConfigProperty(name = "logging.hot-path.max-warnings-per-second", defaultValue = "10")
+    int maxWarningsPerSecond;
+
+    private final Set<String> debugVehicles = ConcurrentHashMap.newKeySet();
+    private final AtomicLong warningSecond = new AtomicLong();
+    private final AtomicInteger warningsThisSecond = new AtomicInteger();
+
+    @PostConstruct
+    void init() {
+        initialDebugVehicles.ifPresent(debugVehicles::addAll);
+    }
+
+    /**
+     * True if this vehicle was switched into debug logging.
+     */
+    public boolean traced(String vehicleId) {
+        return !debugVehicles.isEmpty() && debugVehicles.contains(vehicleId);
+    }
+
+    /**
+     * True for roughly one call in {@code sample-every}.
+     */
+    public boolean sampled() {
+        return sampleEvery <= 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+    }
+
+    /**
+     * True while this second's warning budget lasts.
+     */
+    public boolean allowWarning() {
+        long second = CoarseClock.currentTimeSeconds();
+        long current = warningSecond.get();
+        if (current != second && warningSecond.compareAndSet(current, second)) {
+            warningsThisSecond.set(0);
+        }
+        return warningsThisSecond.incrementAndGet() <= maxWarningsPerSecond;
+    }
+
+    /**
+     * Logs an accepted position: at INFO for traced vehicles, otherwise at
+     * DEBUG for a sample of positions.
+     */
+    public void accepted(Logger log, String event, VehiclePosition position) {
+        if (traced(position.getVehicleId())) {
+            log.infof("%s - Vehicle: %s, Lat: %s, Lon: %s, Speed: %s km/h, Timestamp: %s", event,
+                    position.getVehicleId(), position.getLatitude(), position.getLongitude(),
+                    position.getSpeedKph(), position.getTimestamp());
+        } else if (log.isDebugEnabled() && sampled()) {
+            log.debugf("%s (sampled) - Vehicle: %s", event, position.getVehicleId());
+        }
+    }
+
+    /**
+     * Logs a rejected position at WARN, within the per-second budget unless
+     * the vehicle is traced.
+     */
+    public void rejected(Logger log, String reason, VehiclePosition position) {
+        if (traced(position.getVehicleId()) || allowWarning()) {
+            log.warnf("Rejected position for %s: %s", position.getVehicleId(), reason);
+        }
+    }
+
+    public Set<String> debugVehicles() {
+        return Set.copyOf(debugVehicles);
+    }
+
+    public void enableDebug(String vehicleId) {
+        debugVehicles.add(vehicleId);
+    }
+
+    public void disableDebug(String vehicleId) {
+        debugVehicles.remove(vehicleId);
+    }
+}
@@ -0,0 +1,316 @@
+package com.alvoratrack.util;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+
+/**
+ * Runs after {@link PositionValidator} and drops fixes that should not reach
+ * the cache or downstreams: exact repeats of the last accepted fix, fixes
+ * older than it, and fixes beyond a vehicle's token-bucket rate. A fix with
+ * the same timestamp as the last one but a different position is accepted,
+ * subject to the rate limit. Batch entries are checked separately by
+ * {@link #checkBatch}, so a device can still upload fixes from before its
+ * last live report.
+ * <p>
+ * Per-vehicle state lives in striped open-addressing tables of primitive
+ * arrays keyed by a 64-bit hash of the vehicle ID, so a check allocates
+ * nothing once the vehicle is known. Vehicles idle for longer than
+ * {@code idle-after} are swept out.
+ */
+@ApplicationScoped
+public class IngestFilter {
+
+    public enum Verdict {
+        ACCEPT,
+        DUPLICATE,
+        STALE,
+        RATE_LIMITED
+    }
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "ingest.filter.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "ingest.filter.stripes", defaultValue = "64")
+    int stripeCount;
+
+    @ConfigProperty(name = "ingest.filter.rate-limit.enabled", defaultValue = "true")
+    boolean rateLimitEnabled;
+
+    @ConfigProperty(name = "ingest.filter.rate-limit.per-second", defaultValue = "5")
+    double perSecond;
+
+    @ConfigProperty(name = "ingest.filter.rate-limit.burst", defaultValue = "20")
+    double burst;
+
+    @ConfigProperty(name = "ingest.filter.idle-after", defaultValue = "PT10M")
+    Duration idleAfter;
+
+    private Stripe[] stripes;
+    private Counter duplicates;
+    private Counter stale;
+    private Counter rateLimited;
+
+    @PostConstruct
+    void init() {
+        stripes = new Stripe[Integer.highestOneBit(Math.max(1, stripeCount))];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(64);
+        }
+        duplicates = dropCounter("duplicate");
+        stale = dropCounter("stale");
+        rateLimited = dropCounter("rate_limited");
+        registry.gauge("tracker.ingest.filter.vehicles", Tags.empty(), this, IngestFilter::size);
+    }
+
+    public Verdict check(VehiclePosition position) {
+        if (!enabled) {
+            return Verdict.ACCEPT;
+        }
+        long key = hash(position.getVehicleId());
+        Stripe stripe = stripes[(int) (key >>> 32) & (stripes.length - 1)];
+        Verdict verdict;
+        synchronized (stripe) {
+            verdict = stripe.check(key, position, System.nanoTime());
+        }
+        switch (verdict) {
+            case DUPLICATE -> duplicates.increment();
+            case STALE -> stale.increment();
+            case RATE_LIMITED -> rateLimited.increment();
+            default -> {
+            }
+        }
+        return verdict;
+    }
+
+    /**
+     * Checks one entry of an uploaded batch, in timestamp order per vehicle.
+     * Batches may reach back before the vehicle's last live report, so only
+     * what was already taken is dropped: entries at or before the newest one
+     * an earlier batch delivered, as when a device resends a batch whose ack
+     * it lost, and exact repeats of the last live fix. Batches are not rate
+     * limited.
+     */
+    public Verdict checkBatch(VehiclePosition position) {
+        if (!enabled) {
+            return Verdict.ACCEPT;
+        }
+        long key = hash(position.getVehicleId());
+        Stripe stripe = stripes[(int) (key >>> 32) & (stripes.length - 1)];
+        Verdict verdict;
+        synchronized (stripe) {
+            verdict = stripe.checkBatch(key, position, System.nanoTime());
+        }
+        if (verdict == Verdict.DUPLICATE) {
+            duplicates.increment();
+        }
+        return verdict;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    @Scheduled(every = "${ingest.filter.sweep-interval:60s}")
+    void sweep() {
+        long idleBefore = System.nanoTime() - idleAfter.toNanos();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.evictIdle(idleBefore);
+            }
+        }
+    }
+
+    private Counter dropCounter(String reason) {
+        return Counter.builder("tracker.ingest.filter.dropped")
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    /**
+     * FNV-1a over the ID's chars with a SplitMix64 finaliser; never returns 0,
+     * which marks an empty slot.
+     */
+    static long hash(String vehicleId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < vehicleId.length(); i++) {
+            h ^= vehicleId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 30;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 27;
+        h *= 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return h == 0 ? 1 : h;
+    }
+
+    private final class Stripe {
+
+        private long[] keys;
+        private long[] timestamps;
+        private double[] latitudes;
+        private double[] longitudes;
+        private long[] batchTimestamps;
+        private double[] batchLatitudes;
+        private double[] batchLongitudes;
+        private double[] tokens;
+        private long[] lastSeen;
+        private int size;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        Verdict check(long key, VehiclePosition position, long now) {
+            int slot = claim(key, now);
+            long timestamp = position.getTimestamp();
+            // Timestamps are whole seconds: a second fix within the same one only repeats if it is in the same place
+            if (timestamp < timestamps[slot]
+                    || timestamp == timestamps[slot] && latitudes[slot] == position.getLatitude()
+                    && longitudes[slot] == position.getLongitude()) {
+                // Still reporting, so keep the vehicle's state out of the idle sweep
+                refill(slot, now);
+                return timestamp < timestamps[slot] ? Verdict.STALE : Verdict.DUPLICATE;
+            }
+
+            refill(slot, now);
+            if (rateLimitEnabled) {
+                if (tokens[slot] < 1) {
+                    return Verdict.RATE_LIMITED;
+                }
+                tokens[slot] -= 1;
+            }
+            timestamps[slot] = timestamp;
+            latitudes[slot] = position.getLatitude();
+            longitudes[slot] = position.getLongitude();
+            return Verdict.ACCEPT;
+        }
+
+        Verdict checkBatch(long key, VehiclePosition position, long now) {
+            int slot = claim(key, now);
+            refill(slot, now);
+            long timestamp = position.getTimestamp();
+            if (timestamp == timestamps[slot] && latitudes[slot] == position.getLatitude()
+                    && longitudes[slot] == position.getLongitude()) {
+                return Verdict.DUPLICATE;
+            }
+            if (timestamp < batchTimestamps[slot]
+                    || timestamp == batchTimestamps[slot] && batchLatitudes[slot] == position.getLatitude()
+                    && batchLongitudes[slot] == position.getLongitude()) {
+                return Verdict.DUPLICATE;
+            }
+            batchTimestamps[slot] = timestamp;
+            batchLatitudes[slot] = position.getLatitude();
+            batchLongitudes[slot] = position.getLongitude();
+            return Verdict.ACCEPT;
+        }
+
+        /**
+         * Returns the vehicle's slot, claiming an empty one if it is new.
+         */
+        private int claim(long key, long now) {
+            int slot = find(key);
+            if (keys[slot] == 0) {
+                if ((size + 1) * 2 > keys.length) {
+                    rehash(keys.length * 2, false, 0);
+                    slot = find(key);
+                }
+                keys[slot] = key;
+                tokens[slot] = burst;
+                lastSeen[slot] = now;
+                timestamps[slot] = Long.MIN_VALUE;
+                batchTimestamps[slot] = Long.MIN_VALUE;
+                size++;
+            }
+            return slot;
+        }
+
+        /**
+         * Credits the tokens earned since the vehicle was last seen and marks
+         * it seen now.
+         */
+        private void refill(int slot, long now) {
+            if (rateLimitEnabled) {
+                tokens[slot] = Math.min(burst, tokens[slot] + (now - lastSeen[slot]) * perSecond / 1e9);
+            }
+            lastSeen[slot] = now;
+        }
+
+        void evictIdle(long idleBefore) {
+            int capacity = keys.length;
+            while (capacity > 64 && size * 4 < capacity) {
+                capacity >>>= 1;
+            }
+            rehash(capacity, true, idleBefore);
+        }
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash(int capacity, boolean evict, long idleBefore) {
+            long[] oldKeys = keys;
+            long[] oldTimestamps = timestamps;
+            double[] oldLatitudes = latitudes;
+            double[] oldLongitudes = longitudes;
+            long[] oldBatchTimestamps = batchTimestamps;
+            double[] oldBatchLatitudes = batchLatitudes;
+            double[] oldBatchLongitudes = batchLongitudes;
+            double[] oldTokens = tokens;
+            long[] oldLastSeen = lastSeen;
+            allocate(capacity);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0 || (evict && oldLastSeen[i] - idleBefore < 0)) {
+                    continue;
+                }
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                timestamps[slot] = oldTimestamps[i];
+                latitudes[slot] = oldLatitudes[i];
+                longitudes[slot] = oldLongitudes[i];
+                batchTimestamps[slot] = oldBatchTimestamps[i];
+                batchLatitudes[slot] = oldBatchLatitudes[i];
+                batchLongitudes[slot] = oldBatchLongitudes[i];
+                tokens[slot] = oldTokens[i];
+                lastSeen[slot] = oldLastSeen[i];
+                size++;
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            timestamps = new long[capacity];
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            batchTimestamps = new long[capacity];
+            batchLatitudes = new double[capacity];
+            batchLongitudes = new double[capacity];
+            tokens = new double[capacity];
+            lastSeen = new long[capacity];
+        }
+    }
+}
@@ -2,41 +2,33 @@ package com.alvoratrack.util;
 
 import com.alvoratrack.grpc.VehiclePosition;
 import jakarta.enterprise.context.ApplicationScoped;
-import org.jboss.logging.Logger;
-
-import java.time.Duration;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.util.TimeZone;
 
+/**
+ * Range checks run on every inbound position. Returns a
+ * {@link ValidationResult} code rather than logging, so a rejection costs no
+ * allocation; callers decide what is worth logging.
+ */
 @ApplicationScoped
 public class PositionValidator {
 
-    private static Logger Log = Logger.getLogger(PositionValidator.class);
+    private static final long MAX_CLOCK_SKEW_SECONDS = 60;
 
-    public String validatePosition(VehiclePosition position){
+    public ValidationResult validate(VehiclePosition position) {
         if (position.getVehicleId().isBlank()) {
-            Log.errorf("Invalid Vehicle ID: %s", position.getVehicleId());
-            return "Invalid Vehicle ID";
+            return ValidationResult.INVALID_VEHICLE_ID;
         }
-        if (position.getLatitude() > 90 || position.getLatitude() < -90){
-            Log.errorf("Invalid Latitude: %f", position.getLatitude());
-            return "Invalid Latitude";
+        if (position.getLatitude() > 90 || position.getLatitude() < -90) {
+            return ValidationResult.INVALID_LATITUDE;
         }
-        if (position.getLongitude() > 180 || position.getLongitude() < -180){
-            Log.errorf("Invalid Longitude: %f", position.getLatitude());
-            return "Invalid Longitude";
+        if (position.getLongitude() > 180 || position.getLongitude() < -180) {
+            return ValidationResult.INVALID_LONGITUDE;
         }
         if (position.getSpeedKph() > 300) {
-            Log.errorf("Invalid Speed (very big): %f", position.getSpeedKph());
-            return "Invalid Speed";
+            return ValidationResult.INVALID_SPEED;
         }
-        long currentTime = System.currentTimeMillis() / 1000;
-        if (position.getTimestamp() > currentTime + 60) {
-            Log.errorf("Invalid Timestamp (future): %d", position.getTimestamp());
-            return "Invalid Timestamp";
+        if (position.getTimestamp() > CoarseClock.currentTimeSeconds() + MAX_CLOCK_SKEW_SECONDS) {
+            return ValidationResult.INVALID_TIMESTAMP;
         }
-
-        return null;
+        return ValidationResult.VALID;
     }
 }
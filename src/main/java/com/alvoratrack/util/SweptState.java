@@ -0,0 +1,52 @@
+package com.alvoratrack.util;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Per-vehicle state kept in a concurrent map, updated under its own monitor
+ * and dropped by a sweep. The sweep marks the state evicted under that
+ * monitor as it removes it, so a writer that fetched it just before can
+ * tell it lost the race and retry on the state that replaced it, instead of
+ * updating one that is no longer in the map.
+ */
+public abstract class SweptState {
+
+    private boolean evicted;
+
+    /**
+     * Runs {@code action} under the monitor of the state for {@code key},
+     * created with {@code create} if there is none.
+     */
+    public static <K, S extends SweptState> void update(ConcurrentMap<K, S> map, K key,
+                                                         Function<? super K, ? extends S> create,
+                                                         Consumer<? super S> action) {
+        while (true) {
+            S state = map.computeIfAbsent(key, create);
+            synchronized (state) {
+                if (!((SweptState) state).evicted) {
+                    action.accept(state);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the state evicted, for a sweep that removes it itself. Call
+     * under its monitor.
+     */
+    public final void evict() {
+        evicted = true;
+    }
+
+    /**
+     * Marks the state evicted and removes it from {@code map}. Call under
+     * its monitor.
+     */
+    public final <K> void evict(ConcurrentMap<K, ?> map, K key) {
+        evicted = true;
+        map.remove(key, this);
+    }
+}
@@ -0,0 +1,43 @@
+package com.alvoratrack.util;
+
+import com.alvoratrack.grpc.PositionAck;
+
+/**
+ * Outcome of {@link PositionValidator}. Each failure carries the reject ack
+ * prebuilt, so rejecting only has to stamp the vehicle ID.
+ */
+public enum ValidationResult {
+    VALID(null),
+    INVALID_VEHICLE_ID("Invalid Vehicle ID"),
+    INVALID_LATITUDE("Invalid Latitude"),
+    INVALID_LONGITUDE("Invalid Longitude"),
+    INVALID_SPEED("Invalid Speed"),
+    INVALID_TIMESTAMP("Invalid Timestamp");
+
+    private final String message;
+    private final PositionAck ack;
+
+    ValidationResult(String message) {
+        this.message = message;
+        this.ack = message == null ? null : PositionAck.newBuilder()
+                .setReceived(false)
+                .setStatus("invalid")
+                .setMessage(message)
+                .build();
+    }
+
+    public boolean isValid() {
+        return this == VALID;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    /**
+     * The reject ack for this result; for {@link #VALID} there is none.
+     */
+    public PositionAck ack(String vehicleId) {
+        return ack.toBuilder().setVehicleId(vehicleId).build();
+    }
+}
@@ -0,0 +1,233 @@
+package com.alvoratrack.websocket;
+
+import com.alvoratrack.geo.BoundingBox;
+import com.alvoratrack.geo.SpatialIndex;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.ConcurrentMaps;
+import com.alvoratrack.util.Json;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Vertx;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Coalesces position updates for admin fleet dashboards. Updates are kept
+ * per vehicle (last write wins) and flushed once per tick. Each position is
+ * encoded once per tick: connections without a {@link Viewport} share one
+ * frame, while viewport frames copy only the encoded positions they match
+ * and list the vehicles that moved out of view under {@code left}.
+ */
+@ApplicationScoped
+public class AdminFleetBroadcaster {
+
+    private static final Logger LOG = Logger.getLogger(AdminFleetBroadcaster.class);
+    private static final String POSITIONS_FRAME = "{\"type\":\"positions\",\"positions\":[";
+    private static final BoundingBox WORLD = new BoundingBox(-90, -180, 90, 180);
+
+    @Inject
+    ConnectionManager connections;
+
+    @Inject
+    SpatialIndex index;
+
+    @Inject
+    Vertx vertx;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "websocket.admin-fleet.tick-ms", defaultValue = "250")
+    long tickMillis;
+
+    @ConfigProperty(name = "websocket.admin-fleet.snapshot-limit", defaultValue = "50000")
+    int snapshotLimit;
+
+    private final ConcurrentMap<String, Update> pending = new ConcurrentHashMap<>();
+
+    private long timerId = -1;
+    private Counter frames;
+    private Counter coalesced;
+    private Counter dropped;
+    private Counter filtered;
+    private DistributionSummary batchSize;
+
+    void onStart(@Observes StartupEvent event) {
+        frames = Counter.builder("tracker.admin.fleet.frames").register(registry);
+        coalesced = Counter.builder("tracker.admin.fleet.updates").tag("outcome", "coalesced").register(registry);
+        dropped = Counter.builder("tracker.admin.fleet.updates").tag("outcome", "dropped").register(registry);
+        filtered = Counter.builder("tracker.admin.fleet.updates").tag("outcome", "filtered").register(registry);
+        batchSize = DistributionSummary.builder("tracker.admin.fleet.batch.size").register(registry);
+        registry.gauge("tracker.admin.fleet.pending", pending, Map::size);
+
+        timerId = vertx.setPeriodic(tickMillis, id -> flush());
+        LOG.infof("Admin fleet broadcaster started - tick %d ms", tickMillis);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+        }
+    }
+
+    /**
+     * Queues a position for the next tick. {@code previous} is the position
+     * it replaced in the {@link SpatialIndex}, used to tell viewports the
+     * vehicle left them.
+     */
+    public void submit(VehiclePosition position, VehiclePosition previous) {
+        if (connections.getAdminFleetConnectionCount() == 0) {
+            dropped.increment();
+            return;
+        }
+        Update update = new Update(position, previous);
+        // A coalesced update keeps the position the dashboards last saw
+        if (pending.merge(position.getVehicleId(), update,
+                (queued, next) -> new Update(next.latest(), queued.previous())) != update) {
+            coalesced.increment();
+        }
+    }
+
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<Update> updates = ConcurrentMaps.drain(pending);
+
+        int count = updates.size();
+        if (count == 0) {
+            return;
+        }
+        if (connections.getAdminFleetConnectionCount() == 0) {
+            dropped.increment(count);
+            return;
+        }
+
+        StringBuilder all = new StringBuilder(64 + count * 128);
+        all.append(POSITIONS_FRAME);
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                all.append(',');
+            }
+            starts[i] = all.length();
+            appendPosition(all, updates.get(i).latest());
+            ends[i] = all.length();
+        }
+        all.append("]}");
+
+        String fleetFrame = null;
+        for (ConnectionManager.AdminSubscriber subscriber : connections.adminSubscribers()) {
+            Viewport viewport = subscriber.viewport;
+            if (viewport == null) {
+                if (fleetFrame == null) {
+                    fleetFrame = all.toString();
+                    frames.increment();
+                }
+                subscriber.channel.offer(null, fleetFrame);
+                continue;
+            }
+            String frame = viewportFrame(viewport, updates, all, starts, ends);
+            if (frame != null) {
+                subscriber.channel.offer(null, frame);
+                frames.increment();
+            }
+        }
+        batchSize.record(count);
+    }
+
+    private String viewportFrame(Viewport viewport, List<Update> updates, StringBuilder all,
+                                 int[] starts, int[] ends) {
+        StringBuilder frame = null;
+        StringBuilder left = null;
+        int included = 0;
+        for (int i = 0; i < updates.size(); i++) {
+            Update update = updates.get(i);
+            if (viewport.matches(update.latest())) {
+                if (frame == null) {
+                    frame = new StringBuilder(1024).append(POSITIONS_FRAME);
+                } else {
+                    frame.append(',');
+                }
+                frame.append(all, starts[i], ends[i]);
+                included++;
+            } else if (update.previous() != null && viewport.matches(update.previous())) {
+                left = left == null ? new StringBuilder() : left.append(',');
+                Json.appendString(left, update.latest().getVehicleId());
+            }
+        }
+        filtered.increment(updates.size() - included);
+        if (frame == null && left == null) {
+            return null;
+        }
+        if (frame == null) {
+            frame = new StringBuilder(64 + left.length()).append(POSITIONS_FRAME);
+        }
+        frame.append(']');
+        if (left != null) {
+            frame.append(",\"left\":[").append(left).append(']');
+        }
+        return frame.append('}').toString();
+    }
+
+    /**
+     * The current positions a viewport covers, read from the
+     * {@link SpatialIndex}; the whole fleet for {@code null}. Capped at
+     * {@code snapshot-limit} positions.
+     */
+    String snapshot(Viewport viewport) {
+        StringBuilder frame = new StringBuilder(4096).append("{\"type\":\"snapshot\",\"positions\":[");
+        int[] count = new int[1];
+        if (viewport != null && viewport.box() == null) {
+            for (String vehicleId : viewport.vehicles()) {
+                VehiclePosition position = index.get(vehicleId);
+                if (position != null && count[0] < snapshotLimit) {
+                    appendSnapshot(frame, position, count);
+                }
+            }
+        } else {
+            BoundingBox box = viewport == null ? WORLD : viewport.box();
+            index.forEachWithin(box, position -> {
+                if (count[0] < snapshotLimit && (viewport == null || viewport.matches(position))) {
+                    appendSnapshot(frame, position, count);
+                }
+            });
+        }
+        return frame.append("]}").toString();
+    }
+
+    private static void appendSnapshot(StringBuilder frame, VehiclePosition position, int[] count) {
+        if (count[0]++ > 0) {
+            frame.append(',');
+        }
+        appendPosition(frame, position);
+    }
+
+    static void appendPosition(StringBuilder frame, VehiclePosition position) {
+        frame.append("{\"vehicleId\":");
+        Json.appendString(frame, position.getVehicleId());
+        frame.append(",\"latitude\":").append(position.getLatitude())
+                .append(",\"longitude\":").append(position.getLongitude())
+                .append(",\"speedKph\":").append(position.getSpeedKph())
+                .append(",\"bearing\":").append(position.getBearing())
+                .append(",\"timestamp\":").append(position.getTimestamp())
+                .append('}');
+    }
+
+    private record Update(VehiclePosition latest, VehiclePosition previous) {
+    }
+}
@@ -1,31 +1,75 @@
 package com.alvoratrack.websocket;
 
+import com.alvoratrack.util.Json;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.websockets.next.*;
+import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 
+/**
+ * Admin fleet dashboards. Every client starts with the whole fleet; sending
+ * {@code {"type":"subscribe", ...}} with a bounding box, a centre and zoom
+ * level and/or a list of vehicles narrows it to a {@link Viewport}, and
+ * {@code {"type":"unsubscribe"}} widens it again. Both are answered with a
+ * snapshot of the positions now in view, queued ahead of later updates.
+ */
 @WebSocket(path = "/ws/admin/fleet")
 public class AdminFleetWebSocket {
 
     private static final Logger LOG = Logger.getLogger(AdminFleetWebSocket.class);
 
+    @Inject
+    ConnectionManager connectionManager;
+
+    @Inject
+    AdminFleetBroadcaster broadcaster;
+
+    @Inject
+    ObjectMapper mapper;
+
     @OnOpen
     public void onOpen(WebSocketConnection connection) {
+        connectionManager.registerAdmin(connection);
         LOG.infof("Admin fleet client connected: %s", connection.id());
     }
 
     @OnClose
     public void onClose(WebSocketConnection connection) {
+        connectionManager.unregisterAdmin(connection);
         LOG.infof("Admin fleet client disconnected: %s", connection.id());
     }
 
     @OnTextMessage
-    public String onMessage(String message, WebSocketConnection connection) {
-        LOG.infof("Message from admin client %s: %s", connection.id(), message);
-        return "{\"status\": \"received\", \"type\": \"admin\"}";
+    public void onMessage(String message, WebSocketConnection connection) {
+        LOG.debugf("Message from admin client %s: %s", connection.id(), message);
+        String reply;
+        try {
+            JsonNode json = mapper.readTree(message);
+            String type = json.path("type").asText();
+            if ("subscribe".equals(type)) {
+                reply = subscribe(connection, Viewport.parse(json));
+            } else if ("unsubscribe".equals(type)) {
+                reply = subscribe(connection, null);
+            } else {
+                reply = "{\"status\": \"received\", \"type\": \"admin\"}";
+            }
+        } catch (Exception e) {
+            StringBuilder error = new StringBuilder("{\"type\":\"error\",\"message\":");
+            reply = Json.appendString(error, String.valueOf(e.getMessage())).append('}').toString();
+        }
+        connectionManager.sendToAdmin(connection, reply);
     }
 
     @OnError
     public void onError(WebSocketConnection connection, Throwable error) {
         LOG.errorf("Error on admin fleet connection %s: %s", connection.id(), error.getMessage());
     }
+
+    private String subscribe(WebSocketConnection connection, Viewport viewport) {
+        // Set the viewport first so no update between snapshot and first frame is missed
+        connectionManager.setAdminViewport(connection, viewport);
+        LOG.debugf("Admin client %s viewport: %s", connection.id(), viewport);
+        return broadcaster.snapshot(viewport);
+    }
 }
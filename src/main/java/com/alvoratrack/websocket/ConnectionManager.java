@@ -1,72 +1,211 @@
 package com.alvoratrack.websocket;
 
-import io.quarkus.websockets.next.OpenConnections;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.Json;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.websockets.next.WebSocketConnection;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of open WebSocket connections, indexed by vehicle ID for
+ * {@link VehicleWebSocket} subscribers with a separate set for
+ * {@link AdminFleetWebSocket} clients. Populated from the endpoints'
+ * open/close callbacks. Every connection writes through its own bounded
+ * {@link OutboundChannel}, so a slow client only backs up its own queue.
+ * Admin clients may narrow what they receive with a {@link Viewport}.
+ */
 @ApplicationScoped
 public class ConnectionManager {
 
     private static final Logger LOG = Logger.getLogger(ConnectionManager.class);
 
     @Inject
-    OpenConnections connections;
+    MeterRegistry registry;
 
-    public void sendToVehicle(String vehicleId, String message) {
-        long count = connections.stream().count();
-        LOG.infof("Sending to vehicle %s, Total connections: %d", vehicleId, count);
-
-        connections.forEach(conn -> {
-            String connVehicleId = conn.pathParam("vehicleId");
-            LOG.infof("Checking connection: %s, pathParam vehicleId: %s", conn.id(), connVehicleId);
-
-            if (vehicleId.equals(connVehicleId)) {
-                LOG.infof("Match found! Sending to %s", connVehicleId);
-                conn.sendText(message).subscribe().with(
-                        success -> LOG.debugf("Message sent to %s", vehicleId),
-                        failure -> LOG.errorf("Failed to send to %s: %s", vehicleId, failure.getMessage())
-                );
+    @ConfigProperty(name = "websocket.vehicle.queue-capacity", defaultValue = "64")
+    int vehicleQueueCapacity;
+
+    @ConfigProperty(name = "websocket.vehicle.overflow-policy", defaultValue = "conflate")
+    String vehicleOverflowPolicy;
+
+    @ConfigProperty(name = "websocket.admin-fleet.queue-capacity", defaultValue = "16")
+    int adminQueueCapacity;
+
+    @ConfigProperty(name = "websocket.admin-fleet.overflow-policy", defaultValue = "drop-oldest")
+    String adminOverflowPolicy;
+
+    private final Map<String, Map<String, OutboundChannel>> vehicleConnections = new ConcurrentHashMap<>();
+    private final Map<String, AdminSubscriber> adminConnections = new ConcurrentHashMap<>();
+    private final AtomicInteger vehicleConnectionCount = new AtomicInteger();
+    private final AtomicInteger adminConnectionCount = new AtomicInteger();
+
+    private OutboundChannel.Settings vehicleSettings;
+    private OutboundChannel.Settings adminSettings;
+
+    @PostConstruct
+    void init() {
+        vehicleSettings = new OutboundChannel.Settings("vehicle", vehicleQueueCapacity,
+                OutboundChannel.OverflowPolicy.parse(vehicleOverflowPolicy), registry);
+        adminSettings = new OutboundChannel.Settings("admin_fleet", adminQueueCapacity,
+                OutboundChannel.OverflowPolicy.parse(adminOverflowPolicy), registry);
+    }
+
+    public void registerVehicle(String vehicleId, WebSocketConnection conn) {
+        vehicleConnections.compute(vehicleId, (id, channels) -> {
+            if (channels == null) {
+                channels = new ConcurrentHashMap<>();
+            }
+            if (channels.putIfAbsent(conn.id(), new OutboundChannel(conn, vehicleSettings)) == null) {
+                vehicleConnectionCount.incrementAndGet();
             }
+            return channels;
         });
     }
 
+    public void unregisterVehicle(String vehicleId, WebSocketConnection conn) {
+        vehicleConnections.computeIfPresent(vehicleId, (id, channels) -> {
+            OutboundChannel channel = channels.remove(conn.id());
+            if (channel != null) {
+                channel.close();
+                vehicleConnectionCount.decrementAndGet();
+            }
+            return channels.isEmpty() ? null : channels;
+        });
+    }
+
+    public void registerAdmin(WebSocketConnection conn) {
+        if (adminConnections.putIfAbsent(conn.id(), new AdminSubscriber(new OutboundChannel(conn, adminSettings))) == null) {
+            adminConnectionCount.incrementAndGet();
+        }
+    }
+
+    public void unregisterAdmin(WebSocketConnection conn) {
+        AdminSubscriber subscriber = adminConnections.remove(conn.id());
+        if (subscriber != null) {
+            subscriber.channel.close();
+            adminConnectionCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Narrows what an admin connection receives; {@code null} restores the
+     * whole fleet. Returns false if the connection is not registered.
+     */
+    boolean setAdminViewport(WebSocketConnection conn, Viewport viewport) {
+        AdminSubscriber subscriber = adminConnections.get(conn.id());
+        if (subscriber == null) {
+            return false;
+        }
+        subscriber.viewport = viewport;
+        return true;
+    }
+
+    void sendToAdmin(WebSocketConnection conn, String message) {
+        AdminSubscriber subscriber = adminConnections.get(conn.id());
+        if (subscriber != null) {
+            subscriber.channel.offer(null, message);
+        }
+    }
+
+    Collection<AdminSubscriber> adminSubscribers() {
+        return adminConnections.values();
+    }
+
+    public boolean hasVehicleSubscribers(String vehicleId) {
+        Map<String, OutboundChannel> subscribers = vehicleConnections.get(vehicleId);
+        return subscribers != null && !subscribers.isEmpty();
+    }
+
+    /**
+     * True if an admin connection would be sent a vehicle at this location:
+     * one without a viewport, or one whose viewport covers it.
+     */
+    public boolean hasAdminInterest(String vehicleId, double latitude, double longitude) {
+        for (AdminSubscriber subscriber : adminConnections.values()) {
+            Viewport viewport = subscriber.viewport;
+            if (viewport == null || viewport.matches(vehicleId, latitude, longitude)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void sendToVehicle(String vehicleId, String message) {
+        Map<String, OutboundChannel> subscribers = vehicleConnections.get(vehicleId);
+        if (subscribers == null) {
+            return;
+        }
+
+        for (OutboundChannel channel : subscribers.values()) {
+            channel.offer(vehicleId, message);
+        }
+    }
+
+    /**
+     * Sends a position message to the vehicle's subscribers, building the
+     * message only when someone is listening.
+     */
+    public void sendPosition(VehiclePosition position) {
+        Map<String, OutboundChannel> subscribers = vehicleConnections.get(position.getVehicleId());
+        if (subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+        String text = positionMessage(position);
+        for (OutboundChannel channel : subscribers.values()) {
+            channel.offer(position.getVehicleId(), text);
+        }
+    }
 
+    static String positionMessage(VehiclePosition position) {
+        StringBuilder message = new StringBuilder(160).append("{\"type\":\"position\",\"vehicleId\":");
+        Json.appendString(message, position.getVehicleId());
+        return message.append(",\"latitude\":").append(position.getLatitude())
+                .append(",\"longitude\":").append(position.getLongitude())
+                .append(",\"speedKph\":").append(position.getSpeedKph())
+                .append(",\"timestamp\":").append(position.getTimestamp())
+                .append('}')
+                .toString();
+    }
 
     public void broadcast(String message) {
-        connections.forEach(conn -> {
-            conn.sendText(message).subscribe().with(
-                    success->LOG.debugf("Message sent to %s", conn.id()),
-                    failure->LOG.errorf("Failed to send to %s: %s", conn.id(), failure.getMessage())
-            );
-        });
-        LOG.debugf("Broadcast to %d clients", connections.stream().count());
+        for (Map<String, OutboundChannel> subscribers : vehicleConnections.values()) {
+            subscribers.values().forEach(channel -> channel.offer(null, message));
+        }
+        adminConnections.values().forEach(subscriber -> subscriber.channel.offer(null, message));
+        LOG.debugf("Broadcast to %d clients", getConnectionCount());
     }
 
     public long getConnectionCount() {
-        return connections.stream().count();
+        return vehicleConnectionCount.get() + adminConnectionCount.get();
     }
 
     public void broadcastToAdminFleet(String message) {
-        connections.forEach(conn -> {
-            String handshakePath = conn.handshakeRequest().path();
-            if (handshakePath != null && handshakePath.contains("/admin/fleet")) {
-                conn.sendText(message).subscribe().with(
-                        success -> LOG.debugf("Admin fleet message sent to %s", conn.id()),
-                        failure -> LOG.errorf("Failed to send admin fleet message to %s: %s", conn.id(), failure.getMessage())
-                );
-            }
-        });
+        for (AdminSubscriber subscriber : adminConnections.values()) {
+            subscriber.channel.offer(null, message);
+        }
         LOG.debugf("Broadcast to admin fleet clients");
     }
 
     public long getAdminFleetConnectionCount() {
-        return connections.stream()
-                .filter(conn -> {
-                    String path = conn.handshakeRequest().path();
-                    return path != null && path.contains("/admin/fleet");
-                })
-                .count();
-    }
-}
\ No newline at end of file
+        return adminConnectionCount.get();
+    }
+
+    static final class AdminSubscriber {
+
+        final OutboundChannel channel;
+        volatile Viewport viewport;
+
+        AdminSubscriber(OutboundChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
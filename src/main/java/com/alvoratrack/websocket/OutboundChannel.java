@@ -0,0 +1,205 @@
+package com.alvoratrack.websocket;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.quarkus.websockets.next.WebSocketConnection;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded outbound queue for a single WebSocket connection. At most one
+ * write is in flight; further messages wait in the queue and the overflow
+ * policy of the connection class decides what happens when it is full.
+ */
+final class OutboundChannel {
+
+    private static final Logger LOG = Logger.getLogger(OutboundChannel.class);
+
+    enum OverflowPolicy {
+        DROP_OLDEST,
+        CONFLATE,
+        DISCONNECT;
+
+        static OverflowPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * Settings and meters shared by every connection of one class
+     * (vehicle subscribers or admin fleet dashboards).
+     */
+    static final class Settings {
+
+        final String name;
+        final int capacity;
+        final OverflowPolicy policy;
+        final AtomicInteger depth = new AtomicInteger();
+        final Counter sent;
+        final Counter failed;
+        final Counter dropped;
+        final Counter conflated;
+        final Counter disconnected;
+
+        Settings(String name, int capacity, OverflowPolicy policy, MeterRegistry registry) {
+            this.name = name;
+            this.capacity = capacity;
+            this.policy = policy;
+            this.sent = Counter.builder("tracker.websocket.outbound.sent")
+                    .tag("class", name).tag("outcome", "success").register(registry);
+            this.failed = Counter.builder("tracker.websocket.outbound.sent")
+                    .tag("class", name).tag("outcome", "failure").register(registry);
+            this.dropped = Counter.builder("tracker.websocket.outbound.dropped")
+                    .tag("class", name).tag("reason", "overflow").register(registry);
+            this.conflated = Counter.builder("tracker.websocket.outbound.dropped")
+                    .tag("class", name).tag("reason", "conflated").register(registry);
+            this.disconnected = Counter.builder("tracker.websocket.outbound.disconnects")
+                    .tag("class", name).register(registry);
+            registry.gauge("tracker.websocket.outbound.queue.depth", Tags.of("class", name), depth);
+        }
+    }
+
+    private record Message(String key, String text) {
+    }
+
+    private final WebSocketConnection connection;
+    private final Settings settings;
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private boolean sending;
+    private boolean closed;
+
+    OutboundChannel(WebSocketConnection connection, Settings settings) {
+        this.connection = connection;
+        this.settings = settings;
+    }
+
+    WebSocketConnection connection() {
+        return connection;
+    }
+
+    /**
+     * Queues a message. {@code key} identifies what the message is about
+     * (e.g. a vehicle ID) so that the conflating policy can replace a queued
+     * message with a newer one; {@code null} keys are never conflated.
+     */
+    void offer(String key, String text) {
+        boolean overflowed = false;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (sending) {
+                overflowed = !enqueue(key, text);
+                if (!overflowed) {
+                    return;
+                }
+            } else {
+                sending = true;
+            }
+        }
+        if (overflowed) {
+            settings.disconnected.increment();
+            LOG.warnf("Closing slow %s connection %s - outbound queue full", settings.name, connection.id());
+            connection.close().subscribe().with(ok -> { }, failure -> { });
+            return;
+        }
+        pump(text);
+    }
+
+    void close() {
+        synchronized (this) {
+            closed = true;
+            settings.depth.addAndGet(-queue.size());
+            queue.clear();
+        }
+    }
+
+    /**
+     * Applies the overflow policy; returns false when the connection must be
+     * disconnected.
+     */
+    private boolean enqueue(String key, String text) {
+        if (key != null && settings.policy == OverflowPolicy.CONFLATE) {
+            Iterator<Message> it = queue.iterator();
+            while (it.hasNext()) {
+                if (key.equals(it.next().key())) {
+                    it.remove();
+                    queue.addLast(new Message(key, text));
+                    settings.conflated.increment();
+                    return true;
+                }
+            }
+        }
+        if (queue.size() >= settings.capacity) {
+            if (settings.policy == OverflowPolicy.DISCONNECT) {
+                closed = true;
+                settings.depth.addAndGet(-queue.size());
+                queue.clear();
+                return false;
+            }
+            queue.pollFirst();
+            settings.depth.decrementAndGet();
+            settings.dropped.increment();
+        }
+        queue.addLast(new Message(key, text));
+        settings.depth.incrementAndGet();
+        return true;
+    }
+
+    private synchronized String poll() {
+        Message next = closed ? null : queue.pollFirst();
+        if (next == null) {
+            sending = false;
+            return null;
+        }
+        settings.depth.decrementAndGet();
+        return next.text();
+    }
+
+    /**
+     * Writes messages until the queue is empty. Writes that complete on the
+     * calling thread continue the loop instead of recursing.
+     */
+    private void pump(String text) {
+        while (text != null) {
+            Completion completion = new Completion();
+            connection.sendText(text).subscribe().with(
+                    success -> {
+                        settings.sent.increment();
+                        completion.complete();
+                    },
+                    failure -> {
+                        settings.failed.increment();
+                        LOG.debugf("Failed to send to %s: %s", connection.id(), failure.getMessage());
+                        completion.complete();
+                    });
+            if (!completion.returned()) {
+                return;
+            }
+            text = poll();
+        }
+    }
+
+    private final class Completion extends AtomicInteger {
+
+        private static final int COMPLETED = 1;
+        private static final int RETURNED = 2;
+
+        void complete() {
+            if (!compareAndSet(0, COMPLETED)) {
+                pump(poll());
+            }
+        }
+
+        /**
+         * @return true if the write already completed synchronously
+         */
+        boolean returned() {
+            return !compareAndSet(0, RETURNED);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.alvoratrack.websocket;
 
 import io.quarkus.websockets.next.*;
+import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 
 @WebSocket(path = "/ws/vehicle/{vehicleId}")
@@ -8,19 +9,24 @@ public class VehicleWebSocket {
 
     private static final Logger LOG = Logger.getLogger(VehicleWebSocket.class);
 
+    @Inject
+    ConnectionManager connectionManager;
+
     @OnOpen
     public void onOpen(WebSocketConnection connection, @PathParam String vehicleId) {
+        connectionManager.registerVehicle(vehicleId, connection);
         LOG.infof("Vehicle connected: %s, Session: %s", vehicleId, connection.id());
     }
 
     @OnClose
     public void onClose(WebSocketConnection connection, @PathParam String vehicleId) {
+        connectionManager.unregisterVehicle(vehicleId, connection);
         LOG.infof("Vehicle disconnected: %s, Session: %s", vehicleId, connection.id());
     }
 
     @OnTextMessage
     public String onMessage(String message, @PathParam String vehicleId) {
-        LOG.infof("Message from %s: %s", vehicleId, message);
+        LOG.debugf("Message from %s: %s", vehicleId, message);
 
         return "{\"status\": \"received\", \"vehicleId\": \"" + vehicleId + "\"}";
     }
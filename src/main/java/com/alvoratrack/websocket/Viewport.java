@@ -0,0 +1,72 @@
+package com.alvoratrack.websocket;
+
+import com.alvoratrack.geo.BoundingBox;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What an admin fleet dashboard asked to see: an area, a group of vehicles,
+ * or both. A {@code null} component does not filter.
+ */
+record Viewport(BoundingBox box, Set<String> vehicles) {
+
+    static final int DEFAULT_WIDTH = 1920;
+    static final int DEFAULT_HEIGHT = 1080;
+
+    /**
+     * Reads a subscribe message. The area is either {@code bbox} as
+     * {@code [south, west, north, east]} or {@code center} as
+     * {@code [latitude, longitude]} with a {@code zoom} level and optional
+     * {@code width}/{@code height} in pixels; {@code vehicles} lists vehicle
+     * IDs. Returns {@code null} when the message sets no filter at all.
+     */
+    static Viewport parse(JsonNode message) {
+        BoundingBox box = null;
+        JsonNode bbox = message.get("bbox");
+        JsonNode center = message.get("center");
+        if (bbox != null) {
+            if (!bbox.isArray() || bbox.size() != 4) {
+                throw new IllegalArgumentException("bbox must be [south, west, north, east]");
+            }
+            box = new BoundingBox(number(bbox.get(0)), number(bbox.get(1)), number(bbox.get(2)), number(bbox.get(3)));
+        } else if (center != null) {
+            if (!center.isArray() || center.size() != 2 || !message.hasNonNull("zoom")) {
+                throw new IllegalArgumentException("center must be [latitude, longitude] and come with a zoom");
+            }
+            box = BoundingBox.viewport(number(center.get(0)), number(center.get(1)), number(message.get("zoom")),
+                    message.path("width").asInt(DEFAULT_WIDTH), message.path("height").asInt(DEFAULT_HEIGHT));
+        }
+
+        Set<String> vehicles = null;
+        JsonNode ids = message.get("vehicles");
+        if (ids != null) {
+            if (!ids.isArray()) {
+                throw new IllegalArgumentException("vehicles must be an array of vehicle IDs");
+            }
+            vehicles = new HashSet<>(ids.size() * 2);
+            for (JsonNode id : ids) {
+                vehicles.add(id.asText());
+            }
+        }
+        return box == null && vehicles == null ? null : new Viewport(box, vehicles);
+    }
+
+    boolean matches(VehiclePosition position) {
+        return matches(position.getVehicleId(), position.getLatitude(), position.getLongitude());
+    }
+
+    boolean matches(String vehicleId, double latitude, double longitude) {
+        return (vehicles == null || vehicles.contains(vehicleId))
+                && (box == null || box.contains(latitude, longitude));
+    }
+
+    private static double number(JsonNode node) {
+        if (node == null || !node.isNumber()) {
+            throw new IllegalArgumentException("Expected a number but got " + node);
+        }
+        return node.asDouble();
+    }
+}
@@ -0,0 +1,266 @@
+package com.alvoratrack.client;
+
+import com.alvoratrack.grpc.fleet.FleetPositionAck;
+import com.alvoratrack.grpc.fleet.FleetPositionUpdate;
+import com.alvoratrack.grpc.fleet.FleetTrackingServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AlvoraCoreStreamForwarderTest {
+
+    private static final AlvoraCoreStreamForwarder.Settings SETTINGS = new AlvoraCoreStreamForwarder.Settings(
+            2, 1000, 8, Duration.ofMillis(10), Duration.ofMillis(200));
+
+    private final List<FleetPositionUpdate> failures = new CopyOnWriteArrayList<>();
+    private Server server;
+    private ManagedChannel channel;
+    private AlvoraCoreStreamForwarder forwarder;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (forwarder != null) {
+            forwarder.close();
+        }
+        if (channel != null) {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (server != null) {
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void streamsUpdatesInOrderPerVehicle() throws Exception {
+        RecordingService service = new RecordingService();
+        start(service);
+
+        for (int i = 0; i < 500; i++) {
+            assertTrue(forwarder.offer(update("truck-" + (i % 5), i)));
+        }
+
+        awaitCount(service.streamed, 500);
+        for (int v = 0; v < 5; v++) {
+            String vehicleId = "truck-" + v;
+            List<Long> timestamps = service.streamed.stream()
+                    .filter(u -> u.getVehicleId().equals(vehicleId))
+                    .map(FleetPositionUpdate::getTimestamp)
+                    .toList();
+            assertEquals(timestamps.stream().sorted().toList(), timestamps);
+        }
+        assertEquals(0, service.unary.size());
+    }
+
+    @Test
+    void reconnectsAfterStreamFailure() throws Exception {
+        RecordingService service = new RecordingService();
+        service.failFirstStreams.set(2);
+        start(service);
+
+        awaitCondition(forwarder::isStreaming);
+        for (int i = 0; i < 20; i++) {
+            forwarder.offer(update("bus-" + i, i));
+        }
+
+        awaitCount(service.streamed, 20);
+        assertTrue(service.streamsOpened.get() >= 4);
+    }
+
+    @Test
+    void fallsBackToUnaryWhenStreamingIsUnimplemented() throws Exception {
+        RecordingService service = new RecordingService();
+        service.streamingImplemented = false;
+        start(service);
+
+        for (int i = 0; i < 50; i++) {
+            forwarder.offer(update("van-" + i, i));
+        }
+
+        awaitCount(service.unary, 50);
+        assertEquals(0, service.streamed.size());
+    }
+
+    @Test
+    void unaryFallbackKeepsEachVehiclesOrder() throws Exception {
+        RecordingService service = new RecordingService();
+        service.streamingImplemented = false;
+        // Calls finish after a random delay, so concurrent ones could complete out of order
+        service.unaryDelayMillis = 3;
+        start(service);
+
+        for (int i = 0; i < 200; i++) {
+            assertTrue(forwarder.offer(update("van-" + (i % 4), i)));
+        }
+
+        awaitCount(service.unary, 200);
+        for (int v = 0; v < 4; v++) {
+            String vehicleId = "van-" + v;
+            List<Long> timestamps = service.unary.stream()
+                    .filter(u -> u.getVehicleId().equals(vehicleId))
+                    .map(FleetPositionUpdate::getTimestamp)
+                    .toList();
+            assertEquals(timestamps.stream().sorted().toList(), timestamps);
+        }
+        awaitCondition(forwarder::isIdle);
+    }
+
+    @Test
+    void spoolsUnackedUpdatesWhenTheStreamBreaks() throws Exception {
+        RecordingService service = new RecordingService();
+        service.acking = false;
+        start(service);
+
+        awaitCondition(forwarder::isStreaming);
+        for (int i = 0; i < 20; i++) {
+            forwarder.offer(update("bus-" + (i % 3), i));
+        }
+        awaitCount(service.streamed, 20);
+        assertFalse(forwarder.isIdle());
+
+        service.breakStreams();
+        awaitCount(failures, 20);
+        assertEquals(service.streamed, failures.stream()
+                .sorted(Comparator.comparingLong(FleetPositionUpdate::getTimestamp)).toList());
+    }
+
+    @Test
+    void closeSpoolsQueuedAndUnackedUpdates() throws Exception {
+        RecordingService service = new RecordingService();
+        service.acking = false;
+        start(service, new AlvoraCoreStreamForwarder.Settings(1, 10, 8, Duration.ofMillis(10), Duration.ofMillis(200)));
+
+        awaitCondition(forwarder::isStreaming);
+        for (int i = 0; i < 15; i++) {
+            assertTrue(forwarder.offer(update("truck-1", i)));
+        }
+        awaitCount(service.streamed, 10);
+        forwarder.close();
+
+        assertEquals(15, failures.size());
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L, 13L, 14L),
+                failures.stream().map(FleetPositionUpdate::getTimestamp).toList());
+    }
+
+    private void start(RecordingService service) throws Exception {
+        start(service, SETTINGS);
+    }
+
+    private void start(RecordingService service, AlvoraCoreStreamForwarder.Settings settings) throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).directExecutor().addService(service).build().start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        forwarder = new AlvoraCoreStreamForwarder(channel, settings, new SimpleMeterRegistry(), failures::add);
+        forwarder.start();
+    }
+
+    private static FleetPositionUpdate update(String vehicleId, long timestamp) {
+        return FleetPositionUpdate.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(30.0)
+                .setLongitude(31.0)
+                .setTimestamp(timestamp)
+                .setEvent("moving")
+                .build();
+    }
+
+    private static void awaitCount(List<?> list, int expected) throws InterruptedException {
+        awaitCondition(() -> list.size() >= expected);
+        assertEquals(expected, list.size());
+    }
+
+    private static void awaitCondition(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static class RecordingService extends FleetTrackingServiceGrpc.FleetTrackingServiceImplBase {
+
+        final List<FleetPositionUpdate> streamed = new CopyOnWriteArrayList<>();
+        final List<FleetPositionUpdate> unary = new CopyOnWriteArrayList<>();
+        final AtomicInteger failFirstStreams = new AtomicInteger();
+        final AtomicInteger streamsOpened = new AtomicInteger();
+        final List<StreamObserver<FleetPositionAck>> open = new CopyOnWriteArrayList<>();
+        volatile boolean streamingImplemented = true;
+        volatile boolean acking = true;
+        volatile int unaryDelayMillis;
+
+        void breakStreams() {
+            for (StreamObserver<FleetPositionAck> stream : open) {
+                open.remove(stream);
+                stream.onError(Status.UNAVAILABLE.withDescription("restarting").asRuntimeException());
+            }
+        }
+
+        @Override
+        public void updatePosition(FleetPositionUpdate request, StreamObserver<FleetPositionAck> responseObserver) {
+            if (unaryDelayMillis == 0) {
+                receive(request, responseObserver);
+                return;
+            }
+            CompletableFuture.runAsync(() -> receive(request, responseObserver), CompletableFuture.delayedExecutor(
+                    ThreadLocalRandom.current().nextInt(unaryDelayMillis + 1), TimeUnit.MILLISECONDS));
+        }
+
+        private void receive(FleetPositionUpdate request, StreamObserver<FleetPositionAck> responseObserver) {
+            unary.add(request);
+            responseObserver.onNext(FleetPositionAck.newBuilder().setReceived(true).setVehicleId(request.getVehicleId()).build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public StreamObserver<FleetPositionUpdate> streamPositions(StreamObserver<FleetPositionAck> responseObserver) {
+            if (!streamingImplemented) {
+                return super.streamPositions(responseObserver);
+            }
+            streamsOpened.incrementAndGet();
+            if (failFirstStreams.getAndDecrement() > 0) {
+                responseObserver.onError(Status.UNAVAILABLE.withDescription("restarting").asRuntimeException());
+            } else {
+                open.add(responseObserver);
+            }
+            return new StreamObserver<>() {
+                @Override
+                public void onNext(FleetPositionUpdate update) {
+                    streamed.add(update);
+                    if (!acking) {
+                        return;
+                    }
+                    responseObserver.onNext(FleetPositionAck.newBuilder().setReceived(true).setVehicleId(update.getVehicleId()).build());
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+    }
+}
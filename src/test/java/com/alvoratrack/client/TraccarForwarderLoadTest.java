@@ -0,0 +1,147 @@
+package com.alvoratrack.client;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.HotPathLog;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives {@link TraccarForwarder} against a local OsmAnd stub and reports the
+ * achieved rate and p99 latency. Scale with {@code -Dtraccar.load.positions}.
+ * Tagged {@code slow}, so it only runs with {@code -Dtest.excluded.groups=none}.
+ */
+@Tag("slow")
+class TraccarForwarderLoadTest {
+
+    private static final Logger LOG = Logger.getLogger(TraccarForwarderLoadTest.class);
+    private static final int POSITIONS = Integer.getInteger("traccar.load.positions", 5_000);
+    private static final int VEHICLES = 500;
+    private static final Pattern GET = Pattern.compile("id=([^&]+).*&timestamp=(\\d+)");
+    private static final Pattern POST = Pattern.compile("\"device_id\":\"([^\"]+)\",\"location\":\\{\"timestamp\":(\\d+)");
+
+    private final Map<String, List<Long>> received = new ConcurrentHashMap<>();
+    private final long[] latencies = new long[POSITIONS];
+    private final Map<String, Long> offeredAt = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void forwardsEachPositionInOrderPerVehicle() throws Exception {
+        run(false);
+    }
+
+    @Test
+    void batchesQueuedPositionsIntoJsonPosts() throws Exception {
+        run(true);
+        assertTrue(requests.get() < POSITIONS);
+    }
+
+    private void run(boolean batch) throws Exception {
+        startStub();
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        TraccarForwarder forwarder = new TraccarForwarder(new TraccarForwarder.Settings(
+                "http://localhost:" + server.getAddress().getPort(), 64, 64 * POSITIONS, Duration.ofSeconds(5),
+                batch, 50, "/"), executor, new SimpleMeterRegistry(), new HotPathLog(), position -> {
+            throw new AssertionError("Unexpected failure for " + position.getVehicleId());
+        });
+
+        long start = System.nanoTime();
+        for (int i = 0; i < POSITIONS; i++) {
+            String vehicleId = "veh-" + (i % VEHICLES);
+            offeredAt.put(vehicleId + ":" + i, System.nanoTime());
+            assertTrue(forwarder.offer(position(vehicleId, i)));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (count.get() < POSITIONS && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(POSITIONS, count.get());
+        for (List<Long> timestamps : received.values()) {
+            List<Long> sorted = new ArrayList<>(timestamps);
+            sorted.sort(null);
+            assertEquals(sorted, timestamps);
+        }
+
+        Arrays.sort(latencies);
+        long p99 = latencies[(int) (POSITIONS * 0.99) - 1];
+        LOG.infof("Traccar forwarder (batch=%s): %d positions in %d requests, %.0f positions/s, p99 %.2f ms",
+                batch, POSITIONS, requests.get(), POSITIONS / (elapsed / 1e9), p99 / 1e6);
+    }
+
+    private void startStub() throws IOException {
+        // Without this the stub's responses sit behind Nagle's algorithm
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String payload = "POST".equals(exchange.getRequestMethod())
+                ? new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)
+                : exchange.getRequestURI().getRawQuery();
+        Matcher matcher = ("POST".equals(exchange.getRequestMethod()) ? POST : GET).matcher(payload);
+        long now = System.nanoTime();
+        while (matcher.find()) {
+            String vehicleId = matcher.group(1);
+            long timestamp = Long.parseLong(matcher.group(2));
+            received.computeIfAbsent(vehicleId, k -> new CopyOnWriteArrayList<>()).add(timestamp);
+            latencies[count.getAndIncrement()] = now - offeredAt.get(vehicleId + ":" + timestamp);
+        }
+        exchange.sendResponseHeaders(200, -1);
+        exchange.close();
+    }
+
+    private static VehiclePosition position(String vehicleId, long timestamp) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(30.0444)
+                .setLongitude(31.2357)
+                .setSpeedKph(42)
+                .setBearing(90)
+                .setTimestamp(timestamp)
+                .build();
+    }
+}
@@ -0,0 +1,238 @@
+package com.alvoratrack.cluster;
+
+import com.alvoratrack.geo.SpatialIndex;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.service.LatestPositionStore;
+import com.alvoratrack.support.RedisStandIn;
+import com.alvoratrack.thinning.DownstreamThinning;
+import com.alvoratrack.thinning.PositionThinner;
+import com.alvoratrack.websocket.AdminFleetBroadcaster;
+import com.alvoratrack.websocket.ConnectionManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.redis.runtime.datasource.ReactiveRedisDataSourceImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.RedisConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two nodes sharing a Redis (the in-process stand-in unless
+ * {@code -Dtest.redis.uri} points at a real one): updates published on one
+ * reach only the interested clients of the other.
+ */
+class ClusterFanoutTest {
+
+    private RedisStandIn standIn;
+    private Vertx vertx;
+    private Node a;
+    private Node b;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String uri = System.getProperty("test.redis.uri");
+        if (uri == null) {
+            standIn = new RedisStandIn();
+            uri = standIn.uri();
+        }
+        vertx = Vertx.vertx();
+        a = new Node("node-a", uri);
+        b = new Node("node-b", uri);
+        await(() -> a.subscribed() && b.subscribed());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        a.close();
+        b.close();
+        vertx.closeAndAwait();
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Test
+    void deliversOnlyUpdatesAnotherNodeHasInterestIn() throws Exception {
+        // bus-1 has a vehicle subscriber on node B; B's admin viewport covers 30-30.1 N
+        a.fanout.publish(position("bus-1", 31.0, 31.0, 1), null);
+        a.fanout.publish(position("bus-1", 31.1, 31.0, 2), null);
+        a.fanout.publish(position("bus-2", 30.05, 31.2, 2), null);
+        a.fanout.publish(position("bus-3", 40.0, 40.0, 2), null);
+        a.fanout.publish(position("bus-4", 40.0, 40.0, 2), position("bus-4", 30.05, 31.2, 1));
+        a.fanout.flush();
+
+        await(() -> b.registry.counter("tracker.cluster.fanout.updates", "outcome", "delivered").count()
+                + b.registry.counter("tracker.cluster.fanout.updates", "outcome", "filtered").count() == 4);
+
+        assertEquals(1, b.vehicleSends.size());
+        assertEquals(31.1, b.vehicleSends.get(0).getLatitude());
+        assertEquals(Set.of("bus-2", "bus-4"), b.adminPrevious.keySet());
+        assertEquals(0, b.adminPrevious.get("bus-2").getLatitude());
+        // bus-4 left the viewport, which needs its previous position
+        assertEquals(30.05, b.adminPrevious.get("bus-4").getLatitude());
+        assertEquals(2, b.adminSends.size());
+        assertEquals(1, b.registry.counter("tracker.cluster.fanout.updates", "outcome", "filtered").count());
+        assertEquals(1, b.registry.timer("tracker.cluster.fanout.lag", "stage", "consume").count());
+        assertTrue(b.registry.counter("tracker.cluster.fanout.bytes", "direction", "in").count() > 0);
+
+        // Every update reaches B's index, wanted or not
+        assertEquals(Set.of("bus-1", "bus-2", "bus-3", "bus-4"), b.indexed.keySet());
+        // and refreshes whatever copy B's local store holds
+        assertEquals(b.indexed, b.refreshed);
+
+        // The publishing node ignores its own batch
+        assertEquals(4, a.registry.counter("tracker.cluster.fanout.updates", "outcome", "published").count());
+        assertTrue(a.vehicleSends.isEmpty());
+        assertTrue(a.adminPrevious.isEmpty());
+    }
+
+    @Test
+    void thinsUpdatesForAdminViewports() throws Exception {
+        a.fanout.publish(position("bus-2", 30.05, 31.2, 1), null);
+        a.fanout.flush();
+        await(() -> b.adminSends.size() == 1);
+
+        // A couple of meters is inside the admin deadband, 200 m is not
+        a.fanout.publish(position("bus-2", 30.05002, 31.2, 2), null);
+        a.fanout.flush();
+        a.fanout.publish(position("bus-2", 30.052, 31.2, 3), null);
+        a.fanout.flush();
+        await(() -> b.registry.counter("tracker.cluster.fanout.updates", "outcome", "delivered").count() == 3);
+
+        assertEquals(List.of(1L, 3L), b.adminSends.stream().map(VehiclePosition::getTimestamp).toList());
+        assertEquals(30.05, b.adminPrevious.get("bus-2").getLatitude());
+    }
+
+    @Test
+    void olderUpdatesThanTheIndexedOnesAreNotSent() throws Exception {
+        a.fanout.publish(position("bus-1", 31.0, 31.0, 5), null);
+        a.fanout.flush();
+        await(() -> b.vehicleSends.size() == 1);
+
+        a.fanout.publish(position("bus-1", 31.1, 31.0, 4), null);
+        a.fanout.flush();
+        await(() -> b.registry.counter("tracker.cluster.fanout.updates", "outcome", "filtered").count() == 1);
+
+        assertEquals(1, b.vehicleSends.size());
+        assertEquals(5, b.indexed.get("bus-1").getTimestamp());
+        assertEquals(5, b.refreshed.get("bus-1").getTimestamp());
+    }
+
+    private static VehiclePosition position(String vehicleId, double latitude, double longitude, long timestamp) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .setSpeedKph(30)
+                .setTimestamp(timestamp)
+                .build();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    private final class Node implements AutoCloseable {
+
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final List<VehiclePosition> vehicleSends = new CopyOnWriteArrayList<>();
+        // Previous position per vehicle submitted to the admin broadcaster, empty if none
+        final Map<String, VehiclePosition> adminPrevious = new ConcurrentHashMap<>();
+        final List<VehiclePosition> adminSends = new CopyOnWriteArrayList<>();
+        final Map<String, VehiclePosition> indexed = new ConcurrentHashMap<>();
+        final RedisConnection connection;
+        final Map<String, VehiclePosition> refreshed = new ConcurrentHashMap<>();
+        final ClusterFanout fanout = new ClusterFanout();
+
+        Node(String nodeId, String uri) {
+            Redis redis = Redis.createClient(vertx, uri);
+            connection = redis.connect().await().atMost(Duration.ofSeconds(5));
+            fanout.redisDS = new ReactiveRedisDataSourceImpl(vertx, redis, connection);
+            fanout.connections = new ConnectionManager() {
+                @Override
+                public boolean hasVehicleSubscribers(String vehicleId) {
+                    return vehicleId.equals("bus-1");
+                }
+
+                @Override
+                public boolean hasAdminInterest(String vehicleId, double latitude, double longitude) {
+                    return latitude >= 30 && latitude <= 30.1;
+                }
+
+                @Override
+                public void sendPosition(VehiclePosition position) {
+                    vehicleSends.add(position);
+                }
+            };
+            fanout.adminFleetBroadcaster = new AdminFleetBroadcaster() {
+                @Override
+                public void submit(VehiclePosition position, VehiclePosition previous) {
+                    adminSends.add(position);
+                    adminPrevious.put(position.getVehicleId(),
+                            previous != null ? previous : VehiclePosition.getDefaultInstance());
+                }
+            };
+            fanout.thinning = new DownstreamThinning() {
+                @Override
+                public PositionThinner create(Destination destination, PositionThinner.Sink sink) {
+                    return new PositionThinner(destination.label(), new PositionThinner.Settings(true, 10, 20, 10,
+                            0, Duration.ZERO, Duration.ofSeconds(30), 100, 4), registry, sink);
+                }
+            };
+            fanout.spatialIndex = new SpatialIndex() {
+                @Override
+                public Update update(VehiclePosition position) {
+                    VehiclePosition previous = indexed.get(position.getVehicleId());
+                    if (previous != null && position.getTimestamp() < previous.getTimestamp()) {
+                        return new Update(previous, false);
+                    }
+                    indexed.put(position.getVehicleId(), position);
+                    return new Update(previous, true);
+                }
+            };
+            fanout.localStore = new LatestPositionStore() {
+                @Override
+                public void refresh(VehiclePosition position) {
+                    refreshed.put(position.getVehicleId(), position);
+                }
+            };
+            fanout.initialBackoff = Duration.ofMillis(100);
+            fanout.maxBackoff = Duration.ofSeconds(1);
+            fanout.vertx = vertx.getDelegate();
+            fanout.registry = registry;
+            fanout.enabled = true;
+            fanout.channel = "tracker:fanout:test";
+            // Flushed by hand
+            fanout.tickMillis = 60_000;
+            fanout.configuredNodeId = Optional.of(nodeId);
+            fanout.start();
+        }
+
+        boolean subscribed() {
+            return fanout.subscribed();
+        }
+
+        @Override
+        public void close() {
+            fanout.stop();
+            connection.close().await().indefinitely();
+        }
+    }
+}
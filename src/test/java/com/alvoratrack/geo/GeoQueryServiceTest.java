@@ -0,0 +1,133 @@
+package com.alvoratrack.geo;
+
+import com.alvoratrack.geo.GeoQueryService.Hit;
+import com.alvoratrack.geo.GeoQueryService.Source;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.service.PositionCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.redis.datasource.geo.GeoSearchArgs;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeoQueryServiceTest {
+
+    private static final double LAT = 30.0444;
+    private static final double LON = 31.2357;
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private final List<VehiclePosition> fleet = new ArrayList<>();
+    private GeoQueryService geo;
+
+    @BeforeEach
+    void setUp() {
+        SpatialIndex index = new SpatialIndex();
+        index.registry = meters;
+        index.cellDegrees = 0.01;
+        index.ttlSeconds = 300;
+        index.init();
+
+        Random random = new Random(7);
+        for (int i = 0; i < 2_000; i++) {
+            VehiclePosition position = VehiclePosition.newBuilder()
+                    .setVehicleId("veh-" + i)
+                    .setLatitude(LAT - 0.2 + random.nextDouble() * 0.4)
+                    .setLongitude(LON - 0.2 + random.nextDouble() * 0.4)
+                    .setTimestamp(1)
+                    .build();
+            fleet.add(position);
+            index.update(position);
+        }
+
+        geo = new GeoQueryService();
+        geo.index = index;
+        geo.registry = meters;
+        geo.maxRadiusMeters = 100_000;
+        geo.initialRadiusMeters = 100;
+        geo.init();
+    }
+
+    @Test
+    void radiusQueriesMatchABruteForceScanNearestFirst() {
+        List<Hit> hits = geo.nearby(LAT, LON, 2_000, Source.LOCAL).await().indefinitely();
+
+        List<String> expected = fleet.stream()
+                .filter(p -> distance(p) <= 2_000)
+                .sorted(Comparator.comparingDouble(this::distance))
+                .map(VehiclePosition::getVehicleId)
+                .toList();
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, hits.stream().map(hit -> hit.position().getVehicleId()).toList());
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).distanceMeters() <= hits.get(i).distanceMeters());
+        }
+        assertEquals(1, meters.get("tracker.geo.query.latency").tag("query", "radius").tag("source", "local")
+                .timer().count());
+    }
+
+    @Test
+    void nearestWidensTheSearchUntilItHasK() {
+        List<Hit> hits = geo.nearest(LAT, LON, 25, Source.LOCAL).await().indefinitely();
+
+        List<String> expected = fleet.stream()
+                .sorted(Comparator.comparingDouble(this::distance))
+                .limit(25)
+                .map(VehiclePosition::getVehicleId)
+                .toList();
+        assertEquals(expected, hits.stream().map(hit -> hit.position().getVehicleId()).toList());
+    }
+
+    @Test
+    void nearestFromRedisAsksForMoreWhileMembersHaveExpired() {
+        List<VehiclePosition> byDistance = fleet.stream().sorted(Comparator.comparingDouble(this::distance)).toList();
+        // The 100 nearest have expired but are still in the geo set
+        Set<VehiclePosition> expired = Set.copyOf(byDistance.subList(0, 100));
+        List<Long> counts = new ArrayList<>();
+        geo.positionCache = new PositionCache() {
+            @Override
+            public Uni<GeoMatches> geoSearchCounted(GeoSearchArgs<String> args) {
+                List<Object> raw = args.toArgs(null);
+                long count = Long.parseLong(raw.get(raw.indexOf("COUNT") + 1).toString());
+                counts.add(count);
+                List<VehiclePosition> members = byDistance.stream().limit(count).toList();
+                return Uni.createFrom().item(new GeoMatches(members.size(),
+                        members.stream().filter(p -> !expired.contains(p)).toList()));
+            }
+        };
+
+        List<Hit> hits = geo.nearest(LAT, LON, 10, Source.REDIS).await().indefinitely();
+
+        assertEquals(byDistance.subList(100, 110).stream().map(VehiclePosition::getVehicleId).toList(),
+                hits.stream().map(hit -> hit.position().getVehicleId()).toList());
+        assertEquals(List.of(26L, 52L, 104L, 208L), counts);
+    }
+
+    @Test
+    void polygonQueriesOnlyReturnVehiclesInside() {
+        // A triangle covering the south-west half of the fleet's square
+        Polygon triangle = new Polygon(
+                new double[]{LAT - 0.2, LAT + 0.2, LAT - 0.2},
+                new double[]{LON - 0.2, LON - 0.2, LON + 0.2});
+        List<Hit> hits = geo.within(triangle, Source.LOCAL).await().indefinitely();
+
+        long expected = fleet.stream()
+                .filter(p -> (p.getLatitude() - (LAT - 0.2)) + (p.getLongitude() - (LON - 0.2)) < 0.4)
+                .count();
+        assertEquals(expected, hits.size());
+        assertTrue(hits.size() > 800 && hits.size() < 1_200);
+    }
+
+    private double distance(VehiclePosition position) {
+        return GeoMath.distanceMeters(LAT, LON, position.getLatitude(), position.getLongitude());
+    }
+}
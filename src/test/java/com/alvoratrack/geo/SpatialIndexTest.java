@@ -0,0 +1,106 @@
+package com.alvoratrack.geo;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpatialIndexTest {
+
+    private SpatialIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new SpatialIndex();
+        index.registry = new SimpleMeterRegistry();
+        index.cellDegrees = 0.01;
+        index.ttlSeconds = 300;
+        index.init();
+    }
+
+    @Test
+    void movesVehiclesBetweenCellsAndReturnsThePreviousPosition() {
+        VehiclePosition first = position("bus-1", 30.05, 31.25, 100);
+        VehiclePosition second = position("bus-1", 30.15, 31.35, 101);
+        assertNull(index.update(first).previous());
+        assertSame(first, index.update(second).previous());
+        // Out-of-order fixes do not move the vehicle back
+        SpatialIndex.Update stale = index.update(position("bus-1", 30.05, 31.25, 99));
+        assertFalse(stale.applied());
+        assertSame(second, stale.previous());
+        assertTrue(index.update(position("bus-1", 30.15, 31.35, 101)).applied());
+
+        assertEquals(List.of(), index.within(new BoundingBox(30.0, 31.2, 30.1, 31.3), 10));
+        assertEquals(List.of(second), index.within(new BoundingBox(30.1, 31.3, 30.2, 31.4), 10));
+        assertEquals(1, index.size());
+
+        index.remove("bus-1");
+        assertEquals(List.of(), index.within(new BoundingBox(-90, -180, 90, 180), 10));
+    }
+
+    @Test
+    void matchesABruteForceScanForSmallAndLargeBoxes() {
+        Random random = new Random(42);
+        for (int i = 0; i < 5_000; i++) {
+            index.update(position("veh-" + i, 29.8 + random.nextDouble() * 0.5, 31.0 + random.nextDouble() * 0.6, 1));
+        }
+        List<BoundingBox> boxes = List.of(
+                new BoundingBox(30.0, 31.2, 30.02, 31.23),
+                new BoundingBox(29.9, 31.1, 30.2, 31.5),
+                new BoundingBox(-90, -180, 90, 180));
+        for (BoundingBox box : boxes) {
+            Set<String> expected = new HashSet<>();
+            index.forEachWithin(new BoundingBox(-90, -180, 90, 180), position -> {
+                if (box.contains(position.getLatitude(), position.getLongitude())) {
+                    expected.add(position.getVehicleId());
+                }
+            });
+            Set<String> found = new HashSet<>();
+            index.forEachWithin(box, position -> assertTrue(found.add(position.getVehicleId())));
+            assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    void handlesBoxesAcrossTheAntimeridian() {
+        index.update(position("east", 10, 179.95, 1));
+        index.update(position("west", 10, -179.95, 1));
+        index.update(position("greenwich", 10, 0, 1));
+
+        Set<String> found = new HashSet<>();
+        index.forEachWithin(new BoundingBox(9, 179.9, 11, -179.9), position -> found.add(position.getVehicleId()));
+        assertEquals(Set.of("east", "west"), found);
+    }
+
+    @Test
+    void derivesViewportsFromZoomLevels() {
+        BoundingBox city = BoundingBox.viewport(30.04, 31.24, 12, 1920, 1080);
+        assertTrue(city.contains(30.04, 31.24));
+        assertTrue(city.east() - city.west() > 0.6 && city.east() - city.west() < 0.7);
+        assertTrue(city.north() - city.south() < city.east() - city.west());
+
+        BoundingBox world = BoundingBox.viewport(0, 0, 0, 1920, 1080);
+        assertEquals(-180, world.west());
+        assertEquals(180, world.east());
+    }
+
+    private static VehiclePosition position(String vehicleId, double latitude, double longitude, long timestamp) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .setTimestamp(timestamp)
+                .build();
+    }
+}
@@ -0,0 +1,132 @@
+package com.alvoratrack.geofence;
+
+import com.alvoratrack.client.AlvoraCoreClient;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.support.RedisStandIn;
+import com.alvoratrack.websocket.ConnectionManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.redis.runtime.datasource.ReactiveRedisDataSourceImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.RedisConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two replicas sharing one Redis (the in-process stand-in unless
+ * {@code -Dtest.redis.uri} points at a real one) report each transition of
+ * a vehicle that moves between them once.
+ */
+class GeofenceClaimsTest {
+
+    private final List<RedisConnection> connections = new ArrayList<>();
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private RedisStandIn standIn;
+    private Vertx vertx;
+    private Redis redis;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String uri = System.getProperty("test.redis.uri");
+        if (uri == null) {
+            standIn = new RedisStandIn();
+            uri = standIn.uri();
+        }
+        vertx = Vertx.vertx();
+        redis = Redis.createClient(vertx, uri);
+        node().claims.redisDS.key().del("vehicle:geofences:bus-1").await().atMost(Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (RedisConnection connection : connections) {
+            connection.close().await().indefinitely();
+        }
+        vertx.closeAndAwait();
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Test
+    void aVehicleChangingNodesIsEnteredAndExitedOnce() throws Exception {
+        GeofenceEngine a = node();
+        GeofenceEngine b = node();
+
+        a.evaluate(position(30.05, 10));
+        await(() -> events.size() == 1);
+        // The vehicle reconnects to B while still inside
+        b.evaluate(position(30.0505, 20));
+        b.evaluate(position(30.07, 30));
+        await(() -> events.size() == 2);
+        // A late report reaches A, which still has the vehicle inside
+        a.evaluate(position(30.07, 40));
+        await(() -> a.registry.counter("tracker.geofence.events.skipped", "type", "exit").count() == 1);
+        // and a new stay is reported again
+        b.evaluate(position(30.05, 50));
+        await(() -> events.size() == 3);
+
+        assertEquals(List.of("10 geofence_enter", "30 geofence_exit", "50 geofence_enter"), events);
+        assertEquals(1, b.registry.counter("tracker.geofence.events.skipped", "type", "enter").count());
+    }
+
+    private GeofenceEngine node() {
+        RedisConnection connection = redis.connect().await().atMost(Duration.ofSeconds(5));
+        connections.add(connection);
+        GeofenceClaims claims = new GeofenceClaims();
+        claims.redisDS = new ReactiveRedisDataSourceImpl(vertx, redis, connection);
+        claims.ttl = Duration.ofMinutes(15);
+        claims.init();
+
+        GeofenceEngine engine = new GeofenceEngine();
+        engine.registry = new SimpleMeterRegistry();
+        engine.alvoraCoreClient = new AlvoraCoreClient() {
+            @Override
+            public boolean forwardEvent(VehiclePosition position, String event, String geofenceId) {
+                events.add(position.getTimestamp() + " " + event);
+                return true;
+            }
+        };
+        engine.connections = new ConnectionManager() {
+            @Override
+            public void broadcastToAdminFleet(String message) {
+            }
+        };
+        engine.claims = claims;
+        engine.cellDegrees = 0.01;
+        engine.maxCellsPerFence = 64;
+        engine.maxFences = 100_000;
+        engine.dwellAfter = Duration.ofMinutes(5);
+        engine.forgetAfter = Duration.ofMinutes(15);
+        engine.init();
+        engine.put(Geofence.circle("depot", "Depot", 30.05, 31.25, 200, 0));
+        return engine;
+    }
+
+    private static VehiclePosition position(double latitude, long timestamp) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId("bus-1")
+                .setLatitude(latitude)
+                .setLongitude(31.25)
+                .setTimestamp(timestamp)
+                .build();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.alvoratrack.geofence;
+
+import com.alvoratrack.client.AlvoraCoreClient;
+import com.alvoratrack.geo.GeoMath;
+import com.alvoratrack.geo.Polygon;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.websocket.ConnectionManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeofenceEngineTest {
+
+    private final List<String> events = new ArrayList<>();
+    private final List<String> adminMessages = new ArrayList<>();
+    private final List<String> touched = new ArrayList<>();
+    private SimpleMeterRegistry registry;
+    private GeofenceEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        engine = new GeofenceEngine();
+        engine.registry = registry;
+        engine.alvoraCoreClient = new AlvoraCoreClient() {
+            @Override
+            public boolean forwardEvent(VehiclePosition position, String event, String geofenceId) {
+                events.add(position.getTimestamp() + " " + event + " " + geofenceId);
+                return true;
+            }
+        };
+        engine.connections = new ConnectionManager() {
+            @Override
+            public void broadcastToAdminFleet(String message) {
+                adminMessages.add(message);
+            }
+        };
+        engine.claims = new GeofenceClaims() {
+            @Override
+            public Uni<Boolean> enter(String vehicleId, String fenceId, long timestamp) {
+                return Uni.createFrom().item(true);
+            }
+
+            @Override
+            public Uni<Boolean> dwell(String vehicleId, String fenceId) {
+                return Uni.createFrom().item(true);
+            }
+
+            @Override
+            public Uni<Boolean> exit(String vehicleId, String fenceId) {
+                return Uni.createFrom().item(true);
+            }
+
+            @Override
+            public void touch(String vehicleId) {
+                touched.add(vehicleId);
+            }
+        };
+        engine.cellDegrees = 0.01;
+        engine.maxCellsPerFence = 64;
+        engine.maxFences = 100_000;
+        engine.dwellAfter = Duration.ofMinutes(5);
+        engine.forgetAfter = Duration.ofMinutes(15);
+        engine.init();
+    }
+
+    @Test
+    void reportsEnterDwellAndExitOncePerStay() {
+        engine.put(Geofence.circle("depot", "Depot", 30.05, 31.25, 200, 60));
+        engine.put(Geofence.polygon("zone", "Zone", new Polygon(
+                new double[]{30.04, 30.06, 30.06, 30.04}, new double[]{31.24, 31.24, 31.26, 31.26}), 0));
+
+        evaluate(30.03, 31.25, 0);
+        evaluate(30.05, 31.25, 10);
+        evaluate(30.0505, 31.2505, 40);
+        // Out-of-order fixes are ignored
+        evaluate(30.03, 31.25, 5);
+        evaluate(30.0505, 31.2505, 70);
+        evaluate(30.05, 31.25, 80);
+        // Leaves the circle but not the square
+        evaluate(30.055, 31.255, 90);
+        evaluate(30.055, 31.255, 310);
+        evaluate(30.07, 31.25, 320);
+
+        assertEquals(List.of(
+                "10 geofence_enter depot",
+                "10 geofence_enter zone",
+                "70 geofence_dwell depot",
+                "90 geofence_exit depot",
+                "310 geofence_dwell zone",
+                "320 geofence_exit zone"), sorted(events));
+        assertEquals(List.of(), engine.fencesOf("bus-1"));
+        // Outside every fence, the vehicle is forgotten
+        assertEquals(0, registry.get("tracker.geofence.vehicles").gauge().value());
+        assertEquals(2, registry.counter("tracker.geofence.events", "type", "enter").count());
+        assertEquals(2, registry.counter("tracker.geofence.events", "type", "dwell").count());
+        assertEquals(2, registry.counter("tracker.geofence.events", "type", "exit").count());
+        assertTrue(adminMessages.contains("{\"type\":\"geofence\",\"event\":\"dwell\",\"geofenceId\":\"depot\","
+                + "\"vehicleId\":\"bus-1\",\"latitude\":30.0505,\"longitude\":31.2505,\"timestamp\":70}"));
+    }
+
+    @Test
+    void replacingAFenceKeepsTheStayAndRemovingItForgetsIt() {
+        engine.put(Geofence.circle("depot", "Depot", 30.05, 31.25, 200, 0));
+        evaluate(30.05, 31.25, 10);
+        engine.put(Geofence.circle("depot", "Depot", 30.05, 31.25, 500, 0));
+        evaluate(30.053, 31.25, 20);
+        assertEquals(List.of("depot"), engine.fencesOf("bus-1"));
+
+        engine.remove("depot");
+        evaluate(30.2, 31.25, 30);
+        assertEquals(List.of("10 geofence_enter depot"), events);
+        assertEquals(List.of(), engine.fencesOf("bus-1"));
+    }
+
+    @Test
+    void forgetsVehiclesNotHeardFromWithoutAnExit() {
+        engine.put(Geofence.circle("depot", "Depot", 30.05, 31.25, 200, 0));
+        evaluate(30.05, 31.25, 10);
+        long now = System.currentTimeMillis();
+
+        engine.sweep(now + Duration.ofMinutes(14).toMillis());
+        assertEquals(List.of("depot"), engine.fencesOf("bus-1"));
+        assertEquals(List.of("bus-1"), touched);
+
+        // Reporting to another node by now, which owns the exit
+        engine.sweep(now + Duration.ofMinutes(16).toMillis());
+        assertEquals(List.of(), engine.fencesOf("bus-1"));
+        assertEquals(List.of("10 geofence_enter depot"), events);
+        assertEquals(0, registry.get("tracker.geofence.vehicles").gauge().value());
+    }
+
+    @Test
+    void matchesABruteForceScan() {
+        Random random = new Random(7);
+        List<Geofence> fences = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            double lat = 29.9 + random.nextDouble() * 0.3;
+            double lon = 31.1 + random.nextDouble() * 0.3;
+            if (i % 2 == 0) {
+                fences.add(Geofence.circle("c-" + i, null, lat, lon, 50 + random.nextDouble() * 1_500, 0));
+            } else {
+                double size = 0.001 + random.nextDouble() * 0.02;
+                fences.add(Geofence.polygon("p-" + i, null, new Polygon(
+                        new double[]{lat, lat + size, lat + size / 2},
+                        new double[]{lon, lon, lon + size}), 0));
+            }
+        }
+        // Spans more than maxCellsPerFence cells, so it is only checked by bounds
+        fences.add(Geofence.circle("city", null, 30.05, 31.25, 20_000, 0));
+        engine.putAll(fences);
+
+        double[] latitudes = new double[200];
+        double[] longitudes = new double[200];
+        for (int v = 0; v < latitudes.length; v++) {
+            latitudes[v] = 29.9 + random.nextDouble() * 0.3;
+            longitudes[v] = 31.1 + random.nextDouble() * 0.3;
+        }
+        for (int step = 0; step < 100; step++) {
+            for (int v = 0; v < latitudes.length; v++) {
+                latitudes[v] += (random.nextDouble() - 0.5) * 0.004;
+                longitudes[v] += (random.nextDouble() - 0.5) * 0.004;
+                engine.evaluate(position("veh-" + v, latitudes[v], longitudes[v], step));
+
+                Set<String> expected = new HashSet<>();
+                for (Geofence fence : fences) {
+                    if (fence.contains(latitudes[v], longitudes[v])) {
+                        expected.add(fence.id());
+                    }
+                }
+                assertEquals(expected, new HashSet<>(engine.fencesOf("veh-" + v)));
+            }
+        }
+        assertTrue(registry.counter("tracker.geofence.events", "type", "exit").count() > 0);
+    }
+
+    @Test
+    void circlesAgreeWithTheGreatCircleDistance() {
+        Random random = new Random(11);
+        for (int i = 0; i < 2_000; i++) {
+            double latitude = -75 + random.nextDouble() * 150;
+            double longitude = i % 10 == 0 ? 179.99 : -180 + random.nextDouble() * 360;
+            double radius = 10 + random.nextDouble() * (i % 3 == 0 ? 100_000 : 5_000);
+            Geofence circle = Geofence.circle("c", null, latitude, longitude, radius, 0);
+            double spread = Math.toDegrees(radius * 1.5 / GeoMath.EARTH_RADIUS_METERS);
+            for (int j = 0; j < 50; j++) {
+                double lat = Math.max(-90, Math.min(90, latitude + (random.nextDouble() * 2 - 1) * spread));
+                double lon = longitude + (random.nextDouble() * 2 - 1) * spread / Math.cos(Math.toRadians(lat));
+                lon = lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+                double distance = GeoMath.distanceMeters(latitude, longitude, lat, lon);
+                if (Math.abs(distance - radius) > 1e-6) {
+                    assertEquals(distance <= radius, circle.contains(lat, lon),
+                            () -> "distance " + distance + " radius " + radius);
+                }
+            }
+        }
+    }
+
+    private void evaluate(double latitude, double longitude, long timestamp) {
+        engine.evaluate(position("bus-1", latitude, longitude, timestamp));
+    }
+
+    private static List<String> sorted(List<String> events) {
+        // Fences entered by the same position may be reported in any order
+        List<String> copy = new ArrayList<>(events);
+        copy.sort(Comparator.comparingLong((String event) -> Long.parseLong(event.substring(0, event.indexOf(' '))))
+                .thenComparing(Comparator.naturalOrder()));
+        return copy;
+    }
+
+    private static VehiclePosition position(String vehicleId, double latitude, double longitude, long timestamp) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .setSpeedKph(30)
+                .setTimestamp(timestamp)
+                .build();
+    }
+}
@@ -0,0 +1,110 @@
+package com.alvoratrack.geofence;
+
+import com.alvoratrack.geo.Polygon;
+import com.alvoratrack.support.RedisStandIn;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.redis.runtime.datasource.ReactiveRedisDataSourceImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.RedisConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two replicas sharing one Redis see each other's fence changes, and a
+ * restarted replica loads the fences back.
+ */
+class GeofenceStoreTest {
+
+    private final List<RedisConnection> connections = new ArrayList<>();
+    private RedisStandIn standIn;
+    private Vertx vertx;
+    private Redis redis;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String uri = System.getProperty("test.redis.uri");
+        if (uri == null) {
+            standIn = new RedisStandIn();
+            uri = standIn.uri();
+        }
+        vertx = Vertx.vertx();
+        redis = Redis.createClient(vertx, uri);
+        node().redisDS.key().del("geofences", "geofences:version").await().atMost(Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (RedisConnection connection : connections) {
+            connection.close().await().indefinitely();
+        }
+        vertx.closeAndAwait();
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Test
+    void changesReachOtherReplicas() {
+        GeofenceStore a = node();
+        GeofenceStore b = node();
+
+        a.putAll(List.of(
+                Geofence.circle("depot", "Depot", 30.05, 31.25, 200, 60),
+                Geofence.polygon("zone", "Zone", new Polygon(
+                        new double[]{30.04, 30.06, 30.06}, new double[]{31.24, 31.24, 31.26}), 0)));
+        b.sync();
+        assertEquals(List.of("depot", "zone"), ids(b));
+        assertEquals(60, b.engine.get("depot").dwellSeconds());
+
+        assertFalse(b.remove("missing"));
+        b.remove("depot");
+        a.sync();
+        assertEquals(List.of("zone"), ids(a));
+    }
+
+    @Test
+    void restartedReplicaLoadsTheFences() {
+        node().putAll(List.of(Geofence.circle("depot", "Depot", 30.05, 31.25, 200, 60)));
+
+        GeofenceStore restarted = node();
+        restarted.onStart(null);
+        assertEquals(List.of("depot"), ids(restarted));
+        assertTrue(restarted.engine.get("depot").contains(30.0515, 31.25));
+        assertFalse(restarted.engine.get("depot").contains(30.0525, 31.25));
+    }
+
+    private GeofenceStore node() {
+        RedisConnection connection = redis.connect().await().atMost(Duration.ofSeconds(5));
+        connections.add(connection);
+        GeofenceEngine engine = new GeofenceEngine();
+        engine.registry = new SimpleMeterRegistry();
+        engine.cellDegrees = 0.01;
+        engine.maxCellsPerFence = 64;
+        engine.maxFences = 100_000;
+        engine.dwellAfter = Duration.ofMinutes(5);
+        engine.init();
+        GeofenceStore store = new GeofenceStore();
+        store.redisDS = new ReactiveRedisDataSourceImpl(vertx, redis, connection);
+        store.engine = engine;
+        store.mapper = new ObjectMapper();
+        store.enabled = true;
+        store.timeout = Duration.ofSeconds(5);
+        store.init();
+        return store;
+    }
+
+    private static List<String> ids(GeofenceStore store) {
+        return store.engine.list().stream().map(Geofence::id).sorted().toList();
+    }
+}
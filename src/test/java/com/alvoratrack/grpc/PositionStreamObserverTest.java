@@ -0,0 +1,161 @@
+package com.alvoratrack.grpc;
+
+import com.alvoratrack.ingest.IngestPipeline;
+import com.alvoratrack.session.SessionRegistry;
+import com.alvoratrack.util.HotPathLog;
+import com.alvoratrack.util.PositionValidator;
+import com.alvoratrack.util.IngestFilter;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PositionStreamObserverTest {
+
+    private final Set<PositionStreamObserver> open = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger submitted = new AtomicInteger();
+
+    private Server server;
+    private ManagedChannel channel;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void acksCumulativelyAndFlagsRejectedMessages() throws Exception {
+        start(new PositionStreamObserver.Settings(10, Duration.ofSeconds(30), 4));
+        List<PositionAck> acks = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+
+        StreamObserver<VehiclePosition> stream = VehicleTrackingServiceGrpc.newStub(channel)
+                .streamPositions(new StreamObserver<>() {
+                    @Override
+                    public void onNext(PositionAck ack) {
+                        acks.add(ack);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        completed.countDown();
+                    }
+                });
+        for (int i = 1; i <= 25; i++) {
+            String vehicleId = i == 13 ? "flood" : "bus-1";
+            stream.onNext(position(vehicleId, i == 7 ? 95 : 30));
+        }
+        stream.onCompleted();
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+
+        // ok up to 6, invalid 7, ok up to 12, rate limited 13, ok up to 23, ok 25 on completion
+        assertEquals(List.of(6L, 7L, 12L, 13L, 23L, 25L), acks.stream().map(PositionAck::getSequence).toList());
+        assertEquals(List.of("ok", "invalid", "ok", "rate_limited", "ok", "ok"),
+                acks.stream().map(PositionAck::getStatus).toList());
+        assertEquals(23, submitted.get());
+        assertTrue(open.isEmpty());
+    }
+
+    @Test
+    void sweepAcksWhatArrivedSinceTheLastAck() throws Exception {
+        start(new PositionStreamObserver.Settings(10, Duration.ofSeconds(30), 4));
+        List<PositionAck> acks = new CopyOnWriteArrayList<>();
+        CountDownLatch errored = new CountDownLatch(1);
+
+        StreamObserver<VehiclePosition> stream = VehicleTrackingServiceGrpc.newStub(channel)
+                .streamPositions(new StreamObserver<>() {
+                    @Override
+                    public void onNext(PositionAck ack) {
+                        acks.add(ack);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        errored.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+        for (int i = 0; i < 3; i++) {
+            stream.onNext(position("bus-1", 30));
+        }
+        assertEquals(1, open.size());
+        assertTrue(acks.isEmpty());
+
+        open.forEach(PositionStreamObserver::tick);
+        open.forEach(PositionStreamObserver::tick);
+        assertEquals(List.of(3L), acks.stream().map(PositionAck::getSequence).toList());
+
+        stream.onError(new RuntimeException("gone"));
+        assertTrue(errored.await(10, TimeUnit.SECONDS));
+        assertTrue(open.isEmpty());
+    }
+
+    private void start(PositionStreamObserver.Settings settings) throws Exception {
+        PositionValidator validator = new PositionValidator();
+        IngestFilter filter = new IngestFilter() {
+            @Override
+            public Verdict check(VehiclePosition position) {
+                return "flood".equals(position.getVehicleId()) ? Verdict.RATE_LIMITED : Verdict.ACCEPT;
+            }
+        };
+        IngestPipeline ingest = new IngestPipeline() {
+            @Override
+            public boolean submit(VehiclePosition position) {
+                submitted.incrementAndGet();
+                return true;
+            }
+
+            @Override
+            public boolean hasCapacity() {
+                return true;
+            }
+        };
+        SessionRegistry sessions = new SessionRegistry();
+
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).directExecutor()
+                .addService(new VehicleTrackingServiceGrpc.VehicleTrackingServiceImplBase() {
+                    @Override
+                    public StreamObserver<VehiclePosition> streamPositions(StreamObserver<PositionAck> responses) {
+                        return new PositionStreamObserver(responses, settings, validator, filter,
+                                ingest, sessions, new HotPathLog(), new IngestMetrics(new SimpleMeterRegistry()), open);
+                    }
+                })
+                .build().start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    private static VehiclePosition position(String vehicleId, double latitude) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(latitude)
+                .setLongitude(31.2357)
+                .setSpeedKph(40)
+                .setTimestamp(System.currentTimeMillis() / 1000)
+                .build();
+    }
+}
@@ -0,0 +1,153 @@
+package com.alvoratrack.grpc;
+
+import com.alvoratrack.ingest.RecordingPipeline;
+import com.alvoratrack.session.SessionRegistry;
+import com.alvoratrack.util.HotPathLog;
+import com.alvoratrack.util.IngestFilter;
+import com.alvoratrack.util.PositionValidator;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VehicleTrackingGrpcServiceTest {
+
+    private final RecordingPipeline pipeline = new RecordingPipeline();
+    private final VehicleTrackingGrpcService service = new VehicleTrackingGrpcService();
+
+    private Server server;
+    private ManagedChannel channel;
+    private VehicleTrackingServiceGrpc.VehicleTrackingServiceBlockingStub stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // Keeps only the newest timestamp per vehicle, live and batched, like the real filter
+        Map<String, Long> newest = new ConcurrentHashMap<>();
+        Map<String, Long> newestBatched = new ConcurrentHashMap<>();
+        service.filter = new IngestFilter() {
+            @Override
+            public Verdict check(VehiclePosition position) {
+                long before = newest.getOrDefault(position.getVehicleId(), Long.MIN_VALUE);
+                if (position.getTimestamp() <= before) {
+                    return position.getTimestamp() == before ? Verdict.DUPLICATE : Verdict.STALE;
+                }
+                newest.put(position.getVehicleId(), position.getTimestamp());
+                return Verdict.ACCEPT;
+            }
+
+            @Override
+            public Verdict checkBatch(VehiclePosition position) {
+                if (position.getTimestamp() <= newestBatched.getOrDefault(position.getVehicleId(), Long.MIN_VALUE)
+                        || position.getTimestamp() == newest.getOrDefault(position.getVehicleId(), Long.MIN_VALUE)) {
+                    return Verdict.DUPLICATE;
+                }
+                newestBatched.put(position.getVehicleId(), position.getTimestamp());
+                return Verdict.ACCEPT;
+            }
+        };
+        service.validator = new PositionValidator();
+        service.ingest = pipeline.pipeline();
+        service.sessions = new SessionRegistry();
+        service.hotPathLog = new HotPathLog();
+        service.registry = new SimpleMeterRegistry();
+        service.ackInterval = Duration.ofMillis(500);
+        service.init();
+
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).directExecutor().addService(service).build().start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        stub = VehicleTrackingServiceGrpc.newBlockingStub(channel);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        service.shutdown();
+    }
+
+    @Test
+    void backfilledBatchReachesHistoryButDoesNotMoveTheLivePosition() {
+        stub.reportPosition(position("bus-1", 1_000));
+        BatchAck ack = stub.reportPositionBatch(PositionBatch.newBuilder()
+                .addPositions(position("bus-1", 502))
+                .addPositions(position("bus-1", 500))
+                .addPositions(position("bus-1", 501))
+                .addPositions(position("bus-2", 700))
+                .build());
+        pipeline.close();
+
+        assertEquals(4, ack.getAccepted());
+        assertEquals(List.of("bus-1@1000", "bus-2@700"), sorted(pipeline.cached));
+        assertEquals(List.of("bus-1@1000", "bus-2@700"), sorted(pipeline.broadcast));
+        assertEquals(List.of("bus-1@1000", "bus-1@500", "bus-1@501", "bus-1@502", "bus-2@700"),
+                sorted(pipeline.recorded));
+    }
+
+    @Test
+    void batchNewerThanTheLivePositionUpdatesIt() {
+        stub.reportPosition(position("bus-1", 1_000));
+        stub.reportPositionBatch(PositionBatch.newBuilder()
+                .addPositions(position("bus-1", 1_001))
+                .addPositions(position("bus-1", 1_002))
+                .build());
+        // The same batch again, after a lost ack
+        stub.reportPositionBatch(PositionBatch.newBuilder()
+                .addPositions(position("bus-1", 1_001))
+                .addPositions(position("bus-1", 1_002))
+                .build());
+        pipeline.close();
+
+        assertEquals(List.of("bus-1@1000", "bus-1@1002"), sorted(pipeline.cached));
+        assertEquals(List.of("bus-1@1000", "bus-1@1002"), sorted(pipeline.broadcast));
+        assertEquals(List.of("bus-1@1000", "bus-1@1001", "bus-1@1002"), sorted(pipeline.recorded));
+    }
+
+    @Test
+    void resentBackfillIsRecordedOnce() {
+        stub.reportPosition(position("bus-1", 1_000));
+        PositionBatch backfill = PositionBatch.newBuilder()
+                .addPositions(position("bus-1", 501))
+                .addPositions(position("bus-1", 500))
+                .addPositions(position("bus-1", 500))
+                .build();
+        BatchAck first = stub.reportPositionBatch(backfill);
+        BatchAck again = stub.reportPositionBatch(backfill);
+        pipeline.close();
+
+        // Both are acked, so the device stops resending
+        assertEquals(3, first.getAccepted());
+        assertEquals(3, again.getAccepted());
+        assertEquals(List.of("bus-1@1000", "bus-1@500", "bus-1@501"), sorted(pipeline.recorded));
+        assertEquals(List.of("bus-1@1000"), sorted(pipeline.cached));
+    }
+
+    private static List<String> sorted(List<VehiclePosition> positions) {
+        return positions.stream()
+                .map(position -> position.getVehicleId() + "@" + position.getTimestamp())
+                .sorted()
+                .toList();
+    }
+
+    private static VehiclePosition position(String vehicleId, long timestamp) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(30.0444)
+                .setLongitude(31.2357)
+                .setSpeedKph(40)
+                .setTimestamp(timestamp)
+                .build();
+    }
+}
@@ -0,0 +1,167 @@
+package com.alvoratrack.history;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrailStoreTest {
+
+    private static final long DAY = 86_400;
+
+    @TempDir
+    Path dir;
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+
+    @Test
+    void aDayAtOneHertzReadsBackExactlyAfterReopen() {
+        // Minute-aligned, so the day holds exactly 1440 one-minute intervals
+        long end = System.currentTimeMillis() / 60_000 * 60 - 1;
+        long start = end - DAY + 1;
+        List<TrailPoint> expected = new ArrayList<>();
+        TrailStore store = open();
+        Random random = new Random(3);
+        double latitude = 30.0444;
+        double longitude = 31.2357;
+        double speed = 0;
+        int bearing = 90;
+        for (long t = start; t <= end; t++) {
+            if (t % 600 < 120) {
+                speed = 0;
+            } else {
+                speed = Math.max(0, Math.min(90, speed + random.nextGaussian() * 2));
+                bearing = Math.floorMod(bearing + (int) (random.nextGaussian() * 3), 360);
+                double meters = speed / 3.6;
+                latitude += Math.cos(Math.toRadians(bearing)) * meters / 111_320;
+                longitude += Math.sin(Math.toRadians(bearing)) * meters / 96_000;
+            }
+            VehiclePosition position = position("bus-1", t, latitude, longitude, speed, bearing);
+            store.record(position);
+            expected.add(stored(position));
+        }
+        store.shutdown();
+
+        double bytesPerPoint = meters.get("tracker.history.bytes").counter().count() / expected.size();
+        assertTrue(bytesPerPoint < 10, "bytes per point " + bytesPerPoint);
+
+        TrailStore reopened = open();
+        List<TrailPoint> trail = new ArrayList<>();
+        assertEquals(DAY, reopened.read("bus-1", start, end, 0, trail::add));
+        assertEquals(expected, trail);
+
+        List<TrailPoint> hour = new ArrayList<>();
+        reopened.read("bus-1", start + 3_600, start + 7_199, 0, hour::add);
+        assertEquals(expected.subList(3_600, 7_200), hour);
+
+        assertEquals(1_440, reopened.read("bus-1", start, end, 60, point -> { }));
+        reopened.shutdown();
+    }
+
+    @Test
+    void mergesLatePointsAndServesUnflushedOnes() {
+        TrailStore store = open();
+        long now = System.currentTimeMillis() / 1000;
+        store.record(position("bus-2", now - 10, 30, 31, 10, 0));
+        store.record(position("bus-2", now - 20, 30, 31, 10, 0));
+        store.record(position("bus-2", now - 5, 30.001, 31, 12, 0));
+        store.record(position("bus-2", now - 5, 30.001, 31, 12, 0));
+
+        List<TrailPoint> trail = new ArrayList<>();
+        store.read("bus-2", now - 60, now, 0, trail::add);
+        assertEquals(List.of(now - 20, now - 10, now - 5), trail.stream().map(TrailPoint::timestamp).toList());
+        assertEquals(1, meters.get("tracker.history.points").tag("outcome", "late").counter().count());
+        assertEquals(1, meters.get("tracker.history.points").tag("outcome", "duplicate").counter().count());
+        store.shutdown();
+    }
+
+    @Test
+    void latePointsAreMergedAfterReopen() {
+        TrailStore store = open();
+        long start = System.currentTimeMillis() / 1000 - 3_600;
+        for (long t = start; t < start + 1_000; t += 2) {
+            store.record(position("bus-5", t, 30, 31, 10, 0));
+        }
+        store.flush(Long.MAX_VALUE);
+        // A device's backlog of the odd seconds, one of them sent twice
+        for (long t = start + 1; t < start + 1_000; t += 2) {
+            store.record(position("bus-5", t, 30, 31, 10, 0));
+        }
+        store.record(position("bus-5", start + 101, 30, 31, 10, 0));
+        store.record(position("bus-5", start + 1_000, 30, 31, 10, 0));
+        store.shutdown();
+
+        TrailStore reopened = open();
+        List<Long> timestamps = new ArrayList<>();
+        long emitted = reopened.read("bus-5", start, start + 1_000, 0, point -> timestamps.add(point.timestamp()));
+        assertEquals(1_001, emitted);
+        for (int i = 0; i <= 1_000; i++) {
+            assertEquals(start + i, timestamps.get(i));
+        }
+        assertEquals(101, reopened.read("bus-5", start + 100, start + 300, 2, point -> { }));
+        reopened.shutdown();
+    }
+
+    @Test
+    void retentionDropsExpiredPartitions() {
+        TrailStore store = open();
+        long now = System.currentTimeMillis() / 1000;
+        for (long t = now - 10 * DAY; t < now - 10 * DAY + 600; t++) {
+            store.record(position("bus-3", t, 30, 31, 0, 0));
+        }
+        store.record(position("bus-4", now, 30, 31, 0, 0));
+        store.flush(Long.MAX_VALUE);
+
+        store.applyRetention();
+
+        assertEquals(0, store.read("bus-3", now - 11 * DAY, now, 0, point -> { }));
+        assertEquals(1, store.read("bus-4", now - 60, now, 0, point -> { }));
+        store.shutdown();
+    }
+
+    private TrailStore open() {
+        TrailStore store = new TrailStore();
+        store.registry = meters;
+        store.enabled = true;
+        store.directory = dir.toString();
+        store.segmentBytes = 1 << 20;
+        store.partition = Duration.ofHours(6);
+        store.retention = Duration.ofDays(7);
+        store.blockPoints = 512;
+        store.flushInterval = Duration.ofMinutes(1);
+        store.init();
+        return store;
+    }
+
+    private static VehiclePosition position(String vehicleId, long timestamp, double latitude, double longitude,
+                                            double speed, int bearing) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setTimestamp(timestamp)
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .setSpeedKph(speed)
+                .setBearing(bearing)
+                .build();
+    }
+
+    /**
+     * The position as the store keeps it, at 1e-7 degrees and 0.01 km/h.
+     */
+    private static TrailPoint stored(VehiclePosition position) {
+        return new TrailPoint(position.getTimestamp(),
+                Math.round(position.getLatitude() * 1e7) / 1e7,
+                Math.round(position.getLongitude() * 1e7) / 1e7,
+                Math.round(position.getSpeedKph() * 100) / 100.0,
+                position.getBearing());
+    }
+}
@@ -0,0 +1,117 @@
+package com.alvoratrack.ingest;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestStageTest {
+
+    private final List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> overflowed = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void fullStageHandsEveryAckedPositionOnToItsOverflow() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        IngestStage stage = new IngestStage("test", 1, 4, position -> {
+            await(release);
+            handled.add(position.getTimestamp());
+        }, position -> overflowed.add(position.getTimestamp()), new SimpleMeterRegistry());
+        stage.start();
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(stage.offer(position(i), System.nanoTime()));
+        }
+        assertTrue(stage.offerAll("bus-1", List.of(position(20), position(21)), System.nanoTime()));
+        assertFalse(overflowed.isEmpty());
+
+        release.countDown();
+        stage.stop();
+        stage.awaitDrained(System.nanoTime() + Duration.ofSeconds(5).toNanos());
+
+        assertEquals(22, handled.size() + overflowed.size());
+        List<Long> all = new ArrayList<>(handled);
+        all.addAll(overflowed);
+        Collections.sort(all);
+        for (int i = 0; i < 22; i++) {
+            assertEquals(i, all.get(i));
+        }
+        // Handled in order, and nothing offered after stop() is queued
+        assertEquals(handled.stream().sorted().toList(), handled);
+        assertTrue(stage.offer(position(22), System.nanoTime()));
+        assertEquals(22L, overflowed.get(overflowed.size() - 1));
+    }
+
+    @Test
+    void stopDrainsQueuedPositionsBeforeTheDeadline() {
+        IngestStage stage = new IngestStage("test", 2, 100, position -> {
+            sleep(1);
+            handled.add(position.getTimestamp());
+        }, new SimpleMeterRegistry());
+        stage.start();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(stage.offer(position(i), System.nanoTime()));
+        }
+
+        stage.stop();
+        stage.awaitDrained(System.nanoTime() + Duration.ofSeconds(5).toNanos());
+
+        assertEquals(50, handled.size());
+        assertEquals(0, stage.depth());
+        assertFalse(stage.offer(position(50), System.nanoTime()));
+    }
+
+    @Test
+    void positionsStillQueuedAtTheDeadlineGoToTheOverflow() {
+        CountDownLatch release = new CountDownLatch(1);
+        IngestStage stage = new IngestStage("test", 1, 10, position -> {
+            await(release);
+            handled.add(position.getTimestamp());
+        }, position -> overflowed.add(position.getTimestamp()), new SimpleMeterRegistry());
+        stage.start();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(stage.offer(position(i), System.nanoTime()));
+        }
+
+        stage.stop();
+        stage.awaitDrained(System.nanoTime() + Duration.ofMillis(200).toNanos());
+        release.countDown();
+
+        // The worker was busy with the first position; the rest were spilled
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), overflowed);
+        assertEquals(0, stage.depth());
+    }
+
+    private static VehiclePosition position(long timestamp) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId("bus-1")
+                .setTimestamp(timestamp)
+                .build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
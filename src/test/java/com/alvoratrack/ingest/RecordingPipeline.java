@@ -0,0 +1,122 @@
+package com.alvoratrack.ingest;
+
+import com.alvoratrack.client.AlvoraCoreClient;
+import com.alvoratrack.client.TraccarClient;
+import com.alvoratrack.cluster.ClusterFanout;
+import com.alvoratrack.geo.SpatialIndex;
+import com.alvoratrack.geofence.GeofenceEngine;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.history.TrailStore;
+import com.alvoratrack.motion.MotionTracker;
+import com.alvoratrack.service.PositionCache;
+import com.alvoratrack.thinning.DownstreamThinning;
+import com.alvoratrack.thinning.PositionThinner;
+import com.alvoratrack.websocket.AdminFleetBroadcaster;
+import com.alvoratrack.websocket.ConnectionManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A real {@link IngestPipeline} with small stages that records what the
+ * cache, WebSocket and history stages are handed. {@link #close()} drains
+ * the stages, so everything submitted before it has been recorded.
+ */
+public final class RecordingPipeline implements AutoCloseable {
+
+    public final List<VehiclePosition> cached = new CopyOnWriteArrayList<>();
+    public final List<VehiclePosition> broadcast = new CopyOnWriteArrayList<>();
+    public final List<VehiclePosition> recorded = new CopyOnWriteArrayList<>();
+
+    private final IngestPipeline pipeline = new IngestPipeline();
+
+    public RecordingPipeline() {
+        pipeline.registry = new SimpleMeterRegistry();
+        pipeline.positionCache = new PositionCache() {
+            @Override
+            public void update(VehiclePosition position) {
+                cached.add(position);
+            }
+        };
+        pipeline.connections = new ConnectionManager() {
+            @Override
+            public void sendPosition(VehiclePosition position) {
+                broadcast.add(position);
+            }
+        };
+        pipeline.adminFleetBroadcaster = new AdminFleetBroadcaster() {
+            @Override
+            public void submit(VehiclePosition position, VehiclePosition previous) {
+            }
+        };
+        pipeline.spatialIndex = new SpatialIndex() {
+            @Override
+            public Update update(VehiclePosition position) {
+                return new Update(null, true);
+            }
+        };
+        pipeline.clusterFanout = new ClusterFanout();
+        pipeline.trailStore = new TrailStore() {
+            @Override
+            public void record(VehiclePosition position) {
+                recorded.add(position);
+            }
+        };
+        pipeline.geofenceEngine = new GeofenceEngine() {
+            @Override
+            public void evaluate(VehiclePosition position) {
+            }
+        };
+        pipeline.motionTracker = new MotionTracker() {
+            @Override
+            public void evaluate(VehiclePosition position) {
+            }
+        };
+        pipeline.traccarClient = new TraccarClient() {
+            @Override
+            public void forward(VehiclePosition position) {
+            }
+        };
+        pipeline.alvoraCoreClient = new AlvoraCoreClient() {
+            @Override
+            public boolean forward(VehiclePosition position) {
+                return true;
+            }
+        };
+        pipeline.thinning = new DownstreamThinning() {
+            @Override
+            public PositionThinner create(Destination destination, PositionThinner.Sink sink) {
+                return new PositionThinner(destination.label(), PositionThinner.Settings.disabled(),
+                        pipeline.registry, sink);
+            }
+        };
+        pipeline.cacheWorkers = 1;
+        pipeline.cacheQueueCapacity = 100;
+        pipeline.websocketWorkers = 1;
+        pipeline.websocketQueueCapacity = 100;
+        pipeline.historyWorkers = 1;
+        pipeline.historyQueueCapacity = 100;
+        pipeline.geofenceWorkers = 1;
+        pipeline.geofenceQueueCapacity = 100;
+        pipeline.motionWorkers = 1;
+        pipeline.motionQueueCapacity = 100;
+        pipeline.traccarWorkers = 1;
+        pipeline.traccarQueueCapacity = 100;
+        pipeline.alvoraCoreWorkers = 1;
+        pipeline.alvoraCoreQueueCapacity = 100;
+        pipeline.highWatermark = 0.8;
+        pipeline.shutdownTimeout = Duration.ofSeconds(5);
+        pipeline.init();
+    }
+
+    public IngestPipeline pipeline() {
+        return pipeline;
+    }
+
+    @Override
+    public void close() {
+        pipeline.shutdown();
+    }
+}
@@ -0,0 +1,84 @@
+package com.alvoratrack.motion;
+
+import com.alvoratrack.support.RedisStandIn;
+import io.quarkus.redis.runtime.datasource.ReactiveRedisDataSourceImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.RedisConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A replica that does not ingest a vehicle reads the motion state the
+ * ingesting one stored.
+ */
+class MotionStateStoreTest {
+
+    private RedisStandIn standIn;
+    private Vertx vertx;
+    private RedisConnection connection;
+    private MotionStateStore store;
+    private MotionStateStore other;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String uri = System.getProperty("test.redis.uri");
+        if (uri == null) {
+            standIn = new RedisStandIn();
+            uri = standIn.uri();
+        }
+        vertx = Vertx.vertx();
+        Redis redis = Redis.createClient(vertx, uri);
+        connection = redis.connect().await().atMost(Duration.ofSeconds(5));
+        store = store(redis, "node-a");
+        other = store(redis, "node-b");
+    }
+
+    private MotionStateStore store(Redis redis, String nodeId) {
+        MotionStateStore store = new MotionStateStore();
+        store.redisDS = new ReactiveRedisDataSourceImpl(vertx, redis, connection);
+        store.ttl = Duration.ofHours(24);
+        store.configuredNodeId = Optional.of(nodeId);
+        store.init();
+        return store;
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close().await().indefinitely();
+        vertx.closeAndAwait();
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Test
+    void otherReplicasSeeTheLastTransition() throws Exception {
+        assertNull(store.get("bus-1").await().atMost(Duration.ofSeconds(5)));
+
+        store.save("bus-1", new MotionTracker.State(MotionTracker.Status.MOVING, 1010, 1010));
+        store.save("bus-1", new MotionTracker.State(MotionTracker.Status.STOPPED, 1130, 1010));
+
+        MotionTracker reader = new MotionTracker();
+        reader.states = store;
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        MotionTracker.State state = null;
+        while (state == null || state.status() != MotionTracker.Status.STOPPED) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+            state = reader.sharedState("bus-1").await().atMost(Duration.ofSeconds(5));
+        }
+        assertEquals(new MotionTracker.State(MotionTracker.Status.STOPPED, 1130, 1010), state);
+        // A node does not take its own writes for another's
+        assertNull(store.fromOtherNode("bus-1").await().atMost(Duration.ofSeconds(5)));
+        assertEquals(state, other.fromOtherNode("bus-1").await().atMost(Duration.ofSeconds(5)));
+    }
+}
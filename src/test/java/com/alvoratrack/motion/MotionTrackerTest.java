@@ -0,0 +1,232 @@
+package com.alvoratrack.motion;
+
+import com.alvoratrack.client.AlvoraCoreClient;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.service.PositionCache;
+import com.alvoratrack.util.CoarseClock;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MotionTrackerTest {
+
+    // About 11 m per second of latitude at 40 km/h
+    private static final double STEP_40_KPH = 0.0001;
+
+    private final List<String> events = new ArrayList<>();
+    // What other nodes stored and cached
+    private final Map<String, MotionTracker.State> shared = new ConcurrentHashMap<>();
+    private final Map<String, Long> reportedAt = new ConcurrentHashMap<>();
+    private MotionTracker tracker;
+    private double latitude;
+    private long timestamp;
+
+    @BeforeEach
+    void setUp() {
+        tracker = new MotionTracker();
+        tracker.registry = new SimpleMeterRegistry();
+        tracker.alvoraCoreClient = new AlvoraCoreClient() {
+            @Override
+            public boolean forwardEvent(VehiclePosition position, String event) {
+                events.add(position.getTimestamp() + " " + event);
+                return true;
+            }
+        };
+        tracker.states = new MotionStateStore() {
+            @Override
+            public void save(String vehicleId, MotionTracker.State state) {
+            }
+
+            @Override
+            public Uni<MotionTracker.State> get(String vehicleId) {
+                return Uni.createFrom().item(shared.get(vehicleId));
+            }
+
+            @Override
+            public Uni<MotionTracker.State> fromOtherNode(String vehicleId) {
+                return Uni.createFrom().item(shared.get(vehicleId));
+            }
+        };
+        tracker.positions = new PositionCache() {
+            @Override
+            public Uni<Long> reportedAt(String vehicleId) {
+                return Uni.createFrom().item(reportedAt.get(vehicleId));
+            }
+        };
+        tracker.startSpeedKph = 10;
+        tracker.stopSpeedKph = 3;
+        tracker.startDistanceMeters = 100;
+        tracker.startAfter = Duration.ofSeconds(20);
+        tracker.stopAfter = Duration.ofMinutes(1);
+        tracker.idleAfter = Duration.ofMinutes(3);
+        tracker.tripEndAfter = Duration.ofMinutes(5);
+        tracker.lostAfter = Duration.ofMinutes(15);
+        tracker.evictAfter = Duration.ofHours(24);
+        tracker.init();
+        latitude = 30.0;
+        timestamp = 1_000;
+    }
+
+    @Test
+    void jitterWhileParkedSendsNothing() {
+        Random random = new Random(3);
+        for (int i = 0; i < 600; i++) {
+            // Up to 12 km/h and 20 m of noise, and now and then a single 150 m jump
+            double noise = i % 97 == 50 ? 0.00135 : (random.nextDouble() - 0.5) * 0.00036;
+            report(latitude + noise, random.nextDouble() * (i % 5 == 0 ? 12 : 6), false);
+        }
+        assertEquals(List.of(), events);
+        assertEquals(MotionTracker.Status.PARKED, tracker.state("bus-1").status());
+    }
+
+    @Test
+    void reportsATripWithoutItsTrafficLightStop() {
+        drive(60, false);
+        stand(30, false);
+        drive(60, false);
+        long stoppedAt = timestamp;
+        stand(420, false);
+
+        assertEquals(List.of(
+                "1010 trip_start",
+                (stoppedAt + 60) + " stop",
+                (stoppedAt + 300) + " trip_end"), events);
+        MotionTracker.State state = tracker.state("bus-1");
+        assertEquals(MotionTracker.Status.PARKED, state.status());
+        assertEquals(stoppedAt + 300, state.since());
+        assertEquals(0, state.tripStartedAt());
+    }
+
+    @Test
+    void usesTheIgnitionForIdlingAndTripEnd() {
+        drive(60, true);
+        long stoppedAt = timestamp;
+        stand(240, true);
+        assertEquals(MotionTracker.Status.IDLE, tracker.state("bus-1").status());
+        assertEquals(1010, tracker.state("bus-1").tripStartedAt());
+        drive(30, true);
+        report(latitude, 0, false);
+
+        assertEquals(List.of(
+                "1010 trip_start",
+                (stoppedAt + 60) + " stop",
+                (stoppedAt + 180) + " idle",
+                (stoppedAt + 249) + " move",
+                (stoppedAt + 270) + " trip_end"), events);
+    }
+
+    @Test
+    void sweepAdvancesVehiclesThatWentQuiet() {
+        drive(60, false);
+        long stoppedAt = timestamp;
+        stand(10, false);
+        long now = CoarseClock.currentTimeMillis();
+
+        tracker.advance(now + 600_000);
+        tracker.advance(now + 600_000);
+        assertEquals(List.of(
+                "1010 trip_start",
+                (stoppedAt + 60) + " stop",
+                (stoppedAt + 300) + " trip_end"), events);
+
+        tracker.advance(now + Duration.ofHours(25).toMillis());
+        assertNull(tracker.state("bus-1"));
+    }
+
+    @Test
+    void endsTheTripOfAVehicleLostWhileMoving() {
+        drive(60, true);
+        long lastReport = timestamp - 1;
+        long now = CoarseClock.currentTimeMillis();
+
+        tracker.advance(now + Duration.ofMinutes(10).toMillis());
+        assertEquals(MotionTracker.Status.MOVING, tracker.state("bus-1").status());
+        tracker.advance(now + Duration.ofMinutes(16).toMillis());
+        assertEquals(List.of("1010 trip_start", lastReport + " trip_end"), events);
+        assertEquals(MotionTracker.Status.PARKED, tracker.state("bus-1").status());
+
+        // Back in coverage: the usual rules start the next trip
+        drive(30, true);
+        assertEquals(List.of("1010 trip_start", lastReport + " trip_end", (lastReport + 10) + " trip_start"), events);
+    }
+
+    @Test
+    void carriesOnATripStartedOnAnotherNode() {
+        shared.put("bus-1", new MotionTracker.State(MotionTracker.Status.MOVING, 900, 900));
+        drive(60, false);
+        long stoppedAt = timestamp;
+        stand(420, false);
+
+        assertEquals(List.of((stoppedAt + 60) + " stop", (stoppedAt + 300) + " trip_end"), events);
+    }
+
+    @Test
+    void skipsTransitionsAnotherNodeReportedFirst() {
+        report(latitude, 0, false);
+        // The vehicle briefly reported to another node too, which started the trip
+        shared.put("bus-1", new MotionTracker.State(MotionTracker.Status.MOVING, 1005, 1005));
+        drive(60, false);
+
+        assertEquals(List.of(), events);
+        assertEquals(1, tracker.registry.counter("tracker.motion.events.skipped", "type", "trip_start").count());
+        assertEquals(new MotionTracker.State(MotionTracker.Status.MOVING, 1005, 1005), tracker.state("bus-1"));
+    }
+
+    @Test
+    void forgetsALostVehicleThatReportsToAnotherNode() {
+        drive(60, true);
+        long now = CoarseClock.currentTimeMillis();
+        reportedAt.put("bus-1", now + Duration.ofMinutes(15).toMillis());
+
+        tracker.advance(now + Duration.ofMinutes(16).toMillis());
+        assertEquals(List.of("1010 trip_start"), events);
+        assertNull(tracker.state("bus-1"));
+    }
+
+    @Test
+    void sharedStateIsTheLaterOfTheLocalAndStoredOnes() {
+        drive(60, false);
+        MotionTracker.State local = tracker.state("bus-1");
+        shared.put("bus-1", new MotionTracker.State(MotionTracker.Status.STOPPED, 900, 900));
+        assertEquals(local, tracker.sharedState("bus-1").await().indefinitely());
+
+        MotionTracker.State later = new MotionTracker.State(MotionTracker.Status.STOPPED, 2000, 1010);
+        shared.put("bus-1", later);
+        assertEquals(later, tracker.sharedState("bus-1").await().indefinitely());
+    }
+
+    private void drive(int seconds, boolean ignition) {
+        for (int i = 0; i < seconds; i++) {
+            latitude += STEP_40_KPH;
+            report(latitude, 40, ignition);
+        }
+    }
+
+    private void stand(int seconds, boolean ignition) {
+        for (int i = 0; i < seconds; i++) {
+            report(latitude, 0, ignition);
+        }
+    }
+
+    private void report(double lat, double speedKph, boolean ignition) {
+        tracker.evaluate(VehiclePosition.newBuilder()
+                .setVehicleId("bus-1")
+                .setLatitude(lat)
+                .setLongitude(31.0)
+                .setSpeedKph(speedKph)
+                .setIgnition(ignition)
+                .setTimestamp(timestamp++)
+                .build());
+    }
+}
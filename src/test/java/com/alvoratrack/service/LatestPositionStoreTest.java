@@ -0,0 +1,108 @@
+package com.alvoratrack.service;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LatestPositionStoreTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void evictsTheEldestEntryWhenAStripeIsFull() {
+        LatestPositionStore store = store(4, 1);
+        for (int i = 0; i < 5; i++) {
+            store.put(position("bus-" + i, i));
+        }
+        // Storing again moves bus-1 behind the others
+        store.put(position("bus-1", 10));
+        store.put(position("bus-5", 5));
+
+        assertEquals(4, store.size());
+        assertNull(store.get("bus-0"));
+        assertNull(store.get("bus-2"));
+        assertEquals(10, store.get("bus-1").getTimestamp());
+        assertEquals(2, evictions("size"));
+    }
+
+    @Test
+    void positionsReadBackKeepTheirAge() throws InterruptedException {
+        LatestPositionStore store = store(100, 4);
+        long now = System.currentTimeMillis();
+
+        store.putIfAbsent(position("bus-1", 1), now - 5_000);
+        assertNull(store.get("bus-1"));
+
+        store.putIfAbsent(position("bus-2", 1), now - 900);
+        store.putIfAbsent(position("bus-3", 1), now);
+        assertNotNull(store.get("bus-2"));
+        Thread.sleep(200);
+        assertNull(store.get("bus-2"));
+        assertNotNull(store.get("bus-3"));
+        assertEquals(1, evictions("ttl"));
+    }
+
+    @Test
+    void readBackDoesNotReplaceAFresherPosition() {
+        LatestPositionStore store = store(100, 4);
+        store.put(position("bus-1", 2));
+        store.putIfAbsent(position("bus-1", 1), System.currentTimeMillis());
+
+        assertEquals(2, store.get("bus-1").getTimestamp());
+    }
+
+    @Test
+    void refreshOnlyReplacesHeldPositionsWithNewerOnes() {
+        LatestPositionStore store = store(100, 4);
+        store.put(position("bus-1", 2));
+
+        store.refresh(position("bus-1", 1));
+        assertEquals(2, store.get("bus-1").getTimestamp());
+        store.refresh(position("bus-1", 3));
+        assertEquals(3, store.get("bus-1").getTimestamp());
+        // Not held here, so left to read through
+        store.refresh(position("bus-2", 3));
+        assertNull(store.get("bus-2"));
+    }
+
+    @Test
+    void sweepEvictsExpiredEntries() throws InterruptedException {
+        LatestPositionStore store = store(100, 1);
+        long now = System.currentTimeMillis();
+        store.putIfAbsent(position("bus-1", 1), now - 950);
+        store.putIfAbsent(position("bus-2", 1), now - 950);
+        store.put(position("bus-3", 1));
+        Thread.sleep(100);
+
+        store.evictExpired();
+        assertEquals(1, store.size());
+        assertEquals(2, evictions("ttl"));
+    }
+
+    private LatestPositionStore store(int maxEntries, int stripes) {
+        LatestPositionStore store = new LatestPositionStore();
+        store.registry = registry;
+        store.maxEntries = maxEntries;
+        store.stripeCount = stripes;
+        store.ttlSeconds = 1;
+        store.init();
+        return store;
+    }
+
+    private double evictions(String cause) {
+        return registry.counter("tracker.position.store.evictions", "cause", cause).count();
+    }
+
+    private static VehiclePosition position(String vehicleId, long timestamp) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(30.0444)
+                .setLongitude(31.2357)
+                .setTimestamp(timestamp)
+                .build();
+    }
+}
@@ -0,0 +1,170 @@
+package com.alvoratrack.service;
+
+import com.alvoratrack.geo.BoundingBox;
+import com.alvoratrack.geo.GeoMath;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.support.RedisStandIn;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.geo.GeoSearchArgs;
+import io.quarkus.redis.datasource.geo.GeoUnit;
+import io.quarkus.redis.runtime.datasource.ReactiveRedisDataSourceImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.RedisConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * GEOSEARCH over the geo set (the in-process stand-in unless
+ * {@code -Dtest.redis.uri} points at a real one) finds the same vehicles as
+ * a brute-force scan of the fleet, and expired members are dropped.
+ */
+class PositionCacheGeoTest {
+
+    private static final double LAT = 30.0444;
+    private static final double LON = 31.2357;
+    private static final String GEO_KEY = "vehicle:positions:geo";
+
+    private final List<VehiclePosition> fleet = new ArrayList<>();
+    private RedisStandIn standIn;
+    private Vertx vertx;
+    private RedisConnection connection;
+    private ReactiveRedisDataSource redisDS;
+    private PositionCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String uri = System.getProperty("test.redis.uri");
+        if (uri == null) {
+            standIn = new RedisStandIn();
+            uri = standIn.uri();
+        }
+        vertx = Vertx.vertx();
+        Redis redis = Redis.createClient(vertx, uri);
+        connection = redis.connect().await().atMost(Duration.ofSeconds(5));
+        redisDS = new ReactiveRedisDataSourceImpl(vertx, redis, connection);
+        redisDS.key().del(GEO_KEY).await().atMost(Duration.ofSeconds(5));
+
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        LatestPositionStore localStore = new LatestPositionStore();
+        localStore.registry = meters;
+        localStore.maxEntries = 10_000;
+        localStore.stripeCount = 4;
+        localStore.ttlSeconds = 300;
+        localStore.init();
+        cache = new PositionCache();
+        cache.redisDS = redisDS;
+        cache.localStore = localStore;
+        cache.registry = meters;
+        cache.ttlSeconds = 300;
+        cache.codecName = "protobuf";
+        cache.snapshotBatchSize = 100;
+        cache.snapshotConcurrency = 4;
+        cache.geoEnabled = true;
+        cache.init();
+
+        Random random = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            VehiclePosition position = VehiclePosition.newBuilder()
+                    .setVehicleId("veh-" + i)
+                    .setLatitude(LAT - 0.2 + random.nextDouble() * 0.4)
+                    .setLongitude(LON - 0.2 + random.nextDouble() * 0.4)
+                    .setTimestamp(1)
+                    .build();
+            fleet.add(position);
+            cache.update(position);
+        }
+        await(this::geoMembers, fleet.size());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close().await().indefinitely();
+        vertx.closeAndAwait();
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Test
+    void radiusSearchFindsTheVehiclesInRange() {
+        List<VehiclePosition> found = cache.geoSearch(new GeoSearchArgs<String>()
+                        .fromCoordinate(LON, LAT)
+                        .byRadius(5, GeoUnit.KM))
+                .await().atMost(Duration.ofSeconds(5));
+
+        List<String> expected = fleet.stream()
+                .filter(p -> distance(p) <= 5_000)
+                .map(VehiclePosition::getVehicleId)
+                .sorted()
+                .toList();
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, found.stream().map(VehiclePosition::getVehicleId).sorted().toList());
+    }
+
+    @Test
+    void boxSearchCoversTheBox() {
+        // 20 km by 10 km around the centre
+        List<VehiclePosition> found = cache.geoSearch(new GeoSearchArgs<String>()
+                        .fromCoordinate(LON, LAT)
+                        .byBox(20_000, 10_000, GeoUnit.M))
+                .await().atMost(Duration.ofSeconds(5));
+
+        BoundingBox inner = new BoundingBox(LAT - 0.044, LON - 0.1, LAT + 0.044, LON + 0.1);
+        assertTrue(found.stream().allMatch(p -> Math.abs(p.getLatitude() - LAT) < 0.046
+                && Math.abs(p.getLongitude() - LON) < 0.105));
+        List<String> ids = found.stream().map(VehiclePosition::getVehicleId).toList();
+        fleet.stream()
+                .filter(p -> inner.contains(p.getLatitude(), p.getLongitude()))
+                .forEach(p -> assertTrue(ids.contains(p.getVehicleId()), p.getVehicleId()));
+    }
+
+    @Test
+    void countedSearchReturnsTheNearestAndPrunesExpiredMembers() throws Exception {
+        List<VehiclePosition> byDistance = fleet.stream().sorted(Comparator.comparingDouble(this::distance)).toList();
+        redisDS.key().del(byDistance.subList(0, 5).stream()
+                        .map(p -> "vehicle:position:" + p.getVehicleId()).toArray(String[]::new))
+                .await().atMost(Duration.ofSeconds(5));
+
+        PositionCache.GeoMatches matches = cache.geoSearchCounted(new GeoSearchArgs<String>()
+                        .fromCoordinate(LON, LAT)
+                        .byRadius(100, GeoUnit.KM)
+                        .ascending()
+                        .count(20))
+                .await().atMost(Duration.ofSeconds(5));
+
+        assertEquals(20, matches.members());
+        assertEquals(byDistance.subList(5, 20).stream().map(VehiclePosition::getVehicleId).sorted().toList(),
+                matches.positions().stream().map(VehiclePosition::getVehicleId).sorted().toList());
+        await(this::geoMembers, fleet.size() - 5);
+    }
+
+    private long geoMembers() {
+        return redisDS.sortedSet(String.class).zcard(GEO_KEY).await().atMost(Duration.ofSeconds(5));
+    }
+
+    private double distance(VehiclePosition position) {
+        return GeoMath.distanceMeters(LAT, LON, position.getLatitude(), position.getLongitude());
+    }
+
+    private static void await(LongSupplier actual, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (actual.getAsLong() != expected) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.alvoratrack.service;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.service.codec.PositionCodec;
+import com.alvoratrack.support.RedisStandIn;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.runtime.datasource.ReactiveRedisDataSourceImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.RedisConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * A position read back from Redis is kept locally only for as long as the
+ * Redis copy has left to live.
+ */
+class PositionCacheTest {
+
+    private RedisStandIn standIn;
+    private Vertx vertx;
+    private RedisConnection connection;
+    private ReactiveRedisDataSource redisDS;
+    private LatestPositionStore localStore;
+    private PositionCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String uri = System.getProperty("test.redis.uri");
+        if (uri == null) {
+            standIn = new RedisStandIn();
+            uri = standIn.uri();
+        }
+        vertx = Vertx.vertx();
+        Redis redis = Redis.createClient(vertx, uri);
+        connection = redis.connect().await().atMost(Duration.ofSeconds(5));
+        redisDS = new ReactiveRedisDataSourceImpl(vertx, redis, connection);
+
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        localStore = new LatestPositionStore();
+        localStore.registry = meters;
+        localStore.maxEntries = 100;
+        localStore.stripeCount = 4;
+        localStore.ttlSeconds = 300;
+        localStore.init();
+        cache = new PositionCache();
+        cache.redisDS = redisDS;
+        cache.localStore = localStore;
+        cache.registry = meters;
+        cache.ttlSeconds = 300;
+        cache.codecName = "protobuf";
+        cache.snapshotBatchSize = 100;
+        cache.snapshotConcurrency = 4;
+        cache.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close().await().indefinitely();
+        vertx.closeAndAwait();
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Test
+    void readBackExpiresLocallyWithTheRedisCopy() throws InterruptedException {
+        PositionCodec codec = PositionCodec.named("protobuf");
+        // Written by another node 299 s into a 300 s TTL
+        redisDS.value(String.class, byte[].class).setex("vehicle:position:bus-1", 1, codec.encode(position("bus-1")))
+                .await().atMost(Duration.ofSeconds(5));
+        redisDS.value(String.class, byte[].class).setex("vehicle:position:bus-2", 300, codec.encode(position("bus-2")))
+                .await().atMost(Duration.ofSeconds(5));
+
+        assertNotNull(cache.get("bus-1").await().atMost(Duration.ofSeconds(5)));
+        assertNotNull(cache.get("bus-2").await().atMost(Duration.ofSeconds(5)));
+        assertNotNull(localStore.get("bus-1"));
+        Thread.sleep(1_100);
+        assertNull(localStore.get("bus-1"));
+        assertNotNull(localStore.get("bus-2"));
+        assertNull(cache.get("bus-1").await().atMost(Duration.ofSeconds(5)));
+        assertEquals(1, localStore.size());
+    }
+
+    private static VehiclePosition position(String vehicleId) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(30.0444)
+                .setLongitude(31.2357)
+                .setTimestamp(1)
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+package com.alvoratrack.service.codec;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PositionCodecTest {
+
+    private final VehiclePosition position = VehiclePosition.newBuilder()
+            .setVehicleId("van \"7\"\\north")
+            .setLatitude(-33.8688197)
+            .setLongitude(151.2092955)
+            .setSpeedKph(42.25)
+            .setBearing(90)
+            .setTimestamp(1_760_000_000L)
+            .setAltitude(12.5)
+            .setAccuracy(3.0)
+            .setIgnition(true)
+            .setMotion(false)
+            .setSatellites(8)
+            .build();
+
+    @Test
+    void protobufRoundTrip() {
+        assertEquals(position, PositionCodec.decodeAny(PositionCodec.PROTOBUF.encode(position)));
+    }
+
+    @Test
+    void jsonRoundTripEscapesVehicleId() {
+        assertEquals(position, PositionCodec.decodeAny(PositionCodec.JSON.encode(position)));
+    }
+
+    @Test
+    void readsLegacyStringFormatEntries() {
+        String legacy = "{\"vehicleId\":\"bus-12\",\"latitude\":30.044420,\"longitude\":31.235712,\"speedKph\":0.000000,"
+                + "\"bearing\":180,\"timestamp\":1760000000,\"altitude\":0.000000,\"accuracy\":5.000000,"
+                + "\"ignition\":false,\"motion\":true,\"satellites\":7}";
+
+        VehiclePosition decoded = PositionCodec.decodeAny(legacy.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("bus-12", decoded.getVehicleId());
+        assertEquals(30.04442, decoded.getLatitude(), 1e-9);
+        assertEquals(31.235712, decoded.getLongitude(), 1e-9);
+        assertEquals(180, decoded.getBearing());
+        assertEquals(1_760_000_000L, decoded.getTimestamp());
+        assertEquals(5.0, decoded.getAccuracy(), 1e-9);
+        assertEquals(true, decoded.getMotion());
+        assertEquals(7, decoded.getSatellites());
+    }
+}
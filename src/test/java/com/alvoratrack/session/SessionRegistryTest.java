@@ -0,0 +1,108 @@
+package com.alvoratrack.session;
+
+import com.alvoratrack.grpc.RouteAssignment;
+import com.alvoratrack.grpc.TrackingUpdate;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.ValidationResult;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionRegistryTest {
+
+    private final List<TrackingUpdate> updates = new ArrayList<>();
+    private SessionRegistry sessions;
+    private boolean cancelled;
+
+    @BeforeEach
+    void setUp() {
+        sessions = new SessionRegistry();
+        sessions.registry = new SimpleMeterRegistry();
+        sessions.idleAfter = Duration.ofMinutes(2);
+        sessions.routeTtl = Duration.ofHours(24);
+        sessions.maxRoutes = 2;
+        sessions.init();
+    }
+
+    @Test
+    void routeIsDeliveredOnlyToAnOpenSession() {
+        assertFalse(sessions.assignRoute("bus-1", route("r1")));
+
+        StreamObserver<VehiclePosition> stream = open();
+        stream.onNext(position("bus-1"));
+        assertEquals("r1", updates.get(0).getRoute().getRouteId());
+        assertTrue(sessions.assignRoute("bus-1", route("r2")));
+        assertEquals("r2", updates.get(1).getRoute().getRouteId());
+
+        // Cancelled under the session, before its close callback has run
+        cancelled = true;
+        assertFalse(sessions.assignRoute("bus-1", route("r3")));
+        assertFalse(sessions.assignRoute("bus-1", route("r4")));
+        assertEquals(2, updates.size());
+        stream.onError(new RuntimeException("cancelled"));
+        assertNull(sessions.get("bus-1"));
+    }
+
+    @Test
+    void boundsAndExpiresHeldRoutes() {
+        sessions.assignRoute("bus-1", route("r1"));
+        sessions.assignRoute("bus-2", route("r1"));
+        // Replacing or clearing a held route is always allowed
+        sessions.assignRoute("bus-2", route("r2"));
+        assertThrows(IllegalStateException.class, () -> sessions.assignRoute("bus-3", route("r1")));
+        sessions.assignRoute("bus-2", null);
+        sessions.assignRoute("bus-3", route("r1"));
+
+        sessions.sweep();
+        assertEquals("r1", sessions.route("bus-1").getRouteId());
+        sessions.routeTtl = Duration.ofMillis(-1);
+        sessions.sweep();
+        assertNull(sessions.route("bus-1"));
+        assertNull(sessions.route("bus-3"));
+    }
+
+    private StreamObserver<VehiclePosition> open() {
+        StreamObserver<TrackingUpdate> observer = new StreamObserver<>() {
+            @Override
+            public void onNext(TrackingUpdate update) {
+                if (cancelled) {
+                    throw new IllegalStateException("call already cancelled");
+                }
+                updates.add(update);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        };
+        return sessions.track(observer, position -> ValidationResult.VALID, position -> { });
+    }
+
+    private static RouteAssignment route(String routeId) {
+        return RouteAssignment.newBuilder().setRouteId(routeId).build();
+    }
+
+    private static VehiclePosition position(String vehicleId) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(30.0444)
+                .setLongitude(31.2357)
+                .setTimestamp(1)
+                .build();
+    }
+}
@@ -0,0 +1,140 @@
+package com.alvoratrack.session;
+
+import com.alvoratrack.grpc.RouteAssignment;
+import com.alvoratrack.grpc.TrackingUpdate;
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.grpc.VehicleTrackingServiceGrpc;
+import com.alvoratrack.grpc.Waypoint;
+import com.alvoratrack.util.ValidationResult;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Opens many concurrent {@code TrackVehicle} sessions over in-process gRPC and
+ * drives them through route assignment, idling and disconnect. Scale with
+ * {@code -Dtracking.load.sessions=50000}.
+ */
+class TrackingSessionLoadTest {
+
+    private static final Logger LOG = Logger.getLogger(TrackingSessionLoadTest.class);
+    private static final int SESSIONS = Integer.getInteger("tracking.load.sessions", 2_000);
+
+    private Server server;
+    private ManagedChannel channel;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (channel != null) {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (server != null) {
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void holdsManyConcurrentSessions() throws Exception {
+        SessionRegistry registry = new SessionRegistry();
+        registry.registry = new SimpleMeterRegistry();
+        registry.idleAfter = Duration.ofMinutes(2);
+        registry.routeTtl = Duration.ofHours(24);
+        registry.maxRoutes = SESSIONS;
+        registry.init();
+        AtomicInteger ingested = new AtomicInteger();
+
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).directExecutor()
+                .addService(new VehicleTrackingServiceGrpc.VehicleTrackingServiceImplBase() {
+                    @Override
+                    public StreamObserver<VehiclePosition> trackVehicle(StreamObserver<TrackingUpdate> updates) {
+                        return registry.track(updates, position -> ValidationResult.VALID, position -> ingested.incrementAndGet());
+                    }
+                })
+                .build().start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        VehicleTrackingServiceGrpc.VehicleTrackingServiceStub stub = VehicleTrackingServiceGrpc.newStub(channel);
+
+        CountDownLatch tracking = new CountDownLatch(SESSIONS);
+        CountDownLatch routed = new CountDownLatch(SESSIONS);
+        CountDownLatch idle = new CountDownLatch(SESSIONS);
+        CountDownLatch completed = new CountDownLatch(SESSIONS);
+        List<StreamObserver<VehiclePosition>> devices = new ArrayList<>(SESSIONS);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SESSIONS; i++) {
+            StreamObserver<VehiclePosition> device = stub.trackVehicle(new StreamObserver<>() {
+                @Override
+                public void onNext(TrackingUpdate update) {
+                    if (update.hasRoute()) {
+                        routed.countDown();
+                    } else if (TrackingSession.IDLE.equals(update.getStatus())) {
+                        idle.countDown();
+                    } else {
+                        tracking.countDown();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                    completed.countDown();
+                }
+            });
+            device.onNext(position("veh-" + i));
+            devices.add(device);
+        }
+        assertTrue(tracking.await(60, TimeUnit.SECONDS));
+        long opened = System.nanoTime() - start;
+        assertEquals(SESSIONS, registry.size());
+
+        RouteAssignment route = RouteAssignment.newBuilder()
+                .setRouteId("route-1")
+                .addWaypoints(Waypoint.newBuilder().setId("wp-1").setLatitude(30.05).setLongitude(31.24))
+                .build();
+        for (int i = 0; i < SESSIONS; i++) {
+            assertTrue(registry.assignRoute("veh-" + i, route));
+        }
+        assertTrue(routed.await(60, TimeUnit.SECONDS));
+
+        registry.idleAfter = Duration.ofMillis(-1);
+        registry.sweep();
+        assertTrue(idle.await(60, TimeUnit.SECONDS));
+
+        devices.forEach(StreamObserver::onCompleted);
+        assertTrue(completed.await(60, TimeUnit.SECONDS));
+        assertEquals(0, registry.size());
+        assertEquals(SESSIONS, ingested.get());
+
+        LOG.infof("Opened %d tracking sessions in %d ms", SESSIONS, TimeUnit.NANOSECONDS.toMillis(opened));
+    }
+
+    private static VehiclePosition position(String vehicleId) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(30.0444)
+                .setLongitude(31.2357)
+                .setSpeedKph(40)
+                .setTimestamp(System.currentTimeMillis() / 1000)
+                .build();
+    }
+}
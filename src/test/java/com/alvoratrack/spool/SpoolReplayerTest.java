@@ -0,0 +1,143 @@
+package com.alvoratrack.spool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpoolReplayerTest {
+
+    @TempDir
+    Path dir;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // Each vehicle's records in the order the downstream got them
+    private final Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+    private Spool spool;
+    private SpoolReplayer replayer;
+
+    @AfterEach
+    void tearDown() {
+        if (replayer != null) {
+            replayer.close();
+        }
+    }
+
+    @Test
+    void drainsWhileBusyVehiclesKeepSpooling() throws Exception {
+        // A 5 ms downstream: a round of one record per vehicle would clear 600 records a second
+        start(vehicleId -> true, payloads -> deliverAfter(5, payloads));
+
+        int sequence = 0;
+        for (int burst = 0; burst < 40; burst++) {
+            for (int i = 0; i < 50; i++) {
+                for (int vehicle = 1; vehicle <= 3; vehicle++) {
+                    replayer.append(record("bus-" + vehicle, sequence));
+                }
+                sequence++;
+            }
+            assertTrue(replayer.holds("bus-1"));
+            // Vehicles with nothing spooled stay on the live path
+            assertFalse(replayer.holds("bus-9"));
+            Thread.sleep(10);
+        }
+
+        await(() -> spool.pending() == 0, Duration.ofSeconds(5));
+        for (int vehicle = 1; vehicle <= 3; vehicle++) {
+            assertEquals(sequence(sequence), received.get("bus-" + vehicle));
+        }
+        await(() -> !replayer.holds("bus-1"), Duration.ofSeconds(1));
+        assertEquals(3.0 * sequence, registry.counter("tracker.spool.replayed", "downstream", "test").count());
+    }
+
+    @Test
+    void aFailureOrAWaitingVehicleHoldsUpOnlyItsOwnRecords() throws Exception {
+        AtomicBoolean failNext = new AtomicBoolean(true);
+        AtomicBoolean bus3Idle = new AtomicBoolean(false);
+        start(vehicleId -> !vehicleId.equals("bus-3") || bus3Idle.get(), payloads -> {
+            if (key(payloads.get(0)).equals("bus-2") && failNext.getAndSet(false)) {
+                return CompletableFuture.completedFuture(DeliveryResult.FAILED);
+            }
+            return deliverAfter(0, payloads);
+        });
+
+        for (int i = 0; i < 10; i++) {
+            replayer.append(record("bus-3", i));
+            replayer.append(record("bus-2", i));
+            replayer.append(record("bus-1", i));
+        }
+
+        await(() -> received.containsKey("bus-1") && received.containsKey("bus-2"), Duration.ofSeconds(5));
+        await(() -> received.get("bus-2").size() == 10, Duration.ofSeconds(5));
+        assertFalse(received.containsKey("bus-3"));
+        assertTrue(replayer.holds("bus-3"));
+
+        bus3Idle.set(true);
+        await(() -> spool.pending() == 0, Duration.ofSeconds(5));
+        // Records delivered past the retried ones are not sent again
+        for (String vehicleId : List.of("bus-1", "bus-2", "bus-3")) {
+            assertEquals(sequence(10), received.get(vehicleId));
+        }
+    }
+
+    private void start(Predicate<String> idle, Function<List<byte[]>, CompletableFuture<DeliveryResult>> sender) {
+        spool = new Spool(dir, 1 << 16, 1 << 24, Duration.ofHours(1));
+        replayer = new SpoolReplayer("test", spool, 4, 256, 50, sender, SpoolReplayerTest::key, idle, registry);
+        replayer.start();
+    }
+
+    private CompletableFuture<DeliveryResult> deliverAfter(long millis, List<byte[]> payloads) {
+        return CompletableFuture.supplyAsync(() -> {
+            for (byte[] payload : payloads) {
+                String[] fields = new String(payload, StandardCharsets.UTF_8).split(":");
+                received.computeIfAbsent(fields[0], k -> new CopyOnWriteArrayList<>())
+                        .add(Integer.parseInt(fields[1]));
+            }
+            return DeliveryResult.DELIVERED;
+        }, CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS));
+    }
+
+    private static byte[] record(String vehicleId, int sequence) {
+        return (vehicleId + ":" + sequence).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String key(byte[] payload) {
+        String text = new String(payload, StandardCharsets.UTF_8);
+        return text.substring(0, text.indexOf(':'));
+    }
+
+    private static List<Integer> sequence(int count) {
+        List<Integer> sequence = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sequence.add(i);
+        }
+        return sequence;
+    }
+
+    private static void await(BooleanSupplier condition, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.alvoratrack.spool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpoolTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsSurviveReopenFromCheckpoint() {
+        try (Spool spool = new Spool(dir, 4096, 1 << 20, Duration.ofHours(1))) {
+            for (int i = 0; i < 100; i++) {
+                spool.append(("record-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(100, spool.pending());
+            spool.advance(spool.peek(40).get(39));
+        }
+
+        try (Spool spool = new Spool(dir, 4096, 1 << 20, Duration.ofHours(1))) {
+            assertEquals(60, spool.pending());
+            List<Spool.Record> records = spool.peek(5);
+            assertEquals("record-40", new String(records.get(0).payload(), StandardCharsets.UTF_8));
+            assertEquals("record-44", new String(records.get(4).payload(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void dropsOldestSegmentWhenOverSizeLimit() {
+        try (Spool spool = new Spool(dir, 1024, 2048, Duration.ofHours(1))) {
+            for (int i = 0; i < 200; i++) {
+                spool.append(new byte[32]);
+            }
+            assertEquals(200, spool.pending() + spool.dropped());
+            assertTrue(spool.dropped() > 0);
+        }
+    }
+
+    @Test
+    void rollDuringAPeekDoesNotSkipRecords() {
+        try (Spool spool = new Spool(dir, 1024, 2048, Duration.ofHours(1))) {
+            int appended = 0;
+            while (appended < 20) {
+                spool.append(record(appended++));
+            }
+            List<Spool.Record> inFlight = spool.peek(5);
+            assertEquals("record-0", text(inFlight.get(0)));
+
+            // Over the limit while the batch is out: its segment is dropped
+            while (spool.dropped() == 0) {
+                spool.append(record(appended++));
+            }
+            String head = text(spool.peek(1).get(0));
+            spool.advance(inFlight.get(4));
+
+            assertEquals(head, text(spool.peek(1).get(0)));
+            assertEquals(appended, spool.pending() + spool.dropped());
+        }
+    }
+
+    private static byte[] record(int i) {
+        return ("record-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(Spool.Record record) {
+        return new String(record.payload(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,665 @@
+package com.alvoratrack.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal single-process RESP2 server implementing the subset of Redis
+ * commands used by tracker-service, including PUBLISH/SUBSCRIBE. Used by
+ * benchmarks and tests where a real Redis is not available.
+ */
+public class RedisStandIn implements AutoCloseable {
+
+    private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NIL = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+    // Redis' geohash: 26 bits each of latitude and longitude, interleaved into a sorted set score
+    private static final int GEO_STEP = 26;
+    private static final double GEO_LAT_LIMIT = 85.05112878;
+    private static final double EARTH_RADIUS_METERS = 6372797.560856;
+
+    private final Map<String, Value> strings = new ConcurrentHashMap<>();
+    private final Map<String, SortedSet> sortedSets = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, byte[]>> hashes = new ConcurrentHashMap<>();
+    private final Map<String, Set<OutputStream>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final ServerSocket server;
+
+    public RedisStandIn() throws IOException {
+        this(0);
+    }
+
+    public RedisStandIn(int port) throws IOException {
+        server = new ServerSocket(port, 512, InetAddress.getLoopbackAddress());
+        workers.submit(this::acceptLoop);
+    }
+
+    public String uri() {
+        return "redis://127.0.0.1:" + server.getLocalPort();
+    }
+
+    public void flushAll() {
+        strings.clear();
+        sortedSets.clear();
+        hashes.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        workers.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                workers.submit(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024)) {
+            try {
+                while (true) {
+                    List<byte[]> command = readCommand(in);
+                    if (command == null) {
+                        return;
+                    }
+                    // Publishers on other connections write to this stream too
+                    synchronized (out) {
+                        if (!pubSub(command, out)) {
+                            execute(command, out);
+                        }
+                        // Flush once the client stops pipelining
+                        if (in.available() == 0) {
+                            out.flush();
+                        }
+                    }
+                }
+            } finally {
+                subscribers.values().forEach(streams -> streams.remove(out));
+            }
+        } catch (IOException ignored) {
+            // connection closed by client
+        }
+    }
+
+    /**
+     * Handles SUBSCRIBE, UNSUBSCRIBE and PUBLISH, which need the connection
+     * rather than the keyspace. Returns false for any other command.
+     */
+    private boolean pubSub(List<byte[]> args, OutputStream out) throws IOException {
+        String name = str(args.get(0)).toUpperCase();
+        switch (name) {
+            case "SUBSCRIBE", "UNSUBSCRIBE" -> {
+                boolean subscribe = name.equals("SUBSCRIBE");
+                for (int i = 1; i < args.size(); i++) {
+                    String channel = str(args.get(i));
+                    if (subscribe) {
+                        subscribers.computeIfAbsent(channel, c -> ConcurrentHashMap.newKeySet()).add(out);
+                    } else {
+                        subscribers.getOrDefault(channel, Set.of()).remove(out);
+                    }
+                    writeArrayHeader(out, 3);
+                    writeBulk(out, name.toLowerCase().getBytes(StandardCharsets.US_ASCII));
+                    writeBulk(out, args.get(i));
+                    writeInt(out, subscribe ? 1 : 0);
+                }
+                return true;
+            }
+            case "PUBLISH" -> {
+                int receivers = 0;
+                for (OutputStream subscriber : subscribers.getOrDefault(str(args.get(1)), Set.of())) {
+                    synchronized (subscriber) {
+                        try {
+                            writeArrayHeader(subscriber, 3);
+                            writeBulk(subscriber, "message".getBytes(StandardCharsets.US_ASCII));
+                            writeBulk(subscriber, args.get(1));
+                            writeBulk(subscriber, args.get(2));
+                            subscriber.flush();
+                            receivers++;
+                        } catch (IOException e) {
+                            // subscriber went away; its connection cleans up
+                        }
+                    }
+                }
+                writeInt(out, receivers);
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    protected void execute(List<byte[]> args, OutputStream out) throws IOException {
+        String name = str(args.get(0)).toUpperCase();
+        switch (name) {
+            case "PING" -> out.write("+PONG\r\n".getBytes(StandardCharsets.US_ASCII));
+            case "SELECT", "AUTH", "CLIENT" -> out.write(OK);
+            case "SET" -> {
+                long ttl = -1;
+                for (int i = 3; i + 1 < args.size(); i++) {
+                    if (str(args.get(i)).equalsIgnoreCase("EX")) {
+                        ttl = Long.parseLong(str(args.get(i + 1))) * 1000;
+                    }
+                }
+                strings.put(str(args.get(1)), new Value(args.get(2), ttl < 0 ? Long.MAX_VALUE : now() + ttl));
+                out.write(OK);
+            }
+            case "SETEX" -> {
+                long ttl = Long.parseLong(str(args.get(2))) * 1000;
+                strings.put(str(args.get(1)), new Value(args.get(3), now() + ttl));
+                out.write(OK);
+            }
+            case "GET" -> writeBulk(out, get(str(args.get(1))));
+            case "PTTL" -> {
+                String key = str(args.get(1));
+                Value value = get(key) != null ? strings.get(key) : null;
+                if (value == null) {
+                    writeInt(out, -2);
+                } else {
+                    writeInt(out, value.expiresAt() == Long.MAX_VALUE ? -1 : Math.max(0, value.expiresAt() - now()));
+                }
+            }
+            case "MGET" -> {
+                writeArrayHeader(out, args.size() - 1);
+                for (int i = 1; i < args.size(); i++) {
+                    writeBulk(out, get(str(args.get(i))));
+                }
+            }
+            case "DEL" -> {
+                int removed = 0;
+                for (int i = 1; i < args.size(); i++) {
+                    String key = str(args.get(i));
+                    if (strings.remove(key) != null | sortedSets.remove(key) != null | hashes.remove(key) != null) {
+                        removed++;
+                    }
+                }
+                writeInt(out, removed);
+            }
+            case "INCR" -> {
+                String key = str(args.get(1));
+                Value value = strings.get(key);
+                boolean live = value != null && value.expiresAt() > now();
+                long next = (live ? Long.parseLong(str(value.bytes())) : 0) + 1;
+                strings.put(key, new Value(Long.toString(next).getBytes(StandardCharsets.US_ASCII),
+                        live ? value.expiresAt() : Long.MAX_VALUE));
+                writeInt(out, next);
+            }
+            case "HSET" -> {
+                Map<String, byte[]> hash = hashes.computeIfAbsent(str(args.get(1)), k -> new ConcurrentHashMap<>());
+                int added = 0;
+                for (int i = 2; i + 1 < args.size(); i += 2) {
+                    added += hash.put(str(args.get(i)), args.get(i + 1)) == null ? 1 : 0;
+                }
+                writeInt(out, added);
+            }
+            case "HSETNX" -> {
+                Map<String, byte[]> hash = hashes.computeIfAbsent(str(args.get(1)), k -> new ConcurrentHashMap<>());
+                writeInt(out, hash.putIfAbsent(str(args.get(2)), args.get(3)) == null ? 1 : 0);
+            }
+            case "HDEL" -> {
+                Map<String, byte[]> hash = hashes.get(str(args.get(1)));
+                int removed = 0;
+                for (int i = 2; hash != null && i < args.size(); i++) {
+                    removed += hash.remove(str(args.get(i))) != null ? 1 : 0;
+                }
+                writeInt(out, removed);
+            }
+            case "HGETALL" -> {
+                Map<String, byte[]> hash = hashes.getOrDefault(str(args.get(1)), Map.of());
+                List<byte[]> reply = new ArrayList<>(hash.size() * 2);
+                hash.forEach((field, value) -> {
+                    reply.add(field.getBytes(StandardCharsets.UTF_8));
+                    reply.add(value);
+                });
+                writeArray(out, reply);
+            }
+            case "EXPIRE" -> {
+                // Only string values expire here; other keys just report whether they exist
+                String key = str(args.get(1));
+                Value value = get(key) != null ? strings.get(key) : null;
+                if (value != null) {
+                    strings.put(key, new Value(value.bytes(), now() + Long.parseLong(str(args.get(2))) * 1000));
+                }
+                writeInt(out, value != null || hashes.containsKey(key) || sortedSets.containsKey(key) ? 1 : 0);
+            }
+            case "EXISTS" -> writeInt(out, get(str(args.get(1))) != null ? 1 : 0);
+            case "KEYS" -> {
+                Pattern pattern = globToRegex(str(args.get(1)));
+                List<byte[]> keys = new ArrayList<>();
+                for (String key : strings.keySet()) {
+                    if (pattern.matcher(key).matches() && get(key) != null) {
+                        keys.add(key.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                writeArray(out, keys);
+            }
+            case "ZADD" -> {
+                SortedSet set = sortedSets.computeIfAbsent(str(args.get(1)), k -> new SortedSet());
+                int added = 0;
+                for (int i = 2; i + 1 < args.size(); i += 2) {
+                    added += set.add(Double.parseDouble(str(args.get(i))), str(args.get(i + 1))) ? 1 : 0;
+                }
+                writeInt(out, added);
+            }
+            case "ZREM" -> {
+                SortedSet set = sortedSets.get(str(args.get(1)));
+                int removed = 0;
+                for (int i = 2; set != null && i < args.size(); i++) {
+                    removed += set.remove(str(args.get(i))) ? 1 : 0;
+                }
+                writeInt(out, removed);
+            }
+            case "ZSCORE" -> {
+                SortedSet set = sortedSets.get(str(args.get(1)));
+                Double score = set == null ? null : set.score(str(args.get(2)));
+                writeBulk(out, score == null ? null : Double.toString(score).getBytes(StandardCharsets.US_ASCII));
+            }
+            case "ZCARD" -> {
+                SortedSet set = sortedSets.get(str(args.get(1)));
+                writeInt(out, set == null ? 0 : set.size());
+            }
+            case "ZRANGE", "ZRANGEBYSCORE" -> {
+                if (name.equals("ZRANGE") && args.stream().skip(4).noneMatch(a -> str(a).equalsIgnoreCase("BYSCORE"))) {
+                    writeError(out, "ERR only ZRANGE ... BYSCORE is supported");
+                    return;
+                }
+                SortedSet set = sortedSets.get(str(args.get(1)));
+                List<String> members = set == null ? List.of() : set.range(str(args.get(2)), str(args.get(3)));
+                List<byte[]> reply = new ArrayList<>(members.size());
+                members.forEach(m -> reply.add(m.getBytes(StandardCharsets.UTF_8)));
+                writeArray(out, reply);
+            }
+            case "GEOADD" -> {
+                SortedSet set = sortedSets.computeIfAbsent(str(args.get(1)), k -> new SortedSet());
+                int i = 2;
+                while (i < args.size() && Set.of("NX", "XX", "CH").contains(str(args.get(i)).toUpperCase())) {
+                    i++;
+                }
+                int added = 0;
+                for (; i + 2 < args.size(); i += 3) {
+                    double longitude = Double.parseDouble(str(args.get(i)));
+                    double latitude = Double.parseDouble(str(args.get(i + 1)));
+                    added += set.add(geohash(latitude, longitude), str(args.get(i + 2))) ? 1 : 0;
+                }
+                writeInt(out, added);
+            }
+            case "GEOSEARCH" -> geoSearch(args, out);
+            case "ZREMRANGEBYSCORE" -> {
+                SortedSet set = sortedSets.get(str(args.get(1)));
+                writeInt(out, set == null ? 0 : set.removeRange(str(args.get(2)), str(args.get(3))));
+            }
+            default -> writeError(out, "ERR unknown command '" + name + "'");
+        }
+    }
+
+    /**
+     * GEOSEARCH with FROMLONLAT or FROMMEMBER, BYRADIUS or BYBOX, ASC or
+     * DESC, COUNT (ANY is accepted and ignored) and the WITHDIST, WITHHASH
+     * and WITHCOORD replies, measured as Redis does.
+     */
+    private void geoSearch(List<byte[]> args, OutputStream out) throws IOException {
+        SortedSet set = sortedSets.get(str(args.get(1)));
+        double centerLat = Double.NaN;
+        double centerLon = Double.NaN;
+        double radius = Double.NaN;
+        double width = Double.NaN;
+        double height = Double.NaN;
+        double unit = 1;
+        int order = 0;
+        long count = Long.MAX_VALUE;
+        boolean withDist = false;
+        boolean withHash = false;
+        boolean withCoord = false;
+        for (int i = 2; i < args.size(); i++) {
+            switch (str(args.get(i)).toUpperCase()) {
+                case "FROMLONLAT" -> {
+                    centerLon = Double.parseDouble(str(args.get(++i)));
+                    centerLat = Double.parseDouble(str(args.get(++i)));
+                }
+                case "FROMMEMBER" -> {
+                    Double score = set == null ? null : set.score(str(args.get(++i)));
+                    if (score == null) {
+                        writeError(out, "ERR could not decode requested zset member");
+                        return;
+                    }
+                    double[] center = geoDecode(score.longValue());
+                    centerLat = center[0];
+                    centerLon = center[1];
+                }
+                case "BYRADIUS" -> {
+                    radius = Double.parseDouble(str(args.get(++i)));
+                    unit = geoUnit(str(args.get(++i)));
+                    radius *= unit;
+                }
+                case "BYBOX" -> {
+                    width = Double.parseDouble(str(args.get(++i)));
+                    height = Double.parseDouble(str(args.get(++i)));
+                    unit = geoUnit(str(args.get(++i)));
+                    width *= unit;
+                    height *= unit;
+                }
+                case "ASC" -> order = 1;
+                case "DESC" -> order = -1;
+                case "COUNT" -> count = Long.parseLong(str(args.get(++i)));
+                case "WITHDIST" -> withDist = true;
+                case "WITHHASH" -> withHash = true;
+                case "WITHCOORD" -> withCoord = true;
+                case "ANY" -> { }
+                default -> {
+                    writeError(out, "ERR syntax error");
+                    return;
+                }
+            }
+        }
+        if (Double.isNaN(centerLat) || Double.isNaN(radius) == Double.isNaN(width)) {
+            writeError(out, "ERR exactly one of FROMMEMBER or FROMLONLAT and BYRADIUS or BYBOX is required");
+            return;
+        }
+
+        record Match(String member, long hash, double latitude, double longitude, double distance) {
+        }
+        List<Match> matches = new ArrayList<>();
+        for (Scored scored : set == null ? List.<Scored>of() : set.all()) {
+            long hash = (long) scored.score();
+            double[] point = geoDecode(hash);
+            double distance = haversine(centerLat, centerLon, point[0], point[1]);
+            boolean inside = Double.isNaN(radius)
+                    ? haversine(centerLat, centerLon, point[0], centerLon) <= height / 2
+                    && haversine(point[0], point[1], point[0], centerLon) <= width / 2
+                    : distance <= radius;
+            if (inside) {
+                matches.add(new Match(scored.member(), hash, point[0], point[1], distance));
+            }
+        }
+        if (order == 0 && count != Long.MAX_VALUE) {
+            // Like Redis, COUNT without an order returns the nearest
+            order = 1;
+        }
+        if (order != 0) {
+            int direction = order;
+            matches.sort((a, b) -> direction * Double.compare(a.distance(), b.distance()));
+        }
+        if (matches.size() > count) {
+            matches = matches.subList(0, (int) count);
+        }
+
+        writeArrayHeader(out, matches.size());
+        boolean nested = withDist || withHash || withCoord;
+        for (Match match : matches) {
+            if (nested) {
+                writeArrayHeader(out, 1 + (withDist ? 1 : 0) + (withHash ? 1 : 0) + (withCoord ? 1 : 0));
+            }
+            writeBulk(out, match.member().getBytes(StandardCharsets.UTF_8));
+            if (withDist) {
+                writeBulk(out, String.format(Locale.ROOT, "%.4f", match.distance() / unit)
+                        .getBytes(StandardCharsets.US_ASCII));
+            }
+            if (withHash) {
+                writeInt(out, match.hash());
+            }
+            if (withCoord) {
+                writeArrayHeader(out, 2);
+                writeBulk(out, Double.toString(match.longitude()).getBytes(StandardCharsets.US_ASCII));
+                writeBulk(out, Double.toString(match.latitude()).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    private static double geoUnit(String unit) {
+        return switch (unit.toLowerCase()) {
+            case "m" -> 1;
+            case "km" -> 1000;
+            case "mi" -> 1609.34;
+            case "ft" -> 0.3048;
+            default -> throw new IllegalArgumentException("unsupported unit " + unit);
+        };
+    }
+
+    private static long geohash(double latitude, double longitude) {
+        long cells = 1L << GEO_STEP;
+        long lat = Math.min(cells - 1, (long) ((latitude + GEO_LAT_LIMIT) / (2 * GEO_LAT_LIMIT) * cells));
+        long lon = Math.min(cells - 1, (long) ((longitude + 180) / 360 * cells));
+        long hash = 0;
+        for (int bit = 0; bit < GEO_STEP; bit++) {
+            hash |= ((lat >> bit) & 1) << (2 * bit);
+            hash |= ((lon >> bit) & 1) << (2 * bit + 1);
+        }
+        return hash;
+    }
+
+    /**
+     * The centre of a geohash cell, as {@code {latitude, longitude}}.
+     */
+    private static double[] geoDecode(long hash) {
+        long lat = 0;
+        long lon = 0;
+        for (int bit = 0; bit < GEO_STEP; bit++) {
+            lat |= ((hash >> (2 * bit)) & 1) << bit;
+            lon |= ((hash >> (2 * bit + 1)) & 1) << bit;
+        }
+        double cells = 1L << GEO_STEP;
+        return new double[]{
+                -GEO_LAT_LIMIT + (lat + 0.5) * (2 * GEO_LAT_LIMIT) / cells,
+                -180 + (lon + 0.5) * 360 / cells};
+    }
+
+    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.pow(Math.sin(dLat / 2), 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.pow(Math.sin(dLon / 2), 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(a));
+    }
+
+    protected static String str(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected static void writeError(OutputStream out, String message) throws IOException {
+        out.write(('-' + message + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected static void writeInt(OutputStream out, long value) throws IOException {
+        out.write((":" + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    protected static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write(NIL);
+            return;
+        }
+        out.write(("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(value);
+        out.write('\r');
+        out.write('\n');
+    }
+
+    protected static void writeArrayHeader(OutputStream out, int size) throws IOException {
+        out.write(("*" + size + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    protected static void writeArray(OutputStream out, List<byte[]> values) throws IOException {
+        writeArrayHeader(out, values.size());
+        for (byte[] value : values) {
+            writeBulk(out, value);
+        }
+    }
+
+    private byte[] get(String key) {
+        Value value = strings.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value.expiresAt() < now()) {
+            strings.remove(key, value);
+            return null;
+        }
+        return value.bytes();
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static Pattern globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            switch (c) {
+                case '*' -> regex.append(".*");
+                case '?' -> regex.append('.');
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return null;
+        }
+        if (type != '*') {
+            throw new IOException("Inline commands are not supported");
+        }
+        int count = (int) readLong(in);
+        List<byte[]> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected bulk string");
+            }
+            int length = (int) readLong(in);
+            byte[] arg = in.readNBytes(length);
+            in.skipNBytes(2);
+            args.add(arg);
+        }
+        return args;
+    }
+
+    private static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            if (c == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+
+    private record Value(byte[] bytes, long expiresAt) {
+    }
+
+    private record Scored(double score, String member) implements Comparable<Scored> {
+        @Override
+        public int compareTo(Scored other) {
+            int c = Double.compare(score, other.score);
+            return c != 0 ? c : member.compareTo(other.member);
+        }
+    }
+
+    private static final class SortedSet {
+
+        private final Map<String, Double> scores = new HashMap<>();
+        private final TreeSet<Scored> ordered = new TreeSet<>();
+
+        synchronized boolean add(double score, String member) {
+            Double previous = scores.put(member, score);
+            if (previous != null) {
+                ordered.remove(new Scored(previous, member));
+            }
+            ordered.add(new Scored(score, member));
+            return previous == null;
+        }
+
+        synchronized boolean remove(String member) {
+            Double previous = scores.remove(member);
+            if (previous == null) {
+                return false;
+            }
+            ordered.remove(new Scored(previous, member));
+            return true;
+        }
+
+        synchronized int size() {
+            return scores.size();
+        }
+
+        synchronized Double score(String member) {
+            return scores.get(member);
+        }
+
+        synchronized List<Scored> all() {
+            return new ArrayList<>(ordered);
+        }
+
+        synchronized List<String> range(String min, String max) {
+            List<String> members = new ArrayList<>();
+            for (Scored scored : ordered) {
+                if (!aboveMin(scored.score(), min)) {
+                    continue;
+                }
+                if (!belowMax(scored.score(), max)) {
+                    break;
+                }
+                members.add(scored.member());
+            }
+            return members;
+        }
+
+        synchronized int removeRange(String min, String max) {
+            List<String> members = range(min, max);
+            members.forEach(this::remove);
+            return members.size();
+        }
+
+        private static boolean aboveMin(double score, String bound) {
+            return bound.startsWith("(") ? score > parse(bound.substring(1)) : score >= parse(bound);
+        }
+
+        private static boolean belowMax(double score, String bound) {
+            return bound.startsWith("(") ? score < parse(bound.substring(1)) : score <= parse(bound);
+        }
+
+        private static double parse(String bound) {
+            return switch (bound.toLowerCase()) {
+                case "-inf", "-infinity" -> Double.NEGATIVE_INFINITY;
+                case "+inf", "inf", "infinity", "+infinity" -> Double.POSITIVE_INFINITY;
+                default -> Double.parseDouble(bound);
+            };
+        }
+    }
+}
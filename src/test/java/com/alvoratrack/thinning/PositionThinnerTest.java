@@ -0,0 +1,157 @@
+package com.alvoratrack.thinning;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import com.alvoratrack.util.CoarseClock;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PositionThinnerTest {
+
+    // About 11 m per second at 40 km/h
+    private static final double STEP = 0.0001;
+
+    private final List<VehiclePosition> forwarded = new ArrayList<>();
+    private final List<VehiclePosition> previous = new ArrayList<>();
+    private double latitude;
+    private double longitude;
+    private long timestamp;
+
+    @BeforeEach
+    void setUp() {
+        latitude = 30.0;
+        longitude = 31.0;
+        timestamp = 1_000;
+    }
+
+    @Test
+    void parkedVehicleOnlySendsHeartbeats() {
+        PositionThinner thinner = thinner(0);
+        Random random = new Random(5);
+        for (int i = 0; i < 600; i++) {
+            // A couple of meters of jitter
+            double noise = (random.nextDouble() - 0.5) * 0.00004;
+            thinner.offer(position(latitude + noise, longitude, 0, 0).build());
+        }
+
+        assertEquals(List.of(1000L, 1060L, 1120L, 1180L, 1240L, 1300L, 1360L, 1420L, 1480L, 1540L), timestamps());
+        assertEquals(1 - 10 / 600.0, thinner.reductionRatio(), 1e-9);
+    }
+
+    @Test
+    void straightRunsAreSentAsTheirEnds() {
+        PositionThinner thinner = thinner(10);
+        drive(thinner, 60, STEP, 0, 0);
+        drive(thinner, 60, 0, STEP, 90);
+        assertEquals(List.of(1000L, 1060L), timestamps());
+
+        // The end of the second leg goes out once the vehicle has gone quiet
+        long now = CoarseClock.currentTimeMillis();
+        thinner.sweep(now, now - Duration.ofHours(1).toMillis());
+        assertEquals(List.of(1000L, 1060L), timestamps());
+        thinner.sweep(now + 61_000, now - Duration.ofHours(1).toMillis());
+        assertEquals(List.of(1000L, 1060L, 1119L), timestamps());
+    }
+
+    @Test
+    void dropsPoorFixesAndSendsChangesAtOnce() {
+        PositionThinner thinner = thinner(0);
+        thinner.offer(position(latitude, longitude, 0, 0).build());
+        // 300 m jumps, but badly inaccurate or from too few satellites
+        thinner.offer(position(latitude + 0.0027, longitude, 0, 0).setAccuracy(400).build());
+        thinner.offer(position(latitude - 0.0027, longitude, 0, 0).setSatellites(2).build());
+        // A move no larger than the fix's own accuracy
+        thinner.offer(position(latitude + 0.0003, longitude, 0, 0).setAccuracy(50).build());
+        assertEquals(List.of(1000L), timestamps());
+
+        thinner.offer(position(latitude, longitude, 0, 0).setIgnition(true).build());
+        thinner.offer(position(latitude, longitude, 25, 0).setIgnition(true).build());
+        drive(thinner, 3, STEP, 0, 25);
+        assertEquals(List.of(1000L, 1004L, 1005L, 1006L, 1007L, 1008L), timestamps());
+    }
+
+    @Test
+    void backfillIsThinnedOnItsOwnTrack() {
+        PositionThinner thinner = thinner(10);
+        timestamp = 5_000;
+        thinner.offer(position(latitude, longitude, 40, 0).build());
+
+        // Uploaded after the live position, from a device that lost coverage
+        timestamp = 1_000;
+        drive(thinner, 60, STEP, 0, 0);
+        assertEquals(List.of(5000L, 1000L), timestamps());
+
+        // A repeat of the live position is still dropped
+        timestamp = 5_000;
+        thinner.offer(position(latitude, longitude, 40, 0).build());
+        assertEquals(List.of(5000L, 1000L), timestamps());
+
+        // An older batch flushes the end of the run and starts a new one
+        timestamp = 800;
+        drive(thinner, 30, STEP, 0, 0);
+        assertEquals(List.of(5000L, 1000L, 1059L, 800L), timestamps());
+
+        long now = CoarseClock.currentTimeMillis();
+        thinner.sweep(now + 61_000, now - Duration.ofHours(1).toMillis());
+        assertEquals(List.of(5000L, 1000L, 1059L, 800L, 829L), timestamps());
+    }
+
+    @Test
+    void handsOverThePreviousPositionForwarded() {
+        PositionThinner thinner = thinner(0);
+        VehiclePosition indexed = position(latitude, longitude, 0, 0).build();
+        thinner.offer(position(latitude, longitude, 0, 0).build(), indexed);
+        thinner.offer(position(latitude + 0.001, longitude, 0, 0).build(), indexed);
+        assertSame(indexed, previous.get(0));
+        assertSame(forwarded.get(0), previous.get(1));
+
+        PositionThinner disabled = new PositionThinner("test", PositionThinner.Settings.disabled(),
+                new SimpleMeterRegistry(), (position, before) -> previous.add(before));
+        disabled.offer(indexed);
+        disabled.offer(indexed);
+        assertNull(previous.get(2));
+        assertEquals(0, disabled.reductionRatio());
+    }
+
+    private PositionThinner thinner(double toleranceMeters) {
+        PositionThinner.Settings settings = new PositionThinner.Settings(true, 5, 0, 10, toleranceMeters,
+                Duration.ZERO, Duration.ofSeconds(60), 100, 4);
+        return new PositionThinner("test", settings, new SimpleMeterRegistry(), (position, before) -> {
+            forwarded.add(position);
+            previous.add(before);
+        });
+    }
+
+    private void drive(PositionThinner thinner, int seconds, double north, double east, int bearing) {
+        for (int i = 0; i < seconds; i++) {
+            latitude += north;
+            longitude += east;
+            thinner.offer(position(latitude, longitude, 40, bearing).build());
+        }
+    }
+
+    private VehiclePosition.Builder position(double lat, double lon, double speedKph, int bearing) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId("bus-1")
+                .setLatitude(lat)
+                .setLongitude(lon)
+                .setSpeedKph(speedKph)
+                .setBearing(bearing)
+                .setAccuracy(5)
+                .setSatellites(9)
+                .setTimestamp(timestamp++);
+    }
+
+    private List<Long> timestamps() {
+        return forwarded.stream().map(VehiclePosition::getTimestamp).toList();
+    }
+}
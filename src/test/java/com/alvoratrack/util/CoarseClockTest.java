@@ -0,0 +1,35 @@
+package com.alvoratrack.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoarseClockTest {
+
+    @Test
+    void ticksBetweenStartAndStop() throws InterruptedException {
+        CoarseClock clock = new CoarseClock();
+        clock.start();
+        Thread ticker = clock.ticker;
+        clock.start();
+        assertSame(ticker, clock.ticker);
+        try {
+            Thread.sleep(50);
+            long drift = System.currentTimeMillis() - CoarseClock.currentTimeMillis();
+            assertTrue(drift >= 0 && drift <= 10 * CoarseClock.TICK_MILLIS, "drift " + drift);
+        } finally {
+            clock.stop();
+        }
+
+        assertFalse(ticker.isAlive());
+        assertNull(clock.ticker);
+        Thread.sleep(50);
+        long before = System.currentTimeMillis();
+        long read = CoarseClock.currentTimeMillis();
+        assertTrue(read >= before, "read a stale tick after stop");
+        clock.stop();
+    }
+}
@@ -0,0 +1,115 @@
+package com.alvoratrack.util;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static com.alvoratrack.util.IngestFilter.Verdict.ACCEPT;
+import static com.alvoratrack.util.IngestFilter.Verdict.DUPLICATE;
+import static com.alvoratrack.util.IngestFilter.Verdict.RATE_LIMITED;
+import static com.alvoratrack.util.IngestFilter.Verdict.STALE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IngestFilterTest {
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private IngestFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        filter = new IngestFilter();
+        filter.registry = meters;
+        filter.enabled = true;
+        filter.stripeCount = 4;
+        filter.rateLimitEnabled = true;
+        filter.perSecond = 1;
+        filter.burst = 3;
+        filter.idleAfter = Duration.ofMinutes(10);
+        filter.init();
+    }
+
+    @Test
+    void dropsDuplicatesAndStaleFixes() {
+        assertEquals(ACCEPT, filter.check(position("bus-1", 100, 30.0)));
+        assertEquals(DUPLICATE, filter.check(position("bus-1", 100, 30.0)));
+        assertEquals(STALE, filter.check(position("bus-1", 99, 30.1)));
+        // Same second, somewhere else: a second fix, not a repeat
+        assertEquals(ACCEPT, filter.check(position("bus-1", 100, 30.1)));
+        assertEquals(DUPLICATE, filter.check(position("bus-1", 100, 30.1)));
+        assertEquals(ACCEPT, filter.check(position("bus-1", 101, 30.2)));
+        assertEquals(ACCEPT, filter.check(position("bus-2", 50, 30.0)));
+
+        assertEquals(2.0, meters.get("tracker.ingest.filter.dropped").tag("reason", "duplicate").counter().count());
+        assertEquals(1.0, meters.get("tracker.ingest.filter.dropped").tag("reason", "stale").counter().count());
+    }
+
+    @Test
+    void repeatsKeepAVehicleFromBeingSwept() throws InterruptedException {
+        assertEquals(ACCEPT, filter.check(position("bus-1", 100, 30.0)));
+        assertEquals(ACCEPT, filter.check(position("bus-2", 100, 30.0)));
+        Thread.sleep(50);
+        assertEquals(DUPLICATE, filter.check(position("bus-1", 100, 30.0)));
+        assertEquals(STALE, filter.check(position("bus-2", 99, 30.0)));
+
+        filter.idleAfter = Duration.ofMillis(40);
+        filter.sweep();
+        assertEquals(2, filter.size());
+        // Still known, so the repeat is still caught
+        assertEquals(DUPLICATE, filter.check(position("bus-1", 100, 30.0)));
+    }
+
+    @Test
+    void batchesMayBackfillButNotRepeat() {
+        assertEquals(ACCEPT, filter.check(position("bus-1", 100, 30.0)));
+        // Older than the live fix, but never delivered
+        assertEquals(ACCEPT, filter.checkBatch(position("bus-1", 50, 30.0)));
+        assertEquals(ACCEPT, filter.checkBatch(position("bus-1", 60, 30.0)));
+        assertEquals(ACCEPT, filter.checkBatch(position("bus-1", 60, 30.1)));
+        // The same batch again
+        assertEquals(DUPLICATE, filter.checkBatch(position("bus-1", 50, 30.0)));
+        assertEquals(DUPLICATE, filter.checkBatch(position("bus-1", 60, 30.1)));
+        // The live fix itself
+        assertEquals(DUPLICATE, filter.checkBatch(position("bus-1", 100, 30.0)));
+        // Batches spend no tokens
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ACCEPT, filter.checkBatch(position("bus-1", 200 + i, 30.0)));
+        }
+        assertEquals(ACCEPT, filter.check(position("bus-1", 300, 30.0)));
+    }
+
+    @Test
+    void limitsEachVehicleToItsBucket() {
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(ACCEPT, filter.check(position("truck-1", i, 30.0)));
+        }
+        assertEquals(RATE_LIMITED, filter.check(position("truck-1", 4, 30.0)));
+        assertEquals(ACCEPT, filter.check(position("truck-2", 4, 30.0)));
+    }
+
+    @Test
+    void keepsStateAcrossGrowthAndSweepsIdleVehicles() {
+        for (int i = 0; i < 5_000; i++) {
+            assertEquals(ACCEPT, filter.check(position("veh-" + i, 10, 30.0)));
+        }
+        assertEquals(5_000, filter.size());
+        for (int i = 0; i < 5_000; i++) {
+            assertEquals(DUPLICATE, filter.check(position("veh-" + i, 10, 30.0)));
+        }
+
+        filter.idleAfter = Duration.ofNanos(-1);
+        filter.sweep();
+        assertEquals(0, filter.size());
+    }
+
+    private static VehiclePosition position(String vehicleId, long timestamp, double latitude) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setTimestamp(timestamp)
+                .setLatitude(latitude)
+                .setLongitude(31.0)
+                .build();
+    }
+}
@@ -0,0 +1,123 @@
+package com.alvoratrack.websocket;
+
+import com.alvoratrack.geo.BoundingBox;
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdminFleetBroadcasterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Vertx vertx = Vertx.vertx();
+    private ConnectionManager connections;
+    private AdminFleetBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        connections = new ConnectionManager();
+        connections.registry = registry;
+        connections.vehicleQueueCapacity = 64;
+        connections.vehicleOverflowPolicy = "conflate";
+        connections.adminQueueCapacity = 16;
+        connections.adminOverflowPolicy = "drop-oldest";
+        connections.init();
+
+        broadcaster = new AdminFleetBroadcaster();
+        broadcaster.connections = connections;
+        broadcaster.vertx = vertx;
+        broadcaster.registry = registry;
+        // Flushed by hand
+        broadcaster.tickMillis = 60_000;
+        broadcaster.snapshotLimit = 100;
+        broadcaster.onStart(null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.stop();
+        vertx.close().toCompletionStage().toCompletableFuture().join();
+    }
+
+    @Test
+    void coalescesEachVehicleToOnePositionPerTick() {
+        FakeConnection dashboard = new FakeConnection("admin-1", true);
+        FakeConnection other = new FakeConnection("admin-2", true);
+        connections.registerAdmin(dashboard.proxy);
+        connections.registerAdmin(other.proxy);
+
+        broadcaster.submit(position("bus-1", 30.01, 1), null);
+        broadcaster.submit(position("bus-1", 30.02, 2), position("bus-1", 30.01, 1));
+        broadcaster.submit(position("bus-2", 30.05, 2), null);
+        broadcaster.submit(position("bus-1", 30.03, 3), position("bus-1", 30.02, 2));
+        broadcaster.flush();
+
+        assertEquals(1, dashboard.sent.size());
+        String frame = dashboard.sent.get(0);
+        assertEquals(2, count(frame, "\"vehicleId\""));
+        assertTrue(frame.contains("\"latitude\":30.03"));
+        assertFalse(frame.contains("\"latitude\":30.01"));
+        // Dashboards without a viewport share one encoded frame
+        assertEquals(List.copyOf(dashboard.sent), List.copyOf(other.sent));
+        assertEquals(1, registry.counter("tracker.admin.fleet.frames").count());
+        assertEquals(2, registry.counter("tracker.admin.fleet.updates", "outcome", "coalesced").count());
+        assertEquals(2, registry.summary("tracker.admin.fleet.batch.size").totalAmount());
+
+        // Nothing pending, nothing sent
+        broadcaster.flush();
+        assertEquals(1, dashboard.sent.size());
+    }
+
+    @Test
+    void viewportsGetTheirVehiclesAndHearWhenOneLeaves() {
+        FakeConnection dashboard = new FakeConnection("admin-1", true);
+        connections.registerAdmin(dashboard.proxy);
+        connections.setAdminViewport(dashboard.proxy, new Viewport(new BoundingBox(30, 31, 30.1, 31.1), null));
+
+        broadcaster.submit(position("bus-1", 30.05, 1), null);
+        broadcaster.submit(position("bus-2", 40.0, 1), null);
+        broadcaster.flush();
+        broadcaster.submit(position("bus-1", 31.0, 2), position("bus-1", 30.05, 1));
+        broadcaster.flush();
+
+        assertEquals(2, dashboard.sent.size());
+        assertTrue(dashboard.sent.get(0).contains("\"vehicleId\":\"bus-1\""));
+        assertFalse(dashboard.sent.get(0).contains("bus-2"));
+        assertTrue(dashboard.sent.get(1).endsWith("\"positions\":[],\"left\":[\"bus-1\"]}"));
+        assertEquals(2, registry.counter("tracker.admin.fleet.updates", "outcome", "filtered").count());
+    }
+
+    @Test
+    void dropsUpdatesWhileNoDashboardIsConnected() {
+        broadcaster.submit(position("bus-1", 30.05, 1), null);
+        broadcaster.flush();
+
+        assertEquals(1, registry.counter("tracker.admin.fleet.updates", "outcome", "dropped").count());
+        assertEquals(0, registry.counter("tracker.admin.fleet.frames").count());
+    }
+
+    private static VehiclePosition position(String vehicleId, double latitude, long timestamp) {
+        return VehiclePosition.newBuilder()
+                .setVehicleId(vehicleId)
+                .setLatitude(latitude)
+                .setLongitude(31.05)
+                .setTimestamp(timestamp)
+                .build();
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int at = text.indexOf(part); at >= 0; at = text.indexOf(part, at + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
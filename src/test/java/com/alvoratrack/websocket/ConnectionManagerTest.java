@@ -0,0 +1,111 @@
+package com.alvoratrack.websocket;
+
+import com.alvoratrack.grpc.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionManagerTest {
+
+    private ConnectionManager connections;
+
+    @BeforeEach
+    void setUp() {
+        connections = new ConnectionManager();
+        connections.registry = new SimpleMeterRegistry();
+        connections.vehicleQueueCapacity = 64;
+        connections.vehicleOverflowPolicy = "conflate";
+        connections.adminQueueCapacity = 16;
+        connections.adminOverflowPolicy = "drop-oldest";
+        connections.init();
+    }
+
+    @Test
+    void countsEachConnectionOnce() {
+        FakeConnection first = new FakeConnection("c1", true);
+        FakeConnection second = new FakeConnection("c2", true);
+        FakeConnection admin = new FakeConnection("c3", true);
+
+        connections.registerVehicle("bus-1", first.proxy);
+        // Registering again, or unregistering what is not there, changes nothing
+        connections.registerVehicle("bus-1", first.proxy);
+        connections.unregisterVehicle("bus-2", first.proxy);
+        connections.registerVehicle("bus-1", second.proxy);
+        connections.registerAdmin(admin.proxy);
+        connections.registerAdmin(admin.proxy);
+        assertEquals(3, connections.getConnectionCount());
+        assertEquals(1, connections.getAdminFleetConnectionCount());
+
+        connections.unregisterVehicle("bus-1", first.proxy);
+        connections.unregisterVehicle("bus-1", first.proxy);
+        assertTrue(connections.hasVehicleSubscribers("bus-1"));
+        connections.unregisterVehicle("bus-1", second.proxy);
+        assertFalse(connections.hasVehicleSubscribers("bus-1"));
+        connections.unregisterAdmin(admin.proxy);
+        connections.unregisterAdmin(admin.proxy);
+        assertEquals(0, connections.getConnectionCount());
+        assertEquals(0, connections.getAdminFleetConnectionCount());
+    }
+
+    @Test
+    void concurrentRegistrationsBalanceOut() throws Exception {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 2_000; i++) {
+                    // Threads share vehicles, so entries are created and removed under contention
+                    FakeConnection connection = new FakeConnection("t" + thread + "-" + i, true);
+                    String vehicleId = "bus-" + i % 4;
+                    connections.registerVehicle(vehicleId, connection.proxy);
+                    connections.registerAdmin(connection.proxy);
+                    connections.unregisterVehicle(vehicleId, connection.proxy);
+                    connections.unregisterAdmin(connection.proxy);
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(0, connections.getConnectionCount());
+        for (int i = 0; i < 4; i++) {
+            assertFalse(connections.hasVehicleSubscribers("bus-" + i));
+        }
+    }
+
+    @Test
+    void sendsPositionsOnlyToTheVehiclesSubscribers() {
+        FakeConnection bus1 = new FakeConnection("c1", true);
+        FakeConnection bus2 = new FakeConnection("c2", true);
+        connections.registerVehicle("bus-1", bus1.proxy);
+        connections.registerVehicle("bus-2", bus2.proxy);
+
+        connections.sendPosition(VehiclePosition.newBuilder()
+                .setVehicleId("bus-1")
+                .setLatitude(30.0444)
+                .setLongitude(31.2357)
+                .setTimestamp(1)
+                .build());
+
+        assertEquals(1, bus1.sent.size());
+        assertTrue(bus1.sent.get(0).contains("\"vehicleId\":\"bus-1\""));
+        assertTrue(bus2.sent.isEmpty());
+    }
+}
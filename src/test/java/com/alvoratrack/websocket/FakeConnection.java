@@ -0,0 +1,96 @@
+package com.alvoratrack.websocket;
+
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A {@link WebSocketConnection} whose writes complete when the test says
+ * so: synchronously, from a queue the test drains, or on another thread,
+ * sometimes before {@code sendText} has returned.
+ */
+final class FakeConnection {
+
+    final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    final AtomicBoolean closed = new AtomicBoolean();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    final BlockingQueue<UniEmitter<? super Void>> pending = new LinkedBlockingQueue<>();
+    final boolean synchronous;
+    final WebSocketConnection proxy;
+    ExecutorService completeOn;
+
+    FakeConnection(boolean synchronous) {
+        this("fake", synchronous);
+    }
+
+    FakeConnection(String id, boolean synchronous) {
+        this.synchronous = synchronous;
+        proxy = (WebSocketConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{WebSocketConnection.class}, (self, method, args) -> switch (method.getName()) {
+                    case "sendText" -> send((String) args[0]);
+                    case "close" -> {
+                        closed.set(true);
+                        yield Uni.createFrom().voidItem();
+                    }
+                    case "id" -> id;
+                    case "isClosed" -> closed.get();
+                    case "hashCode" -> System.identityHashCode(self);
+                    case "equals" -> self == args[0];
+                    case "toString" -> "FakeConnection " + id;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private Uni<Void> send(String text) {
+        return Uni.createFrom().emitter(emitter -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sent.add(text);
+            if (synchronous) {
+                complete(emitter, false);
+            } else if (completeOn != null) {
+                if (ThreadLocalRandom.current().nextBoolean()) {
+                    complete(emitter, false);
+                } else {
+                    completeOn.execute(() -> complete(emitter, false));
+                }
+            } else {
+                pending.add(emitter);
+            }
+        });
+    }
+
+    void completeNext(boolean fail) {
+        UniEmitter<? super Void> emitter = pending.poll();
+        assertTrue(emitter != null, "no write in flight");
+        complete(emitter, fail);
+    }
+
+    void completeAll() {
+        while (!pending.isEmpty()) {
+            completeNext(false);
+        }
+    }
+
+    private void complete(UniEmitter<? super Void> emitter, boolean fail) {
+        inFlight.decrementAndGet();
+        if (fail) {
+            emitter.fail(new IllegalStateException("write failed"));
+        } else {
+            emitter.complete(null);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.alvoratrack.websocket;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundChannelTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService completer = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        completer.shutdownNow();
+        completer.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void writesThatCompleteOnTheCallingThreadDoNotRecurse() {
+        FakeConnection connection = new FakeConnection(true);
+        OutboundChannel.Settings settings = settings(OutboundChannel.OverflowPolicy.DROP_OLDEST, 10);
+        OutboundChannel channel = new OutboundChannel(connection.proxy, settings);
+
+        for (int i = 0; i < 100_000; i++) {
+            channel.offer(null, "m" + i);
+        }
+
+        assertEquals(100_000, connection.sent.size());
+        assertEquals("m99999", connection.sent.get(99_999));
+        assertEquals(100_000, settings.sent.count());
+        assertEquals(0, settings.depth.get());
+    }
+
+    @Test
+    void keepsOneWriteInFlightAndSendsTheQueueInOrder() {
+        FakeConnection connection = new FakeConnection(false);
+        OutboundChannel.Settings settings = settings(OutboundChannel.OverflowPolicy.DROP_OLDEST, 10);
+        OutboundChannel channel = new OutboundChannel(connection.proxy, settings);
+
+        channel.offer(null, "a");
+        channel.offer(null, "b");
+        channel.offer(null, "c");
+        assertEquals(List.of("a"), connection.sent);
+        assertEquals(2, settings.depth.get());
+
+        connection.completeNext(false);
+        assertEquals(List.of("a", "b"), connection.sent);
+        // A failed write still moves on to the next message
+        connection.completeNext(true);
+        connection.completeNext(false);
+        assertEquals(List.of("a", "b", "c"), connection.sent);
+        assertEquals(2, settings.sent.count());
+        assertEquals(1, settings.failed.count());
+        assertEquals(0, settings.depth.get());
+
+        channel.offer(null, "d");
+        assertEquals(List.of("a", "b", "c", "d"), connection.sent);
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestMessages() {
+        FakeConnection connection = new FakeConnection(false);
+        OutboundChannel.Settings settings = settings(OutboundChannel.OverflowPolicy.DROP_OLDEST, 2);
+        OutboundChannel channel = new OutboundChannel(connection.proxy, settings);
+
+        for (String text : List.of("a", "b", "c", "d")) {
+            channel.offer("bus-1", text);
+        }
+        assertEquals(1, settings.dropped.count());
+        assertEquals(2, settings.depth.get());
+
+        connection.completeAll();
+        assertEquals(List.of("a", "c", "d"), connection.sent);
+        assertFalse(connection.closed.get());
+    }
+
+    @Test
+    void conflateReplacesTheQueuedMessageForTheSameKey() {
+        FakeConnection connection = new FakeConnection(false);
+        OutboundChannel.Settings settings = settings(OutboundChannel.OverflowPolicy.CONFLATE, 2);
+        OutboundChannel channel = new OutboundChannel(connection.proxy, settings);
+
+        channel.offer("bus-1", "bus-1@1");
+        channel.offer("bus-1", "bus-1@2");
+        channel.offer("bus-2", "bus-2@1");
+        channel.offer("bus-1", "bus-1@3");
+        // Unkeyed messages are never conflated
+        channel.offer(null, "snapshot");
+        assertEquals(1, settings.conflated.count());
+        // Full, so the oldest queued message made way
+        assertEquals(1, settings.dropped.count());
+
+        connection.completeAll();
+        assertEquals(List.of("bus-1@1", "bus-1@3", "snapshot"), connection.sent);
+    }
+
+    @Test
+    void disconnectClosesASlowConnectionAndIgnoresLaterMessages() {
+        FakeConnection connection = new FakeConnection(false);
+        OutboundChannel.Settings settings = settings(OutboundChannel.OverflowPolicy.DISCONNECT, 2);
+        OutboundChannel channel = new OutboundChannel(connection.proxy, settings);
+
+        for (String text : List.of("a", "b", "c", "d", "e")) {
+            channel.offer(null, text);
+        }
+        assertTrue(connection.closed.get());
+        assertEquals(1, settings.disconnected.count());
+        assertEquals(0, settings.depth.get());
+
+        connection.completeAll();
+        assertEquals(List.of("a"), connection.sent);
+    }
+
+    @Test
+    void concurrentOffersAndCompletionsSendEverythingOnceWithOneWriteInFlight() throws Exception {
+        int threads = 4;
+        int perThread = 20_000;
+        FakeConnection connection = new FakeConnection(false);
+        connection.completeOn = completer;
+        OutboundChannel.Settings settings = settings(OutboundChannel.OverflowPolicy.DROP_OLDEST, threads * perThread);
+        OutboundChannel channel = new OutboundChannel(connection.proxy, settings);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String prefix = "t" + t + ":";
+            Thread producer = Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    channel.offer(null, prefix + i);
+                }
+            });
+            producers.add(producer);
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (connection.sent.size() < threads * perThread) {
+            assertTrue(System.nanoTime() < deadline, "timed out with " + connection.sent.size() + " sent");
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, connection.maxInFlight.get());
+        assertEquals(threads * perThread, (long) settings.sent.count());
+        assertEquals(0, settings.depth.get());
+        // Each producer's messages go out in the order it offered them
+        int[] next = new int[threads];
+        for (String text : List.copyOf(connection.sent)) {
+            int thread = text.charAt(1) - '0';
+            assertEquals("t" + thread + ":" + next[thread]++, text);
+        }
+    }
+
+    private OutboundChannel.Settings settings(OutboundChannel.OverflowPolicy policy, int capacity) {
+        return new OutboundChannel.Settings("test", capacity, policy, registry);
+    }
+}